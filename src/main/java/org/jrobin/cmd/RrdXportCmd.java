@@ -77,6 +77,9 @@ class RrdXportCmd extends RrdToolCmd implements RrdGraphConstants {
 	}
 
 	private String xport(boolean enumds) throws IOException, RrdException {
+		for (XPort xport : xports) {
+			dproc.addOutputSource(xport.name);
+		}
 		dproc.processData();
 		long[] timestamps = dproc.getTimestamps();
 		for (XPort xport : xports) {
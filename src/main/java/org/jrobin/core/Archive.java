@@ -276,6 +276,10 @@ public class Archive implements RrdUpdater, ConsolFuns {
 	}
 
 	FetchData fetchData(final FetchRequest request) throws IOException, RrdException {
+		return fetchData(request, null);
+	}
+
+	FetchData fetchData(final FetchRequest request, final FetchData previous) throws IOException, RrdException {
 	    final long arcStep = getArcStep();
 		final long fetchStart = Util.normalize(request.getFetchStart(), arcStep);
 		long fetchEnd = Util.normalize(request.getFetchEnd(), arcStep);
@@ -294,11 +298,24 @@ public class Archive implements RrdUpdater, ConsolFuns {
 		final double[][] values = new double[dsCount][ptsCount];
 		final long matchStartTime = Math.max(fetchStart, startTime);
 		final long matchEndTime = Math.min(fetchEnd, endTime);
+		// rows before readStartTime are copied from the previous fetch
+		long readStartTime = matchStartTime;
+		double[][] previousValues = null;
+		if (matchStartTime <= matchEndTime && isReusable(previous, dsToFetch) &&
+				previous.getFirstTimestamp() <= matchStartTime) {
+			// rows up to the previous archive end time were complete and may be copied
+			readStartTime = Math.max(matchStartTime,
+					Math.min(previous.getArcEndTime(), previous.getLastTimestamp()) + arcStep);
+			previousValues = new double[dsCount][];
+			for (int i = 0; i < dsCount; i++) {
+				previousValues[i] = previous.getValues(previous.getDsIndex(dsToFetch[i]));
+			}
+		}
 		double[][] robinValues = null;
-		if (matchStartTime <= matchEndTime) {
+		if (readStartTime <= matchEndTime) {
 			// preload robin values
-		    final int matchCount = (int) ((matchEndTime - matchStartTime) / arcStep + 1);
-			final int matchStartIndex = (int) ((matchStartTime - startTime) / arcStep);
+		    final int matchCount = (int) ((matchEndTime - readStartTime) / arcStep + 1);
+			final int matchStartIndex = (int) ((readStartTime - startTime) / arcStep);
 			robinValues = new double[dsCount][];
 			for (int i = 0; i < dsCount; i++) {
 			    final int dsIndex = parentDb.getDsIndex(dsToFetch[i]);
@@ -310,9 +327,14 @@ public class Archive implements RrdUpdater, ConsolFuns {
 		    timestamps[ptIndex] = time;
 			for (int i = 0; i < dsCount; i++) {
 				double value = Double.NaN;
-				if (time >= matchStartTime && time <= matchEndTime) {
+				if (time >= matchStartTime && time < readStartTime) {
+					// copied from the previous fetch
+					assert previousValues != null;
+					value = previousValues[i][(int) ((time - previous.getFirstTimestamp()) / arcStep)];
+				}
+				else if (time >= readStartTime && time <= matchEndTime) {
 					// inbound time
-					final int robinValueIndex = (int) ((time - matchStartTime) / arcStep);
+					final int robinValueIndex = (int) ((time - readStartTime) / arcStep);
 					assert robinValues != null;
 					value = robinValues[i][robinValueIndex];
 				}
@@ -325,6 +347,26 @@ public class Archive implements RrdUpdater, ConsolFuns {
 		return fetchData;
 	}
 
+	// previous data must come from this archive, not from an older version of the RRD
+	private boolean isReusable(final FetchData previous, final String[] dsToFetch) throws IOException {
+		if (previous == null || previous.getRowCount() == 0 || previous.getArcStep() != getArcStep() ||
+				previous.getArcEndTime() > getEndTime()) {
+			return false;
+		}
+		final FetchRequest previousRequest = previous.getRequest();
+		final RrdDb previousDb = previousRequest.getParentDb();
+		if (!previousRequest.getConsolFun().equals(getConsolFun()) || !previousDb.getPath().equals(parentDb.getPath()) ||
+				previousDb.getRrdBackend().getClass() != parentDb.getRrdBackend().getClass()) {
+			return false;
+		}
+		for (final String dsName : dsToFetch) {
+			if (previous.getDsIndex(dsName) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	void appendXml(final XmlWriter writer) throws IOException {
 		writer.startTag("rra");
 		writer.writeTag("cf", consolFun.get());
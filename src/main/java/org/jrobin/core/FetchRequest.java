@@ -184,6 +184,23 @@ public class FetchRequest {
 		return parentDb.fetchData(this);
 	}
 
+	/**
+	 * Returns data from the underlying RRD like {@link #fetchData()}, but copies rows already
+	 * fetched by a previous request instead of reading them again. This is useful when the same
+	 * datasources are fetched repeatedly for a time span sliding with time: only rows archived
+	 * after the previous fetch are read. Rows are copied only if the previous data comes from the
+	 * archive matching this request and starts no later than this request; the RRD may have been
+	 * updated in the meantime, but not re-created.
+	 *
+	 * @param previous Data returned by a previous fetch request on the same RRD, or null
+	 * @return FetchData object filled with timestamps and datasource values.
+	 * @throws RrdException Thrown in case of JRobin specific error.
+	 * @throws IOException  Thrown in case of I/O error.
+	 */
+	public FetchData fetchData(FetchData previous) throws RrdException, IOException {
+		return parentDb.fetchData(this, previous);
+	}
+
 	/**
 	 * Returns the underlying RrdDb object.
 	 *
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encodes robin values, stored as big-endian doubles, into a compact bit stream. Each value is XOR-ed
+ * with the previous value which is not NaN: an unchanged value takes a single bit, and slowly changing
+ * values take only the bits which differ. Runs of NaN values take ten bits per 128 values.
+ * <p>
+ * Control bits of each value:
+ * <ul>
+ * <li><code>0</code>: same as the previous value
+ * <li><code>10</code>: differing bits within the window of the previous value, then these bits
+ * <li><code>110</code>: 5 bits of leading zeros, 6 bits of differing bits count (0 for 64), then these bits
+ * <li><code>111</code>: 7 bits of NaN count minus one
+ * </ul>
+ */
+final class RobinCodec {
+	private static final long NAN_BITS = Double.doubleToLongBits(Double.NaN);
+	private static final int MAX_NAN_RUN = 128;
+
+	private byte[] data;
+	private int position;
+	private int current, bitCount;
+
+	private RobinCodec(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Encodes values.
+	 *
+	 * @param raw	Bytes of values
+	 * @param offset Offset of the first value
+	 * @param count  Number of values
+	 * @return Encoded values
+	 */
+	static byte[] encode(byte[] raw, int offset, int count) {
+		RobinCodec writer = new RobinCodec(new byte[Math.max(16, count)]);
+		long previous = 0;
+		int previousLeading = -1, previousTrailing = 0;
+		for (int i = 0; i < count; ) {
+			long bits = getLong(raw, offset + 8 * i);
+			if (bits == NAN_BITS) {
+				int run = 1;
+				while (run < MAX_NAN_RUN && i + run < count && getLong(raw, offset + 8 * (i + run)) == NAN_BITS) {
+					run++;
+				}
+				writer.writeBits(7, 3);
+				writer.writeBits(run - 1, 7);
+				i += run;
+				continue;
+			}
+			long xor = bits ^ previous;
+			if (xor == 0) {
+				writer.writeBits(0, 1);
+			}
+			else {
+				int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				int trailing = Long.numberOfTrailingZeros(xor);
+				if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+					writer.writeBits(2, 2);
+					writer.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+				}
+				else {
+					int meaningful = 64 - leading - trailing;
+					writer.writeBits(6, 3);
+					writer.writeBits(leading, 5);
+					writer.writeBits(meaningful & 63, 6);
+					writer.writeBits(xor >>> trailing, meaningful);
+					previousLeading = leading;
+					previousTrailing = trailing;
+				}
+			}
+			previous = bits;
+			i++;
+		}
+		return writer.finish();
+	}
+
+	/**
+	 * Decodes values.
+	 *
+	 * @param encoded Encoded values
+	 * @param raw	 Array which receives bytes of values
+	 * @param offset  Offset of the first value
+	 * @param count   Number of values
+	 * @throws IOException Thrown if encoded values are invalid
+	 */
+	static void decode(byte[] encoded, byte[] raw, int offset, int count) throws IOException {
+		RobinCodec reader = new RobinCodec(encoded);
+		long previous = 0;
+		int leading = 0, trailing = 0;
+		for (int i = 0; i < count; ) {
+			if (reader.readBits(1) == 1) {
+				if (reader.readBits(1) == 0) {
+					previous ^= reader.readBits(64 - leading - trailing) << trailing;
+				}
+				else if (reader.readBits(1) == 0) {
+					leading = (int) reader.readBits(5);
+					int meaningful = (int) reader.readBits(6);
+					if (meaningful == 0) {
+						meaningful = 64;
+					}
+					trailing = 64 - leading - meaningful;
+					if (trailing < 0) {
+						throw new IOException("Invalid encoded robin values");
+					}
+					previous ^= reader.readBits(meaningful) << trailing;
+				}
+				else {
+					int run = (int) reader.readBits(7) + 1;
+					if (i + run > count) {
+						throw new IOException("Invalid encoded robin values");
+					}
+					for (int j = 0; j < run; j++) {
+						putLong(raw, offset + 8 * (i + j), NAN_BITS);
+					}
+					i += run;
+					continue;
+				}
+			}
+			putLong(raw, offset + 8 * i, previous);
+			i++;
+		}
+	}
+
+	private void writeBits(long value, int count) {
+		while (count > 0) {
+			int n = Math.min(8 - bitCount, count);
+			current = (current << n) | ((int) (value >>> (count - n)) & ((1 << n) - 1));
+			bitCount += n;
+			count -= n;
+			if (bitCount == 8) {
+				if (position == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+				data[position++] = (byte) current;
+				current = 0;
+				bitCount = 0;
+			}
+		}
+	}
+
+	private byte[] finish() {
+		if (bitCount > 0) {
+			writeBits(0, 8 - bitCount);
+		}
+		return Arrays.copyOf(data, position);
+	}
+
+	private long readBits(int count) throws IOException {
+		long result = 0;
+		while (count > 0) {
+			if (bitCount == 0) {
+				if (position == data.length) {
+					throw new IOException("Invalid encoded robin values");
+				}
+				current = data[position++] & 0xFF;
+				bitCount = 8;
+			}
+			int n = Math.min(bitCount, count);
+			result = (result << n) | ((current >>> (bitCount - n)) & ((1 << n) - 1));
+			bitCount -= n;
+			count -= n;
+		}
+		return result;
+	}
+
+	private static long getLong(byte[] b, int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (b[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static void putLong(byte[] b, int offset, long value) {
+		for (int i = 7; i >= 0; i--) {
+			b[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+}
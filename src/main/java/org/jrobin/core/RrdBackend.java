@@ -146,6 +146,31 @@ public abstract class RrdBackend {
 	public void close() throws IOException {
 	}
 
+	/**
+	 * Called before all writes of a single RRD update (see {@link Sample#update()}). Together with
+	 * {@link #afterUpdate()}, this method lets backends write all fields changed by the update at
+	 * once. Does nothing by default.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void beforeUpdate() throws IOException {
+	}
+
+	/**
+	 * Called after all writes of a single RRD update, if the update succeeded. Does nothing by default.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void afterUpdate() throws IOException {
+	}
+
+	/**
+	 * Called instead of {@link #afterUpdate()} if the update failed after some of its writes. Backends
+	 * holding the writes of the update may discard them. Does nothing by default.
+	 */
+	protected void abortUpdate() {
+	}
+
 	/**
 	 * This method suggests the caching policy to the JRobin frontend (high-level) classes. If <code>true</code>
 	 * is returned, frontent classes will cache frequently used parts of a RRD file in memory to improve
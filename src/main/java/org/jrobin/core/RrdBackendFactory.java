@@ -53,6 +53,18 @@ import java.util.HashMap;
  * <li>{@link RrdMemoryBackend}: objects of this class are created from the
  * {@link RrdMemoryBackendFactory} class. This backend stores all data in memory. Once
  * JVM exits, all data gets lost. The backend is extremely fast and memory hungry.
+ * <p>
+ * <li>{@link RrdOffHeapBackend}: objects of this class are created from the
+ * {@link RrdOffHeapBackendFactory} class. Like the memory backend, but data is stored outside of
+ * the Java heap and may be saved to a snapshot file and loaded back after a restart.
+ * <p>
+ * <li>{@link RrdCompressedBackend}: objects of this class are created from the
+ * {@link RrdCompressedBackendFactory} class. RRD files are stored compressed on the disk, and
+ * decompressed into memory while open. Suitable for RRD files which are rarely used.
+ * <p>
+ * <li>{@link RrdXorBackend}: objects of this class are created from the
+ * {@link RrdXorBackendFactory} class. Robin values are stored XOR encoded in the file, and decoded
+ * block by block when used.
  * </ul>
  * <p>
  * Each backend factory is identifed by its {@link #getFactoryName() name}. Constructors
@@ -79,6 +91,12 @@ public abstract class RrdBackendFactory {
 			registerFactory(safeFactory);
 			RrdNioByteBufferBackendFactory nioByteBufferFactory = new RrdNioByteBufferBackendFactory();
 			registerFactory(nioByteBufferFactory);
+			RrdOffHeapBackendFactory offHeapFactory = new RrdOffHeapBackendFactory();
+			registerFactory(offHeapFactory);
+			RrdCompressedBackendFactory compressedFactory = new RrdCompressedBackendFactory();
+			registerFactory(compressedFactory);
+			RrdXorBackendFactory xorFactory = new RrdXorBackendFactory();
+			registerFactory(xorFactory);
 			selectDefaultFactory();
 		}
 		catch (RrdException e) {
@@ -105,6 +123,8 @@ public abstract class RrdBackendFactory {
 	 *             java.nio.* package. RRD data is stored in files on the disk
 	 *             <li><b>MEMORY</b>: Factory which creates memory-oriented backends.
 	 *             RRD data is stored in memory, it gets lost as soon as JVM exits.
+	 *             <li><b>OFFHEAP</b>: Factory which creates memory-oriented backends
+	 *             storing RRD data outside of the Java heap, optionally saved to snapshot files.
 	 *             </ul>
 	 * @return Backend factory for the given factory name
 	 * @throws RrdException Thrown if no factory with the given name
@@ -165,7 +185,8 @@ public abstract class RrdBackendFactory {
 	 * @param factoryName Name of the default factory. Out of the box, JRobin supports four
 	 *                    different RRD backends: "FILE" (java.io.* based), "SAFE" (java.io.* based - use this
 	 *                    backend if RRD files may be accessed from several JVMs at the same time),
-	 *                    "NIO" (java.nio.* based) and "MEMORY" (byte[] based).
+	 *                    "NIO" (java.nio.* based), "MEMORY" (byte[] based) and "OFFHEAP" (direct
+	 *                    ByteBuffer based).
 	 * @throws RrdException Thrown if invalid factory name is supplied or not called before
 	 *                      the first RRD is created.
 	 */
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * JRobin backend which stores RRD files compressed on the disk. The whole file is decompressed into
+ * memory when the backend is created, and compressed back when the backend is closed, if modified.
+ * <p>
+ * The header and datasources of a RRD, and each of its archives, are compressed as separate blocks
+ * (with java.util.zip deflate), so that only blocks changed since the file was opened get compressed
+ * again. A RRD file should not be open more than once at the same time with this backend, the last
+ * one closed would overwrite changes made by the others.
+ */
+public class RrdCompressedBackend extends RrdBackend {
+	static final int SIGNATURE = 0x4a52425a; // "JRBZ"
+	private static final int VERSION = 1;
+
+	private byte[] image = new byte[0];
+	// blocks read from the file, by raw offset
+	private long[] blockOffsets = new long[0];
+	private int[] blockLengths = new int[0];
+	private byte[][] compressedBlocks = new byte[0][];
+	private final BitSet changedBlocks = new BitSet();
+	private boolean modified;
+
+	/**
+	 * Creates RrdCompressedBackend object for the given file path, and decompresses the file if it exists.
+	 *
+	 * @param path	 Path to a file
+	 * @param readOnly True, if file should be open in a read-only mode. False otherwise
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected RrdCompressedBackend(String path, boolean readOnly) throws IOException {
+		super(path, readOnly);
+		File file = new File(path);
+		if (file.exists()) {
+			readFile(file);
+		}
+	}
+
+	// compresses the given RRD bytes into the file when closed
+	RrdCompressedBackend(String path, byte[] image) {
+		super(path, false);
+		this.image = image;
+		this.modified = true;
+	}
+
+	/**
+	 * Writes bytes to the decompressed RRD.
+	 *
+	 * @param offset Starting offset
+	 * @param b	  Bytes to be written.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void write(long offset, byte[] b) throws IOException {
+		if (isReadOnly()) {
+			throw new IOException("RRD file " + getPath() + " is open in read-only mode");
+		}
+		if (offset + b.length > image.length) {
+			throw new IOException("Not enough bytes available in file " + getPath());
+		}
+		System.arraycopy(b, 0, image, (int) offset, b.length);
+		modified = true;
+		// blocks read from the file overlapping the written bytes
+		int first = Arrays.binarySearch(blockOffsets, offset);
+		if (first < 0) {
+			first = -first - 2;
+		}
+		for (int i = Math.max(first, 0); i < blockOffsets.length && blockOffsets[i] < offset + b.length; i++) {
+			changedBlocks.set(i);
+		}
+	}
+
+	/**
+	 * Reads bytes from the decompressed RRD.
+	 *
+	 * @param offset Starting offset
+	 * @param b	  Buffer which receives bytes read.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void read(long offset, byte[] b) throws IOException {
+		if (offset + b.length > image.length) {
+			throw new IOException("Not enough bytes available in file " + getPath());
+		}
+		System.arraycopy(image, (int) offset, b, 0, b.length);
+	}
+
+	/**
+	 * Returns the length of the decompressed RRD.
+	 *
+	 * @return Length of the decompressed RRD, in bytes
+	 */
+	public long getLength() {
+		return image.length;
+	}
+
+	/**
+	 * Sets the length of the new RRD.
+	 *
+	 * @param length Length of the RRD, in bytes
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void setLength(long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Illegal length: " + length);
+		}
+		image = new byte[(int) length];
+		blockOffsets = new long[0];
+		blockLengths = new int[0];
+		compressedBlocks = new byte[0][];
+		modified = true;
+	}
+
+	/**
+	 * Compresses the RRD back into its file, if modified.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		if (modified && !isReadOnly()) {
+			writeFile(new File(getPath()));
+			modified = false;
+		}
+	}
+
+	/**
+	 * This method is overriden to disable high-level caching in frontend JRobin classes.
+	 *
+	 * @return Always returns <code>false</code>. There is no need to cache anything in high-level classes
+	 *         since all RRD bytes are already in memory.
+	 */
+	protected boolean isCachingAllowed() {
+		return false;
+	}
+
+	private void readFile(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != SIGNATURE || in.readInt() != VERSION) {
+				throw new IOException("File " + getPath() + " is not a compressed RRD file");
+			}
+			long length = in.readLong();
+			int blockCount = in.readInt();
+			if (length > Integer.MAX_VALUE || blockCount < 0) {
+				throw new IOException("Invalid compressed RRD file " + getPath());
+			}
+			image = new byte[(int) length];
+			blockOffsets = new long[blockCount];
+			blockLengths = new int[blockCount];
+			compressedBlocks = new byte[blockCount][];
+			long offset = 0;
+			for (int i = 0; i < blockCount; i++) {
+				blockOffsets[i] = offset;
+				blockLengths[i] = in.readInt();
+				compressedBlocks[i] = new byte[in.readInt()];
+				offset += blockLengths[i];
+			}
+			if (offset != length) {
+				throw new IOException("Invalid compressed RRD file " + getPath());
+			}
+			Inflater inflater = new Inflater();
+			try {
+				for (int i = 0; i < blockCount; i++) {
+					in.readFully(compressedBlocks[i]);
+					inflater.reset();
+					inflater.setInput(compressedBlocks[i]);
+					if (inflater.inflate(image, (int) blockOffsets[i], blockLengths[i]) != blockLengths[i]) {
+						throw new IOException("Invalid compressed RRD file " + getPath());
+					}
+				}
+			}
+			catch (DataFormatException e) {
+				throw new IOException("Invalid compressed RRD file " + getPath() + ": " + e.getMessage());
+			}
+			finally {
+				inflater.end();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void writeFile(File file) throws IOException {
+		int[] lengths = getBlockLengths(image);
+		byte[][] blocks = new byte[lengths.length][];
+		Deflater deflater = new Deflater();
+		try {
+			long offset = 0;
+			for (int i = 0; i < lengths.length; i++) {
+				int old = Arrays.binarySearch(blockOffsets, offset);
+				if (old >= 0 && blockLengths[old] == lengths[i] && !changedBlocks.get(old)) {
+					// unchanged since the file was read
+					blocks[i] = compressedBlocks[old];
+				}
+				else {
+					blocks[i] = compress(deflater, image, (int) offset, lengths[i]);
+				}
+				offset += lengths[i];
+			}
+		}
+		finally {
+			deflater.end();
+		}
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			out.writeInt(SIGNATURE);
+			out.writeInt(VERSION);
+			out.writeLong(image.length);
+			out.writeInt(blocks.length);
+			for (int i = 0; i < blocks.length; i++) {
+				out.writeInt(lengths[i]);
+				out.writeInt(blocks[i].length);
+			}
+			for (byte[] block : blocks) {
+				out.write(block);
+			}
+			out.flush();
+			stream.getChannel().force(false);
+		}
+		finally {
+			stream.close();
+		}
+		replaceFile(tempFile, file);
+		long offset = 0;
+		blockOffsets = new long[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+			blockOffsets[i] = offset;
+			offset += lengths[i];
+		}
+		blockLengths = lengths;
+		compressedBlocks = blocks;
+		changedBlocks.clear();
+	}
+
+	static void replaceFile(File tempFile, File file) throws IOException {
+		if (!tempFile.renameTo(file)) {
+			// cannot replace existing files on some platforms
+			if (!file.delete() || !tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to " + file);
+			}
+		}
+	}
+
+	static byte[] compress(Deflater deflater, byte[] b, int offset, int length) {
+		deflater.reset();
+		deflater.setInput(b, offset, length);
+		deflater.finish();
+		byte[] buffer = new byte[Math.max(64, length / 4)];
+		int count = 0;
+		while (!deflater.finished()) {
+			if (count == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			count += deflater.deflate(buffer, count, buffer.length - count);
+		}
+		return Arrays.copyOf(buffer, count);
+	}
+
+	/**
+	 * Splits a RRD into the header and datasources, then each archive, following the layout of
+	 * {@link RrdDef#calculateSize(int, int, int)}.
+	 *
+	 * @return Lengths of blocks, or the whole length as a single block if the layout is not recognized
+	 */
+	static int[] getBlockLengths(byte[] image) {
+		int stringLength = 2 * RrdPrimitive.STRING_LENGTH;
+		int headerLength = stringLength + 24;
+		int[] single = new int[] {image.length};
+		if (image.length < headerLength) {
+			return single;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(image);
+		int dsCount = buffer.getInt(stringLength + 8);
+		int arcCount = buffer.getInt(stringLength + 12);
+		long offset = headerLength + (long) dsCount * (48 + 2 * stringLength);
+		if (dsCount < 0 || arcCount < 0 || offset > image.length) {
+			return single;
+		}
+		List<Integer> lengths = new ArrayList<Integer>();
+		lengths.add((int) offset);
+		for (int i = 0; i < arcCount; i++) {
+			if (offset + stringLength + 16 > image.length) {
+				return single;
+			}
+			int rows = buffer.getInt((int) offset + stringLength + 12);
+			long length = stringLength + 16 + dsCount * (20L + 8L * rows);
+			if (rows < 0 || offset + length > image.length) {
+				return single;
+			}
+			lengths.add((int) length);
+			offset += length;
+		}
+		if (offset != image.length) {
+			return single;
+		}
+		int[] result = new int[lengths.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = lengths.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Factory class which creates actual {@link RrdCompressedBackend} objects. RRD files are stored compressed
+ * on the disk, which suits RRDs kept for years but rarely read or updated. Each time a RRD is opened, the
+ * whole file is decompressed into memory.
+ * <p>
+ * Existing RRD files can be compressed, and compressed files restored to ordinary RRD files, with
+ * {@link RrdToolkit#compress(String, String, int)} and {@link RrdToolkit#decompress(String, String, int)}.
+ */
+public class RrdCompressedBackendFactory extends RrdBackendFactory {
+	/**
+	 * factory name, "COMPRESSED"
+	 */
+	public static final String NAME = "COMPRESSED";
+
+	/**
+	 * Creates RrdCompressedBackend object for the given file path.
+	 *
+	 * @param path	 File path
+	 * @param readOnly True, if the file should be accessed in read/only mode.
+	 *                 False otherwise.
+	 * @return RrdCompressedBackend object which handles all I/O operations for the given file path
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdCompressedBackend(path, readOnly);
+	}
+
+	/**
+	 * Method to determine if a file with the given path already exists.
+	 *
+	 * @param path File path
+	 * @return True, if such file exists, false otherwise.
+	 */
+	protected boolean exists(String path) {
+		return Util.fileExists(path);
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to string "COMPRESSED")
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+
+	/**
+	 * Checks if a file is a compressed RRD file.
+	 *
+	 * @param path File path
+	 * @return True, if the file was written by this factory
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public static boolean isCompressed(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(path));
+		try {
+			return new File(path).length() >= 4 && in.readInt() == RrdCompressedBackend.SIGNATURE;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// returns false if already compressed
+	static boolean compress(String path) throws IOException {
+		if (isCompressed(path)) {
+			return false;
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		byte[] image;
+		try {
+			if (file.length() > Integer.MAX_VALUE) {
+				throw new IOException("File " + path + " is too large to be compressed");
+			}
+			image = new byte[(int) file.length()];
+			file.readFully(image);
+		}
+		finally {
+			file.close();
+		}
+		new RrdCompressedBackend(path, image).close();
+		return true;
+	}
+
+	// returns false if not compressed
+	static boolean decompress(String path) throws IOException {
+		if (!isCompressed(path)) {
+			return false;
+		}
+		RrdCompressedBackend backend = new RrdCompressedBackend(path, true);
+		byte[] image = backend.readAll();
+		backend.close();
+		File tempFile = new File(path + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tempFile);
+		try {
+			stream.write(image);
+			stream.getChannel().force(false);
+		}
+		finally {
+			stream.close();
+		}
+		RrdCompressedBackend.replaceFile(tempFile, new File(path));
+		return true;
+	}
+}
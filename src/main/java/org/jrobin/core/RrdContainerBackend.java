@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+
+/**
+ * JRobin backend which stores a RRD in a slot of a container file shared with many other RRDs.
+ * Objects of this class are created from the {@link RrdContainerBackendFactory} class.
+ */
+public class RrdContainerBackend extends RrdBackend {
+	private final RrdContainerBackendFactory factory;
+	private RrdContainerBackendFactory.Slot slot;
+	private boolean closed;
+
+	RrdContainerBackend(String path, boolean readOnly, RrdContainerBackendFactory factory,
+						RrdContainerBackendFactory.Slot slot) {
+		super(path, readOnly);
+		this.factory = factory;
+		this.slot = slot;
+	}
+
+	protected void write(final long offset, final byte[] b) throws IOException {
+		checkRange(offset, b.length).write(offset, b);
+	}
+
+	protected void read(final long offset, final byte[] b) throws IOException {
+		checkRange(offset, b.length).read(offset, b);
+	}
+
+	private RrdContainerBackendFactory.Slot checkRange(long offset, int count) throws IOException {
+		if (closed) {
+			throw new IOException("RRD " + getPath() + " is closed");
+		}
+		if (slot == null || offset < 0 || offset + count > slot.length) {
+			throw new IOException("Not enough bytes available in container slot of " + getPath());
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the number of RRD bytes stored in the container.
+	 *
+	 * @return Number of all RRD bytes.
+	 */
+	public long getLength() {
+		return slot != null ? slot.length : 0;
+	}
+
+	/**
+	 * Allocates a slot of the container for a new RRD. This method is called only once, immediately
+	 * after a new RRD gets created.
+	 *
+	 * @param newLength Number of RRD bytes.
+	 * @throws IOException Thrown if the RRD does not fit in a slot, or in case of I/O error.
+	 */
+	protected void setLength(final long newLength) throws IOException {
+		if (isReadOnly()) {
+			throw new IOException("Cannot create read-only RRD " + getPath());
+		}
+		slot = factory.allocate(getPath(), newLength);
+	}
+
+	/**
+	 * Releases the container, which unmaps its files once it is closed and all its RRDs are closed.
+	 */
+	public void close() {
+		if (!closed) {
+			closed = true;
+			factory.release();
+		}
+	}
+
+	/**
+	 * This method is overridden to disable high-level caching in frontend JRobin classes.
+	 *
+	 * @return Always returns <code>false</code>. There is no need to cache anything in high-level classes
+	 *         since all RRD bytes are already mapped in memory.
+	 */
+	protected boolean isCachingAllowed() {
+		return false;
+	}
+}
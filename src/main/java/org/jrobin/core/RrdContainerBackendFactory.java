@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Factory class which creates actual {@link RrdContainerBackend} objects. Instead of a file per RRD,
+ * RRDs are stored in fixed-size slots of a few large segment files, each one mapped into memory
+ * once. This saves file descriptors, memory mappings and directory lookups when there are hundreds
+ * of thousands of small RRDs.
+ * <p>
+ * Each slot starts with a small header holding the path of its RRD, so that the index of RRD paths
+ * is rebuilt from the segment files when the factory is created; {@link #exists(String) exists()}
+ * and {@link #open(String, boolean) open()} are lookups in this index. Slots of deleted RRDs are
+ * reused for new ones, new segment files are added when all slots are used.
+ * <p>
+ * The factory is not registered by default, since it needs a directory and the maximum RRD size:
+ * <pre>
+ * RrdBackendFactory.registerFactory(new RrdContainerBackendFactory("/var/rrd/container", 64 * 1024));
+ * RrdDb rrdDb = new RrdDb(rrdDef, RrdBackendFactory.getFactory(RrdContainerBackendFactory.NAME));
+ * </pre>
+ * Mapped data is written to disk by the operating system, or explicitly with {@link #sync()}.
+ */
+public class RrdContainerBackendFactory extends RrdBackendFactory {
+	/**
+	 * factory name, "CONTAINER"
+	 */
+	public static final String NAME = "CONTAINER";
+	/**
+	 * Default size of segment files, in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+	private static final int SEGMENT_SIGNATURE = 0x4a52434e; // "JRCN"
+	private static final int SEGMENT_HEADER_SIZE = 64;
+	private static final int SLOT_HEADER_SIZE = 512;
+	private static final int MAX_PATH_LENGTH = SLOT_HEADER_SIZE - 16;
+	private static final int SLOT_FREE = 0, SLOT_USED = 1;
+	private static final String SEGMENT_PREFIX = "segment-", SEGMENT_SUFFIX = ".jrc";
+	private static final String PATH_CHARSET = "UTF-8";
+
+	private final File directory;
+	private final int maxRrdSize, slotSize, slotsPerSegment;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final Map<String, Slot> index = new HashMap<String, Slot>();
+	// segment files are unmapped once the factory is closed and no backend is open
+	private int openBackendCount;
+	private boolean closed;
+
+	/**
+	 * Creates a factory storing RRDs in segment files of the default size.
+	 *
+	 * @param directory  Directory of segment files, created if necessary
+	 * @param maxRrdSize Maximum size of a RRD, in bytes
+	 * @throws IOException Thrown in case of I/O error, or if existing segment files have
+	 *                     a different slot size
+	 */
+	public RrdContainerBackendFactory(String directory, int maxRrdSize) throws IOException {
+		this(directory, maxRrdSize, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates a factory storing RRDs in segment files of the given size.
+	 *
+	 * @param directory   Directory of segment files, created if necessary
+	 * @param maxRrdSize  Maximum size of a RRD, in bytes
+	 * @param segmentSize Size of segment files, in bytes. Segment files hold at least one slot.
+	 * @throws IOException Thrown in case of I/O error, or if existing segment files have
+	 *                     a different slot size
+	 */
+	public RrdContainerBackendFactory(String directory, int maxRrdSize, int segmentSize) throws IOException {
+		if (maxRrdSize <= 0 || maxRrdSize > Integer.MAX_VALUE - SEGMENT_HEADER_SIZE - SLOT_HEADER_SIZE) {
+			throw new IllegalArgumentException("Invalid maximum RRD size: " + maxRrdSize);
+		}
+		this.directory = new File(directory);
+		this.maxRrdSize = maxRrdSize;
+		this.slotSize = SLOT_HEADER_SIZE + maxRrdSize;
+		this.slotsPerSegment = (int) Math.max(1, ((long) segmentSize - SEGMENT_HEADER_SIZE) / slotSize);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+		for (int i = 0; new File(this.directory, SEGMENT_PREFIX + i + SEGMENT_SUFFIX).exists(); i++) {
+			loadSegment(addSegment());
+		}
+	}
+
+	/**
+	 * Creates RrdContainerBackend object for the given RRD path.
+	 *
+	 * @param path	 RRD path, used as a key of the index
+	 * @param readOnly True, if the RRD should be open in a read-only mode
+	 * @return RrdContainerBackend object which handles all I/O operations
+	 * @throws IOException Thrown if the factory is closed
+	 */
+	protected synchronized RrdBackend open(String path, boolean readOnly) throws IOException {
+		checkOpen();
+		openBackendCount++;
+		return new RrdContainerBackend(path, readOnly, this, index.get(path));
+	}
+
+	/**
+	 * Method to determine if a RRD with the given path is stored in the container.
+	 *
+	 * @param path RRD path
+	 * @return True, if such RRD exists, false otherwise.
+	 */
+	protected synchronized boolean exists(String path) {
+		return index.containsKey(path);
+	}
+
+	/**
+	 * Removes the RRD with the given path from the container. Its slot is reused for new RRDs,
+	 * the RRD must not be open.
+	 *
+	 * @param path RRD path
+	 * @return True, if the RRD is deleted, false otherwise.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public synchronized boolean delete(String path) throws IOException {
+		Slot slot = index.remove(path);
+		if (slot == null) {
+			return false;
+		}
+		slot.segment.buffer.putInt(slot.headerOffset, SLOT_FREE);
+		slot.segment.usedSlots.clear(slot.number);
+		return true;
+	}
+
+	/**
+	 * Returns the number of RRDs stored in the container.
+	 *
+	 * @return Number of RRDs
+	 */
+	public synchronized int getRrdCount() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the number of segment files of the container.
+	 *
+	 * @return Number of segment files
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Forces all changes of mapped segment files to be written to disk.
+	 */
+	public synchronized void sync() {
+		for (Segment segment : segments) {
+			segment.buffer.force();
+		}
+	}
+
+	/**
+	 * Writes all changes to disk and unmaps segment files. RRDs cannot be opened or created afterwards.
+	 * RRDs still open can be used until they are closed: segment files are unmapped once the last one
+	 * is closed.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		sync();
+		index.clear();
+		if (openBackendCount == 0) {
+			unmapSegments();
+		}
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to "CONTAINER").
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+
+	synchronized void release() {
+		if (--openBackendCount == 0 && closed) {
+			sync();
+			unmapSegments();
+		}
+	}
+
+	private void unmapSegments() {
+		for (Segment segment : segments) {
+			RrdNioBackend.unmap(segment.buffer);
+		}
+		segments.clear();
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Container in " + directory + " is closed");
+		}
+	}
+
+	synchronized Slot allocate(String path, long length) throws IOException {
+		checkOpen();
+		if (length > maxRrdSize) {
+			throw new IOException("RRD " + path + " has " + length + " bytes, container slots hold " + maxRrdSize);
+		}
+		byte[] pathBytes = path.getBytes(PATH_CHARSET);
+		if (pathBytes.length > MAX_PATH_LENGTH) {
+			throw new IOException("Path too long for a container slot: " + path);
+		}
+		Slot slot = index.get(path);
+		if (slot == null) {
+			Segment segment = null;
+			for (Segment s : segments) {
+				if (s.usedSlots.cardinality() < slotsPerSegment) {
+					segment = s;
+					break;
+				}
+			}
+			if (segment == null) {
+				segment = addSegment();
+			}
+			slot = new Slot(segment, segment.usedSlots.nextClearBit(0));
+			segment.usedSlots.set(slot.number);
+			index.put(path, slot);
+		}
+		slot.length = (int) length;
+		ByteBuffer header = slot.segment.buffer.duplicate();
+		header.position(slot.headerOffset);
+		header.putInt(SLOT_FREE).putInt((int) length).putInt(pathBytes.length).put(pathBytes);
+		// the slot is used once the header is complete
+		slot.segment.buffer.putInt(slot.headerOffset, SLOT_USED);
+		return slot;
+	}
+
+	private Segment addSegment() throws IOException {
+		int number = segments.size();
+		File file = new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+		boolean created = !file.exists();
+		long size = SEGMENT_HEADER_SIZE + (long) slotsPerSegment * slotSize;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		MappedByteBuffer buffer;
+		try {
+			if (created) {
+				raf.setLength(size);
+			}
+			else if (raf.length() != size) {
+				throw new IOException("Segment file " + file + " does not have " + slotsPerSegment +
+						" slots of " + maxRrdSize + " bytes");
+			}
+			// the mapping stays valid after the file is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		finally {
+			raf.close();
+		}
+		if (created) {
+			buffer.putInt(0, SEGMENT_SIGNATURE);
+			buffer.putInt(4, slotSize);
+			buffer.putInt(8, slotsPerSegment);
+		}
+		else if (buffer.getInt(0) != SEGMENT_SIGNATURE || buffer.getInt(4) != slotSize ||
+				buffer.getInt(8) != slotsPerSegment) {
+			throw new IOException("Segment file " + file + " was created with different settings");
+		}
+		Segment segment = new Segment(buffer);
+		segments.add(segment);
+		return segment;
+	}
+
+	private void loadSegment(Segment segment) throws IOException {
+		for (int number = 0; number < slotsPerSegment; number++) {
+			Slot slot = new Slot(segment, number);
+			ByteBuffer header = segment.buffer.duplicate();
+			header.position(slot.headerOffset);
+			if (header.getInt() == SLOT_USED) {
+				slot.length = header.getInt();
+				byte[] pathBytes = new byte[header.getInt()];
+				header.get(pathBytes);
+				index.put(new String(pathBytes, PATH_CHARSET), slot);
+				segment.usedSlots.set(number);
+			}
+		}
+	}
+
+	private static final class Segment {
+		final MappedByteBuffer buffer;
+		final BitSet usedSlots = new BitSet();
+
+		Segment(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	final class Slot {
+		final Segment segment;
+		final int number, headerOffset, dataOffset;
+		volatile int length;
+
+		Slot(Segment segment, int number) {
+			this.segment = segment;
+			this.number = number;
+			this.headerOffset = SEGMENT_HEADER_SIZE + number * slotSize;
+			this.dataOffset = headerOffset + SLOT_HEADER_SIZE;
+		}
+
+		void read(long offset, byte[] b) {
+			// each caller needs its own position
+			ByteBuffer view = segment.buffer.duplicate();
+			view.position(dataOffset + (int) offset);
+			view.get(b);
+		}
+
+		void write(long offset, byte[] b) {
+			ByteBuffer view = segment.buffer.duplicate();
+			view.position(dataOffset + (int) offset);
+			view.put(b);
+		}
+	}
+}
@@ -594,19 +594,34 @@ public class RrdDb implements RrdUpdater {
 					". Last update time was " + lastTime + ", at least one second step is required");
 		}
 		double[] newValues = sample.getValues();
-		for (int i = 0; i < datasources.length; i++) {
-			double newValue = newValues[i];
-			datasources[i].process(newTime, newValue);
+		backend.beforeUpdate();
+		boolean stored = false;
+		try {
+			for (int i = 0; i < datasources.length; i++) {
+				double newValue = newValues[i];
+				datasources[i].process(newTime, newValue);
+			}
+			header.setLastUpdateTime(newTime);
+			stored = true;
 		}
-		header.setLastUpdateTime(newTime);
+		finally {
+			if (!stored) {
+				backend.abortUpdate();
+			}
+		}
+		backend.afterUpdate();
 	}
 
 	synchronized FetchData fetchData(FetchRequest request) throws IOException, RrdException {
+		return fetchData(request, null);
+	}
+
+	synchronized FetchData fetchData(FetchRequest request, FetchData previous) throws IOException, RrdException {
 		if (closed) {
 			throw new RrdException("RRD already closed, cannot fetch data");
 		}
 		Archive archive = findMatchingArchive(request);
-		return archive.fetchData(request);
+		return archive.fetchData(request, previous);
 	}
 
 	public Archive findMatchingArchive(FetchRequest request) throws RrdException, IOException {
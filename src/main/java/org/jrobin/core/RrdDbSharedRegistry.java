@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class lets concurrent readers of the same RRD share a single read-only {@link RrdDb}, instead of
+ * opening the file and building all RRD objects for each of them. RRDs are open on the first request
+ * and closed when the last reference is released, so that nothing is kept open while not in use. Unlike
+ * {@link RrdDbPool}, any backend factory may be used.
+ * <p>
+ * Only RrdDbs with backends not caching changing RRD values (see {@link RrdBackend#isCachingAllowed()}),
+ * like read-only NIO backends, are shared, so that a RrdDb in use by a continuous stream of readers still
+ * shows new values. Other RrdDbs are returned to a single user, as if open directly.
+ * <p>
+ * Methods of RrdDb are synchronized, so a shared RrdDb may be used by several threads at once. It must
+ * not be closed directly:
+ * <pre>
+ * RrdDb rrdDb = RrdDbSharedRegistry.getInstance().request(path, RrdBackendFactory.getDefaultFactory());
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     RrdDbSharedRegistry.getInstance().release(rrdDb);
+ * }
+ * </pre>
+ */
+public class RrdDbSharedRegistry {
+	private static RrdDbSharedRegistry instance;
+
+	// by backend factory name and canonical path
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Map<RrdDb, Entry> entriesByRrdDb = new HashMap<RrdDb, Entry>();
+
+	/**
+	 * Creates a single instance of the class on the first call, or returns already existing one.
+	 *
+	 * @return Single instance of this class
+	 */
+	public synchronized static RrdDbSharedRegistry getInstance() {
+		if (instance == null) {
+			instance = new RrdDbSharedRegistry();
+		}
+		return instance;
+	}
+
+	private RrdDbSharedRegistry() {
+	}
+
+	/**
+	 * Returns a read-only RrdDb of the given RRD, shared with other users of the same RRD. Its usage count
+	 * is incremented by one.
+	 *
+	 * @param path	Path to existing RRD
+	 * @param factory Backend factory used to open the RRD
+	 * @return Shared read-only RrdDb
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin specific error
+	 */
+	public RrdDb request(String path, RrdBackendFactory factory) throws IOException, RrdException {
+		String key = factory.getFactoryName() + ":" + Util.getCanonicalPath(path);
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(key);
+				entries.put(key, entry);
+			}
+			entry.usageCount++;
+		}
+		boolean opened = false;
+		try {
+			// opened only once, other users wait for it
+			synchronized (entry) {
+				if (entry.rrdDb == null) {
+					entry.rrdDb = new RrdDb(path, true, factory);
+					synchronized (this) {
+						entriesByRrdDb.put(entry.rrdDb, entry);
+						if (entry.rrdDb.getRrdBackend().isCachingAllowed()) {
+							// not shared with later users
+							removeEntry(entry);
+						}
+					}
+				}
+			}
+			opened = true;
+			return entry.rrdDb;
+		}
+		finally {
+			if (!opened) {
+				release(entry);
+			}
+		}
+	}
+
+	/**
+	 * Releases a RrdDb returned by {@link #request(String, RrdBackendFactory)}. Its usage count is
+	 * decremented by one, and it is closed once no longer used.
+	 *
+	 * @param rrdDb RrdDb to release
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown if the RrdDb was not returned by this registry
+	 */
+	public void release(RrdDb rrdDb) throws IOException, RrdException {
+		Entry entry;
+		synchronized (this) {
+			entry = entriesByRrdDb.get(rrdDb);
+		}
+		if (entry == null) {
+			throw new RrdException("RrdDb not shared by this registry: " + rrdDb.getPath());
+		}
+		release(entry);
+	}
+
+	/**
+	 * Returns the number of RrdDbs in use.
+	 *
+	 * @return Number of open RrdDbs
+	 */
+	public synchronized int getOpenFileCount() {
+		return entriesByRrdDb.size();
+	}
+
+	private void release(Entry entry) throws IOException {
+		synchronized (this) {
+			if (--entry.usageCount > 0) {
+				return;
+			}
+			removeEntry(entry);
+			if (entry.rrdDb != null) {
+				entriesByRrdDb.remove(entry.rrdDb);
+			}
+		}
+		if (entry.rrdDb != null) {
+			entry.rrdDb.close();
+		}
+	}
+
+	private void removeEntry(Entry entry) {
+		if (entries.get(entry.key) == entry) {
+			entries.remove(entry.key);
+		}
+	}
+
+	private static final class Entry {
+		final String key;
+		// guarded by the registry
+		int usageCount;
+		// guarded by the entry
+		RrdDb rrdDb;
+
+		Entry(String key) {
+			this.key = key;
+		}
+	}
+}
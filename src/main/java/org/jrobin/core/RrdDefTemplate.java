@@ -18,12 +18,12 @@
  *******************************************************************************/
 package org.jrobin.core;
 
-import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Calendar;
+import java.util.Map;
 
 /**
  * Class used to create an arbitrary number of {@link RrdDef} (RRD definition) objects
@@ -159,6 +159,10 @@ public class RrdDefTemplate extends XmlTemplate {
 		super(xmlFile);
 	}
 
+	private RrdDefTemplate(RrdDefTemplate template, Map<String, ?> variables) {
+		super(template, variables);
+	}
+
 	/**
 	 * Returns RrdDef object constructed from the underlying XML template. Before this method
 	 * is called, values for all non-optional placeholders must be supplied. To specify
@@ -175,17 +179,17 @@ public class RrdDefTemplate extends XmlTemplate {
 	 *                      method call
 	 */
 	public RrdDef getRrdDef() throws RrdException {
-		if (!root.getTagName().equals("rrd_def")) {
+		if (!rootNode.getNodeName().equals("rrd_def")) {
 			throw new RrdException("XML definition must start with <rrd_def>");
 		}
-		validateTagsOnlyOnce(root, new String[] {
+		validateTagsOnlyOnce(rootNode, new String[] {
 				"path", "start", "step", "datasource*", "archive*"
 		});
 		// PATH must be supplied or exception is thrown
-		String path = getChildValue(root, "path");
+		String path = getChildValue(rootNode, "path");
 		RrdDef rrdDef = new RrdDef(path);
 		try {
-			String startStr = getChildValue(root, "start");
+			String startStr = getChildValue(rootNode, "start");
 			Calendar startGc = Util.getCalendar(startStr);
 			rrdDef.setStartTime(startGc);
 		}
@@ -193,15 +197,15 @@ public class RrdDefTemplate extends XmlTemplate {
 			// START is not mandatory
 		}
 		try {
-			long step = getChildValueAsLong(root, "step");
+			long step = getChildValueAsLong(rootNode, "step");
 			rrdDef.setStep(step);
 		}
 		catch (RrdException e) {
 			// STEP is not mandatory
 		}
 		// datsources
-		Node[] dsNodes = getChildNodes(root, "datasource");
-		for (Node dsNode : dsNodes) {
+		TemplateNode[] dsNodes = getChildNodes(rootNode, "datasource");
+		for (TemplateNode dsNode : dsNodes) {
 			validateTagsOnlyOnce(dsNode, new String[] {
 					"name", "type", "heartbeat", "min", "max"
 			});
@@ -213,8 +217,8 @@ public class RrdDefTemplate extends XmlTemplate {
 			rrdDef.addDatasource(name, type, heartbeat, min, max);
 		}
 		// archives
-		Node[] arcNodes = getChildNodes(root, "archive");
-		for (Node arcNode : arcNodes) {
+		TemplateNode[] arcNodes = getChildNodes(rootNode, "archive");
+		for (TemplateNode arcNode : arcNodes) {
 			validateTagsOnlyOnce(arcNode, new String[] {
 					"cf", "xff", "steps", "rows"
 			});
@@ -226,4 +230,20 @@ public class RrdDefTemplate extends XmlTemplate {
 		}
 		return rrdDef;
 	}
+
+	/**
+	 * Returns RrdDef object constructed from the underlying XML template, with the given values
+	 * of template variables. Variable values set with
+	 * {@link XmlTemplate#setVariable(String, String) setVariable()} methods are ignored.
+	 * The XML template is parsed and compiled only once, so that many RRD definitions can be
+	 * created quickly from the same template. This method is thread safe.
+	 *
+	 * @param variables Values of template variables (strings, numbers, booleans, colors, dates or calendars),
+	 *                  by variable name
+	 * @return RrdDef object constructed from the underlying XML template
+	 * @throws RrdException Thrown if the XML template is not a valid RRD definition
+	 */
+	public RrdDef getRrdDef(Map<String, ?> variables) throws RrdException {
+		return new RrdDefTemplate(this, variables).getRrdDef();
+	}
 }
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Initial image of new RRD files, used to create many RRD files of the same layout quickly.
+ * <p>
+ * Creating a RRD file with {@link RrdDb#RrdDb(RrdDef)} writes all RRD primitives one by one,
+ * including the NaN values of all archives. This class creates a RRD once in memory and keeps
+ * its bytes in a direct buffer. New RRD files are created by writing these bytes with a single
+ * gathering write, with the few values depending on the start time (last update time, unknown
+ * seconds of datasources and NaN steps of archive states) patched on the fly. The created files
+ * are exactly the same as files created by {@link RrdDb#RrdDb(RrdDef)}, and can be used with
+ * the FILE, SAFE and NIO backends.
+ * <pre>
+ * RrdImage image = new RrdImage(rrdDef);
+ * for (String path : paths) {
+ *     image.create(path, startTime);
+ * }
+ * </pre>
+ * To create files of several layouts in parallel, use {@link RrdToolkit#createRrdFiles(RrdDef[], int)}.
+ * <p>
+ * This class is thread safe.
+ */
+public class RrdImage {
+	private static final int STRING_LENGTH = 2 * RrdPrimitive.STRING_LENGTH;
+	private static final int HEADER_LENGTH = STRING_LENGTH + 24;
+	private static final int DS_LENGTH = 2 * STRING_LENGTH + 48;
+	// patched values, archive indexes are used for NaN steps of archive states
+	private static final int LAST_UPDATE_TIME = -2, NAN_SECONDS = -1;
+
+	private static final RrdBackendFactory IMAGE_FACTORY = new RrdBackendFactory() {
+		protected RrdBackend open(String path, boolean readOnly) {
+			return new RrdMemoryBackend(path);
+		}
+
+		protected boolean exists(String path) {
+			return false;
+		}
+
+		public String getFactoryName() {
+			return "IMAGE";
+		}
+	};
+
+	private final String layout;
+	private final long step;
+	private final long[] arcSteps;
+	private final int length;
+	// parts of the image between patched values
+	private final ByteBuffer[] segments;
+	private final int[] patches;
+
+	/**
+	 * Creates the image of RRD files of the given layout. The path and the start time of the
+	 * definition are ignored.
+	 *
+	 * @param rrdDef RRD definition
+	 * @throws RrdException Thrown if invalid definition is supplied
+	 * @throws IOException  Thrown in case of I/O error
+	 */
+	public RrdImage(RrdDef rrdDef) throws RrdException, IOException {
+		layout = getLayout(rrdDef);
+		step = rrdDef.getStep();
+		ArcDef[] arcDefs = rrdDef.getArcDefs();
+		arcSteps = new long[arcDefs.length];
+		for (int i = 0; i < arcDefs.length; i++) {
+			arcSteps[i] = step * arcDefs[i].getSteps();
+		}
+		RrdDb rrdDb = new RrdDb(rrdDef, IMAGE_FACTORY);
+		byte[] bytes;
+		try {
+			bytes = rrdDb.getBytes();
+		}
+		finally {
+			rrdDb.close();
+		}
+		length = bytes.length;
+		ByteBuffer image = ByteBuffer.allocateDirect(length);
+		image.put(bytes);
+
+		// offsets of patched values, in ascending order
+		List<Integer> offsets = new ArrayList<Integer>();
+		List<Integer> kinds = new ArrayList<Integer>();
+		offsets.add(STRING_LENGTH + 16);
+		kinds.add(LAST_UPDATE_TIME);
+		int dsCount = rrdDef.getDsCount();
+		for (int i = 0; i < dsCount; i++) {
+			offsets.add(HEADER_LENGTH + i * DS_LENGTH + 2 * STRING_LENGTH + 40);
+			kinds.add(NAN_SECONDS);
+		}
+		int offset = HEADER_LENGTH + dsCount * DS_LENGTH;
+		for (int i = 0; i < arcDefs.length; i++) {
+			offset += STRING_LENGTH + 16;
+			for (int j = 0; j < dsCount; j++) {
+				offsets.add(offset + 8);
+				kinds.add(i);
+				offset += 20 + 8 * arcDefs[i].getRows();
+			}
+		}
+		if (offset != length) {
+			throw new RrdException("Unexpected RRD layout, " + length + " bytes instead of " + offset);
+		}
+
+		patches = new int[kinds.size()];
+		segments = new ByteBuffer[offsets.size() + 1];
+		int start = 0;
+		for (int i = 0; i <= patches.length; i++) {
+			int end = i < patches.length ? offsets.get(i) : length;
+			image.limit(end).position(start);
+			segments[i] = image.slice().asReadOnlyBuffer();
+			if (i < patches.length) {
+				patches[i] = kinds.get(i);
+				start = end + 8;
+			}
+		}
+	}
+
+	/**
+	 * Returns the length of created RRD files.
+	 *
+	 * @return Length in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Checks if RRD files of the given definition have the layout of this image, i.e. if the
+	 * definition has the same step, datasources and archives, in the same order.
+	 *
+	 * @param rrdDef RRD definition
+	 * @return true if the image can be used to create RRD files of the definition
+	 */
+	public boolean matches(RrdDef rrdDef) {
+		return layout.equals(getLayout(rrdDef));
+	}
+
+	/**
+	 * Creates the RRD file of the given definition. An existing file is overwritten.
+	 *
+	 * @param rrdDef RRD definition, with the layout of this image
+	 * @throws RrdException Thrown if the definition does not match the layout of this image
+	 * @throws IOException  Thrown in case of I/O error
+	 */
+	public void create(RrdDef rrdDef) throws RrdException, IOException {
+		if (!matches(rrdDef)) {
+			throw new RrdException("RRD definition does not match the layout of the image: " + rrdDef.dump());
+		}
+		create(rrdDef.getPath(), rrdDef.getStartTime());
+	}
+
+	/**
+	 * Creates a new RRD file. An existing file is overwritten.
+	 *
+	 * @param path	  Path to the new RRD file
+	 * @param startTime Start time of the RRD, in seconds
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void create(String path, long startTime) throws IOException {
+		ByteBuffer[] buffers = new ByteBuffer[segments.length + patches.length];
+		for (int i = 0; i < segments.length; i++) {
+			buffers[2 * i] = segments[i].duplicate();
+			if (i < patches.length) {
+				ByteBuffer patch = ByteBuffer.allocate(8);
+				patch.putLong(0, getValue(patches[i], startTime));
+				buffers[2 * i + 1] = patch;
+			}
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			long remaining = length;
+			while (remaining > 0) {
+				remaining -= channel.write(buffers);
+			}
+			channel.truncate(length);
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// same values as set by the Header, Datasource and ArcState constructors
+	private long getValue(int kind, long startTime) {
+		if (kind == LAST_UPDATE_TIME) {
+			return startTime;
+		}
+		else if (kind == NAN_SECONDS) {
+			return startTime % step;
+		}
+		return (Util.normalize(startTime, step) - Util.normalize(startTime, arcSteps[kind])) / step;
+	}
+
+	static String getLayout(RrdDef rrdDef) {
+		StringBuilder layout = new StringBuilder();
+		layout.append(rrdDef.getStep());
+		for (DsDef dsDef : rrdDef.getDsDefs()) {
+			layout.append(' ').append(dsDef.dump());
+		}
+		for (ArcDef arcDef : rrdDef.getArcDefs()) {
+			layout.append(' ').append(arcDef.dump());
+		}
+		return layout.toString();
+	}
+}
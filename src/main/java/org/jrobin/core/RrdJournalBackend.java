@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JRobin backend which records all writes of a single RRD update as one transaction in the journal
+ * of its {@link RrdJournalBackendFactory}. Writes reach the RRD file only after the journal is synced
+ * to disk, so that an update is either fully applied or not at all after a crash. Until then, pending
+ * writes are kept in memory and served to readers. Writes of an update are seen by other readers only
+ * once the update is done, and discarded if the update fails.
+ */
+public class RrdJournalBackend extends RrdFileBackend {
+	private final RrdJournalBackendFactory factory;
+	private final String canonicalPath;
+	private final RrdOverlay overlay;
+	// writes of the update in progress, in order and by offset, or null outside of an update
+	private List<Long> offsets;
+	private List<byte[]> writes;
+	private RrdOverlay updateOverlay;
+
+	/**
+	 * Creates RrdJournalBackend object for the given file path.
+	 *
+	 * @param path	 Path to a file
+	 * @param readOnly True, if file should be open in a read-only mode. False otherwise
+	 * @param factory  Factory owning the journal
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected RrdJournalBackend(String path, boolean readOnly, RrdJournalBackendFactory factory) throws IOException {
+		super(path, readOnly);
+		this.factory = factory;
+		this.canonicalPath = getCanonicalPath();
+		this.overlay = factory.getOverlay(canonicalPath);
+	}
+
+	/**
+	 * Starts a transaction holding all writes of the update.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void beforeUpdate() throws IOException {
+		offsets = new ArrayList<Long>();
+		writes = new ArrayList<byte[]>();
+		updateOverlay = new RrdOverlay();
+	}
+
+	/**
+	 * Adds the transaction of the update to the journal. It will be synced with the next commit.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void afterUpdate() throws IOException {
+		List<Long> updateOffsets = offsets;
+		List<byte[]> updateWrites = writes;
+		offsets = null;
+		writes = null;
+		updateOverlay = null;
+		if (updateOffsets != null && !updateOffsets.isEmpty()) {
+			for (int i = 0; i < updateOffsets.size(); i++) {
+				overlay.put(updateOffsets.get(i), updateWrites.get(i));
+			}
+			factory.log(canonicalPath, updateOffsets, updateWrites);
+		}
+	}
+
+	/**
+	 * Discards the transaction of the failed update. Neither the journal nor the RRD file get its writes.
+	 */
+	protected void abortUpdate() {
+		offsets = null;
+		writes = null;
+		updateOverlay = null;
+	}
+
+	/**
+	 * Adds bytes to the current transaction. Writes made outside of an update are transactions on their own.
+	 *
+	 * @param offset Starting file offset
+	 * @param b	  Bytes to be written.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void write(long offset, byte[] b) throws IOException {
+		if (isReadOnly()) {
+			throw new IOException("RRD file " + getPath() + " is open in read-only mode");
+		}
+		byte[] bytes = b.clone();
+		if (offsets != null) {
+			offsets.add(offset);
+			writes.add(bytes);
+			updateOverlay.put(offset, bytes);
+		}
+		else {
+			overlay.put(offset, bytes);
+			List<Long> writeOffsets = new ArrayList<Long>(1);
+			List<byte[]> writeBytes = new ArrayList<byte[]>(1);
+			writeOffsets.add(offset);
+			writeBytes.add(bytes);
+			factory.log(canonicalPath, writeOffsets, writeBytes);
+		}
+	}
+
+	/**
+	 * Reads bytes from the RRD file, with pending writes applied.
+	 *
+	 * @param offset Starting file offset
+	 * @param b	  Buffer which receives bytes read from the file.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void read(long offset, byte[] b) throws IOException {
+		// taken before the file is read: writes are removed only after the file got them
+		Map<Long, byte[]> pending = overlay.get(offset, b.length);
+		super.read(offset, b);
+		apply(pending, offset, b);
+		if (updateOverlay != null) {
+			// the update in progress reads its own writes
+			apply(updateOverlay.get(offset, b.length), offset, b);
+		}
+	}
+
+	private static void apply(Map<Long, byte[]> pending, long offset, byte[] b) {
+		for (Map.Entry<Long, byte[]> entry : pending.entrySet()) {
+			long start = Math.max(offset, entry.getKey());
+			long end = Math.min(offset + b.length, entry.getKey() + entry.getValue().length);
+			System.arraycopy(entry.getValue(), (int) (start - entry.getKey()), b, (int) (start - offset), (int) (end - start));
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Factory class which creates actual {@link RrdJournalBackend} objects. All writes of a single RRD update
+ * are recorded as one transaction in a journal shared by all RRD files. A background committer
+ * periodically appends the transactions logged since the previous commit to the journal and syncs it
+ * with a single fsync (group commit), then writes them to RRD files. A crash can no longer leave
+ * the last update time, robin pointers and datasource state of a RRD inconsistent, and durability costs
+ * one fsync per commit interval instead of one per update and file.
+ * <p>
+ * RRD files are synced and the journal is emptied when it grows above {@link #CHECKPOINT_SIZE} bytes and
+ * when the factory is closed. Transactions found in the journal are applied to RRD files when the
+ * factory is created. Updates made since the last commit are lost on a crash. RRD files must be
+ * written only through this factory.
+ * <p>
+ * The factory is not registered by default, since it needs a directory for its journal:
+ * <pre>
+ * RrdBackendFactory.registerFactory(new RrdJournalBackendFactory("/var/rrd/journal"));
+ * RrdDb rrdDb = new RrdDb(path, RrdBackendFactory.getFactory(RrdJournalBackendFactory.NAME));
+ * </pre>
+ */
+public class RrdJournalBackendFactory extends RrdFileBackendFactory {
+	/**
+	 * factory name, "JOURNAL"
+	 */
+	public static final String NAME = "JOURNAL";
+	/**
+	 * Default time between commits, in milliseconds.
+	 */
+	public static final int DEFAULT_COMMIT_INTERVAL = 1000;
+	/**
+	 * Journal size above which RRD files are synced and the journal is emptied, in bytes.
+	 */
+	public static final long CHECKPOINT_SIZE = 16 * 1024 * 1024;
+
+	private static final String JOURNAL_NAME = "rrd.journal";
+	private static final String COMMITTER_THREAD_NAME = "RrdJournalBackendFactory-committer";
+
+	private final File journalFile;
+	private final Map<String, RrdOverlay> overlays = new HashMap<String, RrdOverlay>();
+	// transactions logged since the last commit, as journal records and as writes by file
+	private ByteArrayOutputStream records = new ByteArrayOutputStream();
+	private Map<String, RrdOverlay> logged = new HashMap<String, RrdOverlay>();
+	private final Object commitLock = new Object();
+	// files written since the last checkpoint, guarded by commitLock
+	private final Set<String> unsyncedPaths = new HashSet<String>();
+	private final FileOutputStream journal;
+	private long journalSize;
+	private final Timer commitTimer;
+	private long commitCount;
+	private IOException lastCommitException;
+
+	/**
+	 * Creates a factory committing its journal every {@link #DEFAULT_COMMIT_INTERVAL} milliseconds.
+	 *
+	 * @param directory Directory of the journal, created if necessary
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public RrdJournalBackendFactory(String directory) throws IOException {
+		this(directory, DEFAULT_COMMIT_INTERVAL);
+	}
+
+	/**
+	 * Creates a factory committing its journal periodically. Transactions found in the journal are
+	 * applied to RRD files first.
+	 *
+	 * @param directory	  Directory of the journal, created if necessary
+	 * @param commitInterval Time between commits in milliseconds, or zero if the journal should be
+	 *                       committed only by calling {@link #commit()}
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public RrdJournalBackendFactory(String directory, int commitInterval) throws IOException {
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+		journalFile = new File(dir, JOURNAL_NAME);
+		recover();
+		journal = new FileOutputStream(journalFile, true);
+		if (commitInterval > 0) {
+			commitTimer = new Timer(COMMITTER_THREAD_NAME, true);
+			commitTimer.schedule(new TimerTask() {
+				public void run() {
+					try {
+						commit();
+						setLastCommitException(null);
+					}
+					catch (IOException e) {
+						setLastCommitException(e);
+					}
+				}
+			}, commitInterval, commitInterval);
+		}
+		else {
+			commitTimer = null;
+		}
+	}
+
+	/**
+	 * Creates RrdJournalBackend object for the given file path.
+	 *
+	 * @param path	 File path
+	 * @param readOnly True, if the file should be accessed in read/only mode.
+	 *                 False otherwise.
+	 * @return RrdJournalBackend object which handles all I/O operations for the given file path
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdJournalBackend(path, readOnly, this);
+	}
+
+	/**
+	 * Appends all transactions logged since the previous commit to the journal, syncs it to disk and
+	 * writes the transactions to RRD files. Called periodically by the committer, if enabled.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void commit() throws IOException {
+		synchronized (commitLock) {
+			byte[] bytes;
+			Map<String, RrdOverlay> transactions;
+			synchronized (this) {
+				if (records.size() == 0) {
+					return;
+				}
+				bytes = records.toByteArray();
+				transactions = logged;
+				records.reset();
+				logged = new HashMap<String, RrdOverlay>();
+			}
+			journal.write(bytes);
+			journal.getChannel().force(false);
+			journalSize += bytes.length;
+			for (Map.Entry<String, RrdOverlay> entry : transactions.entrySet()) {
+				SortedMap<Long, byte[]> writes = entry.getValue().getAll();
+				apply(entry.getKey(), writes, false);
+				getOverlay(entry.getKey()).removeWritten(writes);
+				unsyncedPaths.add(entry.getKey());
+			}
+			synchronized (this) {
+				commitCount++;
+			}
+			if (journalSize >= CHECKPOINT_SIZE) {
+				checkpoint();
+			}
+		}
+	}
+
+	/**
+	 * Syncs all RRD files written since the previous checkpoint to disk and empties the journal.
+	 * Transactions logged but not committed yet are not affected.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (commitLock) {
+			for (String path : unsyncedPaths) {
+				if (Util.fileExists(path)) {
+					RandomAccessFile file = new RandomAccessFile(path, "rw");
+					try {
+						file.getChannel().force(false);
+					}
+					finally {
+						file.close();
+					}
+				}
+			}
+			unsyncedPaths.clear();
+			journal.getChannel().truncate(0);
+			journal.getChannel().force(false);
+			journalSize = 0;
+		}
+	}
+
+	/**
+	 * Stops the committer, then commits all logged transactions and empties the journal. RRDs of this
+	 * factory must not be used afterwards.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		if (commitTimer != null) {
+			commitTimer.cancel();
+		}
+		synchronized (commitLock) {
+			commit();
+			checkpoint();
+			journal.close();
+		}
+	}
+
+	/**
+	 * Returns the number of commits which synced at least one transaction to the journal.
+	 *
+	 * @return Number of commits
+	 */
+	public synchronized long getCommitCount() {
+		return commitCount;
+	}
+
+	/**
+	 * Returns the error of the last commit started by the committer.
+	 *
+	 * @return Exception thrown by the last periodic commit, or null if it succeeded
+	 */
+	public synchronized IOException getLastCommitException() {
+		return lastCommitException;
+	}
+
+	private synchronized void setLastCommitException(IOException e) {
+		lastCommitException = e;
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to string "JOURNAL")
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+
+	synchronized RrdOverlay getOverlay(String canonicalPath) {
+		RrdOverlay overlay = overlays.get(canonicalPath);
+		if (overlay == null) {
+			overlay = new RrdOverlay();
+			overlays.put(canonicalPath, overlay);
+		}
+		return overlay;
+	}
+
+	// a record holds the length of the transaction, the transaction and its checksum
+	synchronized void log(String canonicalPath, List<Long> offsets, List<byte[]> writes) throws IOException {
+		ByteArrayOutputStream transaction = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(transaction);
+		out.writeUTF(canonicalPath);
+		out.writeInt(offsets.size());
+		RrdOverlay overlay = logged.get(canonicalPath);
+		if (overlay == null) {
+			overlay = new RrdOverlay();
+			logged.put(canonicalPath, overlay);
+		}
+		for (int i = 0; i < offsets.size(); i++) {
+			byte[] b = writes.get(i);
+			out.writeLong(offsets.get(i));
+			out.writeInt(b.length);
+			out.write(b);
+			overlay.put(offsets.get(i), b);
+		}
+		byte[] bytes = transaction.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		DataOutputStream record = new DataOutputStream(records);
+		record.writeInt(bytes.length);
+		record.write(bytes);
+		record.writeLong(crc.getValue());
+	}
+
+	// applies committed transactions left by a crash, in the order they were committed
+	private void recover() throws IOException {
+		if (!journalFile.exists()) {
+			return;
+		}
+		Map<String, RrdOverlay> recovered = new TreeMap<String, RrdOverlay>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		try {
+			while (true) {
+				int length = in.readInt();
+				if (length < 0 || length > journalFile.length()) {
+					break;
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				if (in.readLong() != crc.getValue()) {
+					// transaction cut by a crash
+					break;
+				}
+				DataInputStream transaction = new DataInputStream(new ByteArrayInputStream(bytes));
+				String path = transaction.readUTF();
+				RrdOverlay overlay = recovered.get(path);
+				if (overlay == null) {
+					overlay = new RrdOverlay();
+					recovered.put(path, overlay);
+				}
+				for (int count = transaction.readInt(); count > 0; count--) {
+					long offset = transaction.readLong();
+					byte[] b = new byte[transaction.readInt()];
+					transaction.readFully(b);
+					overlay.put(offset, b);
+				}
+			}
+		}
+		catch (EOFException e) {
+			// end of the journal, or a record cut by a crash
+		}
+		finally {
+			in.close();
+		}
+		for (Map.Entry<String, RrdOverlay> entry : recovered.entrySet()) {
+			apply(entry.getKey(), entry.getValue().getAll(), true);
+		}
+		if (!journalFile.delete()) {
+			throw new IOException("Could not delete journal " + journalFile);
+		}
+	}
+
+	// writes in file offset order
+	private static void apply(String path, SortedMap<Long, byte[]> writes, boolean sync) throws IOException {
+		if (!Util.fileExists(path)) {
+			// deleted in the meantime
+			return;
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			for (Map.Entry<Long, byte[]> entry : writes.entrySet()) {
+				file.seek(entry.getKey());
+				file.write(entry.getValue());
+			}
+			if (sync) {
+				file.getChannel().force(false);
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * JRobin backend which appends all writes to a write-ahead log shared by all RRD files, instead of
+ * writing them to RRD files directly. Pending writes are kept in memory and served to readers until
+ * they are applied to RRD files by the compactor of the {@link RrdLogBackendFactory}.
+ */
+public class RrdLogBackend extends RrdFileBackend {
+	private final RrdLogBackendFactory factory;
+	private final String canonicalPath;
+	private final RrdOverlay overlay;
+
+	/**
+	 * Creates RrdLogBackend object for the given file path.
+	 *
+	 * @param path	 Path to a file
+	 * @param readOnly True, if file should be open in a read-only mode. False otherwise
+	 * @param factory  Factory owning the log
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected RrdLogBackend(String path, boolean readOnly, RrdLogBackendFactory factory) throws IOException {
+		super(path, readOnly);
+		this.factory = factory;
+		this.canonicalPath = getCanonicalPath();
+		this.overlay = factory.getOverlay(canonicalPath);
+	}
+
+	/**
+	 * Appends bytes to the write-ahead log.
+	 *
+	 * @param offset Starting file offset
+	 * @param b	  Bytes to be written.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void write(long offset, byte[] b) throws IOException {
+		if (isReadOnly()) {
+			throw new IOException("RRD file " + getPath() + " is open in read-only mode");
+		}
+		factory.log(canonicalPath, overlay, offset, b);
+	}
+
+	/**
+	 * Reads bytes from the RRD file, with pending writes applied.
+	 *
+	 * @param offset Starting file offset
+	 * @param b	  Buffer which receives bytes read from the file.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void read(long offset, byte[] b) throws IOException {
+		// taken before the file is read: writes are removed only after the file got them
+		Map<Long, byte[]> pending = overlay.get(offset, b.length);
+		super.read(offset, b);
+		for (Map.Entry<Long, byte[]> entry : pending.entrySet()) {
+			long start = Math.max(offset, entry.getKey());
+			long end = Math.min(offset + b.length, entry.getKey() + entry.getValue().length);
+			System.arraycopy(entry.getValue(), (int) (start - entry.getKey()), b, (int) (start - offset), (int) (end - start));
+		}
+	}
+
+	/**
+	 * Closes the underlying RRD file and flushes the write-ahead log.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		super.close();
+		if (!isReadOnly()) {
+			factory.flush();
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+/**
+ * Factory class which creates actual {@link RrdLogBackend} objects. RRD files are created as usual,
+ * but all writes to them are appended to a sequential write-ahead log, shared by all RRD files,
+ * and kept in memory. A background compactor periodically applies pending writes to RRD files,
+ * file by file in file offset order, so that many small random writes become sequential ones.
+ * Once RRD files are synced to disk, log files are deleted. Log files left by a crash are applied to
+ * RRD files when the factory is created.
+ * <p>
+ * The log is flushed when a RRD open for writing is closed and when it is compacted. Like with the
+ * NIO backend, writes may be lost if the operating system crashes before that. RRD files must be
+ * written only through this factory.
+ * <p>
+ * The factory is not registered by default, since it needs a directory for its log files:
+ * <pre>
+ * RrdBackendFactory.registerFactory(new RrdLogBackendFactory("/var/rrd/log"));
+ * RrdDb rrdDb = new RrdDb(path, RrdBackendFactory.getFactory(RrdLogBackendFactory.NAME));
+ * </pre>
+ */
+public class RrdLogBackendFactory extends RrdFileBackendFactory {
+	/**
+	 * factory name, "LOG"
+	 */
+	public static final String NAME = "LOG";
+	/**
+	 * Default time between compactions, in seconds.
+	 */
+	public static final int DEFAULT_COMPACTION_PERIOD = 60;
+
+	private static final String LOG_PREFIX = "rrd-", LOG_SUFFIX = ".log";
+	private static final String COMPACTOR_THREAD_NAME = "RrdLogBackendFactory-compactor";
+
+	private final File directory;
+	private final Map<String, RrdOverlay> overlays = new HashMap<String, RrdOverlay>();
+	private final Object compactionLock = new Object();
+	private final Timer compactionTimer;
+	private DataOutputStream log;
+	private long logNumber;
+	private IOException lastCompactionException;
+
+	/**
+	 * Creates a factory compacting its log every {@link #DEFAULT_COMPACTION_PERIOD} seconds.
+	 *
+	 * @param directory Directory of log files, created if necessary
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public RrdLogBackendFactory(String directory) throws IOException {
+		this(directory, DEFAULT_COMPACTION_PERIOD);
+	}
+
+	/**
+	 * Creates a factory compacting its log periodically. Log files found in the directory are applied
+	 * to RRD files first.
+	 *
+	 * @param directory		 Directory of log files, created if necessary
+	 * @param compactionPeriod Time between compactions in seconds, or zero if the log should be
+	 *                         compacted only by calling {@link #compact()}
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public RrdLogBackendFactory(String directory, int compactionPeriod) throws IOException {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+		recover();
+		openLog();
+		if (compactionPeriod > 0) {
+			compactionTimer = new Timer(COMPACTOR_THREAD_NAME, true);
+			compactionTimer.schedule(new TimerTask() {
+				public void run() {
+					try {
+						compact();
+						setLastCompactionException(null);
+					}
+					catch (IOException e) {
+						setLastCompactionException(e);
+					}
+				}
+			}, compactionPeriod * 1000L, compactionPeriod * 1000L);
+		}
+		else {
+			compactionTimer = null;
+		}
+	}
+
+	/**
+	 * Creates RrdLogBackend object for the given file path.
+	 *
+	 * @param path	 File path
+	 * @param readOnly True, if the file should be accessed in read/only mode.
+	 *                 False otherwise.
+	 * @return RrdLogBackend object which handles all I/O operations for the given file path
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdLogBackend(path, readOnly, this);
+	}
+
+	/**
+	 * Applies all pending writes to RRD files, syncs them to disk and deletes applied log files.
+	 * Called periodically by the compactor, if enabled.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void compact() throws IOException {
+		synchronized (compactionLock) {
+			long lastLogNumber;
+			Map<String, RrdOverlay> pending = new TreeMap<String, RrdOverlay>();
+			synchronized (this) {
+				// writes from now on go to the next log file
+				log.close();
+				lastLogNumber = logNumber;
+				openLog();
+				for (Map.Entry<String, RrdOverlay> entry : overlays.entrySet()) {
+					if (entry.getValue().getByteCount() > 0) {
+						pending.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			for (Map.Entry<String, RrdOverlay> entry : pending.entrySet()) {
+				// writes made since the log was switched may be applied too, they are logged anyway
+				SortedMap<Long, byte[]> writes = entry.getValue().getAll();
+				apply(entry.getKey(), writes);
+				entry.getValue().removeAll(writes);
+			}
+			deleteLogs(lastLogNumber);
+		}
+	}
+
+	/**
+	 * Flushes the write-ahead log to the operating system.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public synchronized void flush() throws IOException {
+		log.flush();
+	}
+
+	/**
+	 * Stops the compactor, then applies all pending writes to RRD files. RRDs of this factory must not
+	 * be used afterwards.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		if (compactionTimer != null) {
+			compactionTimer.cancel();
+		}
+		compact();
+		synchronized (this) {
+			log.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes written to RRDs but not to RRD files yet.
+	 *
+	 * @return Number of pending bytes
+	 */
+	public synchronized long getPendingByteCount() {
+		long byteCount = 0;
+		for (RrdOverlay overlay : overlays.values()) {
+			byteCount += overlay.getByteCount();
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Returns the error of the last compaction started by the compactor.
+	 *
+	 * @return Exception thrown by the last periodic compaction, or null if it succeeded
+	 */
+	public synchronized IOException getLastCompactionException() {
+		return lastCompactionException;
+	}
+
+	private synchronized void setLastCompactionException(IOException e) {
+		lastCompactionException = e;
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to string "LOG")
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+
+	synchronized RrdOverlay getOverlay(String canonicalPath) {
+		RrdOverlay overlay = overlays.get(canonicalPath);
+		if (overlay == null) {
+			overlay = new RrdOverlay();
+			overlays.put(canonicalPath, overlay);
+		}
+		return overlay;
+	}
+
+	// log records and pending writes are kept in the same order
+	synchronized void log(String canonicalPath, RrdOverlay overlay, long offset, byte[] b) throws IOException {
+		log.writeUTF(canonicalPath);
+		log.writeLong(offset);
+		log.writeInt(b.length);
+		log.write(b);
+		overlay.put(offset, b.clone());
+	}
+
+	private void openLog() throws IOException {
+		logNumber++;
+		File file = new File(directory, LOG_PREFIX + logNumber + LOG_SUFFIX);
+		log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+
+	// log files by number, in the order they were written
+	private SortedMap<Long, File> getLogFiles() {
+		SortedMap<Long, File> files = new TreeMap<Long, File>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+					try {
+						long number = Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+						files.put(number, new File(directory, name));
+					}
+					catch (NumberFormatException e) {
+						// not a log file
+					}
+				}
+			}
+		}
+		return files;
+	}
+
+	private void deleteLogs(long lastLogNumber) throws IOException {
+		for (File file : getLogFiles().headMap(lastLogNumber + 1).values()) {
+			if (!file.delete()) {
+				throw new IOException("Could not delete log file " + file);
+			}
+		}
+	}
+
+	// applies log files left by a crash, in the order they were written
+	private void recover() throws IOException {
+		SortedMap<Long, File> files = getLogFiles();
+		Map<String, RrdOverlay> recovered = new TreeMap<String, RrdOverlay>();
+		for (File file : files.values()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					String path = in.readUTF();
+					long offset = in.readLong();
+					byte[] b = new byte[in.readInt()];
+					in.readFully(b);
+					RrdOverlay overlay = recovered.get(path);
+					if (overlay == null) {
+						overlay = new RrdOverlay();
+						recovered.put(path, overlay);
+					}
+					overlay.put(offset, b);
+				}
+			}
+			catch (EOFException e) {
+				// end of the log, or a record cut by a crash
+			}
+			finally {
+				in.close();
+			}
+		}
+		for (Map.Entry<String, RrdOverlay> entry : recovered.entrySet()) {
+			apply(entry.getKey(), entry.getValue().getAll());
+		}
+		if (!files.isEmpty()) {
+			logNumber = files.lastKey();
+			deleteLogs(logNumber);
+		}
+	}
+
+	// writes in file offset order, then syncs the file
+	private static void apply(String path, SortedMap<Long, byte[]> writes) throws IOException {
+		if (!Util.fileExists(path)) {
+			// deleted in the meantime
+			return;
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			for (Map.Entry<Long, byte[]> entry : writes.entrySet()) {
+				file.seek(entry.getKey());
+				file.write(entry.getValue());
+			}
+			file.getChannel().force(false);
+		}
+		finally {
+			file.close();
+		}
+	}
+}
@@ -41,10 +41,7 @@ public class RrdMemoryBackend extends RrdBackend {
 	protected void write(final long offset, final byte[] b) {
 		m_writeLock.lock();
 		try {
-		    int pos = (int) offset;
-			for (final byte singleByte : b) {
-				buffer[pos++] = singleByte;
-			}
+			System.arraycopy(b, 0, buffer, (int) offset, b.length);
 		} finally {
 			m_writeLock.unlock();
 		}
@@ -55,9 +52,7 @@ public class RrdMemoryBackend extends RrdBackend {
 		try {
 			int pos = (int) offset;
 			if (pos + b.length <= buffer.length) {
-				for (int i = 0; i < b.length; i++) {
-					b[i] = buffer[pos++];
-				}
+				System.arraycopy(buffer, pos, b, 0, b.length);
 			}
 			else {
 				throw new IOException("Not enough bytes available in memory " + getPath());
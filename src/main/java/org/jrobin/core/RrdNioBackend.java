@@ -19,9 +19,13 @@
 
 package org.jrobin.core;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
 
 
 import sun.nio.ch.DirectBuffer;
@@ -30,11 +34,23 @@ import sun.nio.ch.DirectBuffer;
  * JRobin backend which is used to store RRD data to ordinary disk files by
  * using fast java.nio.* package. This is the default backend engine since
  * JRobin 1.4.0.
+ * <p>
+ * Backends open in read-only mode share a single read-only mapping of the file, which is unmapped when
+ * the last of them is closed. They do not allow high-level caching, since reading the mapping is cheap
+ * and shows writes made by other backends at once. A file replaced by another one, for example by
+ * renaming a temporary file, is mapped again for backends opened later if its length or modification
+ * time changed. Backends already open keep reading the replaced file, and a replacement with the same
+ * length within the resolution of file modification times is not noticed.
  */
 @SuppressWarnings("restriction")
 public class RrdNioBackend extends RrdFileBackend {
     private final SyncManager m_syncManager;
     private MappedByteBuffer m_byteBuffer = null;
+    // read-only mappings by canonical path, shared by all read-only backends of the same file
+    private static final Map<String, SharedMapping> s_sharedMappings = new HashMap<String, SharedMapping>();
+    private SharedMapping m_sharedMapping = null;
+    // view of the shared mapping with its own position
+    private ByteBuffer m_readBuffer = null;
 
     /**
      * Creates RrdFileBackend object for the given file path, backed by
@@ -95,8 +111,58 @@ public class RrdNioBackend extends RrdFileBackend {
         }
         final long length = getLength();
         if (length > 0) {
-            final FileChannel.MapMode mapMode = isReadOnly() ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
-            m_byteBuffer = file.getChannel().map(mapMode, 0, length);
+            if (isReadOnly()) {
+                m_sharedMapping = acquireMapping(getCanonicalPath(), file.getChannel(), length);
+                m_readBuffer = m_sharedMapping.buffer.duplicate();
+            } else {
+                m_byteBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+        }
+    }
+
+    private static SharedMapping acquireMapping(final String canonicalPath, final FileChannel channel, final long length) throws IOException {
+        synchronized (s_sharedMappings) {
+            SharedMapping mapping = s_sharedMappings.get(canonicalPath);
+            // taken before mapping, so that later changes are noticed
+            final long lastModified = new File(canonicalPath).lastModified();
+            if (mapping == null || mapping.length != length || mapping.lastModified != lastModified) {
+                // a file created again or replaced keeps the old mapping for its current users
+                mapping = new SharedMapping(canonicalPath, channel.map(FileChannel.MapMode.READ_ONLY, 0, length),
+                        length, lastModified);
+                s_sharedMappings.put(canonicalPath, mapping);
+            }
+            mapping.referenceCount++;
+            return mapping;
+        }
+    }
+
+    private static void releaseMapping(final SharedMapping mapping) {
+        synchronized (s_sharedMappings) {
+            if (--mapping.referenceCount > 0) {
+                return;
+            }
+            if (s_sharedMappings.get(mapping.canonicalPath) == mapping) {
+                s_sharedMappings.remove(mapping.canonicalPath);
+            }
+        }
+        unmap(mapping.buffer);
+    }
+
+    /**
+     * Releases the memory mapping of the given buffer right away, instead of waiting for the garbage
+     * collector. The buffer must not be used afterwards.
+     *
+     * @param buffer Mapped buffer
+     */
+    static void unmap(final MappedByteBuffer buffer) {
+        if (buffer instanceof DirectBuffer) {
+            ((DirectBuffer) buffer).cleaner().clean();
+        }
+    }
+
+    static int getSharedMappingCount() {
+        synchronized (s_sharedMappings) {
+            return s_sharedMappings.size();
         }
     }
 
@@ -105,11 +171,14 @@ public class RrdNioBackend extends RrdFileBackend {
             stopSchedule();
         }
         if (m_byteBuffer != null) {
-            if (m_byteBuffer instanceof DirectBuffer) {
-                ((DirectBuffer) m_byteBuffer).cleaner().clean();
-            }
+            unmap(m_byteBuffer);
             m_byteBuffer = null;
         }
+        if (m_sharedMapping != null) {
+            releaseMapping(m_sharedMapping);
+            m_sharedMapping = null;
+            m_readBuffer = null;
+        }
     }
 
     private void startSchedule() {
@@ -175,6 +244,9 @@ public class RrdNioBackend extends RrdFileBackend {
         if (m_byteBuffer != null) {
             m_byteBuffer.position((int) offset);
             m_byteBuffer.get(b);
+        } else if (m_readBuffer != null) {
+            m_readBuffer.position((int) offset);
+            m_readBuffer.get(b);
         } else {
             throw new IOException("Read failed, file " + getPath() + " not mapped for I/O");
         }
@@ -195,6 +267,15 @@ public class RrdNioBackend extends RrdFileBackend {
         }
     }
 
+    /**
+     * High-level caching is allowed only if the file is open for writing.
+     *
+     * @return <code>false</code> if the file is open in read-only mode, <code>true</code> otherwise
+     */
+    protected boolean isCachingAllowed() {
+        return !isReadOnly();
+    }
+
     /**
      * This method forces all data cached in memory but not yet stored in the
      * file, to be stored in it.
@@ -204,4 +285,20 @@ public class RrdNioBackend extends RrdFileBackend {
             m_byteBuffer.force();
         }
     }
+
+    private static final class SharedMapping {
+        final String canonicalPath;
+        final MappedByteBuffer buffer;
+        final long length;
+        final long lastModified;
+        int referenceCount;
+
+        SharedMapping(final String canonicalPath, final MappedByteBuffer buffer, final long length,
+                      final long lastModified) {
+            this.canonicalPath = canonicalPath;
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Backend to be used to store all RRD bytes in memory, outside of the Java heap. RRD bytes are held
+ * in a direct {@link ByteBuffer}, so that many in-memory RRDs do not make garbage collection slower.
+ */
+public class RrdOffHeapBackend extends RrdBackend {
+	private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+	private final Lock readLock = readWriteLock.readLock();
+	private final Lock writeLock = readWriteLock.writeLock();
+	// held during all writes of an update, so that snapshots never save half of an update
+	private final Lock updateLock = new ReentrantLock();
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+	protected RrdOffHeapBackend(String path) {
+		super(path);
+	}
+
+	RrdOffHeapBackend(String path, ByteBuffer buffer) {
+		super(path);
+		this.buffer = buffer;
+	}
+
+	protected void write(final long offset, final byte[] b) throws IOException {
+		writeLock.lock();
+		try {
+			if (offset + b.length > buffer.capacity()) {
+				throw new IOException("Not enough bytes available in memory " + getPath());
+			}
+			buffer.position((int) offset);
+			buffer.put(b);
+		}
+		finally {
+			writeLock.unlock();
+		}
+	}
+
+	protected void read(final long offset, final byte[] b) throws IOException {
+		readLock.lock();
+		try {
+			if (offset + b.length > buffer.capacity()) {
+				throw new IOException("Not enough bytes available in memory " + getPath());
+			}
+			// readers share the lock, each one needs its own position
+			ByteBuffer view = buffer.duplicate();
+			view.position((int) offset);
+			view.get(b);
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of RRD bytes held in memory.
+	 *
+	 * @return Number of all RRD bytes.
+	 */
+	public long getLength() {
+		readLock.lock();
+		try {
+			return buffer.capacity();
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Reserves a memory section as a RRD storage.
+	 *
+	 * @param newLength Number of bytes held in memory.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void setLength(final long newLength) throws IOException {
+		writeLock.lock();
+		try {
+			if (newLength > Integer.MAX_VALUE) {
+				throw new IOException("Cannot create this big memory backed RRD");
+			}
+			buffer = ByteBuffer.allocateDirect((int) newLength);
+		}
+		finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Prevents snapshots of this RRD until the update is done.
+	 */
+	protected void beforeUpdate() {
+		updateLock.lock();
+	}
+
+	/**
+	 * Allows snapshots of this RRD again.
+	 */
+	protected void afterUpdate() {
+		updateLock.unlock();
+	}
+
+	/**
+	 * Allows snapshots of this RRD again.
+	 */
+	protected void abortUpdate() {
+		updateLock.unlock();
+	}
+
+	// writes the ID, the length and all RRD bytes at the current position of the channel,
+	// waiting for the update in progress, if any
+	void writeTo(FileChannel channel, byte[] id) throws IOException {
+		updateLock.lock();
+		readLock.lock();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(12 + id.length);
+			header.putInt(id.length).put(id).putLong(buffer.capacity()).flip();
+			ByteBuffer view = buffer.duplicate();
+			view.clear();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			while (view.hasRemaining()) {
+				channel.write(view);
+			}
+		}
+		finally {
+			readLock.unlock();
+			updateLock.unlock();
+		}
+	}
+
+	/**
+	 * This method is required by the base class definition, but it does not
+	 * releases any memory resources at all.
+	 */
+	public void close() {
+		// NOP
+	}
+
+	/**
+	 * This method is overridden to disable high-level caching in frontend JRobin classes.
+	 *
+	 * @return Always returns <code>false</code>. There is no need to cache anything in high-level classes
+	 *         since all RRD bytes are already in memory.
+	 */
+	protected boolean isCachingAllowed() {
+		return false;
+	}
+}
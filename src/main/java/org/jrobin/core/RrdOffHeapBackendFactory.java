@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Factory class which creates actual {@link RrdOffHeapBackend} objects. Like with the
+ * {@link RrdMemoryBackendFactory}, all RRDs are held in memory, but RRD bytes are stored outside of
+ * the Java heap, in direct byte buffers. Large numbers of in-memory RRDs therefore neither need a big
+ * heap nor make garbage collection pauses longer.
+ * <p>
+ * Calling {@link RrdDb#close() close()} on RrdDb objects does not release any memory at all
+ * (RRD data must be available for the next <code>new RrdDb(path)</code> call. To release allocated
+ * memory, you'll have to call {@link #delete(String) delete(path)} method of this class. Memory of
+ * deleted RRDs is released by the garbage collector of direct buffers.
+ * <p>
+ * All RRDs can be saved to a single snapshot file, once with {@link #saveSnapshot(String)} or
+ * periodically with {@link #startSnapshots(String, long)}, and loaded back with
+ * {@link #loadSnapshot(String)} when the application starts again. A RRD being updated (see
+ * {@link Sample#update()}) is saved once the update is done, so that snapshots never hold half of an
+ * update. Other changes, like the creation of a RRD or changes of datasource and archive definitions,
+ * are not waited for: a snapshot saved at the same time may hold them partially. RRDs are saved one
+ * after another, not at a single point in time.
+ */
+public class RrdOffHeapBackendFactory extends RrdBackendFactory {
+	/**
+	 * factory name, "OFFHEAP"
+	 */
+	public static final String NAME = "OFFHEAP";
+
+	private static final long SNAPSHOT_SIGNATURE = 0x4a524f42534e4150L; // "JROBSNAP"
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final String SNAPSHOT_CHARSET = "UTF-8";
+	private static final String SNAPSHOT_THREAD_NAME = "RrdOffHeapBackendFactory-snapshot";
+
+	private final Map<String, RrdOffHeapBackend> backends = new HashMap<String, RrdOffHeapBackend>();
+	// snapshots saved at the same time would share their temporary file
+	private final Object snapshotLock = new Object();
+	private Timer snapshotTimer;
+	private IOException lastSnapshotException;
+
+	/**
+	 * Creates RrdOffHeapBackend object.
+	 *
+	 * @param id	   Since this backend holds all data in memory, this argument is interpreted
+	 *                 as an ID for this memory-based storage.
+	 * @param readOnly This parameter is ignored
+	 * @return RrdOffHeapBackend object which handles all I/O operations
+	 */
+	protected synchronized RrdBackend open(String id, boolean readOnly) {
+		RrdOffHeapBackend backend = backends.get(id);
+		if (backend == null) {
+			backend = new RrdOffHeapBackend(id);
+			backends.put(id, backend);
+		}
+		return backend;
+	}
+
+	/**
+	 * Method to determine if a memory storage with the given ID already exists.
+	 *
+	 * @param id Memory storage ID.
+	 * @return True, if such storage exists, false otherwise.
+	 */
+	protected synchronized boolean exists(String id) {
+		return backends.containsKey(id);
+	}
+
+	/**
+	 * Removes the storage with the given ID from the memory.
+	 *
+	 * @param id Storage ID
+	 * @return True, if the storage with the given ID is deleted, false otherwise.
+	 */
+	public synchronized boolean delete(String id) {
+		return backends.remove(id) != null;
+	}
+
+	/**
+	 * Returns the number of RRD bytes held in memory by all storages.
+	 *
+	 * @return Number of RRD bytes
+	 */
+	public synchronized long getByteCount() {
+		long byteCount = 0;
+		for (RrdOffHeapBackend backend : backends.values()) {
+			byteCount += backend.getLength();
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Saves all storages to a single snapshot file. The snapshot is written to a temporary file
+	 * first, which then replaces the previous snapshot, if any. Snapshots are saved one at a time.
+	 *
+	 * @param path Path to the snapshot file
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void saveSnapshot(String path) throws IOException {
+		synchronized (snapshotLock) {
+			writeSnapshot(path);
+		}
+	}
+
+	private void writeSnapshot(String path) throws IOException {
+		Map<String, RrdOffHeapBackend> copy;
+		synchronized (this) {
+			copy = new HashMap<String, RrdOffHeapBackend>(backends);
+		}
+		File file = new File(path);
+		File tempFile = new File(path + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(12);
+			header.putLong(SNAPSHOT_SIGNATURE).putInt(SNAPSHOT_VERSION).flip();
+			writeFully(channel, header);
+			for (Map.Entry<String, RrdOffHeapBackend> entry : copy.entrySet()) {
+				// skip RRDs being created
+				if (entry.getValue().getLength() > 0) {
+					entry.getValue().writeTo(channel, entry.getKey().getBytes(SNAPSHOT_CHARSET));
+				}
+			}
+			channel.force(true);
+		}
+		finally {
+			raf.close();
+		}
+		if (!tempFile.renameTo(file)) {
+			// cannot replace existing files on some platforms
+			if (!file.delete() || !tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Loads all storages saved to a snapshot file. Storages with the same ID are replaced, so snapshots
+	 * should be loaded before RRDs are opened, usually when the application starts.
+	 *
+	 * @param path Path to the snapshot file
+	 * @return Number of storages loaded
+	 * @throws IOException Thrown in case of I/O error, or if the file is not a valid snapshot
+	 */
+	public int loadSnapshot(String path) throws IOException {
+		List<RrdOffHeapBackend> loaded = new ArrayList<RrdOffHeapBackend>();
+		FileInputStream in = new FileInputStream(path);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer header = readFully(channel, ByteBuffer.allocate(12));
+			if (header.getLong() != SNAPSHOT_SIGNATURE || header.getInt() != SNAPSHOT_VERSION) {
+				throw new IOException("Not a snapshot of off-heap RRDs: " + path);
+			}
+			while (channel.position() < channel.size()) {
+				int idLength = readFully(channel, ByteBuffer.allocate(4)).getInt();
+				if (idLength < 0 || idLength > channel.size() - channel.position()) {
+					throw new IOException("Invalid RRD ID length in snapshot " + path);
+				}
+				ByteBuffer entryHeader = readFully(channel, ByteBuffer.allocate(idLength + 8));
+				byte[] id = new byte[idLength];
+				entryHeader.get(id);
+				long length = entryHeader.getLong();
+				if (length < 0 || length > Integer.MAX_VALUE || length > channel.size() - channel.position()) {
+					throw new IOException("Invalid RRD length in snapshot " + path);
+				}
+				ByteBuffer buffer = readFully(channel, ByteBuffer.allocateDirect((int) length));
+				loaded.add(new RrdOffHeapBackend(new String(id, SNAPSHOT_CHARSET), buffer));
+			}
+		}
+		finally {
+			in.close();
+		}
+		synchronized (this) {
+			for (RrdOffHeapBackend backend : loaded) {
+				backends.put(backend.getPath(), backend);
+			}
+		}
+		return loaded.size();
+	}
+
+	/**
+	 * Starts saving all storages to a snapshot file periodically, in a background thread. Snapshots
+	 * already being saved periodically are stopped.
+	 *
+	 * @param path   Path to the snapshot file
+	 * @param period Time between snapshots, in seconds
+	 * @throws RrdException Thrown if the period is not positive
+	 */
+	public synchronized void startSnapshots(final String path, long period) throws RrdException {
+		if (period <= 0) {
+			throw new RrdException("Invalid snapshot period: " + period);
+		}
+		stopSnapshots();
+		snapshotTimer = new Timer(SNAPSHOT_THREAD_NAME, true);
+		snapshotTimer.schedule(new TimerTask() {
+			public void run() {
+				try {
+					saveSnapshot(path);
+					setLastSnapshotException(null);
+				}
+				catch (IOException e) {
+					setLastSnapshotException(e);
+				}
+			}
+		}, period * 1000L, period * 1000L);
+	}
+
+	/**
+	 * Stops saving snapshots periodically.
+	 */
+	public synchronized void stopSnapshots() {
+		if (snapshotTimer != null) {
+			snapshotTimer.cancel();
+			snapshotTimer = null;
+		}
+	}
+
+	/**
+	 * Returns the error of the last snapshot saved periodically.
+	 *
+	 * @return Exception thrown by the last periodic snapshot, or null if it was saved
+	 */
+	public synchronized IOException getLastSnapshotException() {
+		return lastSnapshotException;
+	}
+
+	private synchronized void setLastSnapshotException(IOException e) {
+		lastSnapshotException = e;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of snapshot file");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to "OFFHEAP").
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+}
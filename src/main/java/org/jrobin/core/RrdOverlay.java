@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Pending writes of a RRD file, as non-overlapping byte ranges by file offset. Byte arrays are
+ * never changed once added.
+ */
+final class RrdOverlay {
+	private final TreeMap<Long, byte[]> writes = new TreeMap<Long, byte[]>();
+	private long byteCount;
+
+	synchronized void put(long offset, byte[] b) {
+		if (b.length == 0) {
+			return;
+		}
+		long end = offset + b.length;
+		Map.Entry<Long, byte[]> lower = writes.lowerEntry(offset);
+		if (lower != null && lower.getKey() + lower.getValue().length > offset) {
+			// keep parts of an earlier write around this one
+			byte[] bytes = lower.getValue();
+			remove(lower.getKey());
+			add(lower.getKey(), Arrays.copyOfRange(bytes, 0, (int) (offset - lower.getKey())));
+			if (lower.getKey() + bytes.length > end) {
+				add(end, Arrays.copyOfRange(bytes, (int) (end - lower.getKey()), bytes.length));
+			}
+		}
+		SortedMap<Long, byte[]> covered = writes.subMap(offset, end);
+		if (!covered.isEmpty()) {
+			long lastKey = covered.lastKey();
+			byte[] last = covered.get(lastKey);
+			for (Long key : new ArrayList<Long>(covered.keySet())) {
+				remove(key);
+			}
+			if (lastKey + last.length > end) {
+				add(end, Arrays.copyOfRange(last, (int) (end - lastKey), last.length));
+			}
+		}
+		add(offset, b);
+	}
+
+	// writes overlapping the given range
+	synchronized SortedMap<Long, byte[]> get(long offset, int length) {
+		SortedMap<Long, byte[]> result = new TreeMap<Long, byte[]>();
+		Map.Entry<Long, byte[]> lower = writes.lowerEntry(offset);
+		if (lower != null && lower.getKey() + lower.getValue().length > offset) {
+			result.put(lower.getKey(), lower.getValue());
+		}
+		result.putAll(writes.subMap(offset, offset + length));
+		return result;
+	}
+
+	synchronized SortedMap<Long, byte[]> getAll() {
+		return new TreeMap<Long, byte[]>(writes);
+	}
+
+	// removes writes applied to the file, unless replaced in the meantime
+	synchronized void removeAll(SortedMap<Long, byte[]> applied) {
+		for (Map.Entry<Long, byte[]> entry : applied.entrySet()) {
+			if (writes.get(entry.getKey()) == entry.getValue()) {
+				remove(entry.getKey());
+			}
+		}
+	}
+
+	// removes writes with the same bytes as the given writes, which are already in the file
+	synchronized void removeWritten(SortedMap<Long, byte[]> written) {
+		for (Map.Entry<Long, byte[]> entry : new ArrayList<Map.Entry<Long, byte[]>>(writes.entrySet())) {
+			if (isWritten(written, entry.getKey(), entry.getValue())) {
+				remove(entry.getKey());
+			}
+		}
+	}
+
+	private static boolean isWritten(SortedMap<Long, byte[]> written, long offset, byte[] b) {
+		long position = offset, end = offset + b.length;
+		SortedMap<Long, byte[]> head = written.headMap(offset + 1);
+		SortedMap<Long, byte[]> pieces = written.subMap(head.isEmpty() ? offset : head.lastKey(), end);
+		for (Map.Entry<Long, byte[]> piece : pieces.entrySet()) {
+			long pieceEnd = piece.getKey() + piece.getValue().length;
+			if (pieceEnd <= position) {
+				continue;
+			}
+			if (piece.getKey() > position) {
+				// not covered
+				return false;
+			}
+			long stop = Math.min(pieceEnd, end);
+			for (long i = position; i < stop; i++) {
+				if (piece.getValue()[(int) (i - piece.getKey())] != b[(int) (i - offset)]) {
+					return false;
+				}
+			}
+			position = stop;
+		}
+		return position == end;
+	}
+
+	synchronized long getByteCount() {
+		return byteCount;
+	}
+
+	private void add(long offset, byte[] b) {
+		writes.put(offset, b);
+		byteCount += b.length;
+	}
+
+	private void remove(long offset) {
+		byteCount -= writes.remove(offset).length;
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+
+/**
+ * JRobin backend which forwards all I/O operations to a {@link RrdRemoteServer}. Writes do not wait
+ * for the server, and reads of RRD definitions are served from the cache of the
+ * {@link RrdRemoteBackendFactory}, until definitions are written.
+ */
+public class RrdRemoteBackend extends RrdBackend {
+	private final RrdRemoteBackendFactory factory;
+	private final RrdRemoteBackendFactory.Connection connection;
+	private final int handle;
+	private long length;
+	private RrdRemoteBackendFactory.Constants constants;
+	private boolean closed;
+
+	/**
+	 * Creates RrdRemoteBackend object for the given path, and opens the RRD on the server.
+	 *
+	 * @param path	 Path on the server host
+	 * @param readOnly True, if the RRD should be open in a read-only mode. False otherwise
+	 * @param factory  Factory owning connections to the server
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected RrdRemoteBackend(String path, boolean readOnly, RrdRemoteBackendFactory factory) throws IOException {
+		super(path, readOnly);
+		this.factory = factory;
+		this.connection = factory.getConnection();
+		RrdRemoteBackendFactory.OpenResult result;
+		try {
+			result = connection.open(path, readOnly, factory.getConstants(path));
+		}
+		catch (IOException e) {
+			factory.release(connection);
+			throw e;
+		}
+		handle = result.handle;
+		length = result.length;
+		constants = result.constants;
+		factory.setConstants(path, constants);
+	}
+
+	/**
+	 * Sends bytes to be written, without waiting for the result. Cached definitions overlapping
+	 * the written bytes are dropped.
+	 *
+	 * @param offset Starting offset
+	 * @param b	  Bytes to be written.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void write(long offset, byte[] b) throws IOException {
+		if (isReadOnly()) {
+			throw new IOException("RRD file " + getPath() + " is open in read-only mode");
+		}
+		if (constants != null && constants.overlaps(offset, b.length)) {
+			factory.dropConstants(getPath(), constants);
+			constants = null;
+		}
+		connection.write(handle, offset, b);
+	}
+
+	/**
+	 * Reads bytes from the cached definitions, or from the server.
+	 *
+	 * @param offset Starting offset
+	 * @param b	  Buffer which receives bytes read.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void read(long offset, byte[] b) throws IOException {
+		if (constants == null || !constants.read(offset, b)) {
+			connection.read(handle, offset, b);
+		}
+	}
+
+	/**
+	 * Returns the length of the RRD.
+	 *
+	 * @return Length of the RRD, in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Sets the length of the new RRD. Cached definitions of a previous RRD with the same path are dropped.
+	 *
+	 * @param length Length of the RRD, in bytes
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void setLength(long length) throws IOException {
+		constants = null;
+		factory.setConstants(getPath(), null);
+		connection.setLength(handle, length);
+		this.length = length;
+	}
+
+	/**
+	 * Closes the RRD on the server, after all writes are done.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			connection.close(handle);
+		}
+		finally {
+			factory.release(connection);
+		}
+	}
+}
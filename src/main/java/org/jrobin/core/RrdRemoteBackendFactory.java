@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Factory class which creates actual {@link RrdRemoteBackend} objects. RRDs are read and written over
+ * TCP, through a {@link RrdRemoteServer} running on the host storing the RRD files. Paths are paths on
+ * the server host, within the root directory of the server.
+ * <p>
+ * Writes are pipelined: they are sent in batches together with the next request waiting for a result,
+ * and their errors are reported by that request, or by the write filling the pipeline. RRD definitions
+ * (datasource and archive definitions) are cached by the factory. Cached definitions are checked against
+ * the checksum of the definitions found on the server each time a RRD is opened, and dropped as soon as
+ * they are written. Definitions changed on the server by other clients are seen by RRDs opened later.
+ * Connections are reused by RRDs opened later.
+ * <p>
+ * The factory is not registered by default, since it needs the address of the server:
+ * <pre>
+ * RrdBackendFactory.registerFactory(new RrdRemoteBackendFactory("rrdstore", 7777));
+ * RrdDb rrdDb = new RrdDb(path, RrdBackendFactory.getFactory(RrdRemoteBackendFactory.NAME));
+ * </pre>
+ */
+public class RrdRemoteBackendFactory extends RrdBackendFactory {
+	/**
+	 * factory name, "REMOTE"
+	 */
+	public static final String NAME = "REMOTE";
+
+	private final String host;
+	private final int port;
+	private final LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+	// definitions of RRDs opened before, by path
+	private final Map<String, Constants> constants = new HashMap<String, Constants>();
+
+	/**
+	 * Creates a factory using the given server.
+	 *
+	 * @param host Host name of the server
+	 * @param port Port number of the server
+	 */
+	public RrdRemoteBackendFactory(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Creates RrdRemoteBackend object for the given path.
+	 *
+	 * @param path	 Path on the server host
+	 * @param readOnly True, if the RRD should be accessed in read/only mode.
+	 *                 False otherwise.
+	 * @return RrdRemoteBackend object which handles all I/O operations for the given path
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdRemoteBackend(path, readOnly, this);
+	}
+
+	/**
+	 * Method to determine if a file with the given path exists on the server host.
+	 *
+	 * @param path Path on the server host
+	 * @return True, if such file exists, false otherwise.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected boolean exists(String path) throws IOException {
+		Connection connection = getConnection();
+		try {
+			return connection.exists(path);
+		}
+		finally {
+			release(connection);
+		}
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to string "REMOTE")
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+
+	/**
+	 * Closes idle connections. Connections of open RRDs are closed when RRDs are closed.
+	 */
+	public void close() {
+		synchronized (idleConnections) {
+			for (Connection connection : idleConnections) {
+				connection.close();
+			}
+			idleConnections.clear();
+		}
+	}
+
+	Connection getConnection() throws IOException {
+		synchronized (idleConnections) {
+			if (!idleConnections.isEmpty()) {
+				return idleConnections.removeFirst();
+			}
+		}
+		return new Connection(host, port);
+	}
+
+	void release(Connection connection) {
+		if (connection.isBroken()) {
+			connection.close();
+			return;
+		}
+		synchronized (idleConnections) {
+			idleConnections.addFirst(connection);
+		}
+	}
+
+	synchronized Constants getConstants(String path) {
+		return constants.get(path);
+	}
+
+	synchronized void setConstants(String path, Constants pathConstants) {
+		if (pathConstants != null) {
+			constants.put(path, pathConstants);
+		}
+		else {
+			constants.remove(path);
+		}
+	}
+
+	// drops the definitions of the path if they are still the given ones
+	synchronized void dropConstants(String path, Constants pathConstants) {
+		if (constants.get(path) == pathConstants) {
+			constants.remove(path);
+		}
+	}
+
+	/**
+	 * Definitions of a RRD, which change only when datasources or archives are tuned.
+	 */
+	static final class Constants {
+		final long checksum;
+		private final TreeMap<Long, byte[]> ranges;
+
+		Constants(long checksum, TreeMap<Long, byte[]> ranges) {
+			this.checksum = checksum;
+			this.ranges = ranges;
+		}
+
+		boolean overlaps(long offset, int length) {
+			Map.Entry<Long, byte[]> range = ranges.lowerEntry(offset + length);
+			return range != null && range.getKey() + range.getValue().length > offset;
+		}
+
+		// returns false if the bytes are not within a single definition
+		boolean read(long offset, byte[] b) {
+			Map.Entry<Long, byte[]> range = ranges.floorEntry(offset);
+			if (range == null || offset + b.length > range.getKey() + range.getValue().length) {
+				return false;
+			}
+			System.arraycopy(range.getValue(), (int) (offset - range.getKey()), b, 0, b.length);
+			return true;
+		}
+	}
+
+	static final class OpenResult {
+		final int handle;
+		final long length;
+		final Constants constants;
+
+		OpenResult(int handle, long length, Constants constants) {
+			this.handle = handle;
+			this.length = length;
+			this.constants = constants;
+		}
+	}
+
+	/**
+	 * Connection to the server, used by a single RRD at a time. Results are received in the order
+	 * requests were sent.
+	 */
+	static final class Connection {
+		// results of writes sent before are received once there are that many, so that the server never
+		// blocks on results the client does not read
+		private static final int MAX_PENDING_WRITES = 256;
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		// writes sent without waiting for their results
+		private int pendingWriteCount;
+		// false once the protocol is known to be in sync again after a request
+		private boolean broken;
+
+		Connection(String host, int port) throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		boolean isBroken() {
+			return broken;
+		}
+
+		// the given definitions are kept if still valid
+		OpenResult open(String path, boolean readOnly, Constants cached) throws IOException {
+			broken = true;
+			out.writeByte(RrdRemoteServer.OP_OPEN);
+			out.writeUTF(path);
+			out.writeBoolean(readOnly);
+			out.writeLong(cached != null ? cached.checksum : -1);
+			String writeError = receiveWrites();
+			String error = receiveStatus();
+			OpenResult result = null;
+			if (error == null) {
+				int handle = in.readInt();
+				long length = in.readLong();
+				Constants constants = cached;
+				if (in.readBoolean()) {
+					long checksum = in.readLong();
+					TreeMap<Long, byte[]> ranges = new TreeMap<Long, byte[]>();
+					for (int count = in.readInt(); count > 0; count--) {
+						long offset = in.readLong();
+						byte[] b = new byte[in.readInt()];
+						in.readFully(b);
+						ranges.put(offset, b);
+					}
+					constants = ranges.isEmpty() ? null : new Constants(checksum, ranges);
+				}
+				result = new OpenResult(handle, length, constants);
+			}
+			broken = false;
+			check(writeError, error);
+			return result;
+		}
+
+		boolean exists(String path) throws IOException {
+			broken = true;
+			out.writeByte(RrdRemoteServer.OP_EXISTS);
+			out.writeUTF(path);
+			String writeError = receiveWrites();
+			String error = receiveStatus();
+			boolean exists = error == null && in.readBoolean();
+			broken = false;
+			check(writeError, error);
+			return exists;
+		}
+
+		void read(int handle, long offset, byte[] b) throws IOException {
+			broken = true;
+			out.writeByte(RrdRemoteServer.OP_READ);
+			out.writeInt(handle);
+			out.writeLong(offset);
+			out.writeInt(b.length);
+			String writeError = receiveWrites();
+			String error = receiveStatus();
+			if (error == null) {
+				in.readFully(b);
+			}
+			broken = false;
+			check(writeError, error);
+		}
+
+		// does not wait for the result, unless too many results are pending
+		void write(int handle, long offset, byte[] b) throws IOException {
+			// long writes are split, the server rejects them
+			for (int start = 0; start < b.length || start == 0; start += RrdRemoteServer.MAX_WRITE_LENGTH) {
+				int length = Math.min(b.length - start, RrdRemoteServer.MAX_WRITE_LENGTH);
+				broken = true;
+				out.writeByte(RrdRemoteServer.OP_WRITE);
+				out.writeInt(handle);
+				out.writeLong(offset + start);
+				out.writeInt(length);
+				out.write(b, start, length);
+				pendingWriteCount++;
+				String writeError = pendingWriteCount >= MAX_PENDING_WRITES ? receiveWrites() : null;
+				broken = false;
+				check(writeError, null);
+			}
+		}
+
+		void setLength(int handle, long length) throws IOException {
+			broken = true;
+			out.writeByte(RrdRemoteServer.OP_SET_LENGTH);
+			out.writeInt(handle);
+			out.writeLong(length);
+			String writeError = receiveWrites();
+			String error = receiveStatus();
+			broken = false;
+			check(writeError, error);
+		}
+
+		void close(int handle) throws IOException {
+			broken = true;
+			out.writeByte(RrdRemoteServer.OP_CLOSE);
+			out.writeInt(handle);
+			String writeError = receiveWrites();
+			String error = receiveStatus();
+			broken = false;
+			check(writeError, error);
+		}
+
+		void close() {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// nothing to do
+			}
+		}
+
+		// sends all requests, then receives results of pending writes
+		private String receiveWrites() throws IOException {
+			out.flush();
+			String error = null;
+			for (; pendingWriteCount > 0; pendingWriteCount--) {
+				String writeError = receiveStatus();
+				if (error == null) {
+					error = writeError;
+				}
+			}
+			return error;
+		}
+
+		private String receiveStatus() throws IOException {
+			byte status = in.readByte();
+			if (status == RrdRemoteServer.STATUS_OK) {
+				return null;
+			}
+			else if (status == RrdRemoteServer.STATUS_ERROR) {
+				return in.readUTF();
+			}
+			throw new IOException("Invalid response from " + socket.getRemoteSocketAddress());
+		}
+
+		private static void check(String writeError, String error) throws IOException {
+			if (writeError != null) {
+				throw new IOException(writeError);
+			}
+			if (error != null) {
+				throw new IOException(error);
+			}
+		}
+	}
+}
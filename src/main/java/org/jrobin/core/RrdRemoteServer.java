@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Storage server for the {@link RrdRemoteBackendFactory}. RRDs requested by clients are opened with
+ * an ordinary backend factory of the server host, so that RRD files can be read and written from other
+ * hosts without a network file system.
+ * <p>
+ * Each client connection is served by its own thread. Requests of a connection are executed in order,
+ * and their results are sent back in the same order, in batches, so that clients may send several
+ * requests before waiting for results. Successful writes are acknowledged with a single byte, which
+ * clients receive in batches. When an RRD is opened, its definitions are sent along with it, to be cached
+ * by the client, unless the client already holds definitions with the same checksum.
+ * <p>
+ * The protocol has no authentication: anyone who can reach the port can read, create and overwrite RRDs.
+ * The server therefore listens on the loopback interface unless another address is given, and serves only
+ * paths within its root directory. Relative paths are resolved against the root directory, and other
+ * paths are rejected.
+ * <p>
+ * <pre>
+ * RrdRemoteServer server = new RrdRemoteServer(RrdBackendFactory.getFactory("FILE"), 7777, "/var/rrd");
+ * ...
+ * server.close();
+ * </pre>
+ */
+public class RrdRemoteServer {
+	static final byte OP_OPEN = 1, OP_EXISTS = 2, OP_READ = 3, OP_WRITE = 4, OP_SET_LENGTH = 5, OP_CLOSE = 6;
+	static final byte STATUS_OK = 0, STATUS_ERROR = 1;
+	/**
+	 * Maximum number of bytes written by a single request. Clients split longer writes.
+	 */
+	static final int MAX_WRITE_LENGTH = 1024 * 1024;
+
+	private static final String THREAD_NAME = "RrdRemoteServer";
+
+	private final RrdBackendFactory factory;
+	// canonical path of the root directory, ending with a separator
+	private final String rootPath;
+	private final ServerSocket serverSocket;
+	private final List<Socket> sockets = new ArrayList<Socket>();
+	private final AtomicInteger connectionNumber = new AtomicInteger();
+	private boolean closed;
+
+	/**
+	 * Creates a server accepting connections on the given port of the loopback interface.
+	 *
+	 * @param factory	   Factory opening RRDs requested by clients
+	 * @param port		  Port number, or zero to use any free port
+	 * @param rootDirectory Directory holding the RRDs served
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public RrdRemoteServer(RrdBackendFactory factory, int port, String rootDirectory) throws IOException {
+		this(factory, InetAddress.getByName(null), port, rootDirectory);
+	}
+
+	/**
+	 * Creates a server accepting connections on the given address and port.
+	 *
+	 * @param factory	   Factory opening RRDs requested by clients
+	 * @param bindAddress   Local address to listen on, or null to listen on all interfaces
+	 * @param port		  Port number, or zero to use any free port
+	 * @param rootDirectory Directory holding the RRDs served
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public RrdRemoteServer(RrdBackendFactory factory, InetAddress bindAddress, int port, String rootDirectory)
+			throws IOException {
+		String root = new File(rootDirectory).getCanonicalPath();
+		this.factory = factory;
+		this.rootPath = root.endsWith(File.separator) ? root : root + File.separator;
+		this.serverSocket = new ServerSocket(port, 0, bindAddress);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, THREAD_NAME + "-accept");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the port the server is listening on.
+	 *
+	 * @return Port number
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections and closes all open connections, together with their RRDs.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		List<Socket> open;
+		synchronized (this) {
+			closed = true;
+			open = new ArrayList<Socket>(sockets);
+		}
+		serverSocket.close();
+		for (Socket socket : open) {
+			socket.close();
+		}
+	}
+
+	private void accept() {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			}
+			catch (IOException e) {
+				// closed
+				return;
+			}
+			synchronized (this) {
+				if (closed) {
+					closeQuietly(socket);
+					return;
+				}
+				sockets.add(socket);
+			}
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						serve(socket);
+					}
+					catch (IOException e) {
+						// connection lost, RRDs are closed anyway
+					}
+					finally {
+						synchronized (RrdRemoteServer.this) {
+							sockets.remove(socket);
+						}
+						closeQuietly(socket);
+					}
+				}
+			}, THREAD_NAME + "-" + connectionNumber.incrementAndGet());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		Map<Integer, RrdBackend> backends = new HashMap<Integer, RrdBackend>();
+		int lastHandle = 0;
+		try {
+			while (true) {
+				int op;
+				try {
+					op = in.read();
+				}
+				catch (SocketException e) {
+					// closed by the server
+					return;
+				}
+				if (op < 0) {
+					return;
+				}
+				switch (op) {
+					case OP_OPEN: {
+						String path = in.readUTF();
+						boolean readOnly = in.readBoolean();
+						long cachedChecksum = in.readLong();
+						RrdBackend backend = null;
+						try {
+							backend = factory.open(resolvePath(path), readOnly);
+							long length = backend.getLength();
+							SortedMap<Long, byte[]> constants = readConstants(backend, length);
+							long checksum = getChecksum(constants);
+							backends.put(++lastHandle, backend);
+							out.writeByte(STATUS_OK);
+							out.writeInt(lastHandle);
+							out.writeLong(length);
+							// definitions cached by the client are still valid if their checksum matches
+							out.writeBoolean(checksum != cachedChecksum);
+							if (checksum != cachedChecksum) {
+								out.writeLong(checksum);
+								out.writeInt(constants.size());
+								for (Map.Entry<Long, byte[]> entry : constants.entrySet()) {
+									out.writeLong(entry.getKey());
+									out.writeInt(entry.getValue().length);
+									out.write(entry.getValue());
+								}
+							}
+						}
+						catch (IOException e) {
+							if (backend != null && !backends.containsValue(backend)) {
+								backend.close();
+							}
+							writeError(out, e);
+						}
+						break;
+					}
+					case OP_EXISTS: {
+						String path = in.readUTF();
+						try {
+							boolean exists = factory.exists(resolvePath(path));
+							out.writeByte(STATUS_OK);
+							out.writeBoolean(exists);
+						}
+						catch (IOException e) {
+							writeError(out, e);
+						}
+						break;
+					}
+					case OP_READ: {
+						RrdBackend backend = backends.get(in.readInt());
+						long offset = in.readLong();
+						int length = in.readInt();
+						// checked before allocating anything, a client cannot claim memory of the server
+						if (length < 0 || offset < 0 ||
+								(backend != null && offset > backend.getLength() - length)) {
+							throw new IOException("Invalid read of " + length + " bytes at offset " + offset);
+						}
+						try {
+							RrdBackend openBackend = getBackend(backend);
+							byte[] b = new byte[length];
+							openBackend.read(offset, b);
+							out.writeByte(STATUS_OK);
+							out.write(b);
+						}
+						catch (IOException e) {
+							writeError(out, e);
+						}
+						break;
+					}
+					case OP_WRITE: {
+						RrdBackend backend = backends.get(in.readInt());
+						long offset = in.readLong();
+						int length = in.readInt();
+						if (length < 0 || length > MAX_WRITE_LENGTH || offset < 0) {
+							throw new IOException("Invalid write of " + length + " bytes at offset " + offset);
+						}
+						byte[] b = new byte[length];
+						in.readFully(b);
+						try {
+							getBackend(backend).write(offset, b);
+							out.writeByte(STATUS_OK);
+						}
+						catch (IOException e) {
+							writeError(out, e);
+						}
+						break;
+					}
+					case OP_SET_LENGTH: {
+						RrdBackend backend = backends.get(in.readInt());
+						long length = in.readLong();
+						try {
+							getBackend(backend).setLength(length);
+							out.writeByte(STATUS_OK);
+						}
+						catch (IOException e) {
+							writeError(out, e);
+						}
+						break;
+					}
+					case OP_CLOSE: {
+						RrdBackend backend = backends.remove(in.readInt());
+						try {
+							getBackend(backend).close();
+							out.writeByte(STATUS_OK);
+						}
+						catch (IOException e) {
+							writeError(out, e);
+						}
+						break;
+					}
+					default:
+						throw new IOException("Unknown request " + op);
+				}
+				if (in.available() == 0) {
+					// results of requests received together are sent together
+					out.flush();
+				}
+			}
+		}
+		finally {
+			for (RrdBackend backend : backends.values()) {
+				try {
+					backend.close();
+				}
+				catch (IOException e) {
+					// closing the others anyway
+				}
+			}
+		}
+	}
+
+	// canonical path of a RRD within the root directory
+	private String resolvePath(String path) throws IOException {
+		File file = new File(path);
+		if (!file.isAbsolute()) {
+			file = new File(rootPath, path);
+		}
+		String canonicalPath = file.getCanonicalPath();
+		if (!canonicalPath.startsWith(rootPath)) {
+			throw new IOException("Path outside of the root directory: " + path);
+		}
+		return canonicalPath;
+	}
+
+	private static RrdBackend getBackend(RrdBackend backend) throws IOException {
+		if (backend == null) {
+			throw new IOException("RRD not open");
+		}
+		return backend;
+	}
+
+	private static void writeError(DataOutputStream out, IOException e) throws IOException {
+		out.writeByte(STATUS_ERROR);
+		out.writeUTF(e.getMessage() != null ? e.getMessage() : e.toString());
+	}
+
+	/**
+	 * Reads the definitions of a RRD, following the layout of {@link RrdDef#calculateSize(int, int, int)}:
+	 * the header except the last update time, datasource definitions, and archive definitions.
+	 *
+	 * @return Definitions by offset, empty if the RRD is not recognized
+	 */
+	private static SortedMap<Long, byte[]> readConstants(RrdBackend backend, long length) throws IOException {
+		int stringLength = 2 * RrdPrimitive.STRING_LENGTH;
+		SortedMap<Long, byte[]> constants = new TreeMap<Long, byte[]>();
+		if (length < stringLength + 24) {
+			return constants;
+		}
+		byte[] header = new byte[stringLength + 24];
+		backend.read(0, header);
+		int dsCount = ByteBuffer.wrap(header).getInt(stringLength + 8);
+		int arcCount = ByteBuffer.wrap(header).getInt(stringLength + 12);
+		constants.put(0L, Arrays.copyOf(header, stringLength + 16));
+		List<long[]> ranges = new ArrayList<long[]>();
+		long offset = stringLength + 24;
+		for (int i = 0; i < dsCount && offset <= length; i++) {
+			ranges.add(new long[] {offset, 2 * stringLength + 24});
+			offset += 2 * stringLength + 48;
+		}
+		for (int i = 0; i < arcCount && offset + stringLength + 16 <= length; i++) {
+			ranges.add(new long[] {offset, stringLength + 16});
+			byte[] rows = new byte[4];
+			backend.read(offset + stringLength + 12, rows);
+			offset += stringLength + 16 + dsCount * (20L + 8L * ByteBuffer.wrap(rows).getInt());
+		}
+		if (dsCount < 0 || arcCount < 0 || offset != length) {
+			// not a RRD
+			constants.clear();
+			return constants;
+		}
+		for (long[] range : ranges) {
+			byte[] b = new byte[(int) range[1]];
+			backend.read(range[0], b);
+			constants.put(range[0], b);
+		}
+		return constants;
+	}
+
+	/**
+	 * Returns the checksum of RRD definitions, made of their offsets and bytes.
+	 *
+	 * @return Checksum, never negative
+	 */
+	static long getChecksum(SortedMap<Long, byte[]> constants) {
+		CRC32 crc = new CRC32();
+		ByteBuffer offset = ByteBuffer.allocate(8);
+		for (Map.Entry<Long, byte[]> entry : constants.entrySet()) {
+			offset.putLong(0, entry.getKey());
+			crc.update(offset.array());
+			crc.update(entry.getValue());
+		}
+		return crc.getValue();
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+
+/**
+ * JRobin backend which serves reads of frequently read RRD files from a memory tier, and all other
+ * reads from the file. Writes always go to the file, and to the memory copy if the file is resident.
+ * Files are promoted to and demoted from the memory tier by the {@link RrdTieredBackendFactory}.
+ */
+public class RrdTieredBackend extends RrdFileBackend {
+	private final RrdTieredBackendFactory factory;
+	private final RrdTieredBackendFactory.Entry entry;
+
+	/**
+	 * Creates RrdTieredBackend object for the given file path.
+	 *
+	 * @param path	 Path to a file
+	 * @param readOnly True, if file should be open in a read-only mode. False otherwise
+	 * @param factory  Factory owning the memory tier
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected RrdTieredBackend(String path, boolean readOnly, RrdTieredBackendFactory factory) throws IOException {
+		super(path, readOnly);
+		this.factory = factory;
+		this.entry = factory.getEntry(getCanonicalPath());
+	}
+
+	/**
+	 * Writes bytes to the RRD file, and to its memory copy if the file is resident.
+	 *
+	 * @param offset Starting file offset
+	 * @param b	  Bytes to be written.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void write(long offset, byte[] b) throws IOException {
+		super.write(offset, b);
+		factory.written(entry, offset, b);
+	}
+
+	/**
+	 * Reads bytes from the memory copy of the RRD file if resident, or from the file otherwise.
+	 * Reading a file often promotes it to the memory tier.
+	 *
+	 * @param offset Starting file offset
+	 * @param b	  Buffer which receives bytes read.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void read(long offset, byte[] b) throws IOException {
+		if (factory.readResident(entry, offset, b)) {
+			return;
+		}
+		super.read(offset, b);
+		long version = factory.readFile(entry, b.length, getLength());
+		if (version >= 0) {
+			byte[] image = new byte[(int) getLength()];
+			super.read(0, image);
+			factory.promote(entry, image, version);
+		}
+	}
+
+	/**
+	 * Sets length of the new RRD file. A memory copy of a previous file with the same path is dropped.
+	 *
+	 * @param length Length of the RRD file
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void setLength(long length) throws IOException {
+		super.setLength(length);
+		factory.demote(entry);
+	}
+
+	/**
+	 * Closes the underlying RRD file.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		super.close();
+		factory.release(entry);
+	}
+}
@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Factory class which creates actual {@link RrdTieredBackend} objects. RRD files are stored as ordinary
+ * files (the file tier), but copies of frequently read files are kept in memory (the memory tier), so
+ * that files graphed over and over again are read from memory. Writes always go to the file
+ * (write-through), so files written but rarely read cost no memory.
+ * <p>
+ * A file is promoted to the memory tier once the number of bytes read from it reaches its length multiplied
+ * by the number of promotion reads. Read counts are halved every minute. When the memory tier exceeds its
+ * budget, least recently read files are demoted. RRD files must be written only through this factory.
+ * <p>
+ * The factory is not registered by default, since it needs a memory budget:
+ * <pre>
+ * RrdBackendFactory.registerFactory(new RrdTieredBackendFactory(64 * 1024 * 1024));
+ * RrdDb rrdDb = new RrdDb(path, RrdBackendFactory.getFactory(RrdTieredBackendFactory.NAME));
+ * </pre>
+ */
+public class RrdTieredBackendFactory extends RrdFileBackendFactory {
+	/**
+	 * factory name, "TIERED"
+	 */
+	public static final String NAME = "TIERED";
+	/**
+	 * Default number of full file reads promoting a file to the memory tier.
+	 */
+	public static final int DEFAULT_PROMOTION_READS = 3;
+
+	private static final long DECAY_PERIOD = 60000L;
+
+	private final int promotionReads;
+	private long memoryBudget;
+	// files read or open, by canonical path
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	// access ordered, the eldest entry is the least recently read one
+	private final LinkedHashMap<String, Entry> resident = new LinkedHashMap<String, Entry>(16, 0.75F, true);
+	private long residentByteCount;
+	private long lastDecayTime = System.currentTimeMillis();
+	private long memoryHitCount, fileHitCount, promotionCount, demotionCount;
+
+	/**
+	 * Creates a factory promoting files after {@link #DEFAULT_PROMOTION_READS} full reads.
+	 *
+	 * @param memoryBudget Maximum total size of files in the memory tier, in bytes
+	 */
+	public RrdTieredBackendFactory(long memoryBudget) {
+		this(memoryBudget, DEFAULT_PROMOTION_READS);
+	}
+
+	/**
+	 * Creates a factory with the given memory budget.
+	 *
+	 * @param memoryBudget   Maximum total size of files in the memory tier, in bytes
+	 * @param promotionReads Number of full file reads promoting a file to the memory tier
+	 */
+	public RrdTieredBackendFactory(long memoryBudget, int promotionReads) {
+		this.memoryBudget = memoryBudget;
+		this.promotionReads = promotionReads;
+	}
+
+	/**
+	 * Creates RrdTieredBackend object for the given file path.
+	 *
+	 * @param path	 File path
+	 * @param readOnly True, if the file should be accessed in read/only mode.
+	 *                 False otherwise.
+	 * @return RrdTieredBackend object which handles all I/O operations for the given file path
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdTieredBackend(path, readOnly, this);
+	}
+
+	/**
+	 * Returns the maximum total size of files in the memory tier.
+	 *
+	 * @return Memory budget, in bytes
+	 */
+	public synchronized long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets the maximum total size of files in the memory tier. Least recently read files are demoted
+	 * if the memory tier holds more.
+	 *
+	 * @param memoryBudget Memory budget, in bytes
+	 */
+	public synchronized void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		shrink(0);
+	}
+
+	/**
+	 * Returns the number of files in the memory tier.
+	 *
+	 * @return Number of resident files
+	 */
+	public synchronized int getResidentFileCount() {
+		return resident.size();
+	}
+
+	/**
+	 * Returns the total size of files in the memory tier.
+	 *
+	 * @return Total size of resident files, in bytes
+	 */
+	public synchronized long getResidentByteCount() {
+		return residentByteCount;
+	}
+
+	/**
+	 * Returns the number of reads served by the memory tier.
+	 *
+	 * @return Number of memory tier reads
+	 */
+	public synchronized long getMemoryHitCount() {
+		return memoryHitCount;
+	}
+
+	/**
+	 * Returns the number of reads served by the file tier.
+	 *
+	 * @return Number of file tier reads
+	 */
+	public synchronized long getFileHitCount() {
+		return fileHitCount;
+	}
+
+	/**
+	 * Returns the number of files promoted to the memory tier.
+	 *
+	 * @return Number of promotions
+	 */
+	public synchronized long getPromotionCount() {
+		return promotionCount;
+	}
+
+	/**
+	 * Returns the number of files demoted from the memory tier.
+	 *
+	 * @return Number of demotions
+	 */
+	public synchronized long getDemotionCount() {
+		return demotionCount;
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to string "TIERED")
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+
+	synchronized Entry getEntry(String canonicalPath) {
+		Entry entry = entries.get(canonicalPath);
+		if (entry == null) {
+			entry = new Entry(canonicalPath);
+			entries.put(canonicalPath, entry);
+		}
+		entry.openCount++;
+		return entry;
+	}
+
+	synchronized void release(Entry entry) {
+		entry.openCount--;
+	}
+
+	synchronized boolean readResident(Entry entry, long offset, byte[] b) throws IOException {
+		if (entry.image == null) {
+			return false;
+		}
+		if (offset + b.length > entry.image.length) {
+			throw new IOException("Not enough bytes available in file " + entry.path);
+		}
+		System.arraycopy(entry.image, (int) offset, b, 0, b.length);
+		resident.get(entry.path);
+		memoryHitCount++;
+		return true;
+	}
+
+	/**
+	 * Counts bytes read from the file tier.
+	 *
+	 * @return Version of the file to be promoted, or -1 if it should not be promoted
+	 */
+	synchronized long readFile(Entry entry, int byteCount, long length) {
+		fileHitCount++;
+		decay();
+		entry.readByteCount += byteCount;
+		if (entry.readByteCount >= promotionReads * length && length <= memoryBudget) {
+			return entry.version;
+		}
+		return -1;
+	}
+
+	// the image was read from the file after the given version was taken
+	synchronized void promote(Entry entry, byte[] image, long version) {
+		if (entry.image != null || entry.version != version || image.length > memoryBudget) {
+			// written in the meantime, promoted again later
+			return;
+		}
+		shrink(image.length);
+		entry.image = image;
+		entry.readByteCount = 0;
+		resident.put(entry.path, entry);
+		residentByteCount += image.length;
+		promotionCount++;
+	}
+
+	synchronized void demote(Entry entry) {
+		entry.version++;
+		if (entry.image != null) {
+			resident.remove(entry.path);
+			residentByteCount -= entry.image.length;
+			entry.image = null;
+			demotionCount++;
+		}
+	}
+
+	// called after the file was written
+	synchronized void written(Entry entry, long offset, byte[] b) {
+		entry.version++;
+		if (entry.image != null) {
+			if (offset + b.length <= entry.image.length) {
+				System.arraycopy(b, 0, entry.image, (int) offset, b.length);
+			}
+			else {
+				demote(entry);
+			}
+		}
+	}
+
+	// demotes least recently read files to make room for the given number of bytes
+	private void shrink(long byteCount) {
+		Iterator<Entry> iterator = resident.values().iterator();
+		while (residentByteCount + byteCount > memoryBudget && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			iterator.remove();
+			residentByteCount -= entry.image.length;
+			entry.image = null;
+			entry.readByteCount = 0;
+			demotionCount++;
+		}
+	}
+
+	private void decay() {
+		long now = System.currentTimeMillis();
+		if (now - lastDecayTime < DECAY_PERIOD) {
+			return;
+		}
+		lastDecayTime = now;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			entry.readByteCount /= 2;
+			if (entry.readByteCount == 0 && entry.image == null && entry.openCount == 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * State of a RRD file, shared by all its backends.
+	 */
+	static final class Entry {
+		final String path;
+		int openCount;
+		long readByteCount;
+		// incremented on each write, to detect writes made while a file is promoted
+		long version;
+		// memory copy, or null if the file is not resident
+		byte[] image;
+
+		Entry(String path) {
+			this.path = path;
+		}
+	}
+}
@@ -21,9 +21,19 @@ package org.jrobin.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.LinkedList;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class used to perform various complex operations on RRD files. Use an instance of the
@@ -34,6 +44,8 @@ import java.util.Arrays;
  * <li>add archive to a RRD file.
  * <li>remove datasource from a RRD file.
  * <li>remove archive from a RRD file.
+ * <li>compress or decompress all RRD files of a directory tree.
+ * <li>create many new RRD files at once.
  * </ul>
  * All these operations can be performed on the copy of the original RRD file, or on the
  * original file itself (with possible backup file creation).
@@ -42,6 +54,9 @@ import java.util.Arrays;
  * (files which are currently in use).
  */
 public class RrdToolkit {
+	private static final String CONVERSION_THREAD_NAME = "RrdToolkit-conversion";
+	private static final String CREATION_THREAD_NAME = "RrdToolkit-creation";
+
 	/**
 	 * Creates a new RRD file with one more datasource in it. RRD file is created based on the
 	 * existing one (the original RRD file is not modified at all). All data from
@@ -610,6 +625,139 @@ public class RrdToolkit {
 		}
 	}
 
+	/**
+	 * Compresses all RRD files with the given extension in a directory tree, so that they can be used
+	 * with the {@link RrdCompressedBackendFactory}. Files are compressed in parallel. Files already
+	 * compressed are skipped.
+	 *
+	 * @param directory   Root directory of the tree
+	 * @param extension   File extension (like ".rrd", ".jrb", ".rrd.jrb")
+	 * @param threadCount Maximum number of files compressed at the same time
+	 * @return Number of files compressed
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin specific error, or if the thread count is not positive
+	 */
+	public static int compress(String directory, String extension, int threadCount)
+			throws IOException, RrdException {
+		return convert(directory, extension, threadCount, true);
+	}
+
+	/**
+	 * Restores all compressed RRD files with the given extension in a directory tree to ordinary RRD files.
+	 * Files are decompressed in parallel. Files not compressed are skipped.
+	 *
+	 * @param directory   Root directory of the tree
+	 * @param extension   File extension (like ".rrd", ".jrb", ".rrd.jrb")
+	 * @param threadCount Maximum number of files decompressed at the same time
+	 * @return Number of files decompressed
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin specific error, or if the thread count is not positive
+	 */
+	public static int decompress(String directory, String extension, int threadCount)
+			throws IOException, RrdException {
+		return convert(directory, extension, threadCount, false);
+	}
+
+	private static int convert(String directory, String extension, int threadCount, final boolean compress)
+			throws IOException, RrdException {
+		String[] paths = getCanonicalPaths(directory, extension, true);
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (final String path : paths) {
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() throws IOException {
+					return compress ? RrdCompressedBackendFactory.compress(path) :
+							RrdCompressedBackendFactory.decompress(path);
+				}
+			});
+		}
+		return execute(tasks, threadCount, CONVERSION_THREAD_NAME);
+	}
+
+	/**
+	 * Creates many new RRD files at once. The initial image of each RRD layout found in the given
+	 * definitions is created once with a {@link RrdImage}, then the files are written in parallel.
+	 * Created files are exactly the same as files created with {@link RrdDb#RrdDb(RrdDef)} and the
+	 * default backend factory, they can be used with the FILE, SAFE and NIO backends. Existing files
+	 * are overwritten.
+	 *
+	 * @param rrdDefs	 Definitions of the new RRD files
+	 * @param threadCount Maximum number of files created at the same time
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown if an invalid definition is supplied, or if the thread count is not positive
+	 */
+	public static void createRrdFiles(RrdDef[] rrdDefs, int threadCount) throws IOException, RrdException {
+		Map<String, RrdImage> images = new HashMap<String, RrdImage>();
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (final RrdDef rrdDef : rrdDefs) {
+			String layout = RrdImage.getLayout(rrdDef);
+			RrdImage image = images.get(layout);
+			if (image == null) {
+				image = new RrdImage(rrdDef);
+				images.put(layout, image);
+			}
+			final RrdImage rrdImage = image;
+			final String path = rrdDef.getPath();
+			final long startTime = rrdDef.getStartTime();
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() throws IOException {
+					rrdImage.create(path, startTime);
+					return true;
+				}
+			});
+		}
+		execute(tasks, threadCount, CREATION_THREAD_NAME);
+	}
+
+	// runs the tasks in parallel, returns the number of tasks returning true
+	private static int execute(List<Callable<Boolean>> tasks, int threadCount, final String threadName)
+			throws IOException, RrdException {
+		if (threadCount <= 0) {
+			throw new RrdException("Invalid thread count: " + threadCount);
+		}
+		if (tasks.isEmpty()) {
+			return 0;
+		}
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, tasks.size()),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, threadName + "-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (Callable<Boolean> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			int count = 0;
+			for (Future<Boolean> future : futures) {
+				if (future.get()) {
+					count++;
+				}
+			}
+			return count;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RrdException("Interrupted while processing files", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RrdException("Could not process file", cause);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * Returns list of canonical file names with the specified extension in the given directory. This
 	 * method is not RRD related, but might come handy to create a quick list of all RRD files
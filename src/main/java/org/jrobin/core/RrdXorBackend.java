@@ -0,0 +1,516 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * JRobin backend which stores RRD files on the disk with robin values encoded by {@link RobinCodec},
+ * in blocks of {@link #BLOCK_VALUES} values. Other parts of a RRD are stored as they are. The file
+ * is read into memory when the backend is created, but a block of robin values is decoded only when
+ * first read or written, so that a fetch decodes only the blocks it needs and an update only the
+ * current block of each robin. Changes are written back when the backend is closed.
+ * <p>
+ * Each encoded block is stored in a slot with some room to grow, so that changed blocks (usually
+ * the current block of each robin) and other changed parts are rewritten in place, like with the
+ * {@link RrdFileBackend}. Only when a changed block outgrows its slot, or when the RRD is created,
+ * the whole file is written again, to a temporary file which then replaces the RRD file. This
+ * happens mostly while the robins of a new RRD are filled for the first time, since encoded blocks
+ * of NaN values are very short.
+ * <p>
+ * A RRD file should not be open more than once at the same time with this backend, the last one
+ * closed would overwrite changes made by the others.
+ */
+public class RrdXorBackend extends RrdBackend {
+	/**
+	 * Number of robin values encoded together.
+	 */
+	public static final int BLOCK_VALUES = 128;
+
+	static final int SIGNATURE = 0x4a524258; // "JRBX"
+	private static final int VERSION = 2;
+	private static final int BLOCK_LENGTH = 8 * BLOCK_VALUES;
+	// minimum room left for an encoded block to grow in its slot, and slot length granularity
+	private static final int SLOT_SLACK = 32;
+
+	private long length;
+	// sorted by offset, covering the whole RRD
+	private Segment[] segments = new Segment[0];
+	private boolean modified;
+	// true if segments know their place in the file
+	private boolean written;
+
+	/**
+	 * Creates RrdXorBackend object for the given file path, and reads the file if it exists.
+	 *
+	 * @param path	 Path to a file
+	 * @param readOnly True, if file should be open in a read-only mode. False otherwise
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected RrdXorBackend(String path, boolean readOnly) throws IOException {
+		super(path, readOnly);
+		File file = new File(path);
+		if (file.exists()) {
+			readFile(file);
+		}
+	}
+
+	/**
+	 * Writes bytes to the RRD.
+	 *
+	 * @param offset Starting offset
+	 * @param b	  Bytes to be written.
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	protected void write(long offset, byte[] b) throws IOException {
+		if (isReadOnly()) {
+			throw new IOException("RRD file " + getPath() + " is open in read-only mode");
+		}
+		checkRange(offset, b.length);
+		int done = 0;
+		for (int i = findSegment(offset); done < b.length; i++) {
+			int count = segments[i].write(offset + done, b, done, b.length - done);
+			done += count;
+		}
+		modified = true;
+	}
+
+	/**
+	 * Reads bytes from the RRD.
+	 *
+	 * @param offset Starting offset
+	 * @param b	  Buffer which receives bytes read.
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void read(long offset, byte[] b) throws IOException {
+		checkRange(offset, b.length);
+		int done = 0;
+		for (int i = findSegment(offset); done < b.length; i++) {
+			int count = segments[i].read(offset + done, b, done, b.length - done);
+			done += count;
+		}
+	}
+
+	/**
+	 * Returns the length of the RRD.
+	 *
+	 * @return Length of the RRD, in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Sets the length of the new RRD.
+	 *
+	 * @param length Length of the RRD, in bytes
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected void setLength(long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Illegal length: " + length);
+		}
+		this.length = length;
+		// split into robins once the RRD is written
+		segments = new Segment[] {Segment.createRaw(0, new byte[(int) length])};
+		modified = true;
+		written = false;
+	}
+
+	/**
+	 * Writes changes back into the file, in place if possible.
+	 *
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void close() throws IOException {
+		if (modified && !isReadOnly()) {
+			if (!written && segments.length == 1 && segments[0].raw != null) {
+				// a new RRD
+				segments = split(segments[0].raw);
+			}
+			File file = new File(getPath());
+			if (!written || !writeChanges(file)) {
+				writeFile(file);
+				written = true;
+			}
+			modified = false;
+		}
+	}
+
+	/**
+	 * This method is overriden to disable high-level caching in frontend JRobin classes.
+	 *
+	 * @return Always returns <code>false</code>. There is no need to cache anything in high-level classes
+	 *         since all RRD bytes are already in memory.
+	 */
+	protected boolean isCachingAllowed() {
+		return false;
+	}
+
+	private void checkRange(long offset, int count) throws IOException {
+		if (offset < 0 || offset + count > length) {
+			throw new IOException("Not enough bytes available in file " + getPath());
+		}
+	}
+
+	private int findSegment(long offset) {
+		int low = 0, high = segments.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (segments[middle].offset <= offset) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	private void readFile(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int version = in.readInt() == SIGNATURE ? in.readInt() : -1;
+			if (version != 1 && version != VERSION) {
+				throw new IOException("File " + getPath() + " is not a XOR encoded RRD file");
+			}
+			length = in.readLong();
+			int segmentCount = in.readInt();
+			if (length > Integer.MAX_VALUE || segmentCount < 0) {
+				throw new IOException("Invalid XOR encoded RRD file " + getPath());
+			}
+			segments = new Segment[segmentCount];
+			long offset = 0;
+			// position in the file
+			long position = 20;
+			for (int i = 0; i < segmentCount; i++) {
+				boolean robin = in.readBoolean();
+				int segmentLength = in.readInt();
+				position += 5;
+				if (segmentLength < 0 || offset + segmentLength > length || (robin && segmentLength % 8 != 0)) {
+					throw new IOException("Invalid XOR encoded RRD file " + getPath());
+				}
+				Segment segment;
+				if (robin) {
+					segment = Segment.createRobin(offset, segmentLength);
+					for (int j = 0; j < segment.encoded.length; j++) {
+						// version 1 has no slots
+						int capacity = version == 1 ? -1 : in.readInt();
+						int used = in.readInt();
+						if (used < 0 || capacity >= 0 && used > capacity) {
+							throw new IOException("Invalid XOR encoded RRD file " + getPath());
+						}
+						segment.encoded[j] = new byte[used];
+						in.readFully(segment.encoded[j]);
+						if (capacity >= 0) {
+							segment.slots[j] = position + 4;
+							segment.capacities[j] = capacity;
+							skipFully(in, capacity - used);
+							position += 8 + capacity;
+						}
+					}
+				}
+				else {
+					byte[] raw = new byte[segmentLength];
+					in.readFully(raw);
+					segment = Segment.createRaw(offset, raw);
+					segment.slots[0] = position;
+					position += segmentLength;
+				}
+				segments[i] = segment;
+				offset += segmentLength;
+			}
+			written = version == VERSION;
+			if (offset != length) {
+				throw new IOException("Invalid XOR encoded RRD file " + getPath());
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static void skipFully(DataInputStream in, int count) throws IOException {
+		while (count > 0) {
+			int skipped = in.skipBytes(count);
+			if (skipped <= 0) {
+				throw new IOException("Unexpected end of file");
+			}
+			count -= skipped;
+		}
+	}
+
+	// writes changed parts in place, returns false if a changed block does not fit in its slot
+	private boolean writeChanges(File file) throws IOException {
+		for (Segment segment : segments) {
+			if (!segment.fitsSlots()) {
+				return false;
+			}
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			for (Segment segment : segments) {
+				segment.writeChanges(raf);
+			}
+		}
+		finally {
+			raf.close();
+		}
+		return true;
+	}
+
+	private void writeFile(File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			out.writeInt(SIGNATURE);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeInt(segments.length);
+			for (Segment segment : segments) {
+				out.writeBoolean(segment.raw == null);
+				out.writeInt(segment.length);
+				if (segment.raw == null) {
+					byte[][] encoded = segment.getEncoded();
+					for (int i = 0; i < encoded.length; i++) {
+						int capacity = getCapacity(encoded[i].length);
+						out.writeInt(capacity);
+						segment.slots[i] = out.size();
+						segment.capacities[i] = capacity;
+						out.writeInt(encoded[i].length);
+						out.write(encoded[i]);
+						out.write(new byte[capacity - encoded[i].length]);
+					}
+				}
+				else {
+					segment.slots[0] = out.size();
+					out.write(segment.raw);
+				}
+				segment.saved();
+			}
+			out.flush();
+			stream.getChannel().force(false);
+		}
+		finally {
+			stream.close();
+		}
+		RrdCompressedBackend.replaceFile(tempFile, file);
+	}
+
+	// room for an encoded block to grow, rounded up to a multiple of the slack
+	private static int getCapacity(int used) {
+		int capacity = used + used / 8 + SLOT_SLACK;
+		return (capacity + SLOT_SLACK - 1) / SLOT_SLACK * SLOT_SLACK;
+	}
+
+	/**
+	 * Splits a RRD into robin values and other parts, following the layout of
+	 * {@link RrdDef#calculateSize(int, int, int)}.
+	 *
+	 * @return Segments, or a single raw segment if the layout is not recognized
+	 */
+	static Segment[] split(byte[] image) {
+		Segment[] single = new Segment[] {Segment.createRaw(0, image)};
+		int[] blockLengths = RrdCompressedBackend.getBlockLengths(image);
+		if (blockLengths.length == 1) {
+			return single;
+		}
+		int stringLength = 2 * RrdPrimitive.STRING_LENGTH;
+		ByteBuffer buffer = ByteBuffer.wrap(image);
+		int dsCount = buffer.getInt(stringLength + 8);
+		List<Segment> result = new ArrayList<Segment>();
+		int rawStart = 0, offset = blockLengths[0];
+		for (int i = 1; i < blockLengths.length; i++) {
+			int rows = buffer.getInt(offset + stringLength + 12);
+			// archive definition, then the state and the robin of each datasource
+			int position = offset + stringLength + 16;
+			for (int j = 0; j < dsCount; j++) {
+				// state and robin pointer
+				position += 20;
+				result.add(Segment.createRaw(rawStart, copy(image, rawStart, position)));
+				result.add(Segment.createRobin(position, image, 8 * rows));
+				position += 8 * rows;
+				rawStart = position;
+			}
+			offset += blockLengths[i];
+		}
+		if (rawStart < image.length) {
+			result.add(Segment.createRaw(rawStart, copy(image, rawStart, image.length)));
+		}
+		return result.toArray(new Segment[result.size()]);
+	}
+
+	private static byte[] copy(byte[] b, int start, int end) {
+		byte[] result = new byte[end - start];
+		System.arraycopy(b, start, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * A part of a RRD: either raw bytes, or robin values in encoded blocks decoded when needed.
+	 */
+	static final class Segment {
+		final long offset;
+		final int length;
+		// bytes of a raw segment, or null for robin values
+		final byte[] raw;
+		final byte[][] encoded, decoded;
+		// decoded blocks changed since they were encoded
+		final BitSet changed = new BitSet();
+		// blocks (or the raw bytes, as block 0) changed since they were written to the file
+		final BitSet unsaved = new BitSet();
+		// file positions of the lengths of encoded blocks, or of the raw bytes, and their room
+		final long[] slots;
+		final int[] capacities;
+
+		private Segment(long offset, int length, byte[] raw) {
+			this.offset = offset;
+			this.length = length;
+			this.raw = raw;
+			int blockCount = raw == null ? (length + BLOCK_LENGTH - 1) / BLOCK_LENGTH : 0;
+			this.encoded = new byte[blockCount][];
+			this.decoded = new byte[blockCount][];
+			this.slots = new long[Math.max(blockCount, 1)];
+			this.capacities = new int[blockCount];
+		}
+
+		static Segment createRaw(long offset, byte[] raw) {
+			return new Segment(offset, raw.length, raw);
+		}
+
+		static Segment createRobin(long offset, int length) {
+			return new Segment(offset, length, null);
+		}
+
+		static Segment createRobin(long offset, byte[] image, int length) {
+			Segment segment = createRobin(offset, length);
+			for (int i = 0; i < segment.decoded.length; i++) {
+				int start = (int) offset + i * BLOCK_LENGTH;
+				segment.decoded[i] = copy(image, start, start + segment.getBlockLength(i));
+				segment.changed.set(i);
+			}
+			return segment;
+		}
+
+		// returns the number of bytes read, up to the end of the segment
+		int read(long position, byte[] b, int bOffset, int count) throws IOException {
+			int start = (int) (position - offset);
+			count = Math.min(count, length - start);
+			if (raw != null) {
+				System.arraycopy(raw, start, b, bOffset, count);
+				return count;
+			}
+			for (int done = 0; done < count; ) {
+				int block = (start + done) / BLOCK_LENGTH;
+				int blockStart = (start + done) % BLOCK_LENGTH;
+				int n = Math.min(count - done, getBlockLength(block) - blockStart);
+				System.arraycopy(getDecoded(block), blockStart, b, bOffset + done, n);
+				done += n;
+			}
+			return count;
+		}
+
+		// returns the number of bytes written, up to the end of the segment
+		int write(long position, byte[] b, int bOffset, int count) throws IOException {
+			int start = (int) (position - offset);
+			count = Math.min(count, length - start);
+			if (raw != null) {
+				System.arraycopy(b, bOffset, raw, start, count);
+				unsaved.set(0);
+				return count;
+			}
+			for (int done = 0; done < count; ) {
+				int block = (start + done) / BLOCK_LENGTH;
+				int blockStart = (start + done) % BLOCK_LENGTH;
+				int n = Math.min(count - done, getBlockLength(block) - blockStart);
+				System.arraycopy(b, bOffset + done, getDecoded(block), blockStart, n);
+				changed.set(block);
+				done += n;
+			}
+			return count;
+		}
+
+		byte[][] getEncoded() {
+			for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+				encoded[i] = RobinCodec.encode(decoded[i], 0, getBlockLength(i) / 8);
+				unsaved.set(i);
+			}
+			changed.clear();
+			return encoded;
+		}
+
+		boolean fitsSlots() {
+			if (raw == null) {
+				getEncoded();
+				for (int i = unsaved.nextSetBit(0); i >= 0; i = unsaved.nextSetBit(i + 1)) {
+					if (encoded[i].length > capacities[i]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		void writeChanges(RandomAccessFile file) throws IOException {
+			for (int i = unsaved.nextSetBit(0); i >= 0; i = unsaved.nextSetBit(i + 1)) {
+				file.seek(slots[i]);
+				if (raw != null) {
+					file.write(raw);
+				}
+				else {
+					file.writeInt(encoded[i].length);
+					file.write(encoded[i]);
+				}
+			}
+			saved();
+		}
+
+		void saved() {
+			unsaved.clear();
+		}
+
+		private byte[] getDecoded(int block) throws IOException {
+			if (decoded[block] == null) {
+				byte[] b = new byte[getBlockLength(block)];
+				RobinCodec.decode(encoded[block], b, 0, b.length / 8);
+				decoded[block] = b;
+			}
+			return decoded[block];
+		}
+
+		private int getBlockLength(int block) {
+			return Math.min(BLOCK_LENGTH, length - block * BLOCK_LENGTH);
+		}
+	}
+}
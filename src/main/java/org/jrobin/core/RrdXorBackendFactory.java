@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.io.IOException;
+
+/**
+ * Factory class which creates actual {@link RrdXorBackend} objects. Robin values of RRD files are stored
+ * XOR encoded on the disk, which takes several times less space for slowly changing values and long
+ * runs of unknown values.
+ */
+public class RrdXorBackendFactory extends RrdBackendFactory {
+	/**
+	 * factory name, "XOR"
+	 */
+	public static final String NAME = "XOR";
+
+	/**
+	 * Creates RrdXorBackend object for the given file path.
+	 *
+	 * @param path	 File path
+	 * @param readOnly True, if the file should be accessed in read/only mode.
+	 *                 False otherwise.
+	 * @return RrdXorBackend object which handles all I/O operations for the given file path
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdXorBackend(path, readOnly);
+	}
+
+	/**
+	 * Method to determine if a file with the given path already exists.
+	 *
+	 * @param path File path
+	 * @return True, if such file exists, false otherwise.
+	 */
+	protected boolean exists(String path) {
+		return Util.fileExists(path);
+	}
+
+	/**
+	 * Returns the name of this factory.
+	 *
+	 * @return Factory name (equals to string "XOR")
+	 */
+	public String getFactoryName() {
+		return NAME;
+	}
+}
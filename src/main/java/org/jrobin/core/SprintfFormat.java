@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.core;
+
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled C-style format string, used by {@link Util#sprintf(String, Object...)}. Format strings
+ * are parsed once and cached. Plain <code>%f</code>, <code>%d</code>, <code>%s</code> and
+ * <code>%c</code> conversions with an optional width, precision and <code>-</code> flag are formatted
+ * directly, everything else (and arguments the direct path cannot format exactly like
+ * {@link String#format(String, Object...)}) goes through {@link java.util.Formatter}.
+ */
+final class SprintfFormat {
+	private static final Pattern LONG_CONVERSION = Pattern.compile("([^%]|^)%([^a-zA-Z%]*)l(f|g|e)");
+	// format strings are mostly constants, but labels and legends may build their own
+	private static final int MAX_FORMATS = 1024;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static final Map<String, SprintfFormat> formats = new ConcurrentHashMap<String, SprintfFormat>();
+	// written in this order, read in reverse order
+	private static volatile boolean localeSupported;
+	private static volatile Locale checkedLocale;
+
+	private final String format;
+	// literal text before each conversion, and after the last one; null if not compiled
+	private String[] texts;
+	private char[] conversions;
+	private int[] widths, precisions;
+	private boolean[] leftJustified;
+
+	static SprintfFormat getInstance(String format) {
+		SprintfFormat sprintfFormat = formats.get(format);
+		if (sprintfFormat == null) {
+			// compiled twice at worst, with the same result
+			sprintfFormat = new SprintfFormat(LONG_CONVERSION.matcher(format).replaceAll("$1%$2$3"));
+			if (formats.size() >= MAX_FORMATS) {
+				formats.clear();
+			}
+			formats.put(format, sprintfFormat);
+		}
+		return sprintfFormat;
+	}
+
+	private SprintfFormat(String format) {
+		this.format = format;
+		compile();
+	}
+
+	private void compile() {
+		StringBuilder text = new StringBuilder();
+		List<String> texts = new ArrayList<String>();
+		StringBuilder specs = new StringBuilder();
+		int[] widths = new int[format.length()], precisions = new int[format.length()];
+		boolean[] leftJustified = new boolean[format.length()];
+		int count = 0;
+		for (int i = 0; i < format.length(); i++) {
+			char c = format.charAt(i);
+			if (c != '%') {
+				text.append(c);
+				continue;
+			}
+			if (++i == format.length()) {
+				return;
+			}
+			c = format.charAt(i);
+			if (c == '%') {
+				text.append('%');
+				continue;
+			}
+			if (c == 'n') {
+				text.append(LINE_SEPARATOR);
+				continue;
+			}
+			if (c == '-') {
+				leftJustified[count] = true;
+				i++;
+			}
+			int width = -1, precision = -1;
+			int start = i;
+			while (i < format.length() && Character.isDigit(format.charAt(i))) {
+				i++;
+			}
+			if (i > start) {
+				if (format.charAt(start) == '0' || (i < format.length() && format.charAt(i) == '$')) {
+					// zero padding flag or argument index
+					return;
+				}
+				width = Integer.parseInt(format.substring(start, i));
+			}
+			if (i < format.length() && format.charAt(i) == '.') {
+				start = ++i;
+				while (i < format.length() && Character.isDigit(format.charAt(i))) {
+					i++;
+				}
+				if (i == start) {
+					return;
+				}
+				precision = Integer.parseInt(format.substring(start, i));
+			}
+			if (i == format.length()) {
+				return;
+			}
+			c = format.charAt(i);
+			if ((c != 'f' && c != 'd' && c != 's' && c != 'c') || (precision >= 0 && c != 'f') ||
+					(leftJustified[count] && width < 0)) {
+				return;
+			}
+			texts.add(text.toString());
+			text.setLength(0);
+			specs.append(c);
+			widths[count] = width;
+			precisions[count] = c == 'f' && precision < 0 ? 6 : precision;
+			count++;
+		}
+		texts.add(text.toString());
+		this.texts = texts.toArray(new String[texts.size()]);
+		this.conversions = specs.toString().toCharArray();
+		this.widths = widths;
+		this.precisions = precisions;
+		this.leftJustified = leftJustified;
+	}
+
+	String format(Object... args) {
+		if (texts == null || args == null || args.length < conversions.length || !isLocaleSupported()) {
+			return String.format(format, args);
+		}
+		StringBuilder result = new StringBuilder(format.length() + 16 * conversions.length);
+		for (int i = 0; i < conversions.length; i++) {
+			result.append(texts[i]);
+			String value = formatArgument(conversions[i], precisions[i], args[i]);
+			if (value == null) {
+				return String.format(format, args);
+			}
+			if (leftJustified[i]) {
+				result.append(value);
+			}
+			for (int n = value.length(); n < widths[i]; n++) {
+				result.append(' ');
+			}
+			if (!leftJustified[i]) {
+				result.append(value);
+			}
+		}
+		result.append(texts[conversions.length]);
+		return result.toString();
+	}
+
+	private static String formatArgument(char conversion, int precision, Object arg) {
+		switch (conversion) {
+			case 'f':
+				return arg instanceof Double ? formatDouble((Double) arg, precision) : null;
+			case 'd':
+				return arg instanceof Integer || arg instanceof Long ? arg.toString() : null;
+			case 's':
+				return arg instanceof Formattable ? null : String.valueOf(arg);
+			case 'c':
+				return arg instanceof Character ? arg.toString() : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Formats a double the way Formatter does: the shortest decimal representation of the value
+	 * is rounded half up. Formatter computes the digits of very small and very large values a little
+	 * differently than Double.toString(), these are left to it.
+	 */
+	private static String formatDouble(double value, int precision) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		boolean negative = Double.compare(value, 0.0) < 0;
+		double abs = Math.abs(value);
+		if (Double.isInfinite(abs)) {
+			return negative ? "-Infinity" : "Infinity";
+		}
+		if (abs != 0 && (abs < 1e-3 || abs >= 1e7)) {
+			return null;
+		}
+		// plain notation in this range
+		String digits = Double.toString(abs);
+		int point = digits.indexOf('.');
+		char[] result = new char[point + 2 + precision];
+		int length = 0;
+		result[length++] = '0';
+		// keep a leading zero for the carry
+		for (int i = 0; i < point; i++) {
+			result[length++] = digits.charAt(i);
+		}
+		for (int i = 0; i < precision; i++) {
+			int index = point + 1 + i;
+			result[length++] = index < digits.length() ? digits.charAt(index) : '0';
+		}
+		int next = point + 1 + precision;
+		if (next < digits.length() && digits.charAt(next) >= '5') {
+			int i = length - 1;
+			while (result[i] == '9') {
+				result[i--] = '0';
+			}
+			result[i]++;
+		}
+		StringBuilder formatted = new StringBuilder(length + 2);
+		if (negative) {
+			formatted.append('-');
+		}
+		int start = result[0] == '0' && point > 0 ? 1 : 0;
+		formatted.append(result, start, point + 1 - start);
+		if (precision > 0) {
+			formatted.append('.').append(result, point + 1, precision);
+		}
+		return formatted.toString();
+	}
+
+	private static boolean isLocaleSupported() {
+		Locale locale = Locale.getDefault();
+		if (!locale.equals(checkedLocale)) {
+			// no localized digits, separators or signs
+			localeSupported = String.format("%.1f %d", -0.5, -1).equals("-0.5 -1");
+			checkedLocale = locale;
+		}
+		return localeSupported;
+	}
+}
@@ -745,13 +745,14 @@ public class Util {
 
 	/**
 	 * Equivalent of the C-style sprintf function. Sorry, it works only in Java5.
+	 * Format strings are compiled once and cached, simple conversions are formatted without
+	 * {@link java.util.Formatter}.
 	 *
 	 * @param format Format string
 	 * @param args   Arbitrary list of arguments
 	 * @return Formatted string
 	 */
 	public static String sprintf(final String format, final Object ... args) {
-	    final String fmt = format.replaceAll("([^%]|^)%([^a-zA-Z%]*)l(f|g|e)", "$1%$2$3");
-		return String.format(fmt, args);
+		return SprintfFormat.getInstance(format).format(args);
 	}
 }
@@ -27,6 +27,7 @@ import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,25 +38,61 @@ import java.util.regex.Pattern;
  * Methods are provided to specify variable values at runtime.
  * Note that this class has limited functionality: XML source gets parsed, and variable
  * values are collected. You have to extend this class to do something more useful.<p>
+ * The XML source is parsed only once. The XML tree is then compiled into a tree of
+ * {@link TemplateNode} objects, with placeholder positions recorded in each value, so that
+ * subclasses can create many objects from the same template without traversing the XML tree
+ * or searching values for placeholders again.
  */
 public abstract class XmlTemplate {
 	private static final String PATTERN_STRING = "\\$\\{(\\w+)\\}";
 	private static final Pattern PATTERN = Pattern.compile(PATTERN_STRING);
 
 	protected Element root;
+	protected final TemplateNode rootNode;
 	private HashMap<String, Object> valueMap = new HashMap<String, Object>();
 	private HashSet<Node> validatedNodes = new HashSet<Node>();
 
 	protected XmlTemplate(InputSource xmlSource) throws IOException, RrdException {
 		root = Util.Xml.getRootElement(xmlSource);
+		rootNode = new TemplateNode(root);
 	}
 
 	protected XmlTemplate(String xmlString) throws IOException, RrdException {
 		root = Util.Xml.getRootElement(xmlString);
+		rootNode = new TemplateNode(root);
 	}
 
 	protected XmlTemplate(File xmlFile) throws IOException, RrdException {
 		root = Util.Xml.getRootElement(xmlFile);
+		rootNode = new TemplateNode(root);
+	}
+
+	/**
+	 * Creates a template sharing the compiled XML tree of another template, with its own
+	 * variable values. Values are converted as by the corresponding
+	 * {@link #setVariable(String, String) setVariable()} methods.
+	 *
+	 * @param template  template to share the XML tree with
+	 * @param variables variable values, by variable name
+	 */
+	protected XmlTemplate(XmlTemplate template, Map<String, ?> variables) {
+		root = template.root;
+		rootNode = template.rootNode;
+		for (Map.Entry<String, ?> entry : variables.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof Color) {
+				setVariable(entry.getKey(), (Color) value);
+			}
+			else if (value instanceof Date) {
+				setVariable(entry.getKey(), (Date) value);
+			}
+			else if (value instanceof Calendar) {
+				setVariable(entry.getKey(), (Calendar) value);
+			}
+			else {
+				valueMap.put(entry.getKey(), value);
+			}
+		}
 	}
 
 	/**
@@ -180,7 +217,7 @@ public abstract class XmlTemplate {
 	 * @return True if variables were detected, false if not.
 	 */
 	public boolean hasVariables() {
-		return PATTERN.matcher(root.toString()).find();
+		return getVariables().length > 0;
 	}
 
 	/**
@@ -189,17 +226,9 @@ public abstract class XmlTemplate {
 	 * @return List of variable names as an array of strings.
 	 */
 	public String[] getVariables() {
-		ArrayList<String> list = new ArrayList<String>();
-		Matcher m = PATTERN.matcher(root.toString());
-
-		while (m.find()) {
-			String var = m.group(1);
-			if (!list.contains(var)) {
-				list.add(var);
-			}
-		}
-
-		return list.toArray(new String[list.size()]);
+		LinkedHashSet<String> variables = new LinkedHashSet<String>();
+		rootNode.collectVariables(variables);
+		return variables.toArray(new String[variables.size()]);
 	}
 
 	protected static Node[] getChildNodes(Node parentNode, String childName) {
@@ -339,4 +368,218 @@ public abstract class XmlTemplate {
 		// everything is OK
 		validatedNodes.add(parentNode);
 	}
+
+	protected static TemplateNode[] getChildNodes(TemplateNode parentNode, String childName) {
+		return parentNode.getChildNodes(childName);
+	}
+
+	protected static TemplateNode[] getChildNodes(TemplateNode parentNode) {
+		return parentNode.children;
+	}
+
+	protected static TemplateNode getFirstChildNode(TemplateNode parentNode, String childName) throws RrdException {
+		TemplateNode child = parentNode.getFirstChildNode(childName);
+		if (child == null) {
+			throw new RrdException("XML Error, no such child: " + childName);
+		}
+		return child;
+	}
+
+	protected boolean hasChildNode(TemplateNode parentNode, String childName) {
+		return parentNode.getFirstChildNode(childName) != null;
+	}
+
+	protected String getChildValue(TemplateNode parentNode, String childName) throws RrdException {
+		return getChildValue(parentNode, childName, true);
+	}
+
+	protected String getChildValue(TemplateNode parentNode, String childName, boolean trim) throws RrdException {
+		return getValue(getFirstChildNode(parentNode, childName), trim);
+	}
+
+	protected String getValue(TemplateNode parentNode) {
+		return getValue(parentNode, true);
+	}
+
+	protected String getValue(TemplateNode parentNode, boolean trim) {
+		TemplateValue value = trim ? parentNode.trimmedValue : parentNode.value;
+		return value != null ? value.resolve(valueMap) : null;
+	}
+
+	protected int getChildValueAsInt(TemplateNode parentNode, String childName) throws RrdException {
+		return Integer.parseInt(getChildValue(parentNode, childName));
+	}
+
+	protected int getValueAsInt(TemplateNode parentNode) {
+		return Integer.parseInt(getValue(parentNode));
+	}
+
+	protected long getChildValueAsLong(TemplateNode parentNode, String childName) throws RrdException {
+		return Long.parseLong(getChildValue(parentNode, childName));
+	}
+
+	protected long getValueAsLong(TemplateNode parentNode) {
+		return Long.parseLong(getValue(parentNode));
+	}
+
+	protected double getChildValueAsDouble(TemplateNode parentNode, String childName) throws RrdException {
+		return Util.parseDouble(getChildValue(parentNode, childName));
+	}
+
+	protected double getValueAsDouble(TemplateNode parentNode) {
+		return Util.parseDouble(getValue(parentNode));
+	}
+
+	protected boolean getChildValueAsBoolean(TemplateNode parentNode, String childName) throws RrdException {
+		return Util.parseBoolean(getChildValue(parentNode, childName));
+	}
+
+	protected boolean getValueAsBoolean(TemplateNode parentNode) {
+		return Util.parseBoolean(getValue(parentNode));
+	}
+
+	protected Paint getValueAsColor(TemplateNode parentNode) throws RrdException {
+		return Util.parseColor(getValue(parentNode));
+	}
+
+	protected boolean isEmptyNode(TemplateNode node) {
+		return node.empty;
+	}
+
+	protected void validateTagsOnlyOnce(TemplateNode parentNode, String[] allowedChildNames) throws RrdException {
+		// validate node only once, the compiled tree may be shared between threads
+		if (parentNode.validated) {
+			return;
+		}
+		main:
+		for (TemplateNode child : parentNode.children) {
+			String childName = child.name;
+			for (int j = 0; j < allowedChildNames.length; j++) {
+				if (allowedChildNames[j].equals(childName)) {
+					// only one such tag is allowed
+					allowedChildNames[j] = "<--removed-->";
+					continue main;
+				}
+				else if (allowedChildNames[j].equals(childName + "*")) {
+					// several tags allowed
+					continue main;
+				}
+			}
+			if (!child.empty) {
+				throw new RrdException("Unexpected tag encountered: <" + childName + ">");
+			}
+		}
+		// everything is OK
+		parentNode.validated = true;
+	}
+
+	/**
+	 * Node of a compiled XML template. Holds the node name, child nodes and the node value,
+	 * split at placeholders. Compiled nodes never change once created, except for the validation flag.
+	 */
+	protected static final class TemplateNode {
+		private static final TemplateNode[] NO_NODES = new TemplateNode[0];
+
+		private final String name;
+		private final TemplateNode[] children;
+		private final TemplateValue value, trimmedValue;
+		private final boolean empty;
+		private volatile boolean validated;
+
+		TemplateNode(Node node) {
+			name = node.getNodeName();
+			Node[] childNodes = Util.Xml.getChildNodes(node);
+			children = childNodes.length > 0 ? new TemplateNode[childNodes.length] : NO_NODES;
+			for (int i = 0; i < childNodes.length; i++) {
+				children[i] = new TemplateNode(childNodes[i]);
+			}
+			String text = Util.Xml.getValue(node, false);
+			value = text != null ? new TemplateValue(text) : null;
+			trimmedValue = text != null ? new TemplateValue(text.trim()) : null;
+			// comment node or empty text node
+			empty = name.equals("#comment") ||
+					(name.equals("#text") && node.getNodeValue().trim().length() == 0);
+		}
+
+		/**
+		 * Returns the name of this node, as the name of the XML node it was compiled from.
+		 *
+		 * @return Node name
+		 */
+		public String getNodeName() {
+			return name;
+		}
+
+		TemplateNode[] getChildNodes(String childName) {
+			int count = 0;
+			for (TemplateNode child : children) {
+				if (child.name.equals(childName)) {
+					count++;
+				}
+			}
+			TemplateNode[] result = new TemplateNode[count];
+			count = 0;
+			for (TemplateNode child : children) {
+				if (child.name.equals(childName)) {
+					result[count++] = child;
+				}
+			}
+			return result;
+		}
+
+		TemplateNode getFirstChildNode(String childName) {
+			for (TemplateNode child : children) {
+				if (child.name.equals(childName)) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+		void collectVariables(Set<String> variables) {
+			if (value != null) {
+				variables.addAll(Arrays.asList(value.variables));
+			}
+			for (TemplateNode child : children) {
+				child.collectVariables(variables);
+			}
+		}
+	}
+
+	// value with placeholders, as literal text and variable names in turn
+	private static final class TemplateValue {
+		private final String[] texts;
+		private final String[] variables;
+
+		TemplateValue(String templateValue) {
+			List<String> textList = new ArrayList<String>(), variableList = new ArrayList<String>();
+			Matcher matcher = PATTERN.matcher(templateValue);
+			int lastMatchEnd = 0;
+			while (matcher.find()) {
+				textList.add(templateValue.substring(lastMatchEnd, matcher.start()));
+				variableList.add(matcher.group(1));
+				lastMatchEnd = matcher.end();
+			}
+			textList.add(templateValue.substring(lastMatchEnd));
+			texts = textList.toArray(new String[textList.size()]);
+			variables = variableList.toArray(new String[variableList.size()]);
+		}
+
+		String resolve(Map<String, Object> valueMap) {
+			if (variables.length == 0) {
+				return texts[0];
+			}
+			StringBuilder result = new StringBuilder(texts[0]);
+			for (int i = 0; i < variables.length; i++) {
+				Object value = valueMap.get(variables[i]);
+				if (value == null) {
+					// no mapping found - this is illegal
+					// throw runtime exception
+					throw new IllegalArgumentException("No mapping found for template variable ${" + variables[i] + "}");
+				}
+				result.append(value.toString()).append(texts[i + 1]);
+			}
+			return result.toString();
+		}
+	}
 }
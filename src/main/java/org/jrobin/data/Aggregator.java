@@ -22,9 +22,7 @@ package org.jrobin.data;
 import org.jrobin.core.ConsolFuns;
 import org.jrobin.core.Util;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 class Aggregator implements ConsolFuns {
 	private long timestamps[], step;
@@ -43,6 +41,8 @@ class Aggregator implements ConsolFuns {
                 int cnt = 0;
                 int lslstep = 0;
 		boolean firstFound = false;
+		// rows within the range, they are always adjacent
+		int firstRow = 0, lastRow = -1;
                 double SUMx, SUMy, SUMxy, SUMxx, SUMyy;
                 SUMx = 0.0;
                 SUMy = 0.0;
@@ -60,7 +60,9 @@ class Aggregator implements ConsolFuns {
 				double value = values[i];
 				agg.min = Util.min(agg.min, value);
 				agg.max = Util.max(agg.max, value);
+				lastRow = i;
 				if (!firstFound) {
+					firstRow = i;
 					agg.first = value;
 					firstFound = true;
 					agg.last = value;
@@ -94,18 +96,12 @@ class Aggregator implements ConsolFuns {
 
                 // Work on STDEV
                 if (cnt > 0) {
+                    // the average is known only now, but there is no need to look outside the range again
                     double stdevSum = 0.0;
-                    for (int i = 0; i < timestamps.length; i++) {
-                        long left = Math.max(timestamps[i] - step, tStart);
-			long right = Math.min(timestamps[i], tEnd);
-			long delta = right - left;
-
-			// delta is only >= 0 when the timestamp for a given buck is within the range of tStart and tEnd
-			if (delta >= 0) {
-				double value = values[i];
-				if (!Double.isNaN(value)) {
-                                        stdevSum = Util.sum(stdevSum, Math.pow((value - agg.average), 2.0));
-				}
+                    for (int i = firstRow; i <= lastRow; i++) {
+			double value = values[i];
+			if (!Double.isNaN(value)) {
+                                stdevSum = Util.sum(stdevSum, Math.pow((value - agg.average), 2.0));
 			}
                     }
                     agg.stdev = Math.pow(stdevSum / cnt, 0.5);
@@ -127,33 +123,123 @@ class Aggregator implements ConsolFuns {
         }
 
 	double getPercentile(long tStart, long tEnd, double percentile, boolean includenan) {
-		List<Double> valueList = new ArrayList<Double>();
-		// create a list of included datasource values (different from NaN)
+		return getPercentiles(tStart, tEnd, new double[] {percentile}, includenan)[0];
+	}
+
+	/**
+	 * Calculates several percentiles with a single pass over source values. Values are
+	 * not sorted, each percentile is found with a selection algorithm working in place.
+	 *
+	 * @param tStart	  Starting timestamp
+	 * @param tEnd		Ending timestamp
+	 * @param percentiles Requested percentiles
+	 * @param includenan  true, if NaN values should be taken into account (as values greater than
+	 *                    any other value)
+	 * @return Calculated percentiles, in the same order as requested
+	 */
+	double[] getPercentiles(long tStart, long tEnd, double[] percentiles, boolean includenan) {
+		double[] results = new double[percentiles.length];
+		Arrays.fill(results, Double.NaN);
+		// copy included values different from NaN, NaN values are just counted
+		double[] valuesCopy = new double[timestamps.length];
+		int count = 0, nanCount = 0;
 		for (int i = 0; i < timestamps.length; i++) {
 			long left = Math.max(timestamps[i] - step, tStart);
 			long right = Math.min(timestamps[i], tEnd);
-			if (right > left && (!Double.isNaN(values[i]) || includenan)) {
-				valueList.add(values[i]);
+			if (right > left) {
+				if (!Double.isNaN(values[i])) {
+					valuesCopy[count++] = values[i];
+				}
+				else if (includenan) {
+					nanCount++;
+				}
 			}
 		}
-		// create an array to work with
-		int count = valueList.size();
-		if (count > 1) {
-			double[] valuesCopy = new double[count];
-			for (int i = 0; i < count; i++) {
-				valuesCopy[i] = valueList.get(i);
-			}
-			// sort array
-			Arrays.sort(valuesCopy);
+		int total = count + nanCount;
+		if (total <= 1) {
+			// not enough data available
+			return results;
+		}
+		// find the index each percentile would have in a sorted array
+		int[] ranks = new int[percentiles.length];
+		int[] order = new int[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++) {
 			// skip top (100% - percentile) values
-			double topPercentile = (100.0 - percentile) / 100.0;
-			count -= (int) Math.ceil(count * topPercentile);
-			// if we have anything left...
-			if (count > 0) {
-				return valuesCopy[count - 1];
+			double topPercentile = (100.0 - percentiles[i]) / 100.0;
+			ranks[i] = total - (int) Math.ceil(total * topPercentile) - 1;
+			// insertion sort, there are only a few percentiles
+			int j = i;
+			for (; j > 0 && ranks[order[j - 1]] > ranks[i]; j--) {
+				order[j] = order[j - 1];
+			}
+			order[j] = i;
+		}
+		// select in ascending order, each selection narrows the range for the next one
+		int from = 0;
+		for (int i : order) {
+			int rank = ranks[i];
+			if (rank >= 0 && rank < count) {
+				if (rank >= from) {
+					select(valuesCopy, from, count - 1, rank);
+					from = rank + 1;
+				}
+				results[i] = fixZeroSign(valuesCopy, count, rank);
+			}
+			// ranks past the last value point to NaN values, which are sorted last
+		}
+		return results;
+	}
+
+	// Rearranges values[left..right] so that values[k] is the value which would be found there
+	// if the range was sorted, with smaller or equal values before it and greater or equal values after it.
+	private static void select(double[] values, int left, int right, int k) {
+		while (right > left) {
+			double pivot = median(values[left], values[(left + right) >>> 1], values[right]);
+			int i = left, j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double temp = values[i];
+					values[i++] = values[j];
+					values[j--] = temp;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			}
+			else if (k >= i) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private static double median(double a, double b, double c) {
+		if (a < b) {
+			return b < c ? b : a < c ? c : a;
+		}
+		return a < c ? a : b < c ? c : b;
+	}
+
+	// Selection does not distinguish between -0.0 and 0.0, but sorting does
+	private static double fixZeroSign(double[] values, int count, int rank) {
+		double value = values[rank];
+		if (value != 0.0) {
+			return value;
+		}
+		int smaller = 0;
+		for (int i = 0; i < count; i++) {
+			if (values[i] < 0.0 || (values[i] == 0.0 && 1.0 / values[i] < 0.0)) {
+				smaller++;
 			}
 		}
-		// not enough data available
-		return Double.NaN;
+		return rank < smaller ? -0.0 : 0.0;
 	}
 }
@@ -19,15 +19,33 @@
 
 package org.jrobin.data;
 
+import java.util.Set;
+
 class CDef extends Source {
-	private String rpnExpression;
+	private final String rpnExpression;
+	// expression rewritten by the RpnOptimizer, if any
+	private String optimizedRpnExpression;
 
 	CDef(String name, String rpnExpression) {
 		super(name);
 		this.rpnExpression = rpnExpression;
 	}
 
+	// expression to be calculated
 	String getRpnExpression() {
+		return optimizedRpnExpression != null ? optimizedRpnExpression : rpnExpression;
+	}
+
+	// expression as defined
+	String getOriginalRpnExpression() {
 		return rpnExpression;
 	}
+
+	void setOptimizedRpnExpression(String optimizedRpnExpression) {
+		this.optimizedRpnExpression = optimizedRpnExpression;
+	}
+
+	Set<String> getDependencies() {
+		return RpnCalculator.getReferencedSourceNames(getRpnExpression());
+	}
 }
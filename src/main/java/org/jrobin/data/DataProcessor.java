@@ -23,6 +23,8 @@ import org.jrobin.core.*;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class which should be used for all calculations based on the data fetched from RRD files. This class
@@ -47,6 +49,13 @@ import java.util.*;
  * // Dump calculated values
  * System.out.println(dp.dump());
  * </pre>
+ * <p>
+ * CDEF, SDEF and PDEF sources are evaluated in dependency order, not in the order of their definition.
+ * Sources which do not depend on each other are evaluated in parallel (see
+ * {@link #setParallelCalculation(boolean)}). If output sources are declared with the
+ * {@link #addOutputSource(String)} method, sources not needed to calculate them are skipped.
+ * Before the calculation, RPN expressions of all CDEF sources are optimized together (see
+ * {@link #setRpnOptimizationUsed(boolean)}).
  */
 public class DataProcessor implements ConsolFuns {
 	/**
@@ -65,6 +74,37 @@ public class DataProcessor implements ConsolFuns {
 	public static final boolean DEFAULT_POOL_USAGE_POLICY = false;
 	private boolean poolUsed = DEFAULT_POOL_USAGE_POLICY;
 
+	/**
+	 * Constant that defines the default policy for the calculation of independent CDEF, SDEF and PDEF
+	 * sources. Defaults to <code>true</code> (independent sources will be calculated in parallel)
+	 */
+	public static final boolean DEFAULT_PARALLEL_CALCULATION_POLICY = true;
+	private boolean parallelCalculation = DEFAULT_PARALLEL_CALCULATION_POLICY;
+
+	// minimal number of values to be calculated in a single step before it's worth going parallel
+	private static final int PARALLEL_CALCULATION_THRESHOLD = 10000;
+	private static final int CALCULATION_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+	private static final String CALCULATION_THREAD_NAME = "DataProcessor-calculator";
+	private static ExecutorService calculationExecutor;
+
+	/**
+	 * Constant that defines the default RPN optimization policy. Defaults to <code>true</code>
+	 * (common subexpressions of CDEF sources will be calculated only once)
+	 */
+	public static final boolean DEFAULT_RPN_OPTIMIZATION_POLICY = true;
+	private boolean rpnOptimizationUsed = DEFAULT_RPN_OPTIMIZATION_POLICY;
+
+	/**
+	 * Constant that defines the default archive selection policy. Defaults to <code>false</code>
+	 * (archives will be selected by the fetch request resolution only)
+	 */
+	public static final boolean DEFAULT_PIXEL_RESOLUTION_POLICY = false;
+	private boolean pixelResolutionUsed = DEFAULT_PIXEL_RESOLUTION_POLICY;
+
+	private FetchDataCache fetchDataCache;
+	// processed a preceding time span, its fetched rows are reused; released once data is fetched
+	private DataProcessor previousData;
+
 	private final long tStart;
 	private long tEnd, timestamps[];
 	private long lastRrdArchiveUpdateTime = 0;
@@ -78,6 +118,15 @@ public class DataProcessor implements ConsolFuns {
 
 	private Def[] defSources;
 
+	// names of sources requested by the caller; if empty, all sources will be calculated
+	private Set<String> outputSources = new LinkedHashSet<String>();
+	// names of sources created internally to hold common subexpressions
+	private Set<String> sharedSources = new HashSet<String>();
+	// percentiles already calculated, by source name and percentile
+	private final Map<String, Map<Double, Double>> percentileCache = new HashMap<String, Map<Double, Double>>();
+	// aggregates already calculated, by source name
+	private final Map<String, Aggregates> aggregatesCache = new HashMap<String, Aggregates>();
+
 	/**
 	 * Creates new DataProcessor object for the given time span. Ending timestamp may be set to zero.
 	 * In that case, the class will try to find the optimal ending timestamp based on the last update time of
@@ -141,6 +190,115 @@ public class DataProcessor implements ConsolFuns {
 		this.poolUsed = poolUsed;
 	}
 
+	/**
+	 * Sets the cache of fetched data shared with other DataProcessor objects. Data of DEF datasources
+	 * will be taken from the cache, or fetched and stored in the cache for other DataProcessor objects
+	 * with the same time span. DEF datasources defined so far are registered with the cache, so all DEF
+	 * datasources should be defined before this method is called.
+	 *
+	 * @param fetchDataCache Cache of fetched data, or null if data should be fetched directly (default)
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void setFetchDataCache(FetchDataCache fetchDataCache) throws IOException {
+		this.fetchDataCache = fetchDataCache;
+		if (fetchDataCache != null) {
+			for (Source source : sources.values()) {
+				if (source instanceof Def && ((Def) source).getPath() != null) {
+					fetchDataCache.addDatasource((Def) source);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets a DataProcessor which already processed the same DEF datasources for an earlier time span,
+	 * for example the previous refresh of a graph sliding with time. Rows it fetched are copied from it,
+	 * only rows archived since are read from RRD files (see {@link FetchRequest#fetchData(FetchData)}).
+	 * The previous DataProcessor is released once data is fetched.
+	 *
+	 * @param previousData DataProcessor which processed an earlier time span, or null if all data
+	 *                     should be fetched (default)
+	 */
+	public void setPreviousData(DataProcessor previousData) {
+		this.previousData = previousData;
+	}
+
+	/**
+	 * Returns policy for the calculation of CDEF, SDEF and PDEF sources which do not depend on each other.
+	 *
+	 * @return true, if independent sources will be calculated in parallel, false otherwise.
+	 */
+	public boolean isParallelCalculation() {
+		return parallelCalculation;
+	}
+
+	/**
+	 * Sets policy for the calculation of CDEF, SDEF and PDEF sources which do not depend on each other.
+	 * If set to true, independent sources will be calculated in parallel using a shared pool of
+	 * daemon threads, but only if there is enough work to be shared between threads.
+	 *
+	 * @param parallelCalculation true, if independent sources should be calculated in parallel, false otherwise.
+	 */
+	public void setParallelCalculation(boolean parallelCalculation) {
+		this.parallelCalculation = parallelCalculation;
+	}
+
+	/**
+	 * Returns RPN optimization policy.
+	 *
+	 * @return true, if RPN expressions of CDEF sources will be optimized before the calculation, false otherwise.
+	 */
+	public boolean isRpnOptimizationUsed() {
+		return rpnOptimizationUsed;
+	}
+
+	/**
+	 * Sets RPN optimization policy. If set to true, RPN expressions of all CDEF sources
+	 * will be optimized together before the calculation: subexpressions built from literals only
+	 * (like <code>8,1024,*</code>) will be replaced with their values, and subexpressions
+	 * found in more than one CDEF (like <code>in,8,*</code>) will be calculated only once.
+	 * Calculated values are not affected by this policy.
+	 *
+	 * @param rpnOptimizationUsed true, if RPN expressions should be optimized, false otherwise.
+	 */
+	public void setRpnOptimizationUsed(boolean rpnOptimizationUsed) {
+		this.rpnOptimizationUsed = rpnOptimizationUsed;
+	}
+
+	/**
+	 * Returns archive selection policy.
+	 *
+	 * @return true, if archives are selected by the number of pixels, false otherwise.
+	 */
+	public boolean isPixelResolutionUsed() {
+		return pixelResolutionUsed;
+	}
+
+	/**
+	 * Sets archive selection policy. If set to true, data will be fetched from the coarsest archive
+	 * which still provides at least one row per pixel (see {@link #setPixelCount(int)}), or at least one
+	 * row per step if the step is set with the {@link #setStep(long)} method. Archives which do not cover
+	 * the whole time span are not considered. If no archive qualifies, or if the policy is set to false,
+	 * the archive is selected by the fetch request resolution (see {@link #setFetchRequestResolution(long)}).
+	 *
+	 * @param pixelResolutionUsed true, if archives should be selected by the number of pixels, false otherwise.
+	 */
+	public void setPixelResolutionUsed(boolean pixelResolutionUsed) {
+		this.pixelResolutionUsed = pixelResolutionUsed;
+	}
+
+	/**
+	 * Declares the source as an output of this DataProcessor, i.e. a source whose values or aggregates
+	 * will be requested once the {@link #processData()} method returns. If at least one output source
+	 * is declared, CDEF, SDEF and PDEF sources which are not needed to calculate output sources
+	 * will not be calculated at all. If no output source is declared, all sources will be calculated.
+	 *
+	 * @param sourceName Source name
+	 */
+	public void addOutputSource(String sourceName) {
+		outputSources.add(sourceName);
+	}
+
 	/**
 	 * Sets the number of pixels (target graph width). This number is used only to calculate pixel coordinates
 	 * for JRobin graphs (methods {@link #getValuesPerPixel(String)} and {@link #getTimestampsPerPixel()}),
@@ -263,12 +421,7 @@ public class DataProcessor implements ConsolFuns {
 	 *                      was not called)
 	 */
 	public double[] getValues(String sourceName) throws RrdException {
-		Source source = getSource(sourceName);
-		double[] values = source.getValues();
-		if (values == null) {
-			throw new RrdException("Values not available for source [" + sourceName + "]");
-		}
-		return values;
+		return getCalculatedSource(sourceName).getValues();
 	}
 
 	/**
@@ -285,8 +438,8 @@ public class DataProcessor implements ConsolFuns {
 	 *                      was not called)
 	 */
 	public double getAggregate(String sourceName, String consolFun) throws RrdException {
-		Source source = getSource(sourceName);
-		return source.getAggregates(tStart, tEnd).getAggregate(consolFun);
+		Source source = getCalculatedSource(sourceName);
+		return getAggregates(source).getAggregate(consolFun);
 	}
 
 	/**
@@ -299,8 +452,8 @@ public class DataProcessor implements ConsolFuns {
 	 *                      was not called)
 	 */
 	public Aggregates getAggregates(String sourceName) throws RrdException {
-		Source source = getSource(sourceName);
-		return source.getAggregates(tStart, tEnd);
+		Source source = getCalculatedSource(sourceName);
+		return getAggregates(source);
 	}
 
 	/**
@@ -354,11 +507,28 @@ public class DataProcessor implements ConsolFuns {
 	 * @throws RrdException Thrown if invalid sourcename is supplied, or if the percentile value makes no sense.
 	 */
 	public double getPercentile(String sourceName, double percentile) throws RrdException {
-		if (percentile <= 0.0 || percentile > 100.0) {
-			throw new RrdException("Invalid percentile [" + percentile + "], should be between 0 and 100");
+		return getPercentiles(sourceName, percentile)[0];
+	}
+
+	/**
+	 * The same as {@link #getPercentile(String, double)}, but calculates several percentiles
+	 * (for example 50, 95 and 99) with a single pass over fetched source values. Calculated percentiles
+	 * are remembered, so that subsequent requests for the same source and percentile (including
+	 * VDEF sources defined with {@link #addDatasource(String, String, double)}) are answered
+	 * without any further calculation.
+	 *
+	 * @param sourceName  Datasource name.
+	 * @param percentiles Boundary percentiles, each one between zero and 100.
+	 * @return Requested percentiles of fetched source values, in the same order as requested
+	 * @throws RrdException Thrown if invalid sourcename is supplied, or if any percentile value makes no sense.
+	 */
+	public double[] getPercentiles(String sourceName, double... percentiles) throws RrdException {
+		for (double percentile : percentiles) {
+			if (percentile <= 0.0 || percentile > 100.0) {
+				throw new RrdException("Invalid percentile [" + percentile + "], should be between 0 and 100");
+			}
 		}
-		Source source = getSource(sourceName);
-		return source.getPercentile(tStart, tEnd, percentile);
+		return getPercentiles(getCalculatedSource(sourceName), percentiles);
 	}
 
 	/**
@@ -367,7 +537,9 @@ public class DataProcessor implements ConsolFuns {
 	 * @return array of datasource names
 	 */
 	public String[] getSourceNames() {
-		return sources.keySet().toArray(new String[0]);
+		List<String> names = new ArrayList<String>(sources.keySet());
+		names.removeAll(sharedSources);
+		return names.toArray(new String[names.size()]);
 	}
 
 	/**
@@ -399,6 +571,14 @@ public class DataProcessor implements ConsolFuns {
 		throw new RrdException("Unknown source: " + sourceName);
 	}
 
+	private Source getCalculatedSource(String sourceName) throws RrdException {
+		Source source = getSource(sourceName);
+		if (source.getValues() == null) {
+			throw new RrdException("Values not available for source [" + sourceName + "]");
+		}
+		return source;
+	}
+
 	/////////////////////////////////////////////////////////////////
 	// DATASOURCE DEFINITIONS
 	/////////////////////////////////////////////////////////////////
@@ -560,8 +740,15 @@ public class DataProcessor implements ConsolFuns {
 	 * @throws RrdException Thrown in case of JRobin specific error
 	 */
 	public void processData() throws IOException, RrdException {
+		percentileCache.clear();
+		aggregatesCache.clear();
 		extractDefs();
-		fetchRrdData();
+		try {
+			fetchRrdData();
+		}
+		finally {
+			previousData = null;
+		}
 		fixZeroEndingTimestamp();
 		chooseOptimalStep();
 		createTimestamps();
@@ -625,6 +812,71 @@ public class DataProcessor implements ConsolFuns {
 		return pixelValues;
 	}
 
+	/**
+	 * Method used to calculate datasource values which should be presented on the graph
+	 * based on the graph width set with a {@link #setPixelCount(int)} method call. Unlike
+	 * {@link #getValuesPerPixel(String)}, which picks a single value for each pixel, this method
+	 * consolidates all values belonging to a pixel, so that no spike is lost when there are more
+	 * rows than pixels. Each pixel covers the time between its timestamp (see {@link #getTimestampsPerPixel()})
+	 * and the timestamp of the previous pixel. All values are consolidated in a single pass.
+	 *
+	 * @param sourceName Datasource name
+	 * @param consolFun  Consolidation function to be applied to values of each pixel.
+	 *                   Valid consolidation functions are MIN, MAX, AVERAGE, FIRST and LAST
+	 *                   (these string constants are conveniently defined in the {@link ConsolFuns} class)
+	 * @return Per-pixel datasource values
+	 * @throws RrdException Thrown if datasource values are not yet calculated (method {@link #processData()}
+	 *                      was not called), or if unsupported consolidation function is supplied
+	 */
+	public double[] getValuesPerPixel(String sourceName, String consolFun) throws RrdException {
+		if (!Arrays.asList(CF_MIN, CF_MAX, CF_AVERAGE, CF_FIRST, CF_LAST).contains(consolFun)) {
+			throw new RrdException("Unsupported consolidation function: " + consolFun);
+		}
+		double[] values = getValues(sourceName);
+		double[] pixelValues = new double[pixelCount];
+		long span = tEnd - tStart;
+		double pixelSpan = pixelCount > 1 ? (double) span / (double) (pixelCount - 1) : span;
+		for (int pix = 0, ref = 0; pix < pixelCount; pix++) {
+			double t = tStart + (double) (span * pix) / (double) (pixelCount - 1);
+			// skip rows which end before this pixel starts
+			while (ref < timestamps.length && timestamps[ref] <= t - pixelSpan) {
+				ref++;
+			}
+			double min = Double.NaN, max = Double.NaN, sum = 0, first = Double.NaN, last = Double.NaN;
+			int count = 0;
+			// rows are shared by adjacent pixels only if they are wider than pixels
+			for (int i = ref; i < timestamps.length && timestamps[i] - step < t; i++) {
+				double value = values[i];
+				min = Util.min(min, value);
+				max = Util.max(max, value);
+				if (!Double.isNaN(value)) {
+					sum += value;
+					count++;
+				}
+				if (i == ref) {
+					first = value;
+				}
+				last = value;
+			}
+			if (consolFun.equals(CF_MIN)) {
+				pixelValues[pix] = min;
+			}
+			else if (consolFun.equals(CF_MAX)) {
+				pixelValues[pix] = max;
+			}
+			else if (consolFun.equals(CF_AVERAGE)) {
+				pixelValues[pix] = count > 0 ? sum / count : Double.NaN;
+			}
+			else if (consolFun.equals(CF_FIRST)) {
+				pixelValues[pix] = first;
+			}
+			else {
+				pixelValues[pix] = last;
+			}
+		}
+		return pixelValues;
+	}
+
 	/**
 	 * Calculates timestamps which correspond to individual pixels on the graph.
 	 *
@@ -712,30 +964,81 @@ public class DataProcessor implements ConsolFuns {
 					}
 				}
 				// now we have everything
-				RrdDb rrd = null;
-				try {
-					rrd = getRrd(defSources[i]);
-					lastRrdArchiveUpdateTime = Math.max(lastRrdArchiveUpdateTime, rrd.getLastArchiveUpdateTime());
-					FetchRequest req = rrd.createFetchRequest(defSources[i].getConsolFun(),
-							tStart, tEndFixed, fetchRequestResolution);
-					req.setFilter(dsNames);
-					FetchData data = req.fetchData();
-					defSources[i].setFetchData(data);
-					for (int j = i + 1; j < defSources.length; j++) {
-						if (defSources[i].isCompatibleWith(defSources[j])) {
-							defSources[j].setFetchData(data);
-						}
-					}
-				}
-				finally {
-					if (rrd != null) {
-						releaseRrd(rrd, defSources[i]);
+				long lastUpdateTime = fetchDataCache != null ?
+						fetchDataCache.fetchData(this, defSources[i], dsNames, tEndFixed) :
+						fetchData(defSources[i], dsNames, tEndFixed);
+				lastRrdArchiveUpdateTime = Math.max(lastRrdArchiveUpdateTime, lastUpdateTime);
+				FetchData data = defSources[i].getFetchData();
+				for (int j = i + 1; j < defSources.length; j++) {
+					if (defSources[i].isCompatibleWith(defSources[j])) {
+						defSources[j].setFetchData(data);
 					}
 				}
 			}
 		}
 	}
 
+	// fetches values of the given datasources into the DEF source, returns the last archive update time
+	long fetchData(Def def, Set<String> dsNames, long tEndFixed) throws IOException, RrdException {
+		RrdDb rrd = null;
+		try {
+			rrd = getRrd(def);
+			long resolution = fetchRequestResolution;
+			if (pixelResolutionUsed) {
+				resolution = getPixelResolution(rrd, def.getConsolFun(), tEndFixed);
+			}
+			FetchRequest req = rrd.createFetchRequest(def.getConsolFun(), tStart, tEndFixed, resolution);
+			req.setFilter(dsNames);
+			def.setFetchData(req.fetchData(getPreviousFetchData(def, resolution)));
+			return rrd.getLastArchiveUpdateTime();
+		}
+		finally {
+			if (rrd != null) {
+				releaseRrd(rrd, def);
+			}
+		}
+	}
+
+	private FetchData getPreviousFetchData(Def def, long resolution) throws IOException {
+		DataProcessor previous = previousData;
+		if (previous == null || previous.defSources == null || previous.tStart > tStart) {
+			return null;
+		}
+		String fileKey = FetchDataCache.getFileKey(def);
+		for (Def previousDef : previous.defSources) {
+			FetchData data = previousDef.getFetchData();
+			if (previousDef.getPath() != null && data != null && data.getRequest().getResolution() == resolution &&
+					FetchDataCache.getFileKey(previousDef).equals(fileKey)) {
+				return data;
+			}
+		}
+		return null;
+	}
+
+	// DEF sources with equal keys get equal data for equal datasource names
+	String getFetchKey(Def def, long tEndFixed) throws IOException {
+		String resolution = "" + fetchRequestResolution;
+		if (pixelResolutionUsed) {
+			resolution = "max" + (step > 0 ? step : Math.max((tEndFixed - tStart) / pixelCount, 1));
+		}
+		return FetchDataCache.getFileKey(def) + ":" + tStart + ":" + tEndFixed + ":" + resolution;
+	}
+
+	// finds the coarsest archive step which still gives at least one row per pixel
+	private long getPixelResolution(RrdDb rrd, String consolFun, long tEndFixed) throws IOException {
+		long maxStep = step > 0 ? step : Math.max((tEndFixed - tStart) / pixelCount, 1);
+		long resolution = 0;
+		for (int i = 0; i < rrd.getArcCount(); i++) {
+			Archive archive = rrd.getArchive(i);
+			long arcStep = archive.getArcStep();
+			if (archive.getConsolFun().equals(consolFun) && arcStep <= maxStep && arcStep > resolution &&
+					archive.getStartTime() - arcStep <= tStart && archive.getEndTime() >= tEndFixed) {
+				resolution = arcStep;
+			}
+		}
+		return resolution > 0 ? resolution : fetchRequestResolution;
+	}
+
 	private void fixZeroEndingTimestamp() throws RrdException {
 		if (tEnd == 0) {
 			if (defSources.length == 0) {
@@ -802,22 +1105,177 @@ public class DataProcessor implements ConsolFuns {
 	}
 
 	private void calculateNonRrdSources() throws RrdException {
+		resetRpnExpressions();
+		if (rpnOptimizationUsed) {
+			optimizeRpnExpressions();
+		}
+		for (List<Source> level : scheduleNonRrdSources()) {
+			if (isParallelCalculationWorthwhile(level)) {
+				calculateInParallel(level);
+			}
+			else {
+				for (Source source : level) {
+					calculateSource(source);
+				}
+			}
+		}
+	}
+
+	// Groups non-RRD sources into levels. Sources from the same level do not depend on each other and
+	// depend only on sources from previous levels. Sources not needed for any output source are left out.
+	private List<List<Source>> scheduleNonRrdSources() throws RrdException {
+		Map<String, Integer> levels = resolveLevels();
+		List<List<Source>> schedule = new ArrayList<List<Source>>();
 		for (Source source : sources.values()) {
-			if (source instanceof SDef) {
-				calculateSDef((SDef) source);
+			Integer level = levels.get(source.getName());
+			if (level != null && level > 0) {
+				while (schedule.size() < level) {
+					schedule.add(new ArrayList<Source>());
+				}
+				schedule.get(level - 1).add(source);
 			}
-			else if (source instanceof CDef) {
-				calculateCDef((CDef) source);
+		}
+		return schedule;
+	}
+
+	// only sources needed for output sources get their level resolved
+	private Map<String, Integer> resolveLevels() throws RrdException {
+		Map<String, Integer> levels = new HashMap<String, Integer>();
+		Collection<String> roots = outputSources.isEmpty() ? sources.keySet() : outputSources;
+		for (String name : roots) {
+			resolveLevel(name, levels, new HashSet<String>());
+		}
+		return levels;
+	}
+
+	private int resolveLevel(String name, Map<String, Integer> levels, Set<String> path) throws RrdException {
+		Integer level = levels.get(name);
+		if (level != null) {
+			return level;
+		}
+		Source source = getSource(name);
+		int newLevel = 0;
+		if (!(source instanceof Def)) {
+			if (!path.add(name)) {
+				throw new RrdException("Circular dependency detected for source [" + name + "]");
 			}
-			else if (source instanceof PDef) {
-				calculatePDef((PDef) source);
+			for (String dependency : source.getDependencies()) {
+				newLevel = Math.max(newLevel, resolveLevel(dependency, levels, path));
 			}
-			else if (source instanceof PercentileDef) {
-			        calculatePercentileDef((PercentileDef) source);
+			path.remove(name);
+			newLevel++;
+		}
+		levels.put(name, newLevel);
+		return newLevel;
+	}
+
+	// drops the results of a previous optimization, if processed before
+	private void resetRpnExpressions() {
+		for (String name : sharedSources) {
+			sources.remove(name);
+		}
+		sharedSources.clear();
+		for (Source source : sources.values()) {
+			if (source instanceof CDef) {
+				((CDef) source).setOptimizedRpnExpression(null);
 			}
 		}
 	}
 
+	private void optimizeRpnExpressions() throws RrdException {
+		Map<String, Integer> levels = resolveLevels();
+		List<CDef> cDefs = new ArrayList<CDef>();
+		for (Source source : sources.values()) {
+			if (source instanceof CDef && levels.containsKey(source.getName())) {
+				cDefs.add((CDef) source);
+			}
+		}
+		RpnOptimizer optimizer = new RpnOptimizer(this, sources.keySet());
+		for (Map.Entry<String, String> entry : optimizer.optimize(cDefs).entrySet()) {
+			CDef cDef = new CDef(entry.getKey(), entry.getValue());
+			cDef.setTimestamps(timestamps);
+			sources.put(cDef.getName(), cDef);
+			sharedSources.add(cDef.getName());
+		}
+	}
+
+	private boolean isParallelCalculationWorthwhile(List<Source> level) {
+		return parallelCalculation && CALCULATION_THREAD_COUNT > 1 && level.size() > 1 &&
+				(long) level.size() * timestamps.length >= PARALLEL_CALCULATION_THRESHOLD;
+	}
+
+	private void calculateInParallel(List<Source> level) throws RrdException {
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(level.size() - 1);
+		try {
+			ExecutorService executor = getCalculationExecutor();
+			for (final Source source : level.subList(1, level.size())) {
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws RrdException {
+						calculateSource(source);
+						return null;
+					}
+				}));
+			}
+			// the calling thread takes its share of work, too
+			calculateSource(level.get(0));
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RrdException("Interrupted while calculating sources", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RrdException) {
+				throw (RrdException) cause;
+			}
+			else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RrdException(cause);
+		}
+		finally {
+			for (Future<Object> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getCalculationExecutor() {
+		if (calculationExecutor == null) {
+			calculationExecutor = Executors.newFixedThreadPool(CALCULATION_THREAD_COUNT, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, CALCULATION_THREAD_NAME + "-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return calculationExecutor;
+	}
+
+	private void calculateSource(Source source) throws RrdException {
+		if (source instanceof SDef) {
+			calculateSDef((SDef) source);
+		}
+		else if (source instanceof CDef) {
+			calculateCDef((CDef) source);
+		}
+		else if (source instanceof PDef) {
+			calculatePDef((PDef) source);
+		}
+		else if (source instanceof PercentileDef) {
+		        calculatePercentileDef((PercentileDef) source);
+		}
+	}
+
 	private void calculatePDef(PDef pdef) {
 		pdef.calculateValues();
 	}
@@ -833,16 +1291,74 @@ public class DataProcessor implements ConsolFuns {
 		Source source = getSource(defName);
                 if (consolFun.equals("MAXIMUM")) { consolFun = "MAX"; }
                 else if (consolFun.equals("MINIMUM")) { consolFun = "MIN"; }
-		double value = source.getAggregates(tStart, tEnd).getAggregate(consolFun);
+		double value = getAggregates(source).getAggregate(consolFun);
 		sDef.setValue(value);
 	}
 
-	//Yeah, this is different from the other calculation methods
-	// Frankly, this is how it *should* be done, and the other methods will
-	// be refactored to this design (and the instanceof's removed) at some point
-        private void calculatePercentileDef(PercentileDef def) throws RrdException {
-                def.calculate(tStart, tEnd);
-        }
+	// Like percentiles, aggregates are always calculated for the whole time span of this
+	// DataProcessor. All SDEF sources, PRINT and GPRINT elements of the same source share them.
+	private Aggregates getAggregates(Source source) throws RrdException {
+		Aggregates aggregates;
+		synchronized (aggregatesCache) {
+			aggregates = aggregatesCache.get(source.getName());
+		}
+		if (aggregates == null) {
+			// calculated outside the lock, sources are calculated in parallel
+			aggregates = source.getAggregates(tStart, tEnd);
+			synchronized (aggregatesCache) {
+				aggregatesCache.put(source.getName(), aggregates);
+			}
+		}
+		return aggregates;
+	}
+
+	private void calculatePercentileDef(PercentileDef def) throws RrdException {
+		Source source = def.getSource();
+		if (source != null) {
+			def.setValue(getPercentiles(source, new double[] {def.getPercentile()})[0]);
+		}
+	}
+
+	// Percentiles are calculated for the whole time span of this DataProcessor,
+	// so the source name is enough to identify already calculated ones
+	private double[] getPercentiles(Source source, double[] percentiles) throws RrdException {
+		double[] results = new double[percentiles.length];
+		List<Double> missing = new ArrayList<Double>();
+		Map<Double, Double> cached;
+		synchronized (percentileCache) {
+			cached = percentileCache.get(source.getName());
+			if (cached == null) {
+				cached = new HashMap<Double, Double>();
+				percentileCache.put(source.getName(), cached);
+			}
+			for (int i = 0; i < percentiles.length; i++) {
+				Double value = cached.get(percentiles[i]);
+				if (value != null) {
+					results[i] = value;
+				}
+				else {
+					missing.add(percentiles[i]);
+				}
+			}
+		}
+		if (!missing.isEmpty()) {
+			double[] missingPercentiles = new double[missing.size()];
+			for (int i = 0; i < missingPercentiles.length; i++) {
+				missingPercentiles[i] = missing.get(i);
+			}
+			// calculated outside the lock, sources are calculated in parallel
+			double[] missingValues = source.getPercentiles(tStart, tEnd, missingPercentiles);
+			synchronized (percentileCache) {
+				for (int i = 0; i < missingPercentiles.length; i++) {
+					cached.put(missingPercentiles[i], missingValues[i]);
+				}
+				for (int i = 0; i < percentiles.length; i++) {
+					results[i] = cached.get(percentiles[i]);
+				}
+			}
+		}
+		return results;
+	}
 
 
 	private RrdDb getRrd(Def def) throws IOException, RrdException {
@@ -851,10 +1367,10 @@ public class DataProcessor implements ConsolFuns {
 			return RrdDbPool.getInstance().requestRrdDb(path);
 		}
 		else if (backend != null) {
-			return new RrdDb(path, true, RrdBackendFactory.getFactory(backend));
+			return RrdDbSharedRegistry.getInstance().request(path, RrdBackendFactory.getFactory(backend));
 		}
 		else {
-			return new RrdDb(path, true);
+			return RrdDbSharedRegistry.getInstance().request(path, RrdBackendFactory.getDefaultFactory());
 		}
 	}
 
@@ -864,7 +1380,7 @@ public class DataProcessor implements ConsolFuns {
 			RrdDbPool.getInstance().release(rrd);
 		}
 		else {
-			rrd.close();
+			RrdDbSharedRegistry.getInstance().release(rrd);
 		}
 	}
 
@@ -77,6 +77,10 @@ class Def extends Source {
 		this.fetchData = fetchData;
 	}
 
+	FetchData getFetchData() {
+		return fetchData;
+	}
+
 	long[] getRrdTimestamps() {
 		return fetchData.getTimestamps();
 	}
@@ -107,6 +111,13 @@ class Def extends Source {
 		return agg.getPercentile(tStart, tEnd, percentile);
 	}
 
+	double[] getPercentiles(long tStart, long tEnd, double[] percentiles) throws RrdException {
+		long[] t = getRrdTimestamps();
+		double[] v = getRrdValues();
+		Aggregator agg = new Aggregator(t, v);
+		return agg.getPercentiles(tStart, tEnd, percentiles, false);
+	}
+
 	boolean isLoaded() {
 		return fetchData != null;
 	}
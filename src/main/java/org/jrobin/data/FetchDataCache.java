@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+package org.jrobin.data;
+
+import org.jrobin.core.RrdException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Class used to share data fetched from RRD files between several {@link DataProcessor} objects,
+ * for example when many graphs using the same RRD files are created at once. All datasources
+ * should be registered first (see {@link #addDatasource(String, String, String, String)} and
+ * {@link DataProcessor#setFetchDataCache(FetchDataCache)}). Then a single fetch request per
+ * RRD file, consolidation function and time span will return values of all registered datasources
+ * of that RRD file.
+ * <p>
+ * This class is thread safe. DataProcessor objects sharing the same cache may process data
+ * concurrently, the same data will be fetched only once.
+ */
+public class FetchDataCache {
+	// registered datasource names, by RRD file and consolidation function
+	private final Map<String, Set<String>> dsNames = new HashMap<String, Set<String>>();
+	// fetched data, by RRD file, consolidation function, time span and resolution
+	private final Map<String, Fetch> fetches = new HashMap<String, Fetch>();
+
+	/**
+	 * Registers a datasource which will be fetched with other datasources of the same RRD file.
+	 *
+	 * @param file	  Path to RRD file
+	 * @param dsName	Datasource name in the specified RRD file
+	 * @param consolFun Consolidation function (AVERAGE, MIN, MAX, LAST)
+	 * @param backend   Name of the RrdBackendFactory that should be used for this RrdDb, or null
+	 *                  for the default one
+	 * @throws IOException Thrown in case of I/O error
+	 */
+	public void addDatasource(String file, String dsName, String consolFun, String backend) throws IOException {
+		addDatasource(new Def(null, file, dsName, consolFun, backend));
+	}
+
+	/**
+	 * Removes all fetched data. Registered datasources are kept.
+	 */
+	public synchronized void clear() {
+		fetches.clear();
+	}
+
+	synchronized void addDatasource(Def def) throws IOException {
+		String fileKey = getFileKey(def);
+		Set<String> names = dsNames.get(fileKey);
+		if (names == null) {
+			names = new HashSet<String>();
+			dsNames.put(fileKey, names);
+		}
+		names.add(def.getDsName());
+	}
+
+	static String getFileKey(Def def) throws IOException {
+		return def.getCanonicalPath() + ":" + def.getBackend() + ":" + def.getConsolFun();
+	}
+
+	/**
+	 * Fetches values of the given datasources into the DEF source, or takes them from
+	 * the cache if already fetched.
+	 *
+	 * @return Last archive update time of the RRD file
+	 */
+	long fetchData(final DataProcessor dproc, final Def def, Set<String> requestedNames, final long tEndFixed)
+			throws IOException, RrdException {
+		String key = dproc.getFetchKey(def, tEndFixed);
+		Fetch fetch;
+		boolean fetching = false;
+		synchronized (this) {
+			fetch = fetches.get(key);
+			if (fetch == null || !fetch.dsNames.containsAll(requestedNames)) {
+				final Set<String> names = new HashSet<String>(requestedNames);
+				Set<String> registeredNames = dsNames.get(getFileKey(def));
+				if (registeredNames != null) {
+					names.addAll(registeredNames);
+				}
+				FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>() {
+					public Long call() throws IOException, RrdException {
+						return dproc.fetchData(def, names, tEndFixed);
+					}
+				});
+				fetch = new Fetch(def, names, task);
+				fetches.put(key, fetch);
+				fetching = true;
+			}
+		}
+		if (fetching) {
+			// fetched by this thread, others wait for it
+			fetch.task.run();
+		}
+		long lastUpdateTime;
+		try {
+			lastUpdateTime = fetch.task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RrdException("Interrupted while waiting for data to be fetched", e);
+		}
+		catch (ExecutionException e) {
+			synchronized (this) {
+				// do not keep failures
+				if (fetches.get(key) == fetch) {
+					fetches.remove(key);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			else if (cause instanceof RrdException) {
+				throw (RrdException) cause;
+			}
+			else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RrdException("Could not fetch data", cause);
+		}
+		if (fetch.def != def) {
+			def.setFetchData(fetch.def.getFetchData());
+		}
+		return lastUpdateTime;
+	}
+
+	private static final class Fetch {
+		final Def def;
+		final Set<String> dsNames;
+		final FutureTask<Long> task;
+
+		Fetch(Def def, Set<String> dsNames, FutureTask<Long> task) {
+			this.def = def;
+			this.dsNames = dsNames;
+			this.task = task;
+		}
+	}
+}
@@ -19,6 +19,10 @@ package org.jrobin.data;
 
 import org.jrobin.core.RrdException;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
 public class PercentileDef extends Source {
 
     private Source m_source;
@@ -59,11 +63,19 @@ public class PercentileDef extends Source {
         }
     }
 
+    Source getSource() {
+        return m_source;
+    }
+
+    double getPercentile() {
+        return m_percentile;
+    }
+
     /**
      * Takes the given value and puts it in each position in the 'values' array.
      * @param value
      */
-    private void setValue(double value) {
+    void setValue(double value) {
         this.m_value = value;
         long[] times = getTimestamps();
         if( times != null ) {
@@ -76,6 +88,14 @@ public class PercentileDef extends Source {
         }
     }
 
+    @Override
+    Set<String> getDependencies() {
+        if (m_source == null) {
+            return Collections.emptySet();
+        }
+        return Collections.singleton(m_source.getName());
+    }
+
     @Override
     void setTimestamps(long[] timestamps) {
         super.setTimestamps(timestamps);
@@ -111,4 +131,12 @@ public class PercentileDef extends Source {
         return m_value;
     }
 
+    @Override
+    double[] getPercentiles(long tStart, long tEnd, double[] percentiles)
+            throws RrdException {
+        double[] results = new double[percentiles.length];
+        Arrays.fill(results, m_value);
+        return results;
+    }
+
 }
@@ -24,6 +24,8 @@ import org.jrobin.core.RrdException;
 import org.jrobin.core.Util;
 
 import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 
@@ -122,6 +124,50 @@ class RpnCalculator {
 	}
 
 	private Token createToken(String parsedText) throws RrdException {
+		Token token = parseToken(parsedText);
+		if (token.id == TKN_PREV && token.variable == null) {
+			// PREV without argument refers to the source being calculated
+			token.variable = sourceName;
+			token.values = calculatedValues;
+		}
+		else if (token.variable != null) {
+			token.values = dataProcessor.getValues(token.variable);
+		}
+		return token;
+	}
+
+	/**
+	 * Returns names of all sources referenced from the given RPN expression, either directly or
+	 * through the PREV(sourceName) function. PREV without argument is not reported, since it
+	 * refers to the source being calculated.
+	 *
+	 * @param rpnExpression RPN expression
+	 * @return Set of referenced source names, in order of appearance
+	 */
+	static Set<String> getReferencedSourceNames(String rpnExpression) {
+		Set<String> names = new LinkedHashSet<String>();
+		StringTokenizer st = new StringTokenizer(rpnExpression, ", ");
+		while (st.hasMoreTokens()) {
+			Token token = parseToken(st.nextToken());
+			if (token.variable != null) {
+				names.add(token.variable);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Checks if the given RPN token is a reference to a source, rather than a number, constant,
+	 * operator or function.
+	 *
+	 * @param parsedText Single RPN token
+	 * @return true, if the token represents a source name
+	 */
+	static boolean isSourceReference(String parsedText) {
+		return parseToken(parsedText).id == TKN_VAR;
+	}
+
+	private static Token parseToken(String parsedText) {
 		Token token = new Token();
 		if (Util.isDouble(parsedText)) {
 			token.id = TKN_NUM;
@@ -243,13 +289,10 @@ class RpnCalculator {
 		}
 		else if (parsedText.equals("PREV")) {
 			token.id = TKN_PREV;
-			token.variable = sourceName;
-			token.values = calculatedValues;
 		}
 		else if (parsedText.startsWith("PREV(") && parsedText.endsWith(")")) {
 			token.id = TKN_PREV;
 			token.variable = parsedText.substring(5, parsedText.length() - 1);
-			token.values = dataProcessor.getValues(token.variable);
 		}
 		else if (parsedText.equals("INF")) {
 			token.id = TKN_INF;
@@ -335,14 +378,28 @@ class RpnCalculator {
 		else {
 			token.id = TKN_VAR;
 			token.variable = parsedText;
-			token.values = dataProcessor.getValues(token.variable);
 		}
 		return token;
 	}
 
 	double[] calculateValues() throws RrdException {
+		return calculateValues(timestamps.length);
+	}
+
+	/**
+	 * Calculates the value of the expression for the first timestamp only. Useful for expressions
+	 * which do not depend on time or on any other source.
+	 *
+	 * @return Calculated value
+	 * @throws RrdException Thrown if the RPN expression is invalid
+	 */
+	double calculateValue() throws RrdException {
+		return calculateValues(1)[0];
+	}
+
+	private double[] calculateValues(int slotCount) throws RrdException {
                 TimeZone tz = TimeZone.getDefault();
-		for (int slot = 0; slot < timestamps.length; slot++) {
+		for (int slot = 0; slot < slotCount; slot++) {
 			resetStack();
                         int token_rpi = -1;
                         for (int rpi = 0; rpi < tokens.length; rpi++) {
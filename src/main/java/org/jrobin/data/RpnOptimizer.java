@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+package org.jrobin.data;
+
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Util;
+
+import java.util.*;
+
+/**
+ * Optimizes RPN expressions of all CDEF sources calculated by a single {@link DataProcessor}.
+ * Subexpressions built from literals only are replaced with their values. Subexpressions found
+ * in more than one place are calculated only once, either by an existing CDEF source with
+ * the same expression, or by a new shared CDEF source.
+ * <p>
+ * Expressions using functions with side effects or access to other rows (PREV, TREND, RANDOM...)
+ * are left untouched.
+ */
+class RpnOptimizer {
+	private static final String SHARED_SOURCE_PREFIX = "__cse";
+
+	// side effect free operators and functions, with the number of operands
+	private static final Map<String, Integer> OPERATORS = new HashMap<String, Integer>();
+	// operators and functions which give the same result when operands are swapped
+	private static final Set<String> COMMUTATIVE = new HashSet<String>(Arrays.asList(
+			"+", "*", "MIN", "MAX", "AND", "OR", "XOR", "EQ", "NE", "ADDNAN"));
+	private static final Set<String> CONSTANTS = new HashSet<String>(Arrays.asList(
+			"PI", "E", "INF", "NEGINF", "UNKN"));
+	// values which vary with time, but not with source
+	private static final Set<String> TIME_VALUES = new HashSet<String>(Arrays.asList(
+			"TIME", "LTIME", "STEP", "COUNT"));
+
+	static {
+		for (String op : new String[] {"SIN", "COS", "LOG", "EXP", "FLOOR", "CEIL", "ROUND", "ABS", "SQRT",
+				"UN", "ISINF", "SIGN", "ATAN", "DEG2RAD", "RAD2DEG",
+				"YEAR", "MONTH", "DATE", "HOUR", "MINUTE", "SECOND", "WEEK"}) {
+			OPERATORS.put(op, 1);
+		}
+		for (String op : new String[] {"+", "-", "*", "/", "%", "POW", "ATAN2",
+				"LT", "LE", "GT", "GE", "EQ", "NE", "MIN", "MAX", "AND", "OR", "XOR", "ADDNAN"}) {
+			OPERATORS.put(op, 2);
+		}
+		for (String op : new String[] {"IF", "LIMIT"}) {
+			OPERATORS.put(op, 3);
+		}
+	}
+
+	private final DataProcessor dataProcessor;
+	private final Set<String> usedNames;
+	// all distinct subexpressions, operands always precede expressions using them
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+	// subexpressions of the expression being parsed
+	private final Map<String, Node> pendingNodes = new LinkedHashMap<String, Node>();
+
+	RpnOptimizer(DataProcessor dataProcessor, Collection<String> sourceNames) {
+		this.dataProcessor = dataProcessor;
+		this.usedNames = new HashSet<String>(sourceNames);
+	}
+
+	/**
+	 * Rewrites RPN expressions of the given CDEF sources, starting from expressions as defined, so that
+	 * sources can be optimized again. Shared subexpressions will be referenced
+	 * by names of new sources, which must be created by the caller.
+	 *
+	 * @param cdefs CDEF sources to be optimized
+	 * @return Names of new sources mapped to their RPN expressions, in order of dependency
+	 * @throws RrdException Thrown if a literal-only subexpression could not be evaluated
+	 */
+	Map<String, String> optimize(List<CDef> cdefs) throws RrdException {
+		Map<CDef, Node> roots = new LinkedHashMap<CDef, Node>();
+		for (CDef cdef : cdefs) {
+			Node root = parse(cdef.getOriginalRpnExpression());
+			if (root != null) {
+				root.uses++;
+				if (root.name == null && !root.isLeaf()) {
+					// the first CDEF with this expression will calculate it for all others
+					root.name = cdef.getName();
+				}
+				roots.put(cdef, root);
+			}
+		}
+		Map<String, String> sharedSources = new LinkedHashMap<String, String>();
+		for (Node node : nodes.values()) {
+			if (node.name == null && node.uses > 1 && !node.isLeaf()) {
+				node.name = createSourceName();
+				sharedSources.put(node.name, node.toRpn(true));
+			}
+		}
+		for (Map.Entry<CDef, Node> entry : roots.entrySet()) {
+			CDef cdef = entry.getKey();
+			Node root = entry.getValue();
+			cdef.setOptimizedRpnExpression(root.toRpn(cdef.getName().equals(root.name)));
+		}
+		return sharedSources;
+	}
+
+	private String createSourceName() {
+		String name;
+		for (int i = 0; usedNames.contains(name = SHARED_SOURCE_PREFIX + i); i++) {
+			// try the next one
+		}
+		usedNames.add(name);
+		return name;
+	}
+
+	// returns null if the expression cannot be optimized
+	private Node parse(String rpnExpression) throws RrdException {
+		pendingNodes.clear();
+		LinkedList<Node> stack = new LinkedList<Node>();
+		StringTokenizer st = new StringTokenizer(rpnExpression, ", ");
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken();
+			Integer operandCount = OPERATORS.get(token);
+			if (operandCount != null) {
+				if (stack.size() < operandCount) {
+					return null;
+				}
+				Node[] operands = new Node[operandCount];
+				for (int i = operandCount - 1; i >= 0; i--) {
+					operands[i] = stack.removeLast();
+				}
+				stack.addLast(createNode(token, operands));
+			}
+			else if (token.equals("DUP")) {
+				if (stack.isEmpty()) {
+					return null;
+				}
+				stack.addLast(stack.getLast());
+			}
+			else if (token.equals("EXC")) {
+				if (stack.size() < 2) {
+					return null;
+				}
+				Node x2 = stack.removeLast(), x1 = stack.removeLast();
+				stack.addLast(x2);
+				stack.addLast(x1);
+			}
+			else if (token.equals("POP")) {
+				if (stack.isEmpty()) {
+					return null;
+				}
+				stack.removeLast();
+			}
+			else if (Util.isDouble(token)) {
+				stack.addLast(createLeaf(Double.toString(Util.parseDouble(token)), true));
+			}
+			else if (CONSTANTS.contains(token)) {
+				stack.addLast(createLeaf(token, true));
+			}
+			else if (TIME_VALUES.contains(token) || RpnCalculator.isSourceReference(token)) {
+				stack.addLast(createLeaf(token, false));
+			}
+			else {
+				// PREV, TREND, RANDOM and the like
+				return null;
+			}
+		}
+		if (stack.size() != 1) {
+			return null;
+		}
+		for (Node node : pendingNodes.values()) {
+			for (Node operand : node.operands) {
+				operand.uses++;
+			}
+			nodes.put(node.key, node);
+		}
+		return stack.getLast();
+	}
+
+	private Node createLeaf(String token, boolean constant) {
+		return intern(new Node(token, new Node[0], token, constant));
+	}
+
+	private Node createNode(String token, Node[] operands) throws RrdException {
+		boolean constant = true;
+		for (Node operand : operands) {
+			constant &= operand.constant;
+		}
+		if (operands.length == 2 && COMMUTATIVE.contains(token) &&
+				operands[0].key.compareTo(operands[1].key) > 0) {
+			operands = new Node[] {operands[1], operands[0]};
+		}
+		StringBuilder key = new StringBuilder();
+		for (Node operand : operands) {
+			key.append(operand.key).append(',');
+		}
+		key.append(token);
+		if (constant) {
+			double value = new RpnCalculator(key.toString(), "", dataProcessor).calculateValue();
+			return createLeaf(Double.toString(value), true);
+		}
+		return intern(new Node(token, operands, key.toString(), false));
+	}
+
+	private Node intern(Node node) {
+		Node existing = nodes.get(node.key);
+		if (existing == null) {
+			existing = pendingNodes.get(node.key);
+		}
+		if (existing == null) {
+			pendingNodes.put(node.key, node);
+			existing = node;
+		}
+		return existing;
+	}
+
+	private static final class Node {
+		final String token;
+		final Node[] operands;
+		final String key;
+		final boolean constant;
+		int uses;
+		String name;
+
+		Node(String token, Node[] operands, String key, boolean constant) {
+			this.token = token;
+			this.operands = operands;
+			this.key = key;
+			this.constant = constant;
+		}
+
+		boolean isLeaf() {
+			return operands.length == 0;
+		}
+
+		String toRpn(boolean expand) {
+			if (name != null && !expand) {
+				return name;
+			}
+			StringBuilder rpn = new StringBuilder();
+			for (Node operand : operands) {
+				rpn.append(operand.toRpn(false)).append(',');
+			}
+			return rpn.append(token).toString();
+		}
+	}
+}
@@ -21,6 +21,10 @@ package org.jrobin.data;
 
 import org.jrobin.core.RrdException;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
 class SDef extends Source {
 	private String defName;
 	private String consolFun;
@@ -40,6 +44,10 @@ class SDef extends Source {
 		return consolFun;
 	}
 
+	Set<String> getDependencies() {
+		return Collections.singleton(defName);
+	}
+
 	void setValue(double value) {
 		this.value = value;
 		int count = getTimestamps().length;
@@ -60,4 +68,10 @@ class SDef extends Source {
 	double getPercentile(long tStart, long tEnd, double percentile) throws RrdException {
 		return value;
 	}
+
+	double[] getPercentiles(long tStart, long tEnd, double[] percentiles) throws RrdException {
+		double[] results = new double[percentiles.length];
+		Arrays.fill(results, value);
+		return results;
+	}
 }
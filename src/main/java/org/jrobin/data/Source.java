@@ -22,6 +22,9 @@ package org.jrobin.data;
 import org.jrobin.core.ConsolFuns;
 import org.jrobin.core.RrdException;
 
+import java.util.Collections;
+import java.util.Set;
+
 abstract class Source implements ConsolFuns {
 	final private String name;
 	protected double[] values;
@@ -51,6 +54,15 @@ abstract class Source implements ConsolFuns {
 		return timestamps;
 	}
 
+	/**
+	 * Returns names of all sources which must be calculated before this one.
+	 *
+	 * @return Names of sources this source depends on
+	 */
+	Set<String> getDependencies() {
+		return Collections.emptySet();
+	}
+
 	Aggregates getAggregates(long tStart, long tEnd) throws RrdException {
 		Aggregator agg = new Aggregator(timestamps, values);
 		return agg.getAggregates(tStart, tEnd);
@@ -65,4 +77,9 @@ abstract class Source implements ConsolFuns {
 		Aggregator agg = new Aggregator(timestamps, values);
 		return agg.getPercentile(tStart, tEnd, percentile, includenan);
 	}
+
+	double[] getPercentiles(long tStart, long tEnd, double[] percentiles) throws RrdException {
+		Aggregator agg = new Aggregator(timestamps, values);
+		return agg.getPercentiles(tStart, tEnd, percentiles, false);
+	}
 }
@@ -21,7 +21,7 @@ package org.jrobin.graph;
 import org.jrobin.data.DataProcessor;
 
 class CDef extends Source {
-	private final String rpnExpression;
+	final String rpnExpression;
 
 	CDef(String name, String rpnExpression) {
 		super(name);
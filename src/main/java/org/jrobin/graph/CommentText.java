@@ -22,7 +22,7 @@ import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
 
 class CommentText implements RrdGraphConstants {
-    private final String text; // original text
+    final String text; // original text
 
     String resolvedText; // resolved text
     String marker; // end-of-text marker
@@ -19,10 +19,18 @@
 
 package org.jrobin.graph;
 
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDbPool;
+import org.jrobin.core.RrdDbSharedRegistry;
+import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
+import org.jrobin.data.FetchDataCache;
+
+import java.io.IOException;
 
 class Def extends Source {
-	private final String rrdPath, dsName, consolFun, backend;
+	final String rrdPath, dsName, consolFun, backend;
 
 	Def(String name, String rrdPath, String dsName, String consolFun) {
 		this(name, rrdPath, dsName, consolFun, null);
@@ -44,4 +52,27 @@ class Def extends Source {
 			dproc.addDatasource(name, rrdPath, dsName, consolFun, backend);
 		}
 	}
+
+	void registerData(FetchDataCache fetchDataCache) throws IOException {
+		fetchDataCache.addDatasource(rrdPath, dsName, consolFun, backend);
+	}
+
+	// the same RrdDb as used by DataProcessor while both are in use
+	RrdDb requestRrd(boolean poolUsed) throws IOException, RrdException {
+		if (poolUsed && backend == null) {
+			return RrdDbPool.getInstance().requestRrdDb(rrdPath);
+		}
+		RrdBackendFactory factory = backend != null ? RrdBackendFactory.getFactory(backend) :
+				RrdBackendFactory.getDefaultFactory();
+		return RrdDbSharedRegistry.getInstance().request(rrdPath, factory);
+	}
+
+	void releaseRrd(RrdDb rrd, boolean poolUsed) throws IOException, RrdException {
+		if (poolUsed && backend == null) {
+			RrdDbPool.getInstance().release(rrd);
+		}
+		else {
+			RrdDbSharedRegistry.getInstance().release(rrd);
+		}
+	}
 }
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Drawing operations used by {@link RrdGraph} to render a graph, implemented by
+ * {@link ImageWorker} for raster images and by {@link SvgWriter} for vector images.
+ * Coordinates are in pixels, with the origin in the top left corner of the graph.
+ */
+interface Drawing {
+	void clip(int x, int y, int width, int height);
+
+	void transform(int x, int y, double angle);
+
+	// removes the transformation and the clip
+	void reset();
+
+	void fillRect(int x, int y, int width, int height, Paint paint);
+
+	void fillPolygon(int[] x, int[] y, Paint paint);
+
+	// NaN values of yTop are gaps
+	void fillPolygon(double[] x, double yBottom, double[] yTop, Paint paint);
+
+	// NaN values of yTop are gaps
+	void fillPolygon(double[] x, double[] yBottom, double[] yTop, Paint paint);
+
+	void drawLine(int x1, int y1, int x2, int y2, Paint paint, Stroke stroke);
+
+	void drawPolyline(int[] x, int[] y, Paint paint, Stroke stroke);
+
+	// NaN values of y are gaps
+	void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke);
+
+	// NaN values of y are gaps, downsampled lines keep only the extreme points of each pixel column
+	void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke, boolean downsampled);
+
+	void drawString(String text, int x, int y, Font font, Paint paint);
+
+	double getFontAscent(Font font);
+
+	double getFontHeight(Font font);
+
+	double getStringWidth(String text, Font font);
+
+	void setAntiAliasing(boolean enable);
+
+	// draws the image of the given file in the top left corner
+	void loadImage(String imageFile) throws IOException;
+
+	// returns the number of bytes written
+	int saveImage(OutputStream stream, String type, float quality) throws IOException;
+
+	// returns the number of bytes written
+	int saveImage(String path, String type, float quality) throws IOException;
+
+	byte[] getImageBytes(String type, float quality) throws IOException;
+
+	void dispose();
+}
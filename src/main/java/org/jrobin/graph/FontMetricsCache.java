@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of font metrics and string widths, shared by all graphs. Text is always drawn
+ * antialiased, without transformation and with integer metrics, so that metrics depend only on
+ * the font and the text.
+ */
+class FontMetricsCache {
+	private static final String DUMMY_TEXT = "Dummy";
+	// maximum number of string widths kept per font, axis labels change with data
+	static final int MAX_WIDTHS = 4096;
+	// same as the render context of images created by ImageWorker
+	static final FontRenderContext RENDER_CONTEXT = new FontRenderContext(null,
+			RenderingHints.VALUE_TEXT_ANTIALIAS_ON, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+
+	private static final Map<Font, Metrics> metrics = new ConcurrentHashMap<Font, Metrics>();
+
+	private FontMetricsCache() {
+	}
+
+	static double getFontAscent(Font font) {
+		return getMetrics(font).ascent;
+	}
+
+	static double getFontHeight(Font font) {
+		Metrics m = getMetrics(font);
+		return m.ascent + m.descent;
+	}
+
+	static double getStringWidth(String text, Font font) {
+		Map<String, Double> widths = getMetrics(font).widths;
+		Double width = widths.get(text);
+		if (width == null) {
+			width = font.getStringBounds(text, 0, text.length(), RENDER_CONTEXT).getBounds().getWidth();
+			if (widths.size() >= MAX_WIDTHS) {
+				widths.clear();
+			}
+			widths.put(text, width);
+		}
+		return width;
+	}
+
+	static int getWidthCount(Font font) {
+		return getMetrics(font).widths.size();
+	}
+
+	private static Metrics getMetrics(Font font) {
+		Metrics m = metrics.get(font);
+		if (m == null) {
+			// computed twice at worst, with the same result
+			m = new Metrics(font.getLineMetrics(DUMMY_TEXT, RENDER_CONTEXT));
+			metrics.put(font, m);
+		}
+		return m;
+	}
+
+	private static final class Metrics {
+		final float ascent, descent;
+		final Map<String, Double> widths = new ConcurrentHashMap<String, Double>();
+
+		Metrics(LineMetrics lm) {
+			ascent = lm.getAscent();
+			descent = lm.getDescent();
+		}
+	}
+}
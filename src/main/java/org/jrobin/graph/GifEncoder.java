@@ -305,8 +305,8 @@ class GifColorTable {
 		byte[] ci_pixels = (byte[]) igf.getPixelSource();
 		int npixels = ci_pixels.length;
 		for (int i = 0; i < npixels; ++i) {
-			if (ci_pixels[i] >= ciCount) {
-				ciCount = ci_pixels[i] + 1;
+			if ((ci_pixels[i] & 0xff) >= ciCount) {
+				ciCount = (ci_pixels[i] & 0xff) + 1;
 			}
 		}
 	}
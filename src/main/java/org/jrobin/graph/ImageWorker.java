@@ -19,162 +19,258 @@
 package org.jrobin.graph;
 
 import java.awt.*;
-import java.awt.font.LineMetrics;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 
-class ImageWorker {
-    private static final String DUMMY_TEXT = "Dummy";
-
+class ImageWorker implements Drawing {
     private BufferedImage img;
     private Graphics2D gd;
     private int imgWidth, imgHeight;
     private AffineTransform aftInitial;
+    // colours of the graph definition, or null if images should not be encoded with a palette
+    private int[] paletteColors;
+    private int compressionLevel = RrdGraphConstants.DEFAULT_COMPRESSION_LEVEL;
 
     ImageWorker(int width, int height) {
         resize(width, height);
     }
 
     void resize(int width, int height) {
-        if (gd != null) {
-            gd.dispose();
-        }
+        dispose();
         this.imgWidth = width;
         this.imgHeight = height;
-        this.img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.img = RrdGraphImagePool.getInstance().borrowImage(width, height);
         this.gd = img.createGraphics();
         this.aftInitial = gd.getTransform();
         this.setAntiAliasing(false);
     }
 
-    void clip(int x, int y, int width, int height) {
+    public void clip(int x, int y, int width, int height) {
         gd.setClip(x, y, width, height);
     }
 
-    void transform(int x, int y, double angle) {
+    public void transform(int x, int y, double angle) {
         gd.translate(x, y);
         gd.rotate(angle);
     }
 
-    void reset() {
+    public void reset() {
         gd.setTransform(aftInitial);
         gd.setClip(0, 0, imgWidth, imgHeight);
     }
 
-    void fillRect(int x, int y, int width, int height, Paint paint) {
+    public void fillRect(int x, int y, int width, int height, Paint paint) {
         gd.setPaint(paint);
         gd.fillRect(x, y, width, height);
     }
 
-    void fillPolygon(int[] x, int[] y, Paint paint) {
+    public void fillPolygon(int[] x, int[] y, Paint paint) {
         gd.setPaint(paint);
         gd.fillPolygon(x, y, x.length);
     }
 
-    void fillPolygon(double[] x, double yBottom, double[] yTop, Paint paint) {
+    public void fillPolygon(double[] x, double yBottom, double[] yTop, Paint paint) {
         gd.setPaint(paint);
         PathIterator path = new PathIterator(yTop);
         for (int[] pos = path.getNextPath(); pos != null; pos = path.getNextPath()) {
-            int start = pos[0], end = pos[1], n = end - start;
-            int[] xDev = new int[n + 2], yDev = new int[n + 2];
-            for (int i = start; i < end; i++) {
-                xDev[i - start] = (int) x[i];
-                yDev[i - start] = (int) yTop[i];
-            }
-            xDev[n] = xDev[n - 1];
-            xDev[n + 1] = xDev[0];
-            yDev[n] = yDev[n + 1] = (int) yBottom;
-            gd.fillPolygon(xDev, yDev, xDev.length);
-            gd.drawPolygon(xDev, yDev, xDev.length);
+            int[][] points = getAreaPoints(x, yBottom, yTop, pos[0], pos[1]);
+            gd.fillPolygon(points[0], points[1], points[0].length);
+            gd.drawPolygon(points[0], points[1], points[0].length);
         }
     }
 
-    void fillPolygon(double[] x, double[] yBottom, double[] yTop, Paint paint) {
+    public void fillPolygon(double[] x, double[] yBottom, double[] yTop, Paint paint) {
         gd.setPaint(paint);
         PathIterator path = new PathIterator(yTop);
         for (int[] pos = path.getNextPath(); pos != null; pos = path.getNextPath()) {
-            int start = pos[0], end = pos[1], n = end - start;
-            int[] xDev = new int[n * 2], yDev = new int[n * 2];
-            for (int i = start; i < end; i++) {
-                int ix1 = i - start, ix2 = n * 2 - 1 - i + start;
-                xDev[ix1] = xDev[ix2] = (int) x[i];
-                yDev[ix1] = (int) yTop[i];
-                yDev[ix2] = (int) yBottom[i];
-            }
-            gd.fillPolygon(xDev, yDev, xDev.length);
-            gd.drawPolygon(xDev, yDev, xDev.length);
+            int[][] points = getStackPoints(x, yBottom, yTop, pos[0], pos[1]);
+            gd.fillPolygon(points[0], points[1], points[0].length);
+            gd.drawPolygon(points[0], points[1], points[0].length);
         }
     }
 
-    void drawLine(int x1, int y1, int x2, int y2, Paint paint, Stroke stroke) {
+    public void drawLine(int x1, int y1, int x2, int y2, Paint paint, Stroke stroke) {
         gd.setStroke(stroke);
         gd.setPaint(paint);
         gd.drawLine(x1, y1, x2, y2);
     }
 
-    void drawPolyline(int[] x, int[] y, Paint paint, Stroke stroke) {
+    public void drawPolyline(int[] x, int[] y, Paint paint, Stroke stroke) {
         gd.setStroke(stroke);
         gd.setPaint(paint);
         gd.drawPolyline(x, y, x.length);
     }
 
-    void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke) {
+    public void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke) {
+        drawPolyline(x, y, paint, stroke, false);
+    }
+
+    public void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke, boolean downsampled) {
         gd.setPaint(paint);
         gd.setStroke(stroke);
         PathIterator path = new PathIterator(y);
         for (int[] pos = path.getNextPath(); pos != null; pos = path.getNextPath()) {
-            int start = pos[0], end = pos[1];
-            int[] xDev = new int[end - start], yDev = new int[end - start];
-            for (int i = start; i < end; i++) {
-                xDev[i - start] = (int) x[i];
-                yDev[i - start] = (int) y[i];
+            int[][] points = getLinePoints(x, y, pos[0], pos[1], downsampled);
+            gd.drawPolyline(points[0], points[1], points[0].length);
+        }
+    }
+
+    // device coordinates of an area between the given values and a constant bottom
+    static int[][] getAreaPoints(double[] x, double yBottom, double[] yTop, int start, int end) {
+        int n = end - start;
+        int[] xDev = new int[n + 2], yDev = new int[n + 2];
+        for (int i = start; i < end; i++) {
+            xDev[i - start] = (int) x[i];
+            yDev[i - start] = (int) yTop[i];
+        }
+        xDev[n] = xDev[n - 1];
+        xDev[n + 1] = xDev[0];
+        yDev[n] = yDev[n + 1] = (int) yBottom;
+        return new int[][] {xDev, yDev};
+    }
+
+    // device coordinates of an area between two lines
+    static int[][] getStackPoints(double[] x, double[] yBottom, double[] yTop, int start, int end) {
+        int n = end - start;
+        int[] xDev = new int[n * 2], yDev = new int[n * 2];
+        for (int i = start; i < end; i++) {
+            int ix1 = i - start, ix2 = n * 2 - 1 - i + start;
+            xDev[ix1] = xDev[ix2] = (int) x[i];
+            yDev[ix1] = (int) yTop[i];
+            yDev[ix2] = (int) yBottom[i];
+        }
+        return new int[][] {xDev, yDev};
+    }
+
+    // device coordinates of a line
+    static int[][] getLinePoints(double[] x, double[] y, int start, int end, boolean downsampled) {
+        int[] xDev = new int[end - start], yDev = new int[end - start];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (downsampled) {
+                // points of a single pixel column: keep the first, the lowest, the highest and the last one
+                int last = i, low = i, high = i;
+                while (last + 1 < end && (int) x[last + 1] == (int) x[i]) {
+                    last++;
+                    low = y[last] < y[low] ? last : low;
+                    high = y[last] > y[high] ? last : high;
+                }
+                int[] kept = {i, Math.min(low, high), Math.max(low, high), last};
+                for (int k = 0; k < kept.length; k++) {
+                    if (k == 0 || kept[k] != kept[k - 1]) {
+                        xDev[count] = (int) x[kept[k]];
+                        yDev[count++] = (int) y[kept[k]];
+                    }
+                }
+                i = last;
+            }
+            else {
+                xDev[count] = (int) x[i];
+                yDev[count++] = (int) y[i];
             }
-            gd.drawPolyline(xDev, yDev, xDev.length);
         }
+        if (count < xDev.length) {
+            xDev = Arrays.copyOf(xDev, count);
+            yDev = Arrays.copyOf(yDev, count);
+        }
+        return new int[][] {xDev, yDev};
     }
 
-    void drawString(String text, int x, int y, Font font, Paint paint) {
+    public void drawString(String text, int x, int y, Font font, Paint paint) {
         gd.setFont(font);
         gd.setPaint(paint);
         gd.drawString(text, x, y);
     }
 
-    double getFontAscent(Font font) {
-        LineMetrics lm = font.getLineMetrics(DUMMY_TEXT, gd.getFontRenderContext());
-        return lm.getAscent();
+    public double getFontAscent(Font font) {
+        return FontMetricsCache.getFontAscent(font);
     }
 
-    double getFontHeight(Font font) {
-        LineMetrics lm = font.getLineMetrics(DUMMY_TEXT, gd.getFontRenderContext());
-        return lm.getAscent() + lm.getDescent();
+    public double getFontHeight(Font font) {
+        return FontMetricsCache.getFontHeight(font);
     }
 
-    double getStringWidth(String text, Font font) {
-        return font.getStringBounds(text, 0, text.length(), gd.getFontRenderContext()).getBounds().getWidth();
+    public double getStringWidth(String text, Font font) {
+        return FontMetricsCache.getStringWidth(text, font);
     }
 
-    void setAntiAliasing(boolean enable) {
+    public void setAntiAliasing(boolean enable) {
         gd.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 enable ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
         gd.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         gd.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
     }
 
-    void dispose() {
-        gd.dispose();
+    // the image goes back to the pool, the worker can no longer be used
+    public void dispose() {
+        if (gd != null) {
+            gd.dispose();
+            gd = null;
+            RrdGraphImagePool.getInstance().returnImage(img);
+            img = null;
+        }
     }
 
-    void saveImage(OutputStream stream, String type, float quality) throws IOException {
-        if (type.equalsIgnoreCase("png")) {
-            ImageIO.write(img, "png", stream);
+    void setPalette(List<Paint> colors) {
+        if (colors == null) {
+            paletteColors = null;
+            return;
+        }
+        paletteColors = new int[colors.size()];
+        int count = 0;
+        for (Paint color : colors) {
+            if (color instanceof Color) {
+                paletteColors[count++] = ((Color) color).getRGB();
+            }
         }
-        else if (type.equalsIgnoreCase("gif")) {
-            GifEncoder gifEncoder = new GifEncoder(img);
+        if (count < paletteColors.length) {
+            int[] colorsFound = new int[count];
+            System.arraycopy(paletteColors, 0, colorsFound, 0, count);
+            paletteColors = colorsFound;
+        }
+    }
+
+    void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    // returns the number of bytes written
+    public int saveImage(OutputStream stream, String type, float quality) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(stream);
+        writeImage(counter, type, quality);
+        return counter.count;
+    }
+
+    private void writeImage(OutputStream stream, String type, float quality) throws IOException {
+        boolean png = type.equalsIgnoreCase("png"), gif = type.equalsIgnoreCase("gif");
+        IndexedImage indexedImage = null;
+        if ((png || gif) && paletteColors != null) {
+            // null if the image has too many colours
+            indexedImage = IndexedImage.create(imgWidth, imgHeight, getPixels(), paletteColors);
+        }
+        if (png) {
+            if (indexedImage != null) {
+                new PngEncoder(compressionLevel).encode(stream, indexedImage);
+            }
+            else if (compressionLevel != RrdGraphConstants.DEFAULT_COMPRESSION_LEVEL) {
+                new PngEncoder(compressionLevel).encode(stream, imgWidth, imgHeight, getPixels());
+            }
+            else {
+                ImageIO.write(img, "png", stream);
+            }
+        }
+        else if (gif) {
+            GifEncoder gifEncoder = indexedImage != null ?
+                    new GifEncoder(indexedImage.getColors(), imgWidth, imgHeight, indexedImage.pixels) :
+                    new GifEncoder(img);
             gifEncoder.encode(stream);
         }
         else if (type.equalsIgnoreCase("jpg") || type.equalsIgnoreCase("jpeg")) {
@@ -194,18 +290,21 @@ class ImageWorker {
         stream.flush();
     }
 
-    byte[] saveImage(String path, String type, float quality) throws IOException {
-        byte[] bytes = getImageBytes(type, quality);
-        RandomAccessFile f = new RandomAccessFile(path, "rw");
+    // pixels of an image created with TYPE_INT_ARGB, one int per pixel, row by row
+    private int[] getPixels() {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    public int saveImage(String path, String type, float quality) throws IOException {
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(path));
         try {
-            f.write(bytes);
-            return bytes;
+            return saveImage(stream, type, quality);
         } finally {
-            f.close();
+            stream.close();
         }
     }
 
-    byte[] getImageBytes(String type, float quality) throws IOException {
+    public byte[] getImageBytes(String type, float quality) throws IOException {
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         try {
             saveImage(stream, type, quality);
@@ -215,6 +314,26 @@ class ImageWorker {
         }
     }
 
+    static final class CountingOutputStream extends FilterOutputStream {
+        int count;
+
+        CountingOutputStream(OutputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
     public void loadImage(String imageFile) throws IOException {
         BufferedImage wpImage = ImageIO.read(new File(imageFile));
         TexturePaint paint = new TexturePaint(wpImage, new Rectangle(0, 0, wpImage.getWidth(), wpImage.getHeight()));
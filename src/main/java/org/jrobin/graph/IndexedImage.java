@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import java.awt.*;
+
+/**
+ * Image made of palette indexes, with at most 256 opaque colours. Graphs are rendered in full colour,
+ * but usually contain only a few dozen different colours (antialiased pixels included), so that
+ * they can be encoded as PNG or GIF images with a palette.
+ */
+class IndexedImage {
+	static final int MAX_COLORS = 256;
+	// must be a power of two, large enough to keep the table sparse
+	private static final int TABLE_SIZE = 1024;
+
+	final int width, height;
+	final int[] colors;
+	final byte[] pixels;
+
+	private IndexedImage(int width, int height, int[] colors, byte[] pixels) {
+		this.width = width;
+		this.height = height;
+		this.colors = colors;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Creates palette indexes of full colour pixels. Palette colours are ordered as the given
+	 * colours (the ones used in the graph definition), followed by other colours in order of appearance.
+	 *
+	 * @return Indexed image, or null if pixels have more than 256 colours or are not opaque
+	 */
+	static IndexedImage create(int width, int height, int[] argb, int[] preferredColors) {
+		int[] keys = new int[TABLE_SIZE];
+		int[] indexes = new int[TABLE_SIZE];
+		int[] colors = new int[MAX_COLORS];
+		int colorCount = 0;
+		byte[] pixels = new byte[width * height];
+		// the first pixel is always looked up, all pixels must be opaque
+		int lastColor = 0, lastIndex = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			int color = argb[i];
+			if (i == 0 || color != lastColor) {
+				if ((color >>> 24) != 0xff) {
+					return null;
+				}
+				int slot = hash(color);
+				while (keys[slot] != 0 && keys[slot] != color) {
+					slot = (slot + 1) & (TABLE_SIZE - 1);
+				}
+				if (keys[slot] == 0) {
+					if (colorCount == MAX_COLORS) {
+						return null;
+					}
+					keys[slot] = color;
+					indexes[slot] = colorCount;
+					colors[colorCount++] = color;
+				}
+				lastColor = color;
+				lastIndex = indexes[slot];
+			}
+			pixels[i] = (byte) lastIndex;
+		}
+		int[] palette = new int[colorCount];
+		System.arraycopy(colors, 0, palette, 0, colorCount);
+		reorder(palette, pixels, preferredColors);
+		return new IndexedImage(width, height, palette, pixels);
+	}
+
+	private static int hash(int color) {
+		int h = color * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (TABLE_SIZE - 1);
+	}
+
+	private static void reorder(int[] palette, byte[] pixels, int[] preferredColors) {
+		int colorCount = palette.length;
+		int[] order = new int[colorCount];
+		boolean[] placed = new boolean[colorCount];
+		int count = 0;
+		for (int preferredColor : preferredColors) {
+			for (int i = 0; i < colorCount; i++) {
+				if (!placed[i] && palette[i] == preferredColor) {
+					placed[i] = true;
+					order[count++] = i;
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < colorCount; i++) {
+			if (!placed[i]) {
+				order[count++] = i;
+			}
+		}
+		byte[] remap = new byte[colorCount];
+		boolean identity = true;
+		int[] colors = palette.clone();
+		for (int i = 0; i < colorCount; i++) {
+			palette[i] = colors[order[i]];
+			remap[order[i]] = (byte) i;
+			identity &= order[i] == i;
+		}
+		if (!identity) {
+			for (int i = 0; i < pixels.length; i++) {
+				pixels[i] = remap[pixels[i] & 0xff];
+			}
+		}
+	}
+
+	Color[] getColors() {
+		Color[] result = new Color[colors.length];
+		for (int i = 0; i < colors.length; i++) {
+			result[i] = new Color(colors[i]);
+		}
+		return result;
+	}
+}
@@ -23,7 +23,6 @@ import java.util.List;
 
 class LegendComposer implements RrdGraphConstants {
 	private RrdGraphDef gdef;
-	private ImageWorker worker;
 	private int legX, legY, legWidth;
 	private double interlegendSpace;
 	private double leading;
@@ -32,7 +31,6 @@ class LegendComposer implements RrdGraphConstants {
 
 	LegendComposer(RrdGraph rrdGraph, int legX, int legY, int legWidth) {
 		this.gdef = rrdGraph.gdef;
-		this.worker = rrdGraph.worker;
 		this.legX = legX;
 		this.legY = legY;
 		this.legWidth = legWidth;
@@ -54,7 +52,6 @@ class LegendComposer implements RrdGraphConstants {
 			}
 		}
 		line.layoutAndAdvance(true);
-		worker.dispose();
 		return legY;
 	}
 
@@ -150,7 +147,7 @@ class LegendComposer implements RrdGraphConstants {
 		}
 
 		private double getCommentWidth(CommentText comment) {
-			double commentWidth = worker.getStringWidth(comment.resolvedText, gdef.getFont(FONTTAG_LEGEND));
+			double commentWidth = FontMetricsCache.getStringWidth(comment.resolvedText, gdef.getFont(FONTTAG_LEGEND));
 			if (comment instanceof LegendText) {
 				commentWidth += boxSpace;
 			}
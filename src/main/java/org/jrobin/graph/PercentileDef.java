@@ -21,11 +21,11 @@ import org.jrobin.data.DataProcessor;
 import org.jrobin.graph.Source;
 
 public class PercentileDef extends Source {
-    private String m_sourceName;
+    String m_sourceName;
 
-    private double m_percentile;
+    double m_percentile;
 
-    private boolean m_includenan;
+    boolean m_includenan;
 
     PercentileDef(String name, String sourceName, double percentile) {
         this(name, sourceName, percentile, false);
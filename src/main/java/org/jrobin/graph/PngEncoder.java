@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Minimal PNG encoder with a configurable deflate level. Indexed images are written with a palette
+ * and the smallest possible bit depth, full colour images with the best row filter of each row.
+ */
+class PngEncoder {
+	private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+	private static final int COLOR_TYPE_RGB = 2, COLOR_TYPE_INDEXED = 3, COLOR_TYPE_RGBA = 6;
+	private static final int FILTER_NONE = 0, FILTER_SUB = 1, FILTER_UP = 2, FILTER_PAETH = 4;
+
+	private final int level;
+
+	/**
+	 * @param level Deflate level, from 0 (no compression) to 9 (best compression), or -1 for the default level
+	 */
+	PngEncoder(int level) {
+		this.level = level;
+	}
+
+	void encode(OutputStream stream, IndexedImage image) throws IOException {
+		int colorCount = image.colors.length;
+		int bitDepth = colorCount <= 2 ? 1 : colorCount <= 4 ? 2 : colorCount <= 16 ? 4 : 8;
+		DataOutputStream out = new DataOutputStream(stream);
+		writeHeader(out, image.width, image.height, bitDepth, COLOR_TYPE_INDEXED);
+		byte[] palette = new byte[3 * colorCount];
+		for (int i = 0; i < colorCount; i++) {
+			palette[3 * i] = (byte) (image.colors[i] >> 16);
+			palette[3 * i + 1] = (byte) (image.colors[i] >> 8);
+			palette[3 * i + 2] = (byte) image.colors[i];
+		}
+		writeChunk(out, "PLTE", palette, palette.length);
+		// palette images compress best without filtering
+		int pixelsPerByte = 8 / bitDepth;
+		byte[] row = new byte[1 + (image.width + pixelsPerByte - 1) / pixelsPerByte];
+		row[0] = FILTER_NONE;
+		ImageData data = new ImageData();
+		for (int y = 0, offset = 0; y < image.height; y++, offset += image.width) {
+			if (bitDepth == 8) {
+				System.arraycopy(image.pixels, offset, row, 1, image.width);
+			}
+			else {
+				for (int i = 1; i < row.length; i++) {
+					row[i] = 0;
+				}
+				for (int x = 0; x < image.width; x++) {
+					int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+					row[1 + x / pixelsPerByte] |= image.pixels[offset + x] << shift;
+				}
+			}
+			data.write(row);
+		}
+		data.finish(out);
+		writeChunk(out, "IEND", new byte[0], 0);
+		out.flush();
+	}
+
+	void encode(OutputStream stream, int width, int height, int[] argb) throws IOException {
+		boolean opaque = true;
+		for (int i = 0; i < width * height && opaque; i++) {
+			opaque = (argb[i] >>> 24) == 0xff;
+		}
+		int bpp = opaque ? 3 : 4;
+		DataOutputStream out = new DataOutputStream(stream);
+		writeHeader(out, width, height, 8, opaque ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA);
+		int rowLength = width * bpp;
+		byte[] previous = new byte[rowLength], current = new byte[rowLength];
+		byte[][] filtered = new byte[5][1 + rowLength];
+		int[] filters = {FILTER_NONE, FILTER_SUB, FILTER_UP, FILTER_PAETH};
+		ImageData data = new ImageData();
+		for (int y = 0, offset = 0; y < height; y++, offset += width) {
+			for (int x = 0, i = 0; x < width; x++) {
+				int pixel = argb[offset + x];
+				current[i++] = (byte) (pixel >> 16);
+				current[i++] = (byte) (pixel >> 8);
+				current[i++] = (byte) pixel;
+				if (!opaque) {
+					current[i++] = (byte) (pixel >>> 24);
+				}
+			}
+			// heuristic from the PNG specification: minimum sum of absolute differences
+			byte[] best = null;
+			long bestSum = Long.MAX_VALUE;
+			for (int filter : filters) {
+				byte[] candidate = filtered[filter];
+				long sum = filter(filter, current, previous, bpp, candidate);
+				if (sum < bestSum) {
+					bestSum = sum;
+					best = candidate;
+				}
+			}
+			data.write(best);
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		data.finish(out);
+		writeChunk(out, "IEND", new byte[0], 0);
+		out.flush();
+	}
+
+	// returns the sum of filtered bytes taken as signed values
+	private static long filter(int filter, byte[] current, byte[] previous, int bpp, byte[] result) {
+		result[0] = (byte) filter;
+		long sum = 0;
+		for (int i = 0; i < current.length; i++) {
+			int raw = current[i] & 0xff;
+			int left = i >= bpp ? current[i - bpp] & 0xff : 0;
+			int up = previous[i] & 0xff;
+			int value;
+			switch (filter) {
+				case FILTER_SUB:
+					value = raw - left;
+					break;
+				case FILTER_UP:
+					value = raw - up;
+					break;
+				case FILTER_PAETH:
+					value = raw - paeth(left, up, i >= bpp ? previous[i - bpp] & 0xff : 0);
+					break;
+				default:
+					value = raw;
+			}
+			result[i + 1] = (byte) value;
+			sum += Math.abs((byte) value);
+		}
+		return sum;
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+	}
+
+	private static void writeHeader(DataOutputStream out, int width, int height, int bitDepth, int colorType)
+			throws IOException {
+		out.write(SIGNATURE);
+		ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.writeInt(width);
+		headerOut.writeInt(height);
+		headerOut.writeByte(bitDepth);
+		headerOut.writeByte(colorType);
+		// deflate compression, adaptive filtering, no interlace
+		headerOut.writeByte(0);
+		headerOut.writeByte(0);
+		headerOut.writeByte(0);
+		writeChunk(out, "IHDR", header.toByteArray(), header.size());
+	}
+
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	// compressed rows, written as a single IDAT chunk
+	private class ImageData {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final Deflater deflater = new Deflater(level);
+		private final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(bytes, deflater, 8192);
+
+		void write(byte[] row) throws IOException {
+			deflaterStream.write(row);
+		}
+
+		void finish(DataOutputStream out) throws IOException {
+			try {
+				deflaterStream.finish();
+			}
+			finally {
+				deflater.end();
+			}
+			writeChunk(out, "IDAT", bytes.toByteArray(), bytes.size());
+		}
+	}
+}
@@ -29,8 +29,9 @@ class PrintText extends CommentText {
 	static final String UNIT_MARKER = "([^%]?)%(s|S)";
 	static final Pattern UNIT_PATTERN = Pattern.compile(UNIT_MARKER);
 
-	private final String srcName, consolFun;
-	private final boolean includedInGraph;
+	final String srcName;
+	final String consolFun;
+	final boolean includedInGraph;
 
 	PrintText(String srcName, String consolFun, String text, boolean includedInGraph) {
 		super(text);
@@ -18,25 +18,41 @@
  *******************************************************************************/
 package org.jrobin.graph;
 
+import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdException;
 import org.jrobin.core.Util;
 import org.jrobin.data.DataProcessor;
+import org.jrobin.data.FetchDataCache;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class which actually creates JRobin graphs (does the hard work).
  */
 public class RrdGraph implements RrdGraphConstants {
+	private static final String GRAPH_THREAD_NAME = "RrdGraph-worker";
+
 	RrdGraphDef gdef;
 	ImageParameters im = new ImageParameters();
 	DataProcessor dproc;
-	ImageWorker worker;
+	Drawing worker;
 	Mapper mapper;
 	RrdGraphInfo info = new RrdGraphInfo();
 	private String signature;
+	private final FetchDataCache fetchDataCache;
+	private final OutputStream stream;
+	private final RrdGraphSession session;
 
 	/**
 	 * Creates graph from the corresponding {@link RrdGraphDef} object.
@@ -46,19 +62,136 @@ public class RrdGraph implements RrdGraphConstants {
 	 * @throws RrdException Thrown in case of JRobin related error
 	 */
 	public RrdGraph(RrdGraphDef gdef) throws IOException, RrdException {
+		this(gdef, null, null, null);
+	}
+
+	/**
+	 * Creates graph from the corresponding {@link RrdGraphDef} object and writes the encoded image
+	 * straight to the given stream, instead of the file specified in the graph definition. Image bytes
+	 * are kept in {@link RrdGraphInfo} only if requested with {@link RrdGraphDef#setImageRetained(boolean)}.
+	 * The stream is flushed, but not closed.
+	 *
+	 * @param gdef   Graph definition
+	 * @param stream Stream to write the image to
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin related error
+	 */
+	public RrdGraph(RrdGraphDef gdef, OutputStream stream) throws IOException, RrdException {
+		this(gdef, null, stream, null);
+	}
+
+	/**
+	 * Creates graph from the corresponding {@link RrdGraphDef} object and writes the encoded image
+	 * straight to the given channel, instead of the file specified in the graph definition. Image bytes
+	 * are kept in {@link RrdGraphInfo} only if requested with {@link RrdGraphDef#setImageRetained(boolean)}.
+	 * The channel is not closed.
+	 *
+	 * @param gdef	Graph definition
+	 * @param channel Channel to write the image to
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin related error
+	 */
+	public RrdGraph(RrdGraphDef gdef, WritableByteChannel channel) throws IOException, RrdException {
+		this(gdef, null, Channels.newOutputStream(channel), null);
+	}
+
+	RrdGraph(RrdGraphDef gdef, RrdGraphSession session) throws IOException, RrdException {
+		this(gdef, null, null, session);
+	}
+
+	private RrdGraph(RrdGraphDef gdef, FetchDataCache fetchDataCache, OutputStream stream, RrdGraphSession session)
+			throws IOException, RrdException {
 		this.gdef = gdef;
+		this.fetchDataCache = fetchDataCache;
+		this.stream = stream;
+		this.session = session;
 		signature = gdef.getSignature();
-		worker = new ImageWorker(100, 100); // Dummy worker, just to start with something
 		try {
 			createGraph();
 		}
 		finally {
-			worker.dispose();
-			worker = null;
+			if (worker != null) {
+				worker.dispose();
+				worker = null;
+			}
 			dproc = null;
 		}
 	}
 
+	/**
+	 * Creates several graphs at once, for example all graphs of a single dashboard page. Data is fetched
+	 * from each RRD file only once for all graphs with the same time span and step, and graphs are
+	 * created in parallel. Graph definitions must be distinct objects.
+	 *
+	 * @param gdefs	   Graph definitions
+	 * @param threadCount Maximum number of graphs created at the same time
+	 * @return Graph information (width, height, filename, image bytes, etc...) of all graphs,
+	 *         in the order of graph definitions
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin related error, or if the thread count is not positive
+	 */
+	public static RrdGraphInfo[] createGraphs(List<RrdGraphDef> gdefs, int threadCount)
+			throws IOException, RrdException {
+		if (threadCount <= 0) {
+			throw new RrdException("Invalid thread count: " + threadCount);
+		}
+		final FetchDataCache fetchDataCache = new FetchDataCache();
+		for (RrdGraphDef gdef : gdefs) {
+			for (Source src : gdef.sources) {
+				if (src instanceof Def) {
+					((Def) src).registerData(fetchDataCache);
+				}
+			}
+		}
+		RrdGraphInfo[] infos = new RrdGraphInfo[gdefs.size()];
+		if (infos.length == 0) {
+			return infos;
+		}
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, infos.length),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, GRAPH_THREAD_NAME + "-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			List<Future<RrdGraphInfo>> futures = new ArrayList<Future<RrdGraphInfo>>();
+			for (final RrdGraphDef gdef : gdefs) {
+				futures.add(executor.submit(new Callable<RrdGraphInfo>() {
+					public RrdGraphInfo call() throws IOException, RrdException {
+						return new RrdGraph(gdef, fetchDataCache, null, null).getRrdGraphInfo();
+					}
+				}));
+			}
+			for (int i = 0; i < infos.length; i++) {
+				infos[i] = futures.get(i).get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RrdException("Interrupted while creating graphs", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			else if (cause instanceof RrdException) {
+				throw (RrdException) cause;
+			}
+			else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RrdException("Could not create graph", cause);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return infos;
+	}
+
 	/**
 	 * Returns complete graph information in a single object.
 	 *
@@ -69,6 +202,34 @@ public class RrdGraph implements RrdGraphConstants {
 	}
 
 	private void createGraph() throws RrdException, IOException {
+		// RRDs read for the cache key stay open until the graph is done, so that fetching data reuses them
+		List<RrdDb> rrds = new ArrayList<RrdDb>();
+		try {
+			createGraph(rrds);
+		}
+		finally {
+			int count = 0;
+			for (Source src : gdef.sources) {
+				if (src instanceof Def && count < rrds.size()) {
+					((Def) src).releaseRrd(rrds.get(count++), gdef.poolUsed);
+				}
+			}
+		}
+	}
+
+	private void createGraph(List<RrdDb> rrds) throws RrdException, IOException {
+		String cacheKey = createCacheKey(rrds);
+		if (cacheKey != null) {
+			RrdGraphInfo cachedInfo = RrdGraphCache.getInstance().get(cacheKey);
+			if (cachedInfo != null) {
+				info = cachedInfo;
+				if (stream != null) {
+					stream.write(info.bytes);
+					stream.flush();
+				}
+				return;
+			}
+		}
 		boolean lazy = lazyCheck();
 		if (!lazy || gdef.printStatementCount() != 0) {
 			fetchData();
@@ -95,6 +256,29 @@ public class RrdGraph implements RrdGraphConstants {
 			}
 		}
 		collectInfo();
+		if (cacheKey != null) {
+			RrdGraphCache.getInstance().put(cacheKey, info);
+		}
+	}
+
+	// returns null if the graph should not be cached, RRDs requested are added to the given list
+	private String createCacheKey(List<RrdDb> rrds) throws IOException, RrdException {
+		if (!gdef.cacheUsed || (stream == null && !gdef.filename.equals(IN_MEMORY_IMAGE)) ||
+				(stream != null && !gdef.imageRetained)) {
+			return null;
+		}
+		long lastUpdateTime = 0;
+		for (Source src : gdef.sources) {
+			if (src instanceof Def) {
+				RrdDb rrd = ((Def) src).requestRrd(gdef.poolUsed);
+				rrds.add(rrd);
+				lastUpdateTime = Math.max(lastUpdateTime, rrd.getLastArchiveUpdateTime());
+			}
+		}
+		// graphs ending within the same step look the same
+		long span = gdef.endTime - gdef.startTime;
+		long step = gdef.step > 0 ? gdef.step : Math.max(span / gdef.width, 1);
+		return RrdGraphCache.createKey(gdef, span, gdef.endTime / step, lastUpdateTime);
 	}
 
 	private void collectInfo() {
@@ -115,11 +299,27 @@ public class RrdGraph implements RrdGraphConstants {
 	}
 
 	private void saveImage() throws IOException {
-		if (!gdef.filename.equals("-")) {
-			info.bytes = worker.saveImage(gdef.filename, gdef.imageFormat, gdef.imageQuality);
+		if (stream == null && gdef.filename.equals(IN_MEMORY_IMAGE)) {
+			info.bytes = worker.getImageBytes(gdef.imageFormat, gdef.imageQuality);
 		}
-		else {
+		else if (gdef.imageRetained) {
 			info.bytes = worker.getImageBytes(gdef.imageFormat, gdef.imageQuality);
+			OutputStream out = stream != null ? stream : new FileOutputStream(gdef.filename);
+			try {
+				out.write(info.bytes);
+				out.flush();
+			}
+			finally {
+				if (out != stream) {
+					out.close();
+				}
+			}
+		}
+		else if (stream != null) {
+			info.byteCount = worker.saveImage(stream, gdef.imageFormat, gdef.imageQuality);
+		}
+		else {
+			info.byteCount = worker.saveImage(gdef.filename, gdef.imageFormat, gdef.imageQuality);
 		}
 	}
 
@@ -227,7 +427,7 @@ public class RrdGraph implements RrdGraphConstants {
 				SourcedPlotElement source = (SourcedPlotElement) plotElement;
 				double[] y = ytr(source.getValues());
 				if (source instanceof Line) {
-					worker.drawPolyline(x, y, source.color, new BasicStroke(((Line) source).width));
+					worker.drawPolyline(x, y, source.color, new BasicStroke(((Line) source).width), gdef.downsampling);
 				}
 				else if (source instanceof Area) {
 					worker.fillPolygon(x, areazero, y, source.color);
@@ -237,7 +437,7 @@ public class RrdGraph implements RrdGraphConstants {
 					float width = stack.getParentLineWidth();
 					if (width >= 0F) {
 						// line
-						worker.drawPolyline(x, y, stack.color, new BasicStroke(width));
+						worker.drawPolyline(x, y, stack.color, new BasicStroke(width), gdef.downsampling);
 					}
 					else {
 						// area
@@ -287,8 +487,35 @@ public class RrdGraph implements RrdGraphConstants {
 		worker.fillRect(im.xorigin, im.yorigin - im.ysize, im.xsize, im.ysize, gdef.colors[COLOR_CANVAS]);
 	}
 
-	private void createImageWorker() {
-		worker.resize(im.xgif, im.ygif);
+	private void createImageWorker() throws IOException {
+		if (gdef.imageFormat.equalsIgnoreCase("svg")) {
+			// written directly to the stream if the image is not retained
+			worker = new SvgWriter(im.xgif, im.ygif, stream != null && !gdef.imageRetained ? stream : null);
+		}
+		else {
+			ImageWorker imageWorker = new ImageWorker(im.xgif, im.ygif);
+			imageWorker.setPalette(gdef.indexedColors ? getPaletteColors() : null);
+			imageWorker.setCompressionLevel(gdef.compressionLevel);
+			worker = imageWorker;
+		}
+	}
+
+	// colours of the graph definition, most used first
+	private List<Paint> getPaletteColors() {
+		List<Paint> colors = new ArrayList<Paint>();
+		colors.add(gdef.colors[COLOR_BACK]);
+		colors.add(gdef.colors[COLOR_CANVAS]);
+		colors.add(gdef.colors[COLOR_FONT]);
+		for (PlotElement pe : gdef.plotElements) {
+			colors.add(pe.color);
+		}
+		for (CommentText c : gdef.comments) {
+			if (c instanceof LegendText) {
+				colors.add(((LegendText) c).legendColor);
+			}
+		}
+		colors.addAll(Arrays.asList(gdef.colors));
+		return colors;
 	}
 
 	private void placeLegends() {
@@ -528,13 +755,34 @@ public class RrdGraph implements RrdGraphConstants {
 	private void fetchData() throws RrdException, IOException {
 		dproc = new DataProcessor(gdef.startTime, gdef.endTime);
 		dproc.setPoolUsed(gdef.poolUsed);
+		if (gdef.downsampling) {
+			dproc.setPixelCount(gdef.width);
+			dproc.setPixelResolutionUsed(true);
+		}
 		if (gdef.step > 0) {
 			dproc.setStep(gdef.step);
 		}
 		for (Source src : gdef.sources) {
 			src.requestData(dproc);
 		}
+		dproc.setFetchDataCache(fetchDataCache);
+		if (session != null) {
+			dproc.setPreviousData(session.previousData);
+		}
+		for (PlotElement pe : gdef.plotElements) {
+			if (pe instanceof SourcedPlotElement) {
+				dproc.addOutputSource(((SourcedPlotElement) pe).srcName);
+			}
+		}
+		for (CommentText comment : gdef.comments) {
+			if (comment instanceof PrintText) {
+				dproc.addOutputSource(((PrintText) comment).srcName);
+			}
+		}
 		dproc.processData();
+		if (session != null) {
+			session.previousData = dproc;
+		}
 		//long[] t = dproc.getTimestamps();
 		//im.start = t[0];
 		//im.end = t[t.length - 1];
@@ -543,8 +791,8 @@ public class RrdGraph implements RrdGraphConstants {
 	}
 
 	private boolean lazyCheck() {
-		// redraw if lazy option is not set or file does not exist
-		if (!gdef.lazy || !Util.fileExists(gdef.filename)) {
+		// redraw if lazy option is not set, the image goes to a stream or file does not exist
+		if (!gdef.lazy || stream != null || !Util.fileExists(gdef.filename)) {
 			return false; // 'false' means 'redraw'
 		}
 		// redraw if not enough time has passed
@@ -578,11 +826,11 @@ public class RrdGraph implements RrdGraphConstants {
 	// helper methods
 
 	double getFontHeight(int fonttag) {
-		return worker.getFontHeight(gdef.getFont(fonttag));
+		return FontMetricsCache.getFontHeight(gdef.getFont(fonttag));
 	}
 
 	double getFontCharWidth(int fonttag) {
-		return worker.getStringWidth("a", gdef.getFont(fonttag));
+		return FontMetricsCache.getStringWidth("a", gdef.getFont(fonttag));
 	}
 
 	double getSmallFontHeight() {
@@ -665,12 +913,17 @@ public class RrdGraph implements RrdGraphConstants {
 	}
 
 	/**
-	 * Renders this graph onto graphing device
+	 * Renders this graph onto graphing device. The image must be retained
+	 * (see {@link RrdGraphDef#setImageRetained(boolean)}).
 	 *
 	 * @param g Graphics handle
+	 * @throws IllegalStateException Thrown if the image was not retained
 	 */
 	public void render(Graphics g) {
 		byte[] imageData = getRrdGraphInfo().getBytes();
+		if (imageData == null) {
+			throw new IllegalStateException("Graph image not retained, cannot render it");
+		}
 		ImageIcon image = new ImageIcon(imageData);
 		image.paintIcon(null, g, 0, 0);
 	}
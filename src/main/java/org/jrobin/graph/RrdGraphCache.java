@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+package org.jrobin.graph;
+
+import java.awt.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This class holds recently created in-memory graphs, so that identical graph requests can be served
+ * without fetching data and rendering the graph again. Graphs are cached only if the
+ * {@link RrdGraphDef#setCacheUsed(boolean)} option is set.
+ * <p>
+ * A cached graph is reused for a new graph definition if:
+ * <ul>
+ * <li>both definitions are equal, except for the time span,
+ * <li>both time spans have the same length and end within the same step (if the step is not set with
+ * {@link RrdGraphDef#setStep(long)}, the time covered by one pixel is used), and
+ * <li>none of the RRD files used by the graph got new archived values in the meantime.
+ * </ul>
+ * When the total size of cached images exceeds the capacity of the cache, least recently used graphs
+ * are removed.
+ */
+public class RrdGraphCache {
+	/**
+	 * Initial capacity of the cache, i.e. maximum total size of cached images in bytes.
+	 */
+	public static final long INITIAL_CAPACITY = 16 * 1024 * 1024;
+	private static RrdGraphCache instance;
+
+	private long capacity = INITIAL_CAPACITY;
+	private long byteCount = 0;
+	private int hitCount = 0, requestCount = 0;
+	// access ordered, the eldest entry is the least recently used one
+	private final LinkedHashMap<String, RrdGraphInfo> graphs = new LinkedHashMap<String, RrdGraphInfo>(16, 0.75F, true);
+
+	/**
+	 * Creates a single instance of the class on the first call, or returns already existing one.
+	 *
+	 * @return Single instance of this class
+	 */
+	public synchronized static RrdGraphCache getInstance() {
+		if (instance == null) {
+			instance = new RrdGraphCache();
+		}
+		return instance;
+	}
+
+	private RrdGraphCache() {
+	}
+
+	/**
+	 * Returns the maximum total size of cached images.
+	 *
+	 * @return Maximum total size of cached images, in bytes
+	 */
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the maximum total size of cached images. Least recently used graphs are removed
+	 * if the cache holds more.
+	 *
+	 * @param capacity Maximum total size of cached images, in bytes
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		shrink();
+	}
+
+	/**
+	 * Returns the total size of cached images.
+	 *
+	 * @return Total size of cached images, in bytes
+	 */
+	public synchronized long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Returns the number of cached graphs.
+	 *
+	 * @return Number of cached graphs
+	 */
+	public synchronized int getGraphCount() {
+		return graphs.size();
+	}
+
+	/**
+	 * Returns the number of graph requests served from the cache.
+	 *
+	 * @return Number of graph requests served from the cache
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of graph requests checked against the cache.
+	 *
+	 * @return Number of graph requests checked against the cache
+	 */
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Removes all cached graphs and resets hit and request counts.
+	 */
+	public synchronized void clear() {
+		graphs.clear();
+		byteCount = 0;
+		hitCount = requestCount = 0;
+	}
+
+	synchronized RrdGraphInfo get(String key) {
+		requestCount++;
+		RrdGraphInfo info = graphs.get(key);
+		if (info != null) {
+			hitCount++;
+		}
+		return info;
+	}
+
+	synchronized void put(String key, RrdGraphInfo info) {
+		RrdGraphInfo previous = graphs.put(key, info);
+		if (previous != null) {
+			byteCount -= previous.getByteCount();
+		}
+		byteCount += info.getByteCount();
+		shrink();
+	}
+
+	private void shrink() {
+		Iterator<RrdGraphInfo> iterator = graphs.values().iterator();
+		while (byteCount > capacity && iterator.hasNext()) {
+			byteCount -= iterator.next().getByteCount();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Creates the key of a graph definition from an explicit list of its fields. Time span fields are
+	 * replaced with the given values. Fields holding the state of a graph being rendered are left out,
+	 * and a field added to the definition has to be added here as well.
+	 *
+	 * @return Key of the definition, or null if the definition holds objects without a stable value
+	 *         (like plottables or custom paints) or elements unknown to the cache, which cannot be cached
+	 */
+	static String createKey(RrdGraphDef gdef, long span, long endSlot, long lastUpdateTime) {
+		StringBuilder key = new StringBuilder();
+		key.append(span).append(',').append(endSlot).append(',').append(lastUpdateTime).append(';');
+		append(key, "poolUsed", gdef.poolUsed);
+		append(key, "antiAliasing", gdef.antiAliasing);
+		append(key, "downsampling", gdef.downsampling);
+		append(key, "filename", gdef.filename);
+		appendTimeAxis(key, gdef.timeAxisSetting);
+		appendValueAxis(key, gdef.valueAxisSetting);
+		append(key, "altYGrid", gdef.altYGrid);
+		append(key, "noMinorGrid", gdef.noMinorGrid);
+		append(key, "altYMrtg", gdef.altYMrtg);
+		append(key, "altAutoscale", gdef.altAutoscale);
+		append(key, "altAutoscaleMax", gdef.altAutoscaleMax);
+		append(key, "unitsExponent", gdef.unitsExponent);
+		append(key, "unitsLength", gdef.unitsLength);
+		append(key, "verticalLabel", gdef.verticalLabel);
+		append(key, "width", gdef.width);
+		append(key, "height", gdef.height);
+		append(key, "interlaced", gdef.interlaced);
+		append(key, "imageInfo", gdef.imageInfo);
+		append(key, "imageFormat", gdef.imageFormat);
+		append(key, "imageQuality", gdef.imageQuality);
+		append(key, "indexedColors", gdef.indexedColors);
+		append(key, "compressionLevel", gdef.compressionLevel);
+		append(key, "imageRetained", gdef.imageRetained);
+		append(key, "backgroundImage", gdef.backgroundImage);
+		append(key, "overlayImage", gdef.overlayImage);
+		append(key, "unit", gdef.unit);
+		append(key, "signature", gdef.signature);
+		append(key, "lazy", gdef.lazy);
+		append(key, "minValue", gdef.minValue);
+		append(key, "maxValue", gdef.maxValue);
+		append(key, "rigid", gdef.rigid);
+		append(key, "base", gdef.base);
+		append(key, "logarithmic", gdef.logarithmic);
+		for (Paint color : gdef.colors) {
+			if (!appendPaint(key, "color", color)) {
+				return null;
+			}
+		}
+		append(key, "noLegend", gdef.noLegend);
+		append(key, "onlyGraph", gdef.onlyGraph);
+		append(key, "forceRulesLegend", gdef.forceRulesLegend);
+		append(key, "title", gdef.title);
+		append(key, "step", gdef.step);
+		for (Font font : gdef.fonts) {
+			append(key, "font", font);
+		}
+		append(key, "drawXGrid", gdef.drawXGrid);
+		append(key, "drawYGrid", gdef.drawYGrid);
+		append(key, "firstDayOfWeek", gdef.firstDayOfWeek);
+		append(key, "showSignature", gdef.showSignature);
+		append(key, "fontDir", gdef.fontDir);
+		for (Source src : gdef.sources) {
+			if (!appendSource(key, src)) {
+				return null;
+			}
+		}
+		for (CommentText comment : gdef.comments) {
+			if (!appendComment(key, comment)) {
+				return null;
+			}
+		}
+		for (PlotElement element : gdef.plotElements) {
+			if (!appendPlotElement(key, element, gdef.plotElements)) {
+				return null;
+			}
+		}
+		return key.toString();
+	}
+
+	private static void appendTimeAxis(StringBuilder key, TimeAxisSetting setting) {
+		if (setting == null) {
+			append(key, "timeAxis", null);
+			return;
+		}
+		key.append("timeAxis{");
+		append(key, "secPerPix", setting.secPerPix);
+		append(key, "minorUnit", setting.minorUnit);
+		append(key, "minorUnitCount", setting.minorUnitCount);
+		append(key, "majorUnit", setting.majorUnit);
+		append(key, "majorUnitCount", setting.majorUnitCount);
+		append(key, "labelUnit", setting.labelUnit);
+		append(key, "labelUnitCount", setting.labelUnitCount);
+		append(key, "labelSpan", setting.labelSpan);
+		append(key, "format", setting.format);
+		key.append("};");
+	}
+
+	private static void appendValueAxis(StringBuilder key, ValueAxisSetting setting) {
+		if (setting == null) {
+			append(key, "valueAxis", null);
+			return;
+		}
+		key.append("valueAxis{");
+		append(key, "gridStep", setting.gridStep);
+		append(key, "labelFactor", setting.labelFactor);
+		key.append("};");
+	}
+
+	private static boolean appendSource(StringBuilder key, Source src) {
+		key.append(src.getClass().getSimpleName()).append('{');
+		append(key, "name", src.name);
+		if (src instanceof Def) {
+			Def def = (Def) src;
+			append(key, "rrdPath", def.rrdPath);
+			append(key, "dsName", def.dsName);
+			append(key, "consolFun", def.consolFun);
+			append(key, "backend", def.backend);
+		}
+		else if (src instanceof CDef) {
+			append(key, "rpnExpression", ((CDef) src).rpnExpression);
+		}
+		else if (src instanceof SDef) {
+			SDef sdef = (SDef) src;
+			append(key, "defName", sdef.defName);
+			append(key, "consolFun", sdef.consolFun);
+		}
+		else if (src instanceof PercentileDef) {
+			PercentileDef pdef = (PercentileDef) src;
+			append(key, "sourceName", pdef.m_sourceName);
+			append(key, "percentile", pdef.m_percentile);
+			append(key, "includeNaN", pdef.m_includenan);
+		}
+		else {
+			// plottables may change their values at any time
+			return false;
+		}
+		key.append("};");
+		return true;
+	}
+
+	private static boolean appendComment(StringBuilder key, CommentText comment) {
+		key.append(comment.getClass().getSimpleName()).append('{');
+		append(key, "text", comment.text);
+		if (comment instanceof LegendText) {
+			if (!appendPaint(key, "legendColor", ((LegendText) comment).legendColor)) {
+				return false;
+			}
+		}
+		else if (comment instanceof PrintText) {
+			PrintText print = (PrintText) comment;
+			append(key, "srcName", print.srcName);
+			append(key, "consolFun", print.consolFun);
+			append(key, "includedInGraph", print.includedInGraph);
+		}
+		else if (comment.getClass() != CommentText.class) {
+			return false;
+		}
+		key.append("};");
+		return true;
+	}
+
+	private static boolean appendPlotElement(StringBuilder key, PlotElement element, List<PlotElement> elements) {
+		key.append(element.getClass().getSimpleName()).append('{');
+		if (!appendPaint(key, "color", element.color)) {
+			return false;
+		}
+		if (element instanceof SourcedPlotElement) {
+			append(key, "srcName", ((SourcedPlotElement) element).srcName);
+		}
+		if (element instanceof Rule) {
+			Rule rule = (Rule) element;
+			if (!appendComment(key, rule.legend)) {
+				return false;
+			}
+			append(key, "width", rule.width);
+		}
+		if (element instanceof Line) {
+			append(key, "width", ((Line) element).width);
+		}
+		else if (element instanceof Stack) {
+			// the parent is an earlier element, already part of the key
+			append(key, "parent", elements.indexOf(((Stack) element).parent));
+		}
+		else if (element instanceof HRule) {
+			append(key, "value", ((HRule) element).value);
+		}
+		else if (element instanceof VRule) {
+			append(key, "timestamp", ((VRule) element).timestamp);
+		}
+		else if (!(element instanceof Area)) {
+			return false;
+		}
+		key.append("};");
+		return true;
+	}
+
+	private static void append(StringBuilder key, String name, Object value) {
+		key.append(name).append('=').append(value).append(';');
+	}
+
+	private static boolean appendPaint(StringBuilder key, String name, Paint paint) {
+		if (paint == null) {
+			append(key, name, null);
+		}
+		else if (paint instanceof Color) {
+			append(key, name, "Color[" + Integer.toHexString(((Color) paint).getRGB()) + "]");
+		}
+		else {
+			// custom paints have no value semantics
+			return false;
+		}
+		return true;
+	}
+}
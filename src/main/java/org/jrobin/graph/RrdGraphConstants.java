@@ -242,6 +242,10 @@ public interface RrdGraphConstants {
 	 * Default image quality, used only for jpeg graphs
 	 */
 	float DEFAULT_IMAGE_QUALITY = 0.8F; // only for jpegs, not used for png/gif
+	/**
+	 * Default compression level, used only for png graphs (the default level of the deflate algorithm)
+	 */
+	int DEFAULT_COMPRESSION_LEVEL = -1;
 	/**
 	 * Default value base
 	 */
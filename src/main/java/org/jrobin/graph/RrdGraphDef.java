@@ -60,7 +60,9 @@ import java.util.List;
  */
 public class RrdGraphDef implements RrdGraphConstants {
     boolean poolUsed = false; // ok
+    boolean cacheUsed = false;
     boolean antiAliasing = false; // ok
+    boolean downsampling = false;
     String filename = RrdGraphConstants.IN_MEMORY_IMAGE; // ok
     long startTime, endTime; // ok
     TimeAxisSetting timeAxisSetting = null; // ok
@@ -78,6 +80,9 @@ public class RrdGraphDef implements RrdGraphConstants {
     String imageInfo = null; // ok
     String imageFormat = DEFAULT_IMAGE_FORMAT; // ok
     float imageQuality = DEFAULT_IMAGE_QUALITY; // ok
+    boolean indexedColors = false;
+    int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    boolean imageRetained = true;
     String backgroundImage = null; // ok
     String overlayImage = null; // ok
     String unit = null; // ok
@@ -261,6 +266,19 @@ public class RrdGraphDef implements RrdGraphConstants {
         this.poolUsed = poolUsed;
     }
 
+    /**
+     * Sets graph cache usage policy (defaults to false). If set to true, in-memory graphs
+     * (see {@link #setFilename(String)}) will be kept in the {@link RrdGraphCache}, and an equal graph
+     * requested within the same step will be served from the cache, unless underlying RRD files
+     * have been updated in the meantime. Graphs using {@link org.jrobin.data.Plottable Plottable}
+     * datasources are never cached.
+     *
+     * @param cacheUsed true, if RrdGraphCache class should be used. False otherwise.
+     */
+    public void setCacheUsed(boolean cacheUsed) {
+        this.cacheUsed = cacheUsed;
+    }
+
     /**
      * Sets the name of the graph to generate. Since JRobin outputs GIFs, PNGs,
      * and JPEGs it's recommended that the filename end in either .gif,
@@ -494,9 +512,9 @@ public class RrdGraphDef implements RrdGraphConstants {
     }
 
     /**
-     * Sets image format.
+     * Sets image format. SVG images are vector images, written without rendering pixels.
      *
-     * @param imageFormat "PNG", "GIF" or "JPG".
+     * @param imageFormat "PNG", "GIF", "JPG" or "SVG".
      */
     public void setImageFormat(String imageFormat) {
         this.imageFormat = imageFormat;
@@ -1161,6 +1179,37 @@ public class RrdGraphDef implements RrdGraphConstants {
         this.imageQuality = imageQuality;
     }
 
+    /**
+     * Controls if PNG and GIF images should be encoded with a palette of up to 256 colours, with the
+     * colours of this definition first. Encoding is much faster and images are smaller. Images with more
+     * colours (for example with a background image) are encoded in full colour as usual.
+     *
+     * @param indexedColors true, if images should be encoded with a palette, false otherwise (default)
+     */
+    public void setIndexedColors(boolean indexedColors) {
+        this.indexedColors = indexedColors;
+    }
+
+    /**
+     * Sets compression level of PNG images.
+     *
+     * @param compressionLevel (0=no compression, 1=fastest, 9=best, -1=default).
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Controls if image bytes should be kept in {@link RrdGraphInfo} once the image is saved
+     * to a file or written to a stream (see {@link RrdGraph#RrdGraph(RrdGraphDef, java.io.OutputStream)}).
+     * Images created only in memory are always kept.
+     *
+     * @param imageRetained true, if image bytes should be kept (default), false otherwise
+     */
+    public void setImageRetained(boolean imageRetained) {
+        this.imageRetained = imageRetained;
+    }
+
     /**
      * Controls if the chart area of the image should be antialiased or not.
      *
@@ -1170,6 +1219,18 @@ public class RrdGraphDef implements RrdGraphConstants {
         this.antiAliasing = antiAliasing;
     }
 
+    /**
+     * Controls if fine-grained data should be downsampled to the graph width. If set, data will be fetched
+     * from the coarsest archive which still provides at least one row per pixel, and lines with more points
+     * than pixels will be drawn with only the first, the lowest, the highest and the last point of each
+     * pixel column. Spikes remain visible, but drawing cost no longer depends on the number of rows.
+     *
+     * @param downsampling true to turn downsampling on, false to turn it off (default)
+     */
+    public void setDownsampling(boolean downsampling) {
+        this.downsampling = downsampling;
+    }
+
     /**
      * Shows or hides graph signature (gator) in the top right corner of the graph
      *
@@ -21,12 +21,12 @@ package org.jrobin.graph;
 import org.jrobin.core.RrdException;
 import org.jrobin.core.Util;
 import org.jrobin.core.XmlTemplate;
-import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Class used to create an arbitrary number of RrdGraphDef (graph definition) objects
@@ -303,6 +303,10 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		super(xmlString);
 	}
 
+	private RrdGraphDefTemplate(RrdGraphDefTemplate template, Map<String, ?> variables) {
+		super(template, variables);
+	}
+
 	/**
 	 * Creates RrdGraphDef object which can be used to create RrdGraph
 	 * object (actual JRobin graphs). Before this method is called, all template variables (if any)
@@ -315,14 +319,14 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 	 */
 	public RrdGraphDef getRrdGraphDef() throws RrdException {
 		// basic check
-		if (!root.getTagName().equals("rrd_graph_def")) {
+		if (!rootNode.getNodeName().equals("rrd_graph_def")) {
 			throw new RrdException("XML definition must start with <rrd_graph_def>");
 		}
-		validateTagsOnlyOnce(root, new String[] {"filename", "span", "options", "datasources", "graph"});
+		validateTagsOnlyOnce(rootNode, new String[] {"filename", "span", "options", "datasources", "graph"});
 		rrdGraphDef = new RrdGraphDef();
 		// traverse all nodes
-		Node[] childNodes = getChildNodes(root);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(rootNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("filename")) {
 				resolveFilename(childNode);
@@ -347,11 +351,26 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		return rrdGraphDef;
 	}
 
-	private void resolveGraphElements(Node graphNode) throws RrdException {
+	/**
+	 * Creates RrdGraphDef object with the given values of template variables. Variable values
+	 * set with {@link XmlTemplate#setVariable(String, String) setVariable()} methods are ignored.
+	 * The XML template is parsed and compiled only once, when this object is created, so that
+	 * many graph definitions can be created quickly from the same template. This method is thread safe.
+	 *
+	 * @param variables Values of template variables (strings, numbers, booleans, colors, dates or calendars),
+	 *                  by variable name
+	 * @return Graph definition which can be used to create RrdGraph object (actual JRobin graphs)
+	 * @throws RrdException Thrown if parsed XML template contains invalid (unrecognized) tags
+	 */
+	public RrdGraphDef getRrdGraphDef(Map<String, ?> variables) throws RrdException {
+		return new RrdGraphDefTemplate(this, variables).getRrdGraphDef();
+	}
+
+	private void resolveGraphElements(TemplateNode graphNode) throws RrdException {
 		validateTagsOnlyOnce(graphNode, new String[] {"area*", "line*", "stack*",
 				"print*", "gprint*", "hrule*", "vrule*", "comment*"});
-		Node[] childNodes = getChildNodes(graphNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(graphNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("area")) {
 				resolveArea(childNode);
@@ -380,13 +399,13 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveVRule(Node parentNode) throws RrdException {
+	private void resolveVRule(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"time", "color", "legend"});
 		long timestamp = Long.MIN_VALUE;
 		Paint color = null;
 		String legend = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("time")) {
 				timestamp = Util.getTimestamp(getValue(childNode));
@@ -406,13 +425,13 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveHRule(Node parentNode) throws RrdException {
+	private void resolveHRule(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"value", "color", "legend"});
 		double value = Double.NaN;
 		Paint color = null;
 		String legend = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("value")) {
 				value = getValueAsDouble(childNode);
@@ -432,11 +451,11 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolvePrint(Node parentNode, boolean isInGraph) throws RrdException {
+	private void resolvePrint(TemplateNode parentNode, boolean isInGraph) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"datasource", "cf", "format"});
 		String datasource = null, cf = null, format = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("datasource")) {
 				datasource = getValue(childNode);
@@ -461,12 +480,12 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveStack(Node parentNode) throws RrdException {
+	private void resolveStack(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"datasource", "color", "legend"});
 		String datasource = null, legend = null;
 		Paint color = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("datasource")) {
 				datasource = getValue(childNode);
@@ -491,13 +510,13 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveLine(Node parentNode) throws RrdException {
+	private void resolveLine(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"datasource", "color", "legend", "width"});
 		String datasource = null, legend = null;
 		Paint color = null;
 		float width = 1.0F;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("datasource")) {
 				datasource = getValue(childNode);
@@ -525,12 +544,12 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveArea(Node parentNode) throws RrdException {
+	private void resolveArea(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"datasource", "color", "legend"});
 		String datasource = null, legend = null;
 		Paint color = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("datasource")) {
 				datasource = getValue(childNode);
@@ -555,10 +574,10 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveDatasources(Node datasourcesNode) throws RrdException {
+	private void resolveDatasources(TemplateNode datasourcesNode) throws RrdException {
 		validateTagsOnlyOnce(datasourcesNode, new String[] {"def*", "cdef*", "sdef*"});
-		Node[] childNodes = getChildNodes(datasourcesNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(datasourcesNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("def")) {
 				resolveDef(childNode);
@@ -572,11 +591,11 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveSDef(Node parentNode) throws RrdException {
+	private void resolveSDef(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"name", "source", "cf"});
 		String name = null, source = null, cf = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("name")) {
 				name = getValue(childNode);
@@ -596,11 +615,11 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveCDef(Node parentNode) throws RrdException {
+	private void resolveCDef(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"name", "rpn"});
 		String name = null, rpn = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("name")) {
 				name = getValue(childNode);
@@ -617,11 +636,11 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveDef(Node parentNode) throws RrdException {
+	private void resolveDef(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"name", "rrd", "source", "cf", "backend"});
 		String name = null, rrd = null, source = null, cf = null, backend = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("name")) {
 				name = getValue(childNode);
@@ -647,12 +666,12 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveFilename(Node filenameNode) {
+	private void resolveFilename(TemplateNode filenameNode) {
 		String filename = getValue(filenameNode);
 		rrdGraphDef.setFilename(filename);
 	}
 
-	private void resolveSpan(Node spanNode) throws RrdException {
+	private void resolveSpan(TemplateNode spanNode) throws RrdException {
 		validateTagsOnlyOnce(spanNode, new String[] {"start", "end"});
 		String startStr = getChildValue(spanNode, "start");
 		String endStr = getChildValue(spanNode, "end");
@@ -661,7 +680,7 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		rrdGraphDef.setEndTime(span[1]);
 	}
 
-	private void resolveOptions(Node rootOptionNode) throws RrdException {
+	private void resolveOptions(TemplateNode rootOptionNode) throws RrdException {
 		validateTagsOnlyOnce(rootOptionNode, new String[] {
 				"anti_aliasing", "use_pool", "time_grid", "value_grid", "alt_y_grid", "alt_y_mrtg",
 				"no_minor_grid", "alt_autoscale", "alt_autoscale_max", "units_exponent", "units_length",
@@ -671,8 +690,8 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 				"no_legend", "only_graph", "force_rules_legend", "title", "step", "fonts",
 				"first_day_of_week", "signature"
 		});
-		Node[] optionNodes = getChildNodes(rootOptionNode);
-		for (Node optionNode : optionNodes) {
+		TemplateNode[] optionNodes = getChildNodes(rootOptionNode);
+		for (TemplateNode optionNode : optionNodes) {
 			String option = optionNode.getNodeName();
 			if (option.equals("use_pool")) {
 				rrdGraphDef.setPoolUsed(getValueAsBoolean(optionNode));
@@ -811,10 +830,10 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		throw new RrdException("Never heard for this day of week: " + firstDayOfWeek);
 	}
 
-	private void resolveFonts(Node parentNode) throws RrdException {
+	private void resolveFonts(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"small_font", "large_font"});
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("small_font")) {
 				rrdGraphDef.setSmallFont(resolveFont(childNode));
@@ -825,12 +844,12 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private Font resolveFont(Node parentNode) throws RrdException {
+	private Font resolveFont(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"name", "style", "size"});
 		String name = null, style = null;
 		int size = 0;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("name")) {
 				name = getValue(childNode);
@@ -861,22 +880,25 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveColors(Node parentNode) throws RrdException {
-		validateTagsOnlyOnce(parentNode, COLOR_NAMES);
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
-			String colorName = childNode.getNodeName();
-			rrdGraphDef.setColor(colorName, getValueAsColor(childNode));
+	private void resolveColors(TemplateNode parentNode) throws RrdException {
+		// validation marks allowed names as used, the shared array must not be changed
+		validateTagsOnlyOnce(parentNode, COLOR_NAMES.clone());
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
+			if (!isEmptyNode(childNode)) {
+				String colorName = childNode.getNodeName();
+				rrdGraphDef.setColor(colorName, getValueAsColor(childNode));
+			}
 		}
 	}
 
-	private void resolveValueGrid(Node parentNode) throws RrdException {
+	private void resolveValueGrid(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {"show_grid", "grid_step", "label_factor"});
 		boolean showGrid = true;
 		double gridStep = Double.NaN;
 		int NOT_SET = Integer.MIN_VALUE, labelFactor = NOT_SET;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("show_grid")) {
 				showGrid = getValueAsBoolean(childNode);
@@ -897,7 +919,7 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 		}
 	}
 
-	private void resolveTimeGrid(Node parentNode) throws RrdException {
+	private void resolveTimeGrid(TemplateNode parentNode) throws RrdException {
 		validateTagsOnlyOnce(parentNode, new String[] {
 				"show_grid", "minor_grid_unit",
 				"minor_grid_unit_count", "major_grid_unit",
@@ -910,8 +932,8 @@ public class RrdGraphDefTemplate extends XmlTemplate implements RrdGraphConstant
 				majorGridUnit = NOT_SET, majorGridUnitCount = NOT_SET,
 				labelUnit = NOT_SET, labelUnitCount = NOT_SET, labelSpan = NOT_SET;
 		String labelFormat = null;
-		Node[] childNodes = getChildNodes(parentNode);
-		for (Node childNode : childNodes) {
+		TemplateNode[] childNodes = getChildNodes(parentNode);
+		for (TemplateNode childNode : childNodes) {
 			String nodeName = childNode.getNodeName();
 			if (nodeName.equals("show_grid")) {
 				showGrid = getValueAsBoolean(childNode);
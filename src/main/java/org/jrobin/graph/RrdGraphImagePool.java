@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This class keeps images used to render graphs, so that new graphs of the same size can be
+ * rendered without allocating a new image. Images are borrowed by {@link RrdGraph} while a graph
+ * is rendered and returned once it is encoded. Borrowed images are cleared before use.
+ * <p>
+ * Images are kept by size (width and height). When the total size of kept images exceeds the
+ * capacity of the pool, images of the least recently used sizes are dropped. Set the capacity
+ * to zero to allocate a new image for each graph.
+ */
+public class RrdGraphImagePool {
+	/**
+	 * Initial capacity of the pool, i.e. maximum total size of kept images in bytes.
+	 */
+	public static final long INITIAL_CAPACITY = 16 * 1024 * 1024;
+	private static final int BYTES_PER_PIXEL = 4;
+	private static RrdGraphImagePool instance;
+
+	private long capacity = INITIAL_CAPACITY;
+	private long byteCount = 0;
+	// access ordered, the eldest entry holds images of the least recently used size
+	private final LinkedHashMap<Long, List<BufferedImage>> images =
+			new LinkedHashMap<Long, List<BufferedImage>>(16, 0.75F, true);
+
+	/**
+	 * Creates a single instance of the class on the first call, or returns already existing one.
+	 *
+	 * @return Single instance of this class
+	 */
+	public synchronized static RrdGraphImagePool getInstance() {
+		if (instance == null) {
+			instance = new RrdGraphImagePool();
+		}
+		return instance;
+	}
+
+	private RrdGraphImagePool() {
+	}
+
+	/**
+	 * Returns the maximum total size of kept images.
+	 *
+	 * @return Maximum total size of kept images, in bytes
+	 */
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the maximum total size of kept images. Images of the least recently used sizes are dropped
+	 * if the pool holds more.
+	 *
+	 * @param capacity Maximum total size of kept images, in bytes
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		shrink(0);
+	}
+
+	/**
+	 * Returns the total size of kept images.
+	 *
+	 * @return Total size of kept images, in bytes
+	 */
+	public synchronized long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Returns the number of kept images.
+	 *
+	 * @return Number of kept images
+	 */
+	public synchronized int getImageCount() {
+		int count = 0;
+		for (List<BufferedImage> list : images.values()) {
+			count += list.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Drops all kept images.
+	 */
+	public synchronized void clear() {
+		images.clear();
+		byteCount = 0;
+	}
+
+	/**
+	 * Returns a cleared image of the given size, kept or newly allocated.
+	 */
+	BufferedImage borrowImage(int width, int height) {
+		BufferedImage image = null;
+		synchronized (this) {
+			List<BufferedImage> list = images.get(getKey(width, height));
+			if (list != null && !list.isEmpty()) {
+				image = list.remove(list.size() - 1);
+				byteCount -= getByteCount(image);
+			}
+		}
+		if (image == null) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		// transparent black, as in a new image
+		Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+		return image;
+	}
+
+	/**
+	 * Gives back an image which is no longer used.
+	 */
+	synchronized void returnImage(BufferedImage image) {
+		long size = getByteCount(image);
+		if (size > capacity) {
+			return;
+		}
+		shrink(size);
+		Long key = getKey(image.getWidth(), image.getHeight());
+		List<BufferedImage> list = images.get(key);
+		if (list == null) {
+			list = new ArrayList<BufferedImage>();
+			images.put(key, list);
+		}
+		list.add(image);
+		byteCount += size;
+	}
+
+	// drops images until the given number of bytes can be added
+	private void shrink(long size) {
+		Iterator<List<BufferedImage>> iterator = images.values().iterator();
+		while (byteCount + size > capacity && iterator.hasNext()) {
+			List<BufferedImage> list = iterator.next();
+			while (byteCount + size > capacity && !list.isEmpty()) {
+				byteCount -= getByteCount(list.remove(list.size() - 1));
+			}
+			if (list.isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static Long getKey(int width, int height) {
+		return ((long) width << 32) | height;
+	}
+
+	private static long getByteCount(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+	}
+}
@@ -29,6 +29,7 @@ public class RrdGraphInfo {
 	String filename;
 	int width, height;
 	byte[] bytes;
+	int byteCount;
 	String imgInfo;
 	private List<String> printLines = new ArrayList<String>();
 
@@ -70,7 +71,8 @@ public class RrdGraphInfo {
 	/**
 	 * Returns graph bytes
 	 *
-	 * @return Graph bytes
+	 * @return Graph bytes, or null if graph bytes were not retained
+	 *         (see {@link RrdGraphDef#setImageRetained(boolean)})
 	 */
 	public byte[] getBytes() {
 		return bytes;
@@ -100,7 +102,7 @@ public class RrdGraphInfo {
 	 * @return Length of the graph file
 	 */
 	public int getByteCount() {
-		return bytes != null ? bytes.length : 0;
+		return bytes != null ? bytes.length : byteCount;
 	}
 
 	/**
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Util;
+import org.jrobin.data.DataProcessor;
+
+import java.io.IOException;
+
+/**
+ * Renders the same graph over and over for a time span sliding with time, like the last hour graphs
+ * of a live dashboard refreshed every step. Data fetched for the previous rendering is kept, so that
+ * only rows archived since are fetched from RRD files for the next one. The graph is always drawn
+ * from complete data, so rendered graphs are the same as graphs created with {@link RrdGraph} for
+ * the same time span. All data is fetched again when the time span moves backwards, or when
+ * a different archive has to be used.
+ * <p>
+ * The session moves the time span of its graph definition, other settings of the definition should not
+ * be changed while the session is used. RRD files may be updated between renderings, but not re-created
+ * (call {@link #reset()} if they are).
+ */
+public class RrdGraphSession {
+	private final RrdGraphDef gdef;
+	private final long span;
+	// data of the previous rendering
+	DataProcessor previousData;
+
+	/**
+	 * Creates a session for the given graph definition. The length of its time span is kept by
+	 * all renderings.
+	 *
+	 * @param gdef Graph definition
+	 */
+	public RrdGraphSession(RrdGraphDef gdef) {
+		this.gdef = gdef;
+		this.span = gdef.endTime - gdef.startTime;
+	}
+
+	/**
+	 * Renders the graph for a time span ending now.
+	 *
+	 * @return Graph information (width, height, filename, image bytes, etc...)
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin related error
+	 */
+	public RrdGraphInfo render() throws IOException, RrdException {
+		return render(Util.getTime());
+	}
+
+	/**
+	 * Renders the graph for a time span ending at the given time.
+	 *
+	 * @param endTime Ending time in seconds since epoch
+	 * @return Graph information (width, height, filename, image bytes, etc...)
+	 * @throws IOException  Thrown in case of I/O error
+	 * @throws RrdException Thrown in case of JRobin related error
+	 */
+	public synchronized RrdGraphInfo render(long endTime) throws IOException, RrdException {
+		gdef.setTimeSpan(endTime - span, endTime);
+		return new RrdGraph(gdef, this).getRrdGraphInfo();
+	}
+
+	/**
+	 * Drops data kept from the previous rendering, the next rendering fetches all data.
+	 */
+	public synchronized void reset() {
+		previousData = null;
+	}
+}
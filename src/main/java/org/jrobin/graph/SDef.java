@@ -21,7 +21,7 @@ package org.jrobin.graph;
 import org.jrobin.data.DataProcessor;
 
 class SDef extends Source {
-	private String defName, consolFun;
+	final String defName, consolFun;
 
 	SDef(String name, String defName, String consolFun) {
 		super(name);
@@ -24,7 +24,7 @@ import org.jrobin.data.DataProcessor;
 import java.awt.*;
 
 class Stack extends SourcedPlotElement {
-	private final SourcedPlotElement parent;
+	final SourcedPlotElement parent;
 
 	Stack(SourcedPlotElement parent, String srcName, Paint color) {
 		super(srcName, color);
@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (c) 2001-2005 Sasa Markovic and Ciaran Treanor.
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+
+
+package org.jrobin.graph;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+/**
+ * Writes graphs as SVG (scalable vector graphics) documents. Drawing operations are written
+ * as SVG elements as soon as they are made, there is no pixel buffer. The document is written
+ * to the output stream of the graph if the image should not be retained (see
+ * {@link RrdGraphDef#setImageRetained(boolean)}), or to a memory buffer otherwise.
+ * <p>
+ * Shapes use the same integer pixel coordinates as raster images. Lines are drawn through pixel
+ * centers, so that they cover the same pixels. Paints other than colors are written with the first
+ * color of a gradient, or black.
+ */
+class SvgWriter implements Drawing {
+	private final ByteArrayOutputStream buffer;
+	private final ImageWorker.CountingOutputStream counter;
+	private final Writer writer;
+	private final StringBuilder element = new StringBuilder(256);
+	private int openGroups = 0, clipCount = 0;
+	private boolean antiAliasing = false;
+	private boolean finished = false;
+	private IOException failure;
+
+	/**
+	 * @param stream Stream to write the document to, or null to keep it in memory
+	 */
+	SvgWriter(int width, int height, OutputStream stream) throws IOException {
+		buffer = stream == null ? new ByteArrayOutputStream() : null;
+		counter = new ImageWorker.CountingOutputStream(stream == null ? buffer : stream);
+		writer = new BufferedWriter(new OutputStreamWriter(counter, "UTF-8"));
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
+				"version=\"1.1\" width=\"" + width + "\" height=\"" + height + "\" viewBox=\"0 0 " +
+				width + " " + height + "\" xml:space=\"preserve\">\n");
+	}
+
+	public void clip(int x, int y, int width, int height) {
+		String id = "clip" + clipCount++;
+		startElement("clipPath").append(" id=\"").append(id).append("\"><rect");
+		appendAttribute("x", x).appendAttribute("y", y).appendAttribute("width", width).appendAttribute("height", height);
+		element.append("/></clipPath>\n<g clip-path=\"url(#").append(id).append(")\">");
+		writeElement();
+		openGroups++;
+	}
+
+	public void transform(int x, int y, double angle) {
+		startElement("g").append(" transform=\"translate(").append(x).append(',').append(y)
+				.append(") rotate(").append(Math.toDegrees(angle)).append(")\">");
+		writeElement();
+		openGroups++;
+	}
+
+	public void reset() {
+		for (; openGroups > 0; openGroups--) {
+			write("</g>\n");
+		}
+	}
+
+	public void fillRect(int x, int y, int width, int height, Paint paint) {
+		startElement("rect");
+		appendAttribute("x", x).appendAttribute("y", y).appendAttribute("width", width).appendAttribute("height", height);
+		appendPaint("fill", paint);
+		endShape();
+	}
+
+	public void fillPolygon(int[] x, int[] y, Paint paint) {
+		startElement("polygon");
+		appendPoints(x, y, 0);
+		appendPaint("fill", paint);
+		endShape();
+	}
+
+	public void fillPolygon(double[] x, double yBottom, double[] yTop, Paint paint) {
+		PathIterator path = new PathIterator(yTop);
+		for (int[] pos = path.getNextPath(); pos != null; pos = path.getNextPath()) {
+			int[][] points = ImageWorker.getAreaPoints(x, yBottom, yTop, pos[0], pos[1]);
+			writeOutlinedPolygon(points[0], points[1], paint);
+		}
+	}
+
+	public void fillPolygon(double[] x, double[] yBottom, double[] yTop, Paint paint) {
+		PathIterator path = new PathIterator(yTop);
+		for (int[] pos = path.getNextPath(); pos != null; pos = path.getNextPath()) {
+			int[][] points = ImageWorker.getStackPoints(x, yBottom, yTop, pos[0], pos[1]);
+			writeOutlinedPolygon(points[0], points[1], paint);
+		}
+	}
+
+	// filled and outlined, as areas of raster images
+	private void writeOutlinedPolygon(int[] x, int[] y, Paint paint) {
+		startElement("polygon");
+		appendPoints(x, y, 0.5);
+		appendPaint("fill", paint);
+		appendPaint("stroke", paint);
+		endShape();
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2, Paint paint, Stroke stroke) {
+		startElement("line");
+		appendAttribute("x1", x1 + 0.5).appendAttribute("y1", y1 + 0.5);
+		appendAttribute("x2", x2 + 0.5).appendAttribute("y2", y2 + 0.5);
+		appendStroke(paint, stroke);
+		endShape();
+	}
+
+	public void drawPolyline(int[] x, int[] y, Paint paint, Stroke stroke) {
+		startElement("polyline");
+		appendPoints(x, y, 0.5);
+		element.append(" fill=\"none\"");
+		appendStroke(paint, stroke);
+		endShape();
+	}
+
+	public void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke) {
+		drawPolyline(x, y, paint, stroke, false);
+	}
+
+	public void drawPolyline(double[] x, double[] y, Paint paint, Stroke stroke, boolean downsampled) {
+		PathIterator path = new PathIterator(y);
+		for (int[] pos = path.getNextPath(); pos != null; pos = path.getNextPath()) {
+			int[][] points = ImageWorker.getLinePoints(x, y, pos[0], pos[1], downsampled);
+			drawPolyline(points[0], points[1], paint, stroke);
+		}
+	}
+
+	public void drawString(String text, int x, int y, Font font, Paint paint) {
+		startElement("text");
+		appendAttribute("x", x).appendAttribute("y", y);
+		element.append(" font-family=\"");
+		appendEscaped(getFontFamily(font));
+		element.append('"');
+		appendAttribute("font-size", font.getSize2D());
+		if (font.isBold()) {
+			element.append(" font-weight=\"bold\"");
+		}
+		if (font.isItalic()) {
+			element.append(" font-style=\"italic\"");
+		}
+		appendPaint("fill", paint);
+		element.append('>');
+		appendEscaped(text);
+		element.append("</text>");
+		writeElement();
+	}
+
+	// logical Java fonts are written as generic families
+	private static String getFontFamily(Font font) {
+		String family = font.getFamily();
+		if (family.equals(Font.MONOSPACED) || family.equals(Font.DIALOG_INPUT)) {
+			return "monospace";
+		}
+		else if (family.equals(Font.SANS_SERIF) || family.equals(Font.DIALOG)) {
+			return "sans-serif";
+		}
+		else if (family.equals(Font.SERIF)) {
+			return "serif";
+		}
+		return family;
+	}
+
+	public double getFontAscent(Font font) {
+		return FontMetricsCache.getFontAscent(font);
+	}
+
+	public double getFontHeight(Font font) {
+		return FontMetricsCache.getFontHeight(font);
+	}
+
+	public double getStringWidth(String text, Font font) {
+		return FontMetricsCache.getStringWidth(text, font);
+	}
+
+	public void setAntiAliasing(boolean enable) {
+		antiAliasing = enable;
+	}
+
+	public void loadImage(String imageFile) throws IOException {
+		File file = new File(imageFile);
+		BufferedImage image = ImageIO.read(file);
+		if (image == null) {
+			throw new IOException("Unsupported image file: " + imageFile);
+		}
+		startElement("image");
+		appendAttribute("x", 0).appendAttribute("y", 0);
+		appendAttribute("width", image.getWidth()).appendAttribute("height", image.getHeight());
+		element.append(" xlink:href=\"");
+		appendEscaped(file.toURI().toString());
+		element.append("\"/>");
+		writeElement();
+	}
+
+	// the stream must be the one this writer was created with, if any
+	public int saveImage(OutputStream stream, String type, float quality) throws IOException {
+		finish();
+		if (buffer != null) {
+			buffer.writeTo(stream);
+			stream.flush();
+			return buffer.size();
+		}
+		return counter.count;
+	}
+
+	public int saveImage(String path, String type, float quality) throws IOException {
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(path));
+		try {
+			return saveImage(stream, type, quality);
+		}
+		finally {
+			stream.close();
+		}
+	}
+
+	public byte[] getImageBytes(String type, float quality) throws IOException {
+		finish();
+		return buffer.toByteArray();
+	}
+
+	public void dispose() {
+	}
+
+	private void finish() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		if (!finished) {
+			reset();
+			writer.write("</svg>\n");
+			writer.flush();
+			finished = true;
+		}
+	}
+
+	private StringBuilder startElement(String name) {
+		element.setLength(0);
+		return element.append('<').append(name);
+	}
+
+	private SvgWriter appendAttribute(String name, int value) {
+		element.append(' ').append(name).append("=\"").append(value).append('"');
+		return this;
+	}
+
+	private SvgWriter appendAttribute(String name, double value) {
+		element.append(' ').append(name).append("=\"");
+		if (value == (int) value) {
+			element.append((int) value);
+		}
+		else {
+			element.append((float) value);
+		}
+		element.append('"');
+		return this;
+	}
+
+	// points in between on the same horizontal or vertical segment are left out, the shape is the same
+	private void appendPoints(int[] x, int[] y, double offset) {
+		int[] xKept = new int[x.length], yKept = new int[y.length];
+		int count = 0;
+		for (int i = 0; i < x.length; i++) {
+			if (count > 0 && x[i] == xKept[count - 1] && y[i] == yKept[count - 1]) {
+				continue;
+			}
+			if (count > 1 && (isBetween(xKept, yKept, count, x[i], y[i]) ||
+					isBetween(yKept, xKept, count, y[i], x[i]))) {
+				count--;
+			}
+			xKept[count] = x[i];
+			yKept[count++] = y[i];
+		}
+		element.append(" points=\"");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				element.append(' ');
+			}
+			if (offset == 0) {
+				element.append(xKept[i]).append(',').append(yKept[i]);
+			}
+			else {
+				element.append(xKept[i] + offset).append(',').append(yKept[i] + offset);
+			}
+		}
+		element.append('"');
+	}
+
+	// true if the last kept point lies on the segment from the previous one to the new point, along b
+	private static boolean isBetween(int[] a, int[] b, int count, int aNew, int bNew) {
+		int a1 = a[count - 2], a2 = a[count - 1], b1 = b[count - 2], b2 = b[count - 1];
+		return a1 == a2 && a2 == aNew && (b1 <= b2 && b2 <= bNew || b1 >= b2 && b2 >= bNew);
+	}
+
+	private void appendPaint(String attribute, Paint paint) {
+		Color color = paint instanceof Color ? (Color) paint :
+				paint instanceof GradientPaint ? ((GradientPaint) paint).getColor1() : Color.BLACK;
+		element.append(' ').append(attribute).append("=\"#");
+		String rgb = Integer.toHexString(color.getRGB() & 0xffffff);
+		for (int i = rgb.length(); i < 6; i++) {
+			element.append('0');
+		}
+		element.append(rgb).append('"');
+		if (color.getAlpha() < 255) {
+			appendAttribute(attribute + "-opacity", color.getAlpha() / 255.0);
+		}
+	}
+
+	private void appendStroke(Paint paint, Stroke stroke) {
+		appendPaint("stroke", paint);
+		if (stroke instanceof BasicStroke) {
+			BasicStroke basicStroke = (BasicStroke) stroke;
+			// zero width lines are drawn as thin as possible, one pixel wide
+			appendAttribute("stroke-width", Math.max(basicStroke.getLineWidth(), 1));
+			float[] dashes = basicStroke.getDashArray();
+			if (dashes != null) {
+				element.append(" stroke-dasharray=\"");
+				for (int i = 0; i < dashes.length; i++) {
+					element.append(i > 0 ? "," : "").append(dashes[i]);
+				}
+				element.append('"');
+			}
+			if (basicStroke.getEndCap() == BasicStroke.CAP_SQUARE) {
+				element.append(" stroke-linecap=\"square\"");
+			}
+			else if (basicStroke.getEndCap() == BasicStroke.CAP_ROUND) {
+				element.append(" stroke-linecap=\"round\"");
+			}
+		}
+	}
+
+	private void endShape() {
+		if (!antiAliasing) {
+			element.append(" shape-rendering=\"crispEdges\"");
+		}
+		element.append("/>");
+		writeElement();
+	}
+
+	private void appendEscaped(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '<':
+					element.append("&lt;");
+					break;
+				case '>':
+					element.append("&gt;");
+					break;
+				case '&':
+					element.append("&amp;");
+					break;
+				case '"':
+					element.append("&quot;");
+					break;
+				default:
+					element.append(c);
+			}
+		}
+	}
+
+	private void writeElement() {
+		element.append('\n');
+		write(element);
+	}
+
+	private void write(CharSequence text) {
+		try {
+			writer.append(text);
+		}
+		catch (IOException e) {
+			// reported when the document is saved
+			failure = e;
+		}
+	}
+}
@@ -18,11 +18,16 @@
  *******************************************************************************/
 package org.jrobin.graph;
 
+import org.jrobin.core.Util;
+
 import java.awt.*;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 class TimeAxis implements RrdGraphConstants {
 	private static final TimeAxisSetting[] tickSettings = {
@@ -42,6 +47,17 @@ class TimeAxis implements RrdGraphConstants {
 			new TimeAxisSetting(10 * 24 * 3600, YEAR, 1, YEAR, 1, YEAR, 1, 365 * 24 * 3600, "yy"),
 			new TimeAxisSetting(-1, MONTH, 0, MONTH, 0, MONTH, 0, 0, "")
 	};
+	// maximum number of date formats kept per thread
+	private static final int MAX_DATE_FORMATS = 64;
+	// SimpleDateFormat is not thread safe, each thread keeps its own formats,
+	// by default locale, default time zone and pattern
+	private static final ThreadLocal<Map<String, SimpleDateFormat>> dateFormats =
+			new ThreadLocal<Map<String, SimpleDateFormat>>() {
+				@Override
+				protected Map<String, SimpleDateFormat> initialValue() {
+					return new HashMap<String, SimpleDateFormat>();
+				}
+			};
 
 	private TimeAxisSetting tickSetting;
 	private RrdGraph rrdGraph;
@@ -102,12 +118,13 @@ class TimeAxis implements RrdGraphConstants {
 	private void drawLabels() {
 		// escape strftime like format string
 		String labelFormat = tickSetting.format.replaceAll("([^%]|^)%([^%t])", "$1%t$2");
+		SimpleDateFormat dateFormat = labelFormat.contains("%") ? null : getDateFormat(labelFormat);
 		Font font = rrdGraph.gdef.getFont(FONTTAG_AXIS);
 		Paint color = rrdGraph.gdef.colors[COLOR_FONT];
 		adjustStartingTime(tickSetting.labelUnit, tickSetting.labelUnitCount);
 		int y = rrdGraph.im.yorigin + (int) rrdGraph.worker.getFontHeight(font) + 2;
 		for (int status = getTimeShift(); status <= 0; status = getTimeShift()) {
-			String label = formatLabel(labelFormat, calendar.getTime());
+			String label = formatLabel(labelFormat, dateFormat, calendar.getTime());
 			long time = calendar.getTime().getTime() / 1000L;
 			int x1 = rrdGraph.mapper.xtr(time);
 			int x2 = rrdGraph.mapper.xtr(time + tickSetting.labelSpan);
@@ -120,15 +137,29 @@ class TimeAxis implements RrdGraphConstants {
 		}
 	}
 
-	private static String formatLabel(String format, Date date) {
-		if (format.contains("%")) {
+	private static String formatLabel(String format, SimpleDateFormat dateFormat, Date date) {
+		if (dateFormat == null) {
 			// strftime like format string
-			return String.format(format, date);
+			return Util.sprintf(format, date);
 		}
 		else {
 			// simple date format
-			return new SimpleDateFormat(format).format(date);
+			return dateFormat.format(date);
+		}
+	}
+
+	private static SimpleDateFormat getDateFormat(String pattern) {
+		Map<String, SimpleDateFormat> formats = dateFormats.get();
+		String key = Locale.getDefault() + "\n" + TimeZone.getDefault().getID() + "\n" + pattern;
+		SimpleDateFormat dateFormat = formats.get(key);
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat(pattern);
+			if (formats.size() >= MAX_DATE_FORMATS) {
+				formats.clear();
+			}
+			formats.put(key, dateFormat);
 		}
+		return dateFormat;
 	}
 
 	private void findNextTime(int timeUnit, int timeUnitCount) {
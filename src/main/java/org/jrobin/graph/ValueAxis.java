@@ -49,7 +49,7 @@ class ValueAxis implements RrdGraphConstants {
 
 	//private RrdGraph rrdGraph;
 	private ImageParameters im;
-	private ImageWorker worker;
+	private Drawing worker;
 	private RrdGraphDef gdef;
 	private Mapper mapper;
 
@@ -57,7 +57,7 @@ class ValueAxis implements RrdGraphConstants {
 		this(rrdGraph.im, rrdGraph.worker, rrdGraph.gdef, rrdGraph.mapper);
 	}
 
-	ValueAxis(ImageParameters im, ImageWorker worker, RrdGraphDef gdef, Mapper mapper) {
+	ValueAxis(ImageParameters im, Drawing worker, RrdGraphDef gdef, Mapper mapper) {
 		this.im = im;
 		this.gdef = gdef;
 		this.worker = worker;
@@ -36,7 +36,7 @@ class ValueAxisLogarithmic implements RrdGraphConstants {
 
 	private RrdGraph rrdGraph;
 	private ImageParameters im;
-	private ImageWorker worker;
+	private Drawing worker;
 	private RrdGraphDef gdef;
 
 	ValueAxisLogarithmic(RrdGraph rrdGraph) {
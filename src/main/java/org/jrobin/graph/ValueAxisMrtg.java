@@ -24,7 +24,7 @@ import java.awt.*;
 
 class ValueAxisMrtg implements RrdGraphConstants {
 	private ImageParameters im;
-	private ImageWorker worker;
+	private Drawing worker;
 	private RrdGraphDef gdef;
 
 	ValueAxisMrtg(RrdGraph rrdGraph) {
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.START;
+import static org.jrobin.core.RrdTestUtil.STEP;
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdCompressedBackendTest {
+    private static final String DIRECTORY = "target/compressed";
+    private static final String[] PATHS = {
+            DIRECTORY + "/a.jrb", DIRECTORY + "/b.jrb", DIRECTORY + "/sub/c.jrb"
+    };
+
+    private final byte[][] expected = new byte[PATHS.length][];
+
+    @Before
+    public void setUp() throws Exception {
+        new File(DIRECTORY, "sub").mkdirs();
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        for (int i = 0; i < PATHS.length; i++) {
+            new File(PATHS[i]).delete();
+            // long archives, mostly empty
+            RrdDef def = new RrdDef(PATHS[i], START - STEP, STEP);
+            def.addDatasource("in", "GAUGE", 600, Double.NaN, Double.NaN);
+            def.addDatasource("out", "GAUGE", 600, Double.NaN, Double.NaN);
+            def.addArchive("AVERAGE", 0.5, 1, 1000);
+            def.addArchive("MAX", 0.5, 12, 1000);
+            final int offset = i;
+            expected[i] = createRrd(def, fileFactory, 200, new RrdTestUtil.SampleValues() {
+                public String getValues(long time) {
+                    return (offset + Math.sin(time / 3600.0)) + ":" + offset;
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testBlocks() {
+        assertEquals(3, RrdCompressedBackend.getBlockLengths(expected[0]).length);
+        assertEquals(1, RrdCompressedBackend.getBlockLengths(new byte[100]).length);
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        assertEquals(PATHS.length, RrdToolkit.compress(DIRECTORY, ".jrb", 2));
+        assertEquals(0, RrdToolkit.compress(DIRECTORY, ".jrb", 2));
+        RrdBackendFactory factory = RrdBackendFactory.getFactory(RrdCompressedBackendFactory.NAME);
+        for (int i = 0; i < PATHS.length; i++) {
+            assertTrue(RrdCompressedBackendFactory.isCompressed(PATHS[i]));
+            assertTrue(new File(PATHS[i]).length() < expected[i].length / 4);
+            RrdDb db = new RrdDb(PATHS[i], true, factory);
+            assertTrue(Arrays.equals(expected[i], db.getBytes()));
+            db.close();
+        }
+
+        RrdDb db = new RrdDb(PATHS[0], factory);
+        long lastUpdate = db.getLastUpdateTime();
+        db.createSample().setAndUpdate((lastUpdate + 300) + ":100:200");
+        db.close();
+
+        assertEquals(PATHS.length, RrdToolkit.decompress(DIRECTORY, ".jrb", 2));
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        for (int i = 0; i < PATHS.length; i++) {
+            assertFalse(RrdCompressedBackendFactory.isCompressed(PATHS[i]));
+            db = new RrdDb(PATHS[i], true, fileFactory);
+            if (i == 0) {
+                assertEquals(lastUpdate + 300, db.getLastUpdateTime());
+                assertEquals(100, db.getDatasource(0).getLastValue(), 0);
+            }
+            else {
+                assertTrue(Arrays.equals(expected[i], db.getBytes()));
+            }
+            db.close();
+        }
+    }
+}
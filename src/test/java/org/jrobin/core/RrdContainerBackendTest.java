@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.START;
+import static org.jrobin.core.RrdTestUtil.readBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdContainerBackendTest {
+    private static final String DIRECTORY = "target/container";
+    private static final int MAX_RRD_SIZE = 16 * 1024;
+    // two slots per segment file
+    private static final int SEGMENT_SIZE = 40 * 1024;
+
+    @Before
+    public void setUp() {
+        File directory = new File(DIRECTORY);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static byte[] createRrd(final String path, RrdBackendFactory factory) throws Exception {
+        RrdDef def = new RrdDef(path, START - 300, 300);
+        def.addDatasource("test", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 100);
+        // different values in each RRD
+        return RrdTestUtil.createRrd(def, factory, 150, new RrdTestUtil.SampleValues() {
+            public String getValues(long time) {
+                return String.valueOf(Math.sin(time / 3600.0 + path.hashCode()));
+            }
+        });
+    }
+
+    @Test
+    public void testSlots() throws Exception {
+        RrdContainerBackendFactory factory = new RrdContainerBackendFactory(DIRECTORY, MAX_RRD_SIZE, SEGMENT_SIZE);
+        byte[][] expected = new byte[5][];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = createRrd("rrd-" + i, factory);
+            assertTrue(Arrays.equals(createRrd("rrd-" + i, RrdBackendFactory.getFactory("MEMORY")), expected[i]));
+        }
+        assertEquals(5, factory.getRrdCount());
+        assertEquals(3, factory.getSegmentCount());
+        assertTrue(factory.delete("rrd-1"));
+        assertFalse(factory.exists("rrd-1"));
+        // takes the free slot
+        expected[1] = createRrd("rrd-5", factory);
+        assertEquals(3, factory.getSegmentCount());
+        factory.close();
+
+        factory = new RrdContainerBackendFactory(DIRECTORY, MAX_RRD_SIZE, SEGMENT_SIZE);
+        try {
+            assertEquals(5, factory.getRrdCount());
+            assertFalse(factory.exists("rrd-1"));
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(Arrays.equals(expected[i], readBytes(i == 1 ? "rrd-5" : "rrd-" + i, factory)));
+            }
+        }
+        finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testCloseWithOpenRrd() throws Exception {
+        RrdContainerBackendFactory factory = new RrdContainerBackendFactory(DIRECTORY, MAX_RRD_SIZE, SEGMENT_SIZE);
+        byte[] expected = createRrd("open", factory);
+        RrdDb db = new RrdDb("open", true, factory);
+        factory.close();
+        try {
+            // segment files stay mapped until the RRD is closed
+            assertTrue(Arrays.equals(expected, db.getBytes()));
+        }
+        finally {
+            db.close();
+        }
+        try {
+            new RrdDb("open", true, factory);
+            fail();
+        }
+        catch (IOException e) {
+            // closed
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testTooBig() throws Exception {
+        RrdContainerBackendFactory factory = new RrdContainerBackendFactory(DIRECTORY, 1024, SEGMENT_SIZE);
+        try {
+            createRrd("big", factory);
+        }
+        finally {
+            factory.close();
+        }
+    }
+}
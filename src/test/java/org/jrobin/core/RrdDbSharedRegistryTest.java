@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.STEP;
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdDbSharedRegistryTest {
+    private static final String RRD_PATH = "target/shared-registry.jrb";
+
+    private long lastUpdate;
+
+    @Before
+    public void setUp() throws Exception {
+        new File(RRD_PATH).delete();
+        createRrd(RRD_PATH, RrdBackendFactory.getFactory("FILE"));
+        RrdDb db = new RrdDb(RRD_PATH, true, RrdBackendFactory.getFactory("FILE"));
+        lastUpdate = db.getLastUpdateTime();
+        db.close();
+    }
+
+    @Test
+    public void testSharedNio() throws Exception {
+        RrdDbSharedRegistry registry = RrdDbSharedRegistry.getInstance();
+        RrdBackendFactory factory = RrdBackendFactory.getFactory("NIO");
+        RrdDb first = registry.request(RRD_PATH, factory);
+        RrdDb second = registry.request(new File(RRD_PATH).getAbsolutePath(), factory);
+        assertSame(first, second);
+        assertEquals(1, registry.getOpenFileCount());
+
+        // a read-only RrdDb open directly shares the mapping
+        RrdDb direct = new RrdDb(RRD_PATH, true, factory);
+        assertEquals(1, RrdNioBackend.getSharedMappingCount());
+
+        // new values are seen at once
+        RrdDb writer = new RrdDb(RRD_PATH, factory);
+        writer.createSample().setAndUpdate((lastUpdate + STEP) + ":U:2");
+        writer.close();
+        assertEquals(lastUpdate + STEP, first.getLastUpdateTime());
+        assertEquals(lastUpdate + STEP, direct.getLastUpdateTime());
+
+        direct.close();
+        registry.release(first);
+        assertEquals(1, registry.getOpenFileCount());
+        registry.release(second);
+        assertEquals(0, registry.getOpenFileCount());
+        assertEquals(0, RrdNioBackend.getSharedMappingCount());
+    }
+
+    @Test
+    public void testReplacedNio() throws Exception {
+        RrdBackendFactory factory = RrdBackendFactory.getFactory("NIO");
+        RrdDb before = new RrdDb(RRD_PATH, true, factory);
+        // replaced by a file of the same length, through a rename
+        String tempPath = RRD_PATH + ".tmp";
+        createRrd(tempPath, RrdBackendFactory.getFactory("FILE"));
+        RrdDb db = new RrdDb(tempPath, RrdBackendFactory.getFactory("FILE"));
+        db.createSample().setAndUpdate((lastUpdate + 2 * STEP) + ":U:3");
+        db.close();
+        File tempFile = new File(tempPath);
+        assertEquals(new File(RRD_PATH).length(), tempFile.length());
+        tempFile.setLastModified(new File(RRD_PATH).lastModified() + 10000);
+        assertTrue(tempFile.renameTo(new File(RRD_PATH)));
+
+        RrdDb after = new RrdDb(RRD_PATH, true, factory);
+        assertEquals(lastUpdate + 2 * STEP, after.getLastUpdateTime());
+        // still reading the replaced file
+        assertEquals(lastUpdate, before.getLastUpdateTime());
+        after.close();
+        before.close();
+        assertEquals(0, RrdNioBackend.getSharedMappingCount());
+    }
+
+    @Test
+    public void testNotShared() throws Exception {
+        RrdDbSharedRegistry registry = RrdDbSharedRegistry.getInstance();
+        RrdBackendFactory factory = RrdBackendFactory.getFactory("FILE");
+        RrdDb first = registry.request(RRD_PATH, factory);
+        RrdDb second = registry.request(RRD_PATH, factory);
+        assertNotSame(first, second);
+        assertEquals(2, registry.getOpenFileCount());
+        registry.release(first);
+        registry.release(second);
+        assertEquals(0, registry.getOpenFileCount());
+    }
+}
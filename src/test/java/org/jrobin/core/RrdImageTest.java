@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.START;
+import static org.jrobin.core.RrdTestUtil.readFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RrdImageTest {
+    private static final String DIRECTORY = "target/image";
+
+    private static RrdDef createDef(String path, long startTime, int rows) throws RrdException {
+        RrdDef def = new RrdDef(path, startTime, 300);
+        def.addDatasource("in", "COUNTER", 600, 0, Double.NaN);
+        def.addDatasource("out", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, rows);
+        def.addArchive("MAX", 0.5, 12, rows);
+        def.addArchive("MIN", 0.5, 288, 10);
+        return def;
+    }
+
+    private static byte[] createWithRrdDb(RrdDef def) throws Exception {
+        RrdDb db = new RrdDb(def, RrdBackendFactory.getFactory("FILE"));
+        db.close();
+        return readFile(def.getPath());
+    }
+
+    @Test
+    public void testSameAsRrdDb() throws Exception {
+        new File(DIRECTORY).mkdirs();
+        RrdImage image = new RrdImage(createDef("unused", START, 600));
+        String path = DIRECTORY + "/image.jrb";
+        for (long startTime : new long[] {START, START + 17, START - 86400 + 299, 0}) {
+            byte[] expected = createWithRrdDb(createDef(DIRECTORY + "/expected.jrb", startTime, 600));
+            // longer files are truncated
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            file.setLength(expected.length + 1000);
+            file.close();
+            image.create(createDef(path, startTime, 600));
+            assertEquals(expected.length, image.getLength());
+            assertTrue("start " + startTime, Arrays.equals(expected, readFile(path)));
+        }
+    }
+
+    @Test(expected = RrdException.class)
+    public void testOtherLayout() throws Exception {
+        RrdImage image = new RrdImage(createDef("unused", START, 600));
+        assertFalse(image.matches(createDef("unused", START, 700)));
+        image.create(createDef(DIRECTORY + "/other.jrb", START, 700));
+    }
+
+    @Test
+    public void testCreateRrdFiles() throws Exception {
+        new File(DIRECTORY).mkdirs();
+        RrdDef[] defs = new RrdDef[20];
+        for (int i = 0; i < defs.length; i++) {
+            defs[i] = createDef(DIRECTORY + "/bulk" + i + ".jrb", START + i * 100, i % 2 == 0 ? 600 : 800);
+        }
+        RrdToolkit.createRrdFiles(defs, 4);
+        for (RrdDef def : defs) {
+            byte[] actual = readFile(def.getPath());
+            String path = def.getPath();
+            def.setPath(DIRECTORY + "/expected.jrb");
+            assertTrue(path, Arrays.equals(createWithRrdDb(def), actual));
+        }
+        RrdDb db = new RrdDb(DIRECTORY + "/bulk3.jrb");
+        try {
+            assertEquals(START + 300, db.getLastUpdateTime());
+            db.createSample().setAndUpdate((START + 600) + ":1:2");
+            assertEquals(2, db.getDatasource("out").getLastValue(), 0);
+        }
+        finally {
+            db.close();
+        }
+    }
+
+    @Test(expected = RrdException.class)
+    public void testInvalidThreadCount() throws Exception {
+        RrdToolkit.createRrdFiles(new RrdDef[] {createDef(DIRECTORY + "/invalid.jrb", START, 600)}, 0);
+    }
+}
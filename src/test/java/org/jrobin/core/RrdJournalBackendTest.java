@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.jrobin.core.RrdTestUtil.readBytes;
+import static org.jrobin.core.RrdTestUtil.readFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdJournalBackendTest {
+    private static final String JOURNAL_DIRECTORY = "target/rrd-journal";
+    private static final String RRD_PATH = "target/journal-backend.jrb";
+    private static final String EXPECTED_PATH = "target/journal-backend-expected.jrb";
+
+    @Before
+    public void setUp() {
+        new File(JOURNAL_DIRECTORY, "rrd.journal").delete();
+        new File(RRD_PATH).delete();
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        createRrd(EXPECTED_PATH, fileFactory);
+        byte[] expected = readBytes(EXPECTED_PATH, fileFactory);
+
+        RrdJournalBackendFactory factory = new RrdJournalBackendFactory(JOURNAL_DIRECTORY, 0);
+        createRrd(RRD_PATH, factory);
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+        // nothing written to the file before the commit
+        assertFalse(Arrays.equals(expected, readFile(RRD_PATH)));
+
+        factory.commit();
+        assertEquals(1, factory.getCommitCount());
+        assertTrue(Arrays.equals(expected, readFile(RRD_PATH)));
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+        assertTrue(new File(JOURNAL_DIRECTORY, "rrd.journal").length() > 0);
+        factory.close();
+        assertEquals(0, new File(JOURNAL_DIRECTORY, "rrd.journal").length());
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        createRrd(EXPECTED_PATH, fileFactory);
+        byte[] expected = readBytes(EXPECTED_PATH, fileFactory);
+
+        RrdJournalBackendFactory factory = new RrdJournalBackendFactory(JOURNAL_DIRECTORY, 0);
+        createRrd(RRD_PATH, factory);
+        factory.commit();
+        // crashed before the RRD file reached the disk, and while committing another transaction
+        RandomAccessFile file = new RandomAccessFile(RRD_PATH, "rw");
+        file.write(new byte[(int) file.length()]);
+        file.close();
+        FileOutputStream journal = new FileOutputStream(new File(JOURNAL_DIRECTORY, "rrd.journal"), true);
+        journal.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        journal.close();
+
+        RrdJournalBackendFactory recovered = new RrdJournalBackendFactory(JOURNAL_DIRECTORY, 0);
+        assertTrue(Arrays.equals(expected, readFile(RRD_PATH)));
+        assertFalse(new File(JOURNAL_DIRECTORY, "rrd.journal").length() > 0);
+        recovered.close();
+    }
+
+    @Test
+    public void testFailedUpdate() throws Exception {
+        // fails the third write of the next update
+        final int[] writesBeforeFailure = {Integer.MAX_VALUE};
+        RrdJournalBackendFactory factory = new RrdJournalBackendFactory(JOURNAL_DIRECTORY, 0) {
+            protected RrdBackend open(String path, boolean readOnly) throws IOException {
+                return new RrdJournalBackend(path, readOnly, this) {
+                    protected void write(long offset, byte[] b) throws IOException {
+                        if (writesBeforeFailure[0]-- == 0) {
+                            throw new IOException("Disk full");
+                        }
+                        super.write(offset, b);
+                    }
+                };
+            }
+        };
+        try {
+            createRrd(RRD_PATH, factory);
+            factory.commit();
+            byte[] expected = readFile(RRD_PATH);
+            RrdDb db = new RrdDb(RRD_PATH, factory);
+            writesBeforeFailure[0] = 2;
+            try {
+                db.createSample(db.getLastUpdateTime() + 300).setValue(1, 100).update();
+                fail();
+            }
+            catch (IOException e) {
+                assertEquals("Disk full", e.getMessage());
+            }
+            finally {
+                db.close();
+            }
+            // neither readers nor the file get writes of the failed update
+            assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+            factory.commit();
+            assertTrue(Arrays.equals(expected, readFile(RRD_PATH)));
+        }
+        finally {
+            factory.close();
+        }
+    }
+}
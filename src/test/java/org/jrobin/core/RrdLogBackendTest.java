@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.jrobin.core.RrdTestUtil.readBytes;
+import static org.jrobin.core.RrdTestUtil.readFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdLogBackendTest {
+    private static final String LOG_DIRECTORY = "target/rrd-log";
+    private static final String RRD_PATH = "target/log-backend.jrb";
+    private static final String EXPECTED_PATH = "target/log-backend-expected.jrb";
+
+    @Before
+    public void setUp() {
+        File[] files = new File(LOG_DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(RRD_PATH).delete();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        createRrd(EXPECTED_PATH, fileFactory);
+        byte[] expected = readBytes(EXPECTED_PATH, fileFactory);
+
+        RrdLogBackendFactory factory = new RrdLogBackendFactory(LOG_DIRECTORY, 0);
+        createRrd(RRD_PATH, factory);
+        assertTrue(factory.getPendingByteCount() > 0);
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+        // nothing written to the file yet
+        assertFalse(Arrays.equals(expected, readFile(RRD_PATH)));
+
+        factory.compact();
+        assertEquals(0, factory.getPendingByteCount());
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, fileFactory)));
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+        factory.close();
+        assertEquals(1, new File(LOG_DIRECTORY).list().length);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        createRrd(EXPECTED_PATH, fileFactory);
+        byte[] expected = readBytes(EXPECTED_PATH, fileFactory);
+
+        RrdLogBackendFactory factory = new RrdLogBackendFactory(LOG_DIRECTORY, 0);
+        createRrd(RRD_PATH, factory);
+        // crashed before compaction
+        RrdLogBackendFactory recovered = new RrdLogBackendFactory(LOG_DIRECTORY, 0);
+        assertEquals(0, recovered.getPendingByteCount());
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, fileFactory)));
+        recovered.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.jrobin.core.RrdTestUtil.readBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RrdOffHeapBackendTest {
+    private static final String SNAPSHOT_PATH = "target/offheap.snapshot";
+
+    @Test
+    public void testSameAsMemoryBackend() throws Exception {
+        RrdOffHeapBackendFactory factory = (RrdOffHeapBackendFactory) RrdBackendFactory.getFactory("OFFHEAP");
+        RrdBackendFactory memoryFactory = RrdBackendFactory.getFactory("MEMORY");
+        createRrd("same", factory);
+        createRrd("same", memoryFactory);
+        assertTrue(Arrays.equals(readBytes("same", memoryFactory), readBytes("same", factory)));
+        assertTrue(factory.getByteCount() >= readBytes("same", factory).length);
+        assertTrue(factory.delete("same"));
+        assertFalse(factory.exists("same"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        RrdOffHeapBackendFactory factory = (RrdOffHeapBackendFactory) RrdBackendFactory.getFactory("OFFHEAP");
+        createRrd("snapshot-1", factory);
+        createRrd("snapshot-2", factory);
+        byte[] expected = readBytes("snapshot-1", factory);
+        factory.saveSnapshot(SNAPSHOT_PATH);
+        assertTrue(factory.delete("snapshot-1"));
+        assertTrue(factory.delete("snapshot-2"));
+        assertEquals(2, factory.loadSnapshot(SNAPSHOT_PATH));
+        assertTrue(Arrays.equals(expected, readBytes("snapshot-1", factory)));
+        assertTrue(factory.exists("snapshot-2"));
+        // saved again over the previous snapshot
+        factory.saveSnapshot(SNAPSHOT_PATH);
+        assertFalse(new File(SNAPSHOT_PATH + ".tmp").exists());
+        factory.delete("snapshot-1");
+        factory.delete("snapshot-2");
+    }
+
+    @Test
+    public void testConcurrentSnapshots() throws Exception {
+        final RrdOffHeapBackendFactory factory =
+                (RrdOffHeapBackendFactory) RrdBackendFactory.getFactory("OFFHEAP");
+        createRrd("snapshot-concurrent", factory);
+        byte[] expected = readBytes("snapshot-concurrent", factory);
+        final Exception[] failure = new Exception[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            factory.saveSnapshot(SNAPSHOT_PATH);
+                        }
+                    }
+                    catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0]);
+        factory.delete("snapshot-concurrent");
+        assertEquals(1, factory.loadSnapshot(SNAPSHOT_PATH));
+        assertTrue(Arrays.equals(expected, readBytes("snapshot-concurrent", factory)));
+        factory.delete("snapshot-concurrent");
+    }
+
+    @Test
+    public void testCorruptSnapshot() throws Exception {
+        RrdOffHeapBackendFactory factory = (RrdOffHeapBackendFactory) RrdBackendFactory.getFactory("OFFHEAP");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(SNAPSHOT_PATH));
+        out.writeLong(0x4a524f42534e4150L);
+        out.writeInt(1);
+        out.writeInt(-1);
+        out.close();
+        try {
+            factory.loadSnapshot(SNAPSHOT_PATH);
+            fail();
+        }
+        catch (IOException e) {
+            // negative ID length
+        }
+    }
+
+    @Test(expected = RrdException.class)
+    public void testInvalidSnapshotPeriod() throws Exception {
+        ((RrdOffHeapBackendFactory) RrdBackendFactory.getFactory("OFFHEAP")).startSnapshots(SNAPSHOT_PATH, 0);
+    }
+
+    @Test
+    public void testSnapshotWaitsForUpdate() throws Exception {
+        final RrdOffHeapBackendFactory factory =
+                (RrdOffHeapBackendFactory) RrdBackendFactory.getFactory("OFFHEAP");
+        createRrd("snapshot-update", factory);
+        RrdBackend backend = factory.open("snapshot-update", false);
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    factory.saveSnapshot(SNAPSHOT_PATH);
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        backend.beforeUpdate();
+        try {
+            thread.start();
+            thread.join(500);
+            assertTrue(thread.isAlive());
+        }
+        finally {
+            backend.afterUpdate();
+        }
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNull(failure[0]);
+        factory.delete("snapshot-update");
+    }
+}
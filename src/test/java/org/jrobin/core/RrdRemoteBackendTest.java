@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.START;
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.jrobin.core.RrdTestUtil.readBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdRemoteBackendTest {
+    private static final String RRD_PATH = new File("target/remote-backend.jrb").getAbsolutePath();
+    private static final String EXPECTED_PATH = "target/remote-backend-expected.jrb";
+
+    private RrdRemoteServer server;
+    private RrdRemoteBackendFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        new File(RRD_PATH).delete();
+        server = new RrdRemoteServer(RrdBackendFactory.getFactory("FILE"), 0, "target");
+        factory = new RrdRemoteBackendFactory("localhost", server.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        createRrd(EXPECTED_PATH, fileFactory);
+        byte[] expected = readBytes(EXPECTED_PATH, fileFactory);
+
+        assertFalse(factory.exists(RRD_PATH));
+        createRrd(RRD_PATH, factory);
+        assertTrue(factory.exists(RRD_PATH));
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, fileFactory)));
+        // twice, the second time with cached definitions
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+        assertTrue(Arrays.equals(expected, readBytes(RRD_PATH, factory)));
+
+        RrdDb db = new RrdDb(RRD_PATH, true, factory);
+        FetchData data = db.createFetchRequest("AVERAGE", START, START + 300 * 100).fetchData();
+        db.close();
+        db = new RrdDb(EXPECTED_PATH, true, fileFactory);
+        assertEquals(db.createFetchRequest("AVERAGE", START, START + 300 * 100).fetchData().dump(), data.dump());
+        db.close();
+    }
+
+    @Test
+    public void testError() throws Exception {
+        try {
+            new RrdDb(RRD_PATH, true, factory);
+            fail();
+        }
+        catch (IOException e) {
+            // file not found on the server
+        }
+        // the connection is still usable
+        createRrd(RRD_PATH, factory);
+        assertTrue(factory.exists(RRD_PATH));
+    }
+
+    @Test
+    public void testChangedDefinitions() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        createRrd(RRD_PATH, factory);
+        // definitions cached, then changed through the factory
+        assertEquals(600, readHeartbeat(factory));
+        RrdDb db = new RrdDb(RRD_PATH, factory);
+        db.getDatasource("in").setHeartbeat(1234);
+        assertEquals(1234, db.getDatasource("in").getHeartbeat());
+        db.close();
+        assertEquals(1234, readHeartbeat(fileFactory));
+        assertEquals(1234, readHeartbeat(factory));
+        // changed on the server by another client
+        db = new RrdDb(RRD_PATH, fileFactory);
+        db.getDatasource("in").setHeartbeat(900);
+        db.close();
+        assertEquals(900, readHeartbeat(factory));
+    }
+
+    @Test
+    public void testPathOutsideRoot() throws Exception {
+        String[] paths = {"../pom.xml", new File("pom.xml").getAbsolutePath(), "target/../../outside.jrb"};
+        for (String path : paths) {
+            try {
+                factory.exists(path);
+                fail(path);
+            }
+            catch (IOException e) {
+                // rejected by the server
+            }
+        }
+        // the connection is still usable
+        createRrd(RRD_PATH, factory);
+        assertTrue(factory.exists("remote-backend.jrb"));
+    }
+
+    @Test(timeout = 10000)
+    public void testInvalidLength() throws Exception {
+        createRrd(RRD_PATH, factory);
+        // a negative length, and a length beyond the end of the RRD
+        int[] lengths = {-1, 1 << 30};
+        for (int length : lengths) {
+            Socket socket = new Socket("localhost", server.getPort());
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out.writeByte(RrdRemoteServer.OP_OPEN);
+                out.writeUTF(RRD_PATH);
+                out.writeBoolean(true);
+                out.writeLong(-1);
+                out.flush();
+                assertEquals(RrdRemoteServer.STATUS_OK, in.readByte());
+                int handle = in.readInt();
+                out.writeByte(RrdRemoteServer.OP_READ);
+                out.writeInt(handle);
+                out.writeLong(0);
+                out.writeInt(length);
+                out.flush();
+                // the rest of the open result, then the connection is closed
+                while (in.read() >= 0) {
+                    // skipping
+                }
+            }
+            finally {
+                socket.close();
+            }
+        }
+        // the server still serves other connections
+        assertTrue(factory.exists(RRD_PATH));
+    }
+
+    private static long readHeartbeat(RrdBackendFactory factory) throws Exception {
+        RrdDb db = new RrdDb(RRD_PATH, true, factory);
+        try {
+            return db.getDatasource("in").getHeartbeat();
+        }
+        finally {
+            db.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testWriteOnly() throws Exception {
+        createRrd(RRD_PATH, factory);
+        // updates of a RRD with cached values only write, many more than socket buffers can hold
+        RrdDb db = new RrdDb(RRD_PATH, factory);
+        long t = db.getLastUpdateTime();
+        for (int i = 0; i < 200000; i++) {
+            t += 300;
+            db.createSample(t).setValue(1, i).update();
+        }
+        db.close();
+        db = new RrdDb(RRD_PATH, true, RrdBackendFactory.getFactory("FILE"));
+        assertEquals(t, db.getLastUpdateTime());
+        assertEquals(199999, db.getDatasource("out").getLastValue(), 0);
+        db.close();
+    }
+}
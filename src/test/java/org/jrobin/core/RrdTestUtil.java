@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import java.io.RandomAccessFile;
+
+/**
+ * Creates and reads the RRD files used by the backend tests.
+ */
+final class RrdTestUtil {
+    static final long START = 1300000000L;
+    static final long STEP = 300;
+
+    /**
+     * Values of the sample stored at a given time.
+     */
+    interface SampleValues {
+        String getValues(long time);
+    }
+
+    private static final SampleValues COUNTER_AND_GAUGE = new SampleValues() {
+        public String getValues(long time) {
+            return (time * 10) + ":" + Math.sin(time / 3600.0);
+        }
+    };
+
+    private RrdTestUtil() {
+    }
+
+    /**
+     * Creates the definition of an RRD with a counter ("in") and a gauge ("out"), archived
+     * every step and every six steps.
+     */
+    static RrdDef createDef(String path) throws RrdException {
+        RrdDef def = new RrdDef(path, START - STEP, STEP);
+        def.addDatasource("in", "COUNTER", 600, Double.NaN, Double.NaN);
+        def.addDatasource("out", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 100);
+        def.addArchive("MAX", 0.5, 6, 100);
+        return def;
+    }
+
+    /**
+     * Creates an RRD with the default definition and 150 samples.
+     */
+    static byte[] createRrd(String path, RrdBackendFactory factory) throws Exception {
+        return createRrd(createDef(path), factory, 150, COUNTER_AND_GAUGE);
+    }
+
+    /**
+     * Creates an RRD and stores one sample per step, starting at {@link #START}.
+     *
+     * @return Bytes of the created RRD
+     */
+    static byte[] createRrd(RrdDef def, RrdBackendFactory factory, int sampleCount, SampleValues values)
+            throws Exception {
+        RrdDb db = new RrdDb(def, factory);
+        try {
+            Sample sample = db.createSample();
+            for (long t = START; t < START + STEP * sampleCount; t += STEP) {
+                sample.setAndUpdate(t + ":" + values.getValues(t));
+            }
+            return db.getBytes();
+        }
+        finally {
+            db.close();
+        }
+    }
+
+    static byte[] readBytes(String path, RrdBackendFactory factory) throws Exception {
+        RrdDb db = new RrdDb(path, true, factory);
+        try {
+            return db.getBytes();
+        }
+        finally {
+            db.close();
+        }
+    }
+
+    static byte[] readFile(String path) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return bytes;
+        }
+        finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.START;
+import static org.jrobin.core.RrdTestUtil.STEP;
+import static org.jrobin.core.RrdTestUtil.createRrd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdTieredBackendTest {
+    private static final String RRD_PATH = "target/tiered-backend.jrb";
+
+    private RrdTieredBackendFactory factory;
+    private long lastUpdate;
+
+    @Before
+    public void setUp() throws Exception {
+        new File(RRD_PATH).delete();
+        factory = new RrdTieredBackendFactory(1024 * 1024, 2);
+        createRrd(RRD_PATH, factory);
+        // read through the file, not counted by the tiered factory
+        RrdDb db = new RrdDb(RRD_PATH, true, RrdBackendFactory.getFactory("FILE"));
+        lastUpdate = db.getLastUpdateTime();
+        db.close();
+    }
+
+    private void update(RrdDb db, int count) throws Exception {
+        Sample sample = db.createSample();
+        for (int i = 0; i < count; i++) {
+            lastUpdate += STEP;
+            sample.setAndUpdate(lastUpdate + ":" + (lastUpdate * 10) + ":" + Math.sin(lastUpdate / 3600.0));
+        }
+    }
+
+    private byte[] readBytes(RrdBackendFactory readFactory) throws Exception {
+        RrdDb db = new RrdDb(RRD_PATH, true, readFactory);
+        try {
+            db.createFetchRequest("AVERAGE", START, lastUpdate).fetchData();
+            return db.getBytes();
+        }
+        finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void testPromotion() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Arrays.equals(readBytes(fileFactory), readBytes(factory)));
+        }
+        assertEquals(1, factory.getPromotionCount());
+        assertEquals(1, factory.getResidentFileCount());
+        assertEquals(new File(RRD_PATH).length(), factory.getResidentByteCount());
+        long memoryHits = factory.getMemoryHitCount();
+        long fileHits = factory.getFileHitCount();
+        assertTrue(Arrays.equals(readBytes(fileFactory), readBytes(factory)));
+        assertTrue(factory.getMemoryHitCount() > memoryHits);
+        assertEquals(fileHits, factory.getFileHitCount());
+
+        // written through to the file and to the memory copy
+        RrdDb db = new RrdDb(RRD_PATH, factory);
+        update(db, 20);
+        db.close();
+        assertTrue(Arrays.equals(readBytes(fileFactory), readBytes(factory)));
+        assertEquals(fileHits, factory.getFileHitCount());
+
+        factory.setMemoryBudget(100);
+        assertEquals(1, factory.getDemotionCount());
+        assertEquals(0, factory.getResidentFileCount());
+        assertEquals(0, factory.getResidentByteCount());
+        assertTrue(Arrays.equals(readBytes(fileFactory), readBytes(factory)));
+        assertTrue(factory.getFileHitCount() > fileHits);
+    }
+}
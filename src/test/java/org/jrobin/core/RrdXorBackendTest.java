@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.jrobin.core.RrdTestUtil.START;
+import static org.jrobin.core.RrdTestUtil.readBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RrdXorBackendTest {
+    private static final String RRD_PATH = "target/xor-backend.jrb";
+    private static final String EXPECTED_PATH = "target/xor-backend-expected.jrb";
+
+    @Test
+    public void testCodec() throws Exception {
+        Random random = new Random(42);
+        for (int test = 0; test < 1000; test++) {
+            int count = 1 + random.nextInt(300);
+            ByteBuffer values = ByteBuffer.allocate(8 * count);
+            double value = random.nextGaussian() * 1000;
+            for (int i = 0; i < count; i++) {
+                switch (random.nextInt(8)) {
+                    case 0:
+                        // runs of NaN
+                        int run = Math.min(count - i, random.nextInt(200));
+                        for (int j = 0; j < run; j++, i++) {
+                            values.putDouble(Double.NaN);
+                        }
+                        i--;
+                        break;
+                    case 1:
+                        values.putLong(random.nextLong());
+                        break;
+                    case 2:
+                        values.putDouble(new double[] {-0.0, 0, Double.POSITIVE_INFINITY, Double.MIN_VALUE}[random.nextInt(4)]);
+                        break;
+                    default:
+                        value += random.nextInt(3) == 0 ? random.nextGaussian() : 0;
+                        values.putDouble(value);
+                }
+            }
+            byte[] raw = values.array();
+            byte[] decoded = new byte[raw.length];
+            RobinCodec.decode(RobinCodec.encode(raw, 0, count), decoded, 0, count);
+            assertTrue("test " + test, Arrays.equals(raw, decoded));
+        }
+    }
+
+    private static void createRrd(String path, RrdBackendFactory factory) throws Exception {
+        new File(path).delete();
+        RrdDef def = new RrdDef(path, START - 300, 300);
+        def.addDatasource("in", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addDatasource("out", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 2000);
+        def.addArchive("MAX", 0.5, 12, 1000);
+        // slowly changing values, which compress well
+        RrdTestUtil.createRrd(def, factory, 1000, new RrdTestUtil.SampleValues() {
+            public String getValues(long time) {
+                return (time / 3600 % 24) + ":" + Math.round(Math.sin(time / 36000.0) * 100);
+            }
+        });
+    }
+
+    private static void update(String path, RrdBackendFactory factory) throws Exception {
+        RrdDb db = new RrdDb(path, factory);
+        Sample sample = db.createSample();
+        for (long t = db.getLastUpdateTime() + 300, i = 0; i < 10; t += 300, i++) {
+            sample.setAndUpdate(t + ":" + i + ":U");
+        }
+        db.close();
+    }
+
+    @Test
+    public void testBackend() throws Exception {
+        RrdBackendFactory fileFactory = RrdBackendFactory.getFactory("FILE");
+        RrdBackendFactory factory = RrdBackendFactory.getFactory(RrdXorBackendFactory.NAME);
+        createRrd(EXPECTED_PATH, fileFactory);
+        createRrd(RRD_PATH, factory);
+        assertTrue(Arrays.equals(readBytes(EXPECTED_PATH, fileFactory), readBytes(RRD_PATH, factory)));
+        // encoded blocks are stored with room to grow
+        assertTrue(new File(RRD_PATH).length() * 3 < new File(EXPECTED_PATH).length());
+
+        update(EXPECTED_PATH, fileFactory);
+        update(RRD_PATH, factory);
+        assertTrue(Arrays.equals(readBytes(EXPECTED_PATH, fileFactory), readBytes(RRD_PATH, factory)));
+
+        RrdDb db = new RrdDb(RRD_PATH, true, factory);
+        FetchData data = db.createFetchRequest("AVERAGE", START + 300 * 900, START + 300 * 1000).fetchData();
+        db.close();
+        db = new RrdDb(EXPECTED_PATH, true, fileFactory);
+        FetchData expected = db.createFetchRequest("AVERAGE", START + 300 * 900, START + 300 * 1000).fetchData();
+        db.close();
+        assertEquals(expected.dump(), data.dump());
+    }
+
+    @Test
+    public void testUpdateInPlace() throws Exception {
+        RrdBackendFactory factory = RrdBackendFactory.getFactory(RrdXorBackendFactory.NAME);
+        createRrd(RRD_PATH, factory);
+        long length = new File(RRD_PATH).length();
+        // still reads the file replaced by a rename, if any
+        RandomAccessFile before = new RandomAccessFile(RRD_PATH, "r");
+        try {
+            RrdDb db = new RrdDb(RRD_PATH, factory);
+            db.createSample(db.getLastUpdateTime() + 300).setValue(0, 12).update();
+            db.close();
+            assertEquals(length, before.length());
+            byte[] bytes = new byte[(int) length];
+            before.seek(0);
+            before.readFully(bytes);
+            RandomAccessFile after = new RandomAccessFile(RRD_PATH, "r");
+            byte[] expected = new byte[(int) after.length()];
+            after.readFully(expected);
+            after.close();
+            assertTrue(Arrays.equals(expected, bytes));
+        }
+        finally {
+            before.close();
+        }
+        RrdDb db = new RrdDb(RRD_PATH, true, factory);
+        assertEquals(12, db.getDatasource("in").getLastValue(), 0);
+        db.close();
+    }
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SprintfFormatTest {
+    private static final String[] FORMATS = {
+            "%4.1f %c", "%4.0f", "%.2lf", "%10.3f", "%-8.2f|", "%f", "%.0f", "%12.5lf%s", "%8.2lf %s"
+    };
+    private static final double[] VALUES = {
+            0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            0.001, 0.0009999, 9.995, 0.125, -0.04, 999.95, 9999999.999, 1e20, -3.5e-7
+    };
+
+    @Test
+    public void testSameAsFormatter() {
+        Random random = new Random(0);
+        for (String format : FORMATS) {
+            for (int i = 0; i < VALUES.length + 1000; i++) {
+                double value = i < VALUES.length ? VALUES[i] : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+                Object[] args = format.contains("%c") ? new Object[] {value, 'k'} : new Object[] {value, "M"};
+                String expected = String.format(format.replaceAll("%([^a-zA-Z%]*)l", "%$1"), args);
+                assertEquals(format + " " + value, expected, Util.sprintf(format, args));
+            }
+        }
+    }
+
+    @Test
+    public void testOtherConversions() {
+        assertEquals(String.format("%-6s|%5c|%d%%", "ab", 'c', -12L), Util.sprintf("%-6s|%5c|%d%%", "ab", 'c', -12L));
+        assertEquals(String.format("%3.0e", 12345.0), Util.sprintf("%3.0e", 12345.0));
+        assertEquals(String.format("%05.1f", 1.25), Util.sprintf("%05.1f", 1.25));
+        assertEquals(String.format("%2$s %1$s", "a", "b"), Util.sprintf("%2$s %1$s", "a", "b"));
+        Date date = new Date(1300000000000L);
+        assertEquals(String.format("%tF", date), Util.sprintf("%tF", date));
+    }
+
+    @Test(expected = java.util.MissingFormatArgumentException.class)
+    public void testMissingArgument() {
+        Util.sprintf("%.2f %s", 1.0);
+    }
+}
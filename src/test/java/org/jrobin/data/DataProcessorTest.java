@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+import org.junit.Test;
+
+public class DataProcessorTest {
+    private static final long START = 1000000000L;
+    private static final long END = START + 86400L * 7;
+
+    private static class SinePlottable extends Plottable {
+        @Override
+        public double getValue(long timestamp) {
+            return Math.sin(timestamp / 3600.0);
+        }
+    }
+
+    private DataProcessor createDataProcessor(boolean parallel) throws RrdException {
+        DataProcessor dp = new DataProcessor(START, END);
+        dp.setStep(60);
+        dp.setParallelCalculation(parallel);
+        dp.addDatasource("x", new SinePlottable());
+        // defined before its dependency
+        dp.addDatasource("late", "early,2,*");
+        dp.addDatasource("early", "x,1,+");
+        for (int i = 0; i < 10; i++) {
+            dp.addDatasource("c" + i, "x," + i + ",*,PREV,UN,0,PREV,IF,+");
+        }
+        dp.addDatasource("max", "c3", "MAX");
+        dp.addDatasource("p95", "c5", 95.0);
+        dp.addDatasource("sum", "c1,c2,+,max,+,p95,+,late,+");
+        return dp;
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException, RrdException {
+        DataProcessor sequential = createDataProcessor(false);
+        sequential.processData();
+        DataProcessor parallel = createDataProcessor(true);
+        parallel.processData();
+        for (String name : sequential.getSourceNames()) {
+            double[] expected = sequential.getValues(name);
+            double[] actual = parallel.getValues(name);
+            assertEquals(name, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(name, expected[i], actual[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testForwardReference() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(false);
+        dp.processData();
+        double[] x = dp.getValues("x");
+        double[] late = dp.getValues("late");
+        for (int i = 0; i < x.length; i++) {
+            assertEquals((x[i] + 1) * 2, late[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testUnusedSourcesSkipped() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(true);
+        dp.addOutputSource("late");
+        dp.processData();
+        dp.getValues("early");
+        try {
+            dp.getValues("c1");
+            fail("Source c1 is not needed and should not be calculated");
+        }
+        catch (RrdException e) {
+            assertTrue(e.getMessage().contains("c1"));
+        }
+    }
+
+    private DataProcessor createCdefDataProcessor(boolean optimized) throws RrdException {
+        DataProcessor dp = new DataProcessor(START, END);
+        dp.setStep(300);
+        dp.setRpnOptimizationUsed(optimized);
+        dp.addDatasource("in", new SinePlottable());
+        dp.addDatasource("out", "in,COS");
+        dp.addDatasource("a", "in,8,*");
+        dp.addDatasource("b", "in,8,*,1024,1024,*,/");
+        dp.addDatasource("c", "8,in,*,out,8,*,+");
+        dp.addDatasource("d", "out,8,*,in,8,*,+,2,/");
+        dp.addDatasource("e", "in,out,+,DUP,*");
+        dp.addDatasource("f", "in,8,*,PREV,UN,0,PREV,IF,+");
+        dp.addDatasource("g", "PI,2,*,TIME,*,SIN,in,8,*,MAX");
+        dp.addDatasource("h", "1,0,/,UNKN,+,2,3,EXC,-,+,in,+");
+        dp.addDatasource("i", "in,out,+");
+        return dp;
+    }
+
+    @Test
+    public void testRpnOptimizationKeepsValues() throws IOException, RrdException {
+        DataProcessor plain = createCdefDataProcessor(false);
+        plain.processData();
+        DataProcessor optimized = createCdefDataProcessor(true);
+        optimized.processData();
+        String[] names = plain.getSourceNames();
+        // shared subexpressions are not visible as sources
+        assertEquals(names.length, optimized.getSourceNames().length);
+        for (String name : names) {
+            double[] expected = plain.getValues(name);
+            double[] actual = optimized.getValues(name);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(name, expected[i], actual[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testRpnOptimizationProcessedTwice() throws IOException, RrdException {
+        DataProcessor plain = createCdefDataProcessor(false);
+        plain.processData();
+        DataProcessor optimized = createCdefDataProcessor(true);
+        optimized.processData();
+        // optimized again from the expressions as defined
+        optimized.addDatasource("j", "in,out,+,3,*");
+        optimized.processData();
+        String[] names = plain.getSourceNames();
+        assertEquals(names.length + 1, optimized.getSourceNames().length);
+        for (String name : names) {
+            assertTrue(name, Arrays.equals(plain.getValues(name), optimized.getValues(name)));
+        }
+        optimized.setRpnOptimizationUsed(false);
+        optimized.processData();
+        assertEquals(names.length + 1, optimized.getSourceNames().length);
+        for (String name : names) {
+            assertTrue(name, Arrays.equals(plain.getValues(name), optimized.getValues(name)));
+        }
+    }
+
+    @Test
+    public void testRpnOptimizationRewritesExpressions() throws IOException, RrdException {
+        DataProcessor dp = new DataProcessor(START, END);
+        dp.addDatasource("in", new SinePlottable());
+        dp.addDatasource("out", "in,COS");
+        dp.processData();
+        CDef a = new CDef("a", "in,8,*");
+        CDef b = new CDef("b", "in,8,*,1024,1024,*,/");
+        CDef c = new CDef("c", "out,8,*,in,out,+,+");
+        CDef d = new CDef("d", "in,out,+,2,/");
+        RpnOptimizer optimizer = new RpnOptimizer(dp, Arrays.asList("in", "out", "a", "b", "c", "d"));
+        Map<String, String> shared = optimizer.optimize(Arrays.asList(a, b, c, d));
+        assertEquals(1, shared.size());
+        String name = shared.keySet().iterator().next();
+        assertEquals("in,out,+", shared.get(name));
+        assertEquals("8.0,in,*", a.getRpnExpression());
+        assertEquals("a,1048576.0,/", b.getRpnExpression());
+        assertEquals("8.0,out,*," + name + ",+", c.getRpnExpression());
+        assertEquals(name + ",2.0,/", d.getRpnExpression());
+        // optimized again from the expressions as defined
+        optimizer = new RpnOptimizer(dp, Arrays.asList("in", "out", "a", "b", "c", "d"));
+        assertEquals(shared, optimizer.optimize(Arrays.asList(a, b, c, d)));
+        assertEquals("a,1048576.0,/", b.getRpnExpression());
+        assertEquals("8.0,out,*," + name + ",+", c.getRpnExpression());
+    }
+
+    @Test
+    public void testGetPercentiles() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(false);
+        dp.processData();
+        double[] percentiles = dp.getPercentiles("x", 99, 50, 95);
+        assertEquals(3, percentiles.length);
+        assertEquals(dp.getPercentile("x", 99), percentiles[0], 0.0);
+        assertEquals(dp.getPercentile("x", 50), percentiles[1], 0.0);
+        assertEquals(dp.get95Percentile("x"), percentiles[2], 0.0);
+        assertTrue(percentiles[1] < percentiles[2] && percentiles[2] < percentiles[0]);
+        // VDEF of the same source and percentile
+        assertEquals(dp.getValues("p95")[0], dp.getPercentile("c5", 95), 0.0);
+    }
+
+    @Test
+    public void testDefPercentilesUseArchivedValues() throws IOException, RrdException {
+        String path = "target/percentile-def.jrb";
+        RrdDef def = new RrdDef(path, START - 300, 300);
+        def.addDatasource("test", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 4000);
+        RrdDb db = new RrdDb(def);
+        Sample sample = db.createSample();
+        for (long t = START; t <= START + 86400; t += 300) {
+            sample.setAndUpdate(t + ":" + (100 * Math.abs(Math.sin(t / 1000.0))));
+        }
+        FetchData fetchData = db.createFetchRequest("AVERAGE", START, START + 86400).fetchData();
+        db.close();
+        double expected = new Aggregator(fetchData.getTimestamps(), fetchData.getValues("test"))
+                .getPercentile(START, START + 86400, 95, false);
+
+        // step of the DataProcessor different from the archive step
+        DataProcessor dp = new DataProcessor(START, START + 86400);
+        dp.setStep(1800);
+        dp.addDatasource("d", path, "test", "AVERAGE");
+        dp.addDatasource("p95", "d", 95.0);
+        dp.processData();
+        assertEquals(expected, dp.get95Percentile("d"), 0.0);
+        assertEquals(expected, dp.getPercentiles("d", 50, 95)[1], 0.0);
+        assertEquals(expected, dp.getValues("p95")[0], 0.0);
+    }
+
+    @Test
+    public void testAggregatesShared() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(true);
+        dp.processData();
+        Aggregates aggregates = dp.getAggregates("c3");
+        assertSame(aggregates, dp.getAggregates("c3"));
+        assertEquals(aggregates.getMax(), dp.getAggregate("c3", "MAX"), 0.0);
+        assertEquals(aggregates.getMax(), dp.getValues("max")[0], 0.0);
+        Aggregator aggregator = new Aggregator(dp.getTimestamps(), dp.getValues("c3"));
+        Aggregates expected = aggregator.getAggregates(START, dp.getEndingTimestamp());
+        assertEquals(expected.dump(), aggregates.dump());
+        // calculated again for new data
+        dp.processData();
+        assertNotSame(aggregates, dp.getAggregates("c3"));
+    }
+
+    @Test
+    public void testValuesPerPixel() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(false);
+        dp.setPixelCount(100);
+        dp.processData();
+        double max = dp.getAggregate("x", "MAX");
+        double min = dp.getAggregate("x", "MIN");
+        double[] pixelMax = dp.getValuesPerPixel("x", "MAX");
+        double[] pixelMin = dp.getValuesPerPixel("x", "MIN");
+        double[] pixelAverage = dp.getValuesPerPixel("x", "AVERAGE");
+        double highest = Double.NEGATIVE_INFINITY, lowest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 100; i++) {
+            assertTrue(pixelMin[i] <= pixelAverage[i] && pixelAverage[i] <= pixelMax[i]);
+            highest = Math.max(highest, pixelMax[i]);
+            lowest = Math.min(lowest, pixelMin[i]);
+        }
+        // extremes are not lost, even with 100 rows per pixel
+        assertEquals(max, highest, 0.0);
+        assertEquals(min, lowest, 0.0);
+        double[] picked = dp.getValuesPerPixel("x");
+        double[] last = dp.getValuesPerPixel("x", "LAST");
+        assertEquals(picked[99], last[99], 0.0);
+    }
+
+    @Test(expected = RrdException.class)
+    public void testInvalidPixelConsolidation() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(false);
+        dp.processData();
+        dp.getValuesPerPixel("x", "TOTAL");
+    }
+
+    @Test(expected = RrdException.class)
+    public void testInvalidPercentile() throws IOException, RrdException {
+        DataProcessor dp = createDataProcessor(false);
+        dp.processData();
+        dp.getPercentiles("x", 50, 101);
+    }
+
+    @Test(expected = RrdException.class)
+    public void testCircularDependency() throws IOException, RrdException {
+        DataProcessor dp = new DataProcessor(START, END);
+        dp.addDatasource("a", "b,1,+");
+        dp.addDatasource("b", "a,1,+");
+        dp.processData();
+    }
+}
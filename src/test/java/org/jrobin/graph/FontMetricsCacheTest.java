@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.font.LineMetrics;
+
+import org.junit.Test;
+
+public class FontMetricsCacheTest {
+    private static final Font FONT = new Font("Monospaced", Font.PLAIN, 11);
+
+    @Test
+    public void testSameAsFont() {
+        Font font = new Font("SansSerif", Font.BOLD, 13);
+        LineMetrics lm = font.getLineMetrics("Dummy", FontMetricsCache.RENDER_CONTEXT);
+        assertEquals(lm.getAscent(), FontMetricsCache.getFontAscent(font), 0);
+        assertEquals(lm.getAscent() + lm.getDescent(), FontMetricsCache.getFontHeight(font), 0);
+        String[] texts = {"", "a", "Dummy", "12.5 k", "Mon 12:00"};
+        for (String text : texts) {
+            double expected = font.getStringBounds(text, 0, text.length(), FontMetricsCache.RENDER_CONTEXT)
+                    .getBounds().getWidth();
+            // computed, then cached
+            assertEquals(text, expected, FontMetricsCache.getStringWidth(text, font), 0);
+            assertEquals(text, expected, FontMetricsCache.getStringWidth(text, font), 0);
+        }
+    }
+
+    @Test
+    public void testBoundedWidths() {
+        for (int i = 0; i < FontMetricsCache.MAX_WIDTHS * 3; i++) {
+            FontMetricsCache.getStringWidth("label " + i, FONT);
+            assertTrue(FontMetricsCache.getWidthCount(FONT) <= FontMetricsCache.MAX_WIDTHS);
+        }
+        // still correct after the widths were dropped
+        String text = "label 0";
+        assertEquals(FONT.getStringBounds(text, 0, text.length(), FontMetricsCache.RENDER_CONTEXT).getBounds().getWidth(),
+                FontMetricsCache.getStringWidth(text, FONT), 0);
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.util.Arrays;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+
+/**
+ * Compares encoding time and size of graphs encoded in full colour and with a palette.
+ * Run with <code>java org.jrobin.graph.ImageEncodingBenchmark [iterations]</code>.
+ */
+public class ImageEncodingBenchmark {
+    private static final String RRD_PATH = "target/image-encoding.jrb";
+    private static final long END = 1300000000L;
+    private static final long START = END - 7 * 86400L;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        createRrd();
+        System.out.println("graph      format  palette  level  ms/graph   bytes");
+        for (String name : new String[] {"lines", "areas"}) {
+            for (String format : new String[] {"png", "gif"}) {
+                run(name, format, false, RrdGraphConstants.DEFAULT_COMPRESSION_LEVEL, iterations);
+                run(name, format, true, RrdGraphConstants.DEFAULT_COMPRESSION_LEVEL, iterations);
+                if (format.equals("png")) {
+                    run(name, format, true, 1, iterations);
+                    run(name, format, true, 9, iterations);
+                }
+            }
+        }
+    }
+
+    private static void createRrd() throws Exception {
+        RrdDef def = new RrdDef(RRD_PATH, START - 300, 300);
+        def.addDatasource("sun", "GAUGE", 600, 0, Double.NaN);
+        def.addDatasource("shade", "GAUGE", 600, 0, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 2400);
+        def.addArchive("MAX", 0.5, 6, 400);
+        RrdDb db = new RrdDb(def);
+        Sample sample = db.createSample();
+        for (long t = START; t <= END; t += 300) {
+            sample.setAndUpdate(t + ":" + (50 + 40 * Math.sin(t / 20000.0)) + ":" + (20 + 10 * Math.cos(t / 7000.0)));
+        }
+        db.close();
+    }
+
+    // graphs similar to the ones of the JRobin demo
+    private static RrdGraphDef createGraphDef(String name, String format, boolean indexedColors, int level)
+            throws RrdException {
+        RrdGraphDef gdef = new RrdGraphDef();
+        gdef.setTimeSpan(START, END);
+        gdef.setTitle("Temperatures in May-June 2003");
+        gdef.setVerticalLabel("temperature");
+        gdef.setImageFormat(format);
+        gdef.setIndexedColors(indexedColors);
+        gdef.setCompressionLevel(level);
+        gdef.setAntiAliasing(name.equals("lines"));
+        gdef.datasource("sun", RRD_PATH, "sun", "AVERAGE");
+        gdef.datasource("shade", RRD_PATH, "shade", "AVERAGE");
+        gdef.datasource("median", "sun,shade,+,2,/");
+        gdef.datasource("diff", "sun,shade,-,ABS,-1,*");
+        if (name.equals("lines")) {
+            gdef.line("sun", Color.GREEN, "sun temp");
+            gdef.line("shade", Color.BLUE, "shade temp");
+            gdef.line("median", Color.MAGENTA, "median value");
+        }
+        else {
+            gdef.area("shade", new Color(0, 0, 160), "shade temp");
+            gdef.stack("diff", Color.YELLOW, "difference");
+            gdef.line("median", Color.RED, "median value", 2);
+        }
+        gdef.hrule(50, Color.ORANGE, "hrule");
+        gdef.gprint("sun", "MAX", "maxSun = %.3f%s");
+        gdef.gprint("sun", "AVERAGE", "avgSun = %.3f%S\\c");
+        gdef.gprint("shade", "MAX", "maxShade = %.3f%S");
+        gdef.gprint("shade", "AVERAGE", "avgShade = %.3f%S\\c");
+        return gdef;
+    }
+
+    private static void run(String name, String format, boolean indexedColors, int level, int iterations)
+            throws Exception {
+        // render once in full colour, then time encoding only
+        RrdGraphDef gdef = createGraphDef(name, "png", false, RrdGraphConstants.DEFAULT_COMPRESSION_LEVEL);
+        gdef.setFilename("target/image-encoding-" + name + ".png");
+        RrdGraphInfo info = new RrdGraph(gdef).getRrdGraphInfo();
+        ImageWorker worker = new ImageWorker(info.getWidth(), info.getHeight());
+        worker.loadImage(gdef.filename);
+        worker.setPalette(indexedColors ? Arrays.<Paint>asList(gdef.colors) : null);
+        worker.setCompressionLevel(level);
+        int byteCount = worker.getImageBytes(format, 0).length;
+        for (int i = 0; i < iterations / 10; i++) {
+            worker.getImageBytes(format, 0);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            worker.getImageBytes(format, 0);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / iterations;
+        System.out.println(String.format("%-10s %-7s %-8s %5d  %8.2f  %6d",
+                name, format, indexedColors, level, millis, byteCount));
+        worker.dispose();
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDbSharedRegistry;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.jrobin.data.Plottable;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdGraphCacheTest {
+    private static final String RRD_PATH = "target/graph-cache.jrb";
+    // a multiple of the time covered by one pixel
+    private static final long END = 1300000000L / 216 * 216;
+    private static final long START = END - 86400L;
+
+    private long lastUpdate;
+
+    @Before
+    public void setUp() throws Exception {
+        RrdGraphCache.getInstance().clear();
+        RrdDef def = new RrdDef(RRD_PATH, START - 300, 300);
+        def.addDatasource("test", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 600);
+        RrdDb db = new RrdDb(def);
+        Sample sample = db.createSample();
+        for (lastUpdate = START; lastUpdate < END - 3000; lastUpdate += 300) {
+            sample.setAndUpdate(lastUpdate + ":" + Math.sin(lastUpdate / 3600.0));
+        }
+        db.close();
+    }
+
+    private RrdGraphDef createGraphDef(long end) {
+        RrdGraphDef gdef = new RrdGraphDef();
+        gdef.setCacheUsed(true);
+        gdef.setTimeSpan(end - 86400L, end);
+        gdef.setWidth(400);
+        gdef.datasource("test", RRD_PATH, "test", "AVERAGE");
+        gdef.line("test", Color.RED, "test");
+        gdef.gprint("test", "AVERAGE", "%.2lf");
+        return gdef;
+    }
+
+    @Test
+    public void testSameStep() throws Exception {
+        RrdGraphInfo info = new RrdGraph(createGraphDef(END)).getRrdGraphInfo();
+        assertSame(info, new RrdGraph(createGraphDef(END + 10)).getRrdGraphInfo());
+        assertNotSame(info, new RrdGraph(createGraphDef(END + 216)).getRrdGraphInfo());
+        assertEquals(3, RrdGraphCache.getInstance().getRequestCount());
+        assertEquals(1, RrdGraphCache.getInstance().getHitCount());
+        assertEquals(2, RrdGraphCache.getInstance().getGraphCount());
+        // RRDs read for cache keys are released
+        assertEquals(0, RrdDbSharedRegistry.getInstance().getOpenFileCount());
+    }
+
+    @Test
+    public void testDifferentDefinition() throws Exception {
+        RrdGraphInfo info = new RrdGraph(createGraphDef(END)).getRrdGraphInfo();
+        RrdGraphDef gdef = createGraphDef(END);
+        gdef.setTitle("title");
+        assertNotSame(info, new RrdGraph(gdef).getRrdGraphInfo());
+    }
+
+    @Test
+    public void testUpdatedFile() throws Exception {
+        RrdGraphInfo info = new RrdGraph(createGraphDef(END)).getRrdGraphInfo();
+        RrdDb db = new RrdDb(RRD_PATH);
+        db.createSample().setAndUpdate(lastUpdate + ":1");
+        db.close();
+        assertNotSame(info, new RrdGraph(createGraphDef(END)).getRrdGraphInfo());
+    }
+
+    @Test
+    public void testPlottableNotCached() throws Exception {
+        RrdGraphDef gdef = createGraphDef(END);
+        gdef.datasource("constant", new Plottable() {
+            @Override
+            public double getValue(long timestamp) {
+                return 1;
+            }
+        });
+        new RrdGraph(gdef).getRrdGraphInfo();
+        assertEquals(0, RrdGraphCache.getInstance().getRequestCount());
+        assertEquals(0, RrdGraphCache.getInstance().getGraphCount());
+    }
+
+    @Test
+    public void testCustomPaintNotCached() throws Exception {
+        RrdGraphDef gdef = createGraphDef(END);
+        gdef.setImageFormat("png");
+        gdef.area("test", new GradientPaint(0, 0, Color.RED, 0, 100, Color.BLUE));
+        new RrdGraph(gdef).getRrdGraphInfo();
+        assertEquals(0, RrdGraphCache.getInstance().getRequestCount());
+        assertEquals(0, RrdGraphCache.getInstance().getGraphCount());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        RrdGraphCache cache = RrdGraphCache.getInstance();
+        RrdGraphInfo info = new RrdGraph(createGraphDef(END)).getRrdGraphInfo();
+        assertEquals(info.getByteCount(), cache.getByteCount());
+        cache.setCapacity(info.getByteCount() - 1);
+        try {
+            assertEquals(0, cache.getGraphCount());
+            assertEquals(0, cache.getByteCount());
+        }
+        finally {
+            cache.setCapacity(RrdGraphCache.INITIAL_CAPACITY);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdDefTemplate;
+import org.junit.Test;
+
+public class RrdGraphDefTemplateTest {
+    private static final String GRAPH_TEMPLATE =
+            "<rrd_graph_def>\n" +
+            "  <span><start>${start}</start><end>${end}</end></span>\n" +
+            "  <options><title>Traffic of ${interface}</title><colors><back>${back}</back></colors></options>\n" +
+            "  <datasources>\n" +
+            "    <def><name>in</name><rrd>${path}</rrd><source>in</source><cf>AVERAGE</cf></def>\n" +
+            "  </datasources>\n" +
+            "  <graph>\n" +
+            "    <!-- inbound traffic -->\n" +
+            "    <line><datasource>in</datasource><color>#FF0000</color><legend>in on ${interface}</legend></line>\n" +
+            "    <gprint><datasource>in</datasource><cf>MAX</cf><format>max = %.2lf</format></gprint>\n" +
+            "  </graph>\n" +
+            "</rrd_graph_def>";
+
+    private static final String RRD_TEMPLATE =
+            "<rrd_def><path>${path}</path><start>${start}</start><step>300</step>\n" +
+            "  <datasource><name>in</name><type>COUNTER</type><heartbeat>600</heartbeat>" +
+            "<min>0</min><max>U</max></datasource>\n" +
+            "  <archive><cf>AVERAGE</cf><xff>0.5</xff><steps>1</steps><rows>${rows}</rows></archive>\n" +
+            "</rrd_def>";
+
+    @Test
+    public void testVariables() throws Exception {
+        RrdGraphDefTemplate template = new RrdGraphDefTemplate(GRAPH_TEMPLATE);
+        assertTrue(template.hasVariables());
+        assertEquals(Arrays.asList("start", "end", "interface", "back", "path"),
+                Arrays.asList(template.getVariables()));
+    }
+
+    @Test
+    public void testGraphDefFromMap() throws Exception {
+        RrdGraphDefTemplate template = new RrdGraphDefTemplate(GRAPH_TEMPLATE);
+        for (int i = 0; i < 3; i++) {
+            template.setVariable("start", 1300000000L + i);
+            template.setVariable("end", 1300086400L + i);
+            template.setVariable("interface", "eth" + i);
+            template.setVariable("back", Color.YELLOW);
+            template.setVariable("path", "eth" + i + ".jrb");
+            RrdGraphDef expected = template.getRrdGraphDef();
+
+            Map<String, Object> variables = new HashMap<String, Object>();
+            variables.put("start", 1300000000L + i);
+            variables.put("end", 1300086400L + i);
+            variables.put("interface", "eth" + i);
+            variables.put("back", Color.YELLOW);
+            variables.put("path", "eth" + i + ".jrb");
+            RrdGraphDef gdef = template.getRrdGraphDef(variables);
+            assertEquals(expected.startTime, gdef.startTime);
+            assertEquals("Traffic of eth" + i, gdef.title);
+            assertEquals(RrdGraphCache.createKey(expected, 0, 0, 0), RrdGraphCache.createKey(gdef, 0, 0, 0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() throws Exception {
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("start", 1300000000L);
+        new RrdGraphDefTemplate(GRAPH_TEMPLATE).getRrdGraphDef(variables);
+    }
+
+    @Test
+    public void testRrdDefFromMap() throws Exception {
+        RrdDefTemplate template = new RrdDefTemplate(RRD_TEMPLATE);
+        template.setVariable("path", "target/template.jrb");
+        template.setVariable("start", 1300000000L);
+        template.setVariable("rows", 600);
+        RrdDef expected = template.getRrdDef();
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("path", "target/template.jrb");
+        variables.put("start", 1300000000L);
+        variables.put("rows", 600);
+        assertEquals(expected.dump(), template.getRrdDef(variables).dump());
+    }
+}
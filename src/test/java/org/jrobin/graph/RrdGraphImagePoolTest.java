@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdGraphImagePoolTest {
+    private final RrdGraphImagePool pool = RrdGraphImagePool.getInstance();
+
+    @Before
+    public void setUp() {
+        pool.clear();
+    }
+
+    @After
+    public void tearDown() {
+        pool.setCapacity(RrdGraphImagePool.INITIAL_CAPACITY);
+        pool.clear();
+    }
+
+    @Test
+    public void testReuse() {
+        BufferedImage image = pool.borrowImage(100, 50);
+        image.setRGB(10, 10, 0xffff0000);
+        pool.returnImage(image);
+        assertEquals(1, pool.getImageCount());
+        assertEquals(100 * 50 * 4, pool.getByteCount());
+        assertNotSame(image, pool.borrowImage(50, 100));
+        assertSame(image, pool.borrowImage(100, 50));
+        assertEquals(0, image.getRGB(10, 10));
+        assertEquals(0, pool.getByteCount());
+    }
+
+    @Test
+    public void testCapacity() {
+        pool.setCapacity(100 * 50 * 4 * 2);
+        BufferedImage small1 = pool.borrowImage(100, 50), small2 = pool.borrowImage(100, 50);
+        BufferedImage large = pool.borrowImage(100, 100);
+        pool.returnImage(small1);
+        pool.returnImage(small2);
+        pool.returnImage(large);
+        assertEquals(1, pool.getImageCount());
+        assertSame(large, pool.borrowImage(100, 100));
+        pool.returnImage(pool.borrowImage(200, 200));
+        assertEquals(0, pool.getImageCount());
+    }
+}
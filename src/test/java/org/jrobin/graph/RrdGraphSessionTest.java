@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.FetchRequest;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdGraphSessionTest {
+    private static final String RRD_PATH = "target/graph-session.jrb";
+    private static final long START = 1300000000L / 300 * 300;
+    private static final long SPAN = 3600L;
+
+    private long lastUpdate;
+
+    @Before
+    public void setUp() throws Exception {
+        RrdDef def = new RrdDef(RRD_PATH, START - 300, 300);
+        def.addDatasource("in", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addDatasource("out", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 60);
+        def.addArchive("AVERAGE", 0.5, 6, 100);
+        new RrdDb(def).close();
+        lastUpdate = START - 300;
+        update(START + 2 * SPAN);
+    }
+
+    private void update(long end) throws Exception {
+        RrdDb db = new RrdDb(RRD_PATH);
+        Sample sample = db.createSample();
+        for (lastUpdate += 300; lastUpdate <= end; lastUpdate += 300) {
+            sample.setAndUpdate(lastUpdate + ":" + Math.sin(lastUpdate / 1800.0) + ":" + Math.cos(lastUpdate / 900.0));
+        }
+        lastUpdate -= 300;
+        db.close();
+    }
+
+    private static RrdGraphDef createGraphDef() {
+        RrdGraphDef gdef = new RrdGraphDef();
+        gdef.setTimeSpan(START, START + SPAN);
+        gdef.datasource("in", RRD_PATH, "in", "AVERAGE");
+        gdef.datasource("out", RRD_PATH, "out", "AVERAGE");
+        gdef.datasource("sum", "in,out,+");
+        gdef.area("in", Color.GREEN, "in");
+        gdef.line("sum", Color.RED, "sum");
+        gdef.gprint("out", "MAX", "%.2lf");
+        return gdef;
+    }
+
+    private static void assertSameGraph(long end, RrdGraphInfo info) throws Exception {
+        RrdGraphDef gdef = createGraphDef();
+        gdef.setTimeSpan(end - SPAN, end);
+        RrdGraphInfo expected = new RrdGraph(gdef).getRrdGraphInfo();
+        assertTrue("graph ending at " + end, Arrays.equals(expected.getBytes(), info.getBytes()));
+        assertEquals(expected.dump(), info.dump());
+    }
+
+    @Test
+    public void testSlidingWindow() throws Exception {
+        RrdGraphSession session = new RrdGraphSession(createGraphDef());
+        long end = START + 2 * SPAN;
+        assertSameGraph(end, session.render(end));
+        for (int i = 0; i < 4; i++) {
+            end += 300 * (i + 1);
+            update(end);
+            assertSameGraph(end, session.render(end));
+        }
+        // not updated yet
+        end += 600;
+        assertSameGraph(end, session.render(end));
+        // backwards
+        end -= 2 * SPAN;
+        assertSameGraph(end, session.render(end));
+    }
+
+    @Test
+    public void testArchiveChange() throws Exception {
+        RrdGraphSession session = new RrdGraphSession(createGraphDef());
+        long end = START + 2 * SPAN;
+        assertSameGraph(end, session.render(end));
+        // longer than the first archive
+        update(end + 6 * SPAN);
+        end += 5 * SPAN;
+        assertSameGraph(end, session.render(end));
+    }
+
+    @Test
+    public void testRowsCopied() throws Exception {
+        RrdDb db = new RrdDb(RRD_PATH, true);
+        try {
+            long end = START + 2 * SPAN;
+            FetchData previous = db.createFetchRequest("AVERAGE", end - SPAN, end).fetchData();
+            double[] previousValues = previous.getValues("in");
+            previousValues[previousValues.length - 1] = 42;
+            FetchRequest request = db.createFetchRequest("AVERAGE", end - SPAN + 600, end + 600);
+            FetchData data = request.fetchData(previous);
+            FetchData expected = request.fetchData();
+            assertTrue(Arrays.equals(expected.getTimestamps(), data.getTimestamps()));
+            double[] values = data.getValues("in");
+            // the last row of the previous data was complete, rows after it were not fetched yet
+            assertEquals(42, values[values.length - 3], 0);
+            values[values.length - 3] = expected.getValues("in")[values.length - 3];
+            assertTrue(Arrays.equals(expected.getValues("in"), values));
+            assertTrue(Arrays.equals(expected.getValues("out"), data.getValues("out")));
+        }
+        finally {
+            db.close();
+        }
+    }
+}
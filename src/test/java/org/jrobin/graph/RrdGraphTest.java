@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class RrdGraphTest {
+    private static final String RRD_PATH = "target/graph.jrb";
+    private static final long END = 1300000000L;
+    private static final long START = END - 86400L;
+
+    @BeforeClass
+    public static void createRrd() throws Exception {
+        RrdDef def = new RrdDef(RRD_PATH, START - 300, 300);
+        def.addDatasource("in", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addDatasource("out", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 600);
+        def.addArchive("MAX", 0.5, 1, 600);
+        RrdDb db = new RrdDb(def);
+        Sample sample = db.createSample();
+        for (long t = START; t <= END; t += 300) {
+            sample.setAndUpdate(t + ":" + Math.sin(t / 3600.0) + ":" + Math.cos(t / 7200.0));
+        }
+        db.close();
+    }
+
+    private List<RrdGraphDef> createGraphDefs() {
+        List<RrdGraphDef> gdefs = new ArrayList<RrdGraphDef>();
+        for (int i = 0; i < 6; i++) {
+            RrdGraphDef gdef = new RrdGraphDef();
+            gdef.setTimeSpan(i < 4 ? START : START + 3600, END);
+            gdef.setTitle("graph " + i);
+            String dsName = i % 2 == 0 ? "in" : "out";
+            gdef.datasource("a", RRD_PATH, dsName, "AVERAGE");
+            gdef.datasource("m", RRD_PATH, dsName, i % 3 == 0 ? "MAX" : "AVERAGE");
+            gdef.datasource("c", "a,m,+");
+            gdef.line("c", Color.RED, "sum");
+            gdef.gprint("m", "MAX", "%.2lf");
+            gdefs.add(gdef);
+        }
+        return gdefs;
+    }
+
+    @Test
+    public void testCreateGraphs() throws Exception {
+        RrdGraphInfo[] infos = RrdGraph.createGraphs(createGraphDefs(), 3);
+        List<RrdGraphDef> gdefs = createGraphDefs();
+        assertEquals(gdefs.size(), infos.length);
+        for (int i = 0; i < infos.length; i++) {
+            RrdGraphInfo expected = new RrdGraph(gdefs.get(i)).getRrdGraphInfo();
+            assertTrue("graph " + i, Arrays.equals(expected.getBytes(), infos[i].getBytes()));
+            assertEquals(expected.dump(), infos[i].dump());
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        byte[] expected = new RrdGraph(createGraphDefs().get(0)).getRrdGraphInfo().getBytes();
+        RrdGraphDef gdef = createGraphDefs().get(0);
+        gdef.setImageRetained(false);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        RrdGraphInfo info = new RrdGraph(gdef, stream).getRrdGraphInfo();
+        assertNull(info.getBytes());
+        assertEquals(expected.length, info.getByteCount());
+        assertTrue(Arrays.equals(expected, stream.toByteArray()));
+
+        gdef = createGraphDefs().get(0);
+        stream = new ByteArrayOutputStream();
+        info = new RrdGraph(gdef, Channels.newChannel(stream)).getRrdGraphInfo();
+        assertTrue(Arrays.equals(expected, info.getBytes()));
+        assertTrue(Arrays.equals(expected, stream.toByteArray()));
+    }
+
+    @Test
+    public void testFileNotRetained() throws Exception {
+        byte[] expected = new RrdGraph(createGraphDefs().get(0)).getRrdGraphInfo().getBytes();
+        RrdGraphDef gdef = createGraphDefs().get(0);
+        gdef.setFilename("target/graph.png");
+        gdef.setImageRetained(false);
+        RrdGraphInfo info = new RrdGraph(gdef).getRrdGraphInfo();
+        assertNull(info.getBytes());
+        assertEquals(expected.length, info.getByteCount());
+        assertEquals(expected.length, new File("target/graph.png").length());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRenderNotRetained() throws Exception {
+        RrdGraphDef gdef = createGraphDefs().get(0);
+        gdef.setImageRetained(false);
+        RrdGraph graph = new RrdGraph(gdef, new ByteArrayOutputStream());
+        graph.render(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).getGraphics());
+    }
+
+    @Test
+    public void testIndexedColors() throws Exception {
+        for (String format : new String[] {"png", "gif"}) {
+            RrdGraphDef gdef = createGraphDefs().get(0);
+            gdef.setImageFormat(format);
+            gdef.setAntiAliasing(true);
+            BufferedImage expected = readImage(new RrdGraph(gdef).getRrdGraphInfo());
+            gdef.setIndexedColors(true);
+            gdef.setCompressionLevel(9);
+            RrdGraphInfo info = new RrdGraph(gdef).getRrdGraphInfo();
+            if (format.equals("png")) {
+                // colour type of the IHDR chunk
+                assertEquals(3, info.getBytes()[25]);
+            }
+            assertSameImage(format, expected, readImage(info));
+        }
+    }
+
+    @Test
+    public void testIndexedColorsTransparent() throws Exception {
+        // leading transparent black pixels
+        assertNull(IndexedImage.create(3, 1, new int[] {0, 0, 0xffff0000}, new int[0]));
+        RrdGraphDef gdef = createGraphDefs().get(0);
+        gdef.setImageFormat("png");
+        gdef.setColor(RrdGraphConstants.COLOR_BACK, new Color(0, 0, 0, 0));
+        BufferedImage expected = readImage(new RrdGraph(gdef).getRrdGraphInfo());
+        gdef.setIndexedColors(true);
+        assertSameImage("transparent", expected, readImage(new RrdGraph(gdef).getRrdGraphInfo()));
+    }
+
+    @Test
+    public void testCompressionLevel() throws Exception {
+        RrdGraphDef gdef = createGraphDefs().get(1);
+        gdef.setImageFormat("png");
+        BufferedImage expected = readImage(new RrdGraph(gdef).getRrdGraphInfo());
+        for (int level = 0; level <= 9; level += 9) {
+            gdef.setCompressionLevel(level);
+            assertSameImage("level " + level, expected, readImage(new RrdGraph(gdef).getRrdGraphInfo()));
+        }
+    }
+
+    private static BufferedImage readImage(RrdGraphInfo info) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(info.getBytes()));
+    }
+
+    private static void assertSameImage(String message, BufferedImage expected, BufferedImage actual) {
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(message + " at " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testSvg() throws Exception {
+        RrdGraphDef gdef = createGraphDefs().get(0);
+        gdef.setImageFormat("svg");
+        RrdGraphInfo info = new RrdGraph(gdef).getRrdGraphInfo();
+        Element svg = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(info.getBytes())).getDocumentElement();
+        assertEquals("svg", svg.getTagName());
+        assertEquals(String.valueOf(info.getWidth()), svg.getAttribute("width"));
+        assertEquals(1, svg.getElementsByTagName("polyline").getLength());
+
+        gdef.setImageRetained(false);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        RrdGraphInfo streamedInfo = new RrdGraph(gdef, stream).getRrdGraphInfo();
+        assertNull(streamedInfo.getBytes());
+        assertEquals(info.getByteCount(), streamedInfo.getByteCount());
+        assertTrue(Arrays.equals(info.getBytes(), stream.toByteArray()));
+    }
+
+    @Test(expected = RrdException.class)
+    public void testCreateGraphsFailure() throws Exception {
+        List<RrdGraphDef> gdefs = createGraphDefs();
+        gdefs.get(2).datasource("x", "c,UNKNOWN_FUNCTION");
+        gdefs.get(2).line("x", Color.BLUE, null);
+        RrdGraph.createGraphs(gdefs, 2);
+    }
+
+    @Test(expected = RrdException.class)
+    public void testCreateGraphsInvalidThreadCount() throws Exception {
+        RrdGraph.createGraphs(createGraphDefs(), 0);
+    }
+
+    @Test
+    public void testCreateGraphsInterrupted() throws Exception {
+        Thread.currentThread().interrupt();
+        try {
+            RrdGraph.createGraphs(createGraphDefs(), 2);
+            fail();
+        }
+        catch (RrdException e) {
+            // the interrupt is kept for the caller
+            assertTrue(Thread.interrupted());
+        }
+        finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The OpenNMS Group, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *******************************************************************************/
+package org.jrobin.graph;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.GZIPOutputStream;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+
+/**
+ * Compares CPU time and size of graphs created as PNG and as SVG images, including data
+ * processing, rendering and encoding. Run with <code>java org.jrobin.graph.SvgBenchmark [iterations]</code>.
+ */
+public class SvgBenchmark {
+    private static final String RRD_PATH = "target/svg-benchmark.jrb";
+    private static final long END = 1300000000L;
+    private static final long START = END - 86400L;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        createRrd();
+        System.out.println("size      format  cpu ms/graph   bytes  gzipped");
+        for (int width : new int[] {400, 1200}) {
+            for (String format : new String[] {"png", "svg"}) {
+                run(width, format, iterations);
+            }
+        }
+    }
+
+    private static void createRrd() throws Exception {
+        RrdDef def = new RrdDef(RRD_PATH, START - 60, 60);
+        def.addDatasource("in", "GAUGE", 120, 0, Double.NaN);
+        def.addDatasource("out", "GAUGE", 120, 0, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 1440);
+        RrdDb db = new RrdDb(def);
+        Sample sample = db.createSample();
+        for (long t = START; t <= END; t += 60) {
+            sample.setAndUpdate(t + ":" + (5e6 + 4e6 * Math.sin(t / 9000.0)) + ":" + (2e6 + 1e6 * Math.cos(t / 3000.0)));
+        }
+        db.close();
+    }
+
+    private static RrdGraphDef createGraphDef(int width, String format) throws RrdException {
+        RrdGraphDef gdef = new RrdGraphDef();
+        gdef.setTimeSpan(START, END);
+        gdef.setWidth(width);
+        gdef.setHeight(width / 3);
+        gdef.setImageFormat(format);
+        gdef.setTitle("Traffic on eth0");
+        gdef.setVerticalLabel("bits per second");
+        gdef.datasource("in", RRD_PATH, "in", "AVERAGE");
+        gdef.datasource("out", RRD_PATH, "out", "AVERAGE");
+        gdef.area("in", new Color(0, 200, 0), "in");
+        gdef.line("out", Color.BLUE, "out", 1);
+        gdef.gprint("in", "AVERAGE", "avg in %.2lf %s");
+        gdef.gprint("in", "MAX", "max in %.2lf %s\\n");
+        gdef.gprint("out", "AVERAGE", "avg out %.2lf %s");
+        gdef.gprint("out", "MAX", "max out %.2lf %s\\n");
+        return gdef;
+    }
+
+    private static void run(int width, String format, int iterations) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        byte[] bytes = null;
+        for (int i = 0; i < iterations / 10; i++) {
+            bytes = new RrdGraph(createGraphDef(width, format)).getRrdGraphInfo().getBytes();
+        }
+        long start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            new RrdGraph(createGraphDef(width, format)).getRrdGraphInfo();
+        }
+        double millis = (threads.getCurrentThreadCpuTime() - start) / 1e6 / iterations;
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(bytes);
+        gzip.close();
+        System.out.println(String.format("%4dx%-4d %-7s %12.2f  %6d  %7d",
+                width, width / 3, format, millis, bytes.length, gzipped.size()));
+    }
+}